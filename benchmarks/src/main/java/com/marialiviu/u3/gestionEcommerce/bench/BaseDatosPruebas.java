@@ -0,0 +1,91 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * Base de datos de las herramientas de carga y de los benchmarks. Nunca es la
+ * del perfil de Maven con el que se empaquetó la aplicación:
+ * <ul>
+ * <li>por defecto, una H2 en memoria en modo MariaDB con el esquema creado por
+ * Hibernate, que desaparece al terminar;</li>
+ * <li>con {@code -D}{@value #URL}{@code =jdbc:mariadb://...}, una base de datos
+ * de pruebas dedicada (usuario y clave en {@value #USUARIO} y
+ * {@value #CLAVE}), con el esquema del script de creación; las migraciones
+ * pendientes se aplican al arrancar.</li>
+ * </ul>
+ * Las herramientas crean allí sus propios datos (p. ej. el cliente
+ * {@code BENCH0001} y los artículos {@code bench-*}).
+ */
+public final class BaseDatosPruebas {
+
+	public static final String URL = "bench.url";
+	public static final String USUARIO = "bench.usuario";
+	public static final String CLAVE = "bench.clave";
+
+	private BaseDatosPruebas() {
+	}
+
+	/**
+	 * Propiedades que sustituyen a las del perfil para usar una H2 en memoria.
+	 * @param nombre nombre de la base de datos H2; cada nombre empieza con las
+	 * tablas vacías.
+	 */
+	public static Map<String, Object> h2(String nombre) {
+		return Map.of(
+				"jakarta.persistence.jdbc.driver", "org.h2.Driver",
+				"jakarta.persistence.jdbc.url", "jdbc:h2:mem:" + nombre + ";MODE=MariaDB;DB_CLOSE_DELAY=-1",
+				"jakarta.persistence.jdbc.user", "sa",
+				"jakarta.persistence.jdbc.password", "",
+				"hibernate.dialect", "org.hibernate.dialect.H2Dialect",
+				"hibernate.hbm2ddl.auto", "create-drop",
+				"hibernate.show_sql", "false",
+				"hibernate.format_sql", "false",
+				"ecommerce.sql.instrumentar", "false");
+	}
+
+	/**
+	 * Abre la factoría contra la base de datos de {@value #URL} o, si no se ha
+	 * dado, contra una H2 en memoria.
+	 * @param nombre nombre de la base de datos H2.
+	 * @param extra propiedades que se añaden o sustituyen a las anteriores.
+	 */
+	public static EntityManagerFactory abrir(String nombre, Map<String, Object> extra) {
+		String url = System.getProperty(URL);
+		Map<String, Object> props = new HashMap<>();
+		if (url == null) {
+			props.putAll(h2(nombre));
+		} else {
+			props.put("jakarta.persistence.jdbc.url", url);
+			props.put("jakarta.persistence.jdbc.user", System.getProperty(USUARIO, ""));
+			props.put("jakarta.persistence.jdbc.password", System.getProperty(CLAVE, ""));
+			props.put("hibernate.show_sql", "false");
+		}
+		props.putAll(extra);
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu", props);
+		if (url == null) {
+			crearTablasSinEntidad(emf);
+		}
+		return emf;
+	}
+
+	/**
+	 * Hibernate sólo crea las tablas de las entidades; las que la aplicación
+	 * usa con SQL directo las crean en MariaDB las migraciones.
+	 */
+	public static void crearTablasSinEntidad(EntityManagerFactory emf) {
+		new UnitOfWork(emf).ejecutar(em -> {
+			em.createNativeQuery("CREATE TABLE IF NOT EXISTS outbox_compras ("
+					+ "id BIGINT AUTO_INCREMENT PRIMARY KEY, id_compra INT NOT NULL, "
+					+ "estado_anterior VARCHAR(10) NOT NULL, estado_nuevo VARCHAR(10) NOT NULL, "
+					+ "creado TIMESTAMP(3) NOT NULL)").executeUpdate();
+			em.createNativeQuery("CREATE TABLE IF NOT EXISTS posicion_diario ("
+					+ "nombre VARCHAR(50) PRIMARY KEY NOT NULL, secuencia BIGINT NOT NULL)").executeUpdate();
+		});
+	}
+}
@@ -0,0 +1,90 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Compara el cálculo del total de una compra con {@link Dinero} (céntimos en
+ * un {@code long}), con {@link BigDecimal} y con el {@code float} que se usaba
+ * antes, sobre las mismas líneas. Muestra nanosegundos por línea y la
+ * diferencia de cada total con el exacto.
+ * <p>
+ * Es una medida orientativa con bucle de calentamiento; las cifras finas
+ * deben sacarse con JMH. Uso: {@code DineroBenchmark [lineas] [repeticiones]}.
+ * </p>
+ */
+public class DineroBenchmark {
+
+	public static void main(String[] args) {
+		int lineas = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000;
+		int repeticiones = (args.length > 1) ? Integer.parseInt(args[1]) : 20_000;
+
+		Random r = new Random(42);
+		long[] centimos = new long[lineas];
+		int[] unidades = new int[lineas];
+		Dinero[] precios = new Dinero[lineas];
+		BigDecimal[] preciosBd = new BigDecimal[lineas];
+		float[] preciosF = new float[lineas];
+		for (int i = 0; i < lineas; i++) {
+			centimos[i] = 1 + r.nextInt(100_000);
+			unidades[i] = 1 + r.nextInt(10);
+			precios[i] = Dinero.deCentimos(centimos[i]);
+			preciosBd[i] = BigDecimal.valueOf(centimos[i], 2);
+			preciosF[i] = centimos[i] / 100f;
+		}
+
+		long sumidero = 0;
+		// calentamiento
+		for (int k = 0; k < repeticiones / 4; k++) {
+			sumidero += totalDinero(precios, unidades) + totalBigDecimal(preciosBd, unidades).scale()
+					+ (long) totalFloat(preciosF, unidades);
+		}
+
+		long t0 = System.nanoTime();
+		for (int k = 0; k < repeticiones; k++) sumidero += totalDinero(precios, unidades);
+		long t1 = System.nanoTime();
+		for (int k = 0; k < repeticiones; k++) sumidero += totalBigDecimal(preciosBd, unidades).scale();
+		long t2 = System.nanoTime();
+		for (int k = 0; k < repeticiones; k++) sumidero += (long) totalFloat(preciosF, unidades);
+		long t3 = System.nanoTime();
+
+		double n = (double) lineas * repeticiones;
+		BigDecimal exacto = totalBigDecimal(preciosBd, unidades);
+		System.out.printf("%-12s %10s %20s%n", "tipo", "ns/línea", "error del total");
+		System.out.printf("%-12s %10.2f %20s%n", "Dinero", (t1 - t0) / n,
+				Dinero.deCentimos(totalDinero(precios, unidades)).toBigDecimal().subtract(exacto).toPlainString());
+		System.out.printf("%-12s %10.2f %20s%n", "BigDecimal", (t2 - t1) / n, "0.00");
+		System.out.printf("%-12s %10.2f %20s%n", "float", (t3 - t2) / n,
+				new BigDecimal(Float.toString(totalFloat(preciosF, unidades))).subtract(exacto).toPlainString());
+		if (sumidero == 42) System.out.println();
+	}
+
+	/**
+	 * Mismo cálculo que {@code Compra.recalcularTotal()}.
+	 */
+	private static long totalDinero(Dinero[] precios, int[] unidades) {
+		long total = 0;
+		for (int i = 0; i < precios.length; i++) {
+			total = Math.addExact(total, Math.multiplyExact(precios[i].getCentimos(), unidades[i]));
+		}
+		return total;
+	}
+
+	private static BigDecimal totalBigDecimal(BigDecimal[] precios, int[] unidades) {
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < precios.length; i++) {
+			total = total.add(precios[i].multiply(BigDecimal.valueOf(unidades[i])));
+		}
+		return total;
+	}
+
+	private static float totalFloat(float[] precios, int[] unidades) {
+		float total = 0f;
+		for (int i = 0; i < precios.length; i++) {
+			total += unidades[i] * precios[i];
+		}
+		return total;
+	}
+}
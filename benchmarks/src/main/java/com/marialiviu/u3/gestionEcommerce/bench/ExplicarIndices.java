@@ -0,0 +1,150 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.Session;
+
+import com.marialiviu.u3.gestionEcommerce.service.ListadoService;
+import com.marialiviu.u3.gestionEcommerce.service.OrderStatusService;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Comprueba con {@code EXPLAIN} que la base de datos usa los índices de
+ * {@code compras} en las consultas por cliente y por estado de
+ * {@link ListadoService} y {@link OrderStatusService}. Termina con código 1 si
+ * alguna consulta no usa el índice esperado, también si el índice no existe o
+ * el plan no incluye la tabla.
+ * <p>
+ * Las consultas son el SQL equivalente al que genera Hibernate. Con tablas casi
+ * vacías el optimizador puede preferir recorrer la tabla, así que conviene
+ * lanzarlo con datos (p. ej. después de {@link OrderLoadGenerator}); antes se
+ * actualizan las estadísticas con {@code ANALYZE TABLE}. Entiende el plan de
+ * MariaDB (columna {@code key}) y el de H2 (comentario con el índice tras la
+ * tabla); {@code IndicesComprasTest} de la aplicación comprueba lo mismo
+ * contra H2 en cada {@code mvn test}. Uso: {@code ExplicarIndices}.
+ * </p>
+ */
+public class ExplicarIndices {
+
+	private static final String CLIENTE = "SELECT c.id, c.fecha_compra, c.estado, c.precio_total, COUNT(ac.id_articulo) "
+			+ "FROM compras c LEFT JOIN articulo_compra ac ON ac.id_compra = c.id "
+			+ "WHERE c.id_cliente = ? AND c.fecha_compra >= ? AND c.fecha_compra < ? "
+			+ "GROUP BY c.id, c.fecha_compra, c.estado, c.precio_total ORDER BY c.fecha_compra, c.id";
+
+	private static final String ESTADO = "SELECT c.id, c.id_cliente, c.fecha_compra, c.precio_total, COUNT(ac.id_articulo) "
+			+ "FROM compras c LEFT JOIN articulo_compra ac ON ac.id_compra = c.id "
+			+ "WHERE c.estado = ? AND c.fecha_compra < ? "
+			+ "GROUP BY c.id, c.id_cliente, c.fecha_compra, c.precio_total ORDER BY c.fecha_compra, c.id LIMIT 100";
+
+	private static final String TRANSICION = "SELECT c.fecha_compra, c.id FROM compras c "
+			+ "WHERE c.estado = ? AND c.fecha_compra < ? "
+			+ "AND (c.fecha_compra > ? OR (c.fecha_compra = ? AND c.id > ?)) "
+			+ "ORDER BY c.fecha_compra, c.id LIMIT 1000";
+
+	/**
+	 * Índice que usa H2 para la tabla {@code compras c} en el texto del plan.
+	 */
+	private static final Pattern INDICE_H2 = Pattern.compile("\"COMPRAS\" \"C\"\\s*/\\*\\s*([^:*]+)");
+
+	public static void main(String[] args) {
+		EntityManagerFactory emf = BaseDatosPruebas.abrir("explicar_indices", Map.of());
+		boolean ok;
+		try {
+			EntityManager em = emf.createEntityManager();
+			try {
+				ok = em.unwrap(Session.class).doReturningWork(ExplicarIndices::comprobar);
+			} finally {
+				em.close();
+			}
+		} finally {
+			emf.close();
+		}
+		System.out.println(ok ? "OK: todas las consultas usan su índice" : "FALLO");
+		if (!ok) System.exit(1);
+	}
+
+	/**
+	 * Explica las consultas, imprime el índice que usa cada una y comprueba
+	 * que es el esperado.
+	 * @param con conexión a MariaDB o a H2, con datos en {@code compras}.
+	 * @return verdadero si todas usan su índice.
+	 * @throws SQLException
+	 */
+	public static boolean comprobar(Connection con) throws SQLException {
+		String nif = "";
+		try (Statement st = con.createStatement()) {
+			st.execute("ANALYZE TABLE compras");
+			try (ResultSet rs = st.executeQuery("SELECT id_cliente FROM compras LIMIT 1")) {
+				if (rs.next()) nif = rs.getString(1);
+			}
+		}
+		Timestamp desde = Timestamp.valueOf("2000-01-01 00:00:00");
+		Timestamp ahora = new Timestamp(System.currentTimeMillis());
+
+		boolean ok = true;
+		ok &= explicar(con, "compras de un cliente", CLIENTE, "idx_compras_cliente_fecha", nif, desde, ahora);
+		ok &= explicar(con, "compras en un estado", ESTADO, "idx_compras_estado_fecha", "Pendiente", ahora);
+		ok &= explicar(con, "página de transición", TRANSICION, "idx_compras_estado_fecha", "Pendiente", ahora,
+				desde, desde, 0);
+		return ok;
+	}
+
+	/**
+	 * Imprime el plan de la consulta para la tabla compras y comprueba que usa
+	 * el índice esperado.
+	 */
+	private static boolean explicar(Connection con, String nombre, String sql, String indice, Object... params)
+			throws SQLException {
+		boolean h2 = "H2".equals(con.getMetaData().getDatabaseProductName());
+		try (PreparedStatement ps = con.prepareStatement("EXPLAIN " + sql)) {
+			for (int i = 0; i < params.length; i++) {
+				ps.setObject(i + 1, params[i]);
+			}
+			if (h2) return explicarH2(ps, nombre, indice);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					if (!"c".equals(rs.getString("table"))) continue;
+					String clave = rs.getString("key");
+					boolean usa = indice.equals(clave);
+					System.out.printf("%-22s %-4s key=%-26s type=%-6s rows=%-8s %s%n", nombre, usa ? "OK" : "NO",
+							clave, rs.getString("type"), rs.getString("rows"), rs.getString("Extra"));
+					return usa;
+				}
+			}
+		}
+		System.out.printf("%-22s NO   sin fila para compras en el plan%n", nombre);
+		return false;
+	}
+
+	/**
+	 * En H2 el plan es una sola fila con el SQL reescrito, donde a cada tabla
+	 * le sigue un comentario con el índice que recorre, p. ej.
+	 * {@code "COMPRAS" "C" /* PUBLIC.IDX_COMPRAS_ESTADO_FECHA: ESTADO = ?1}.
+	 */
+	private static boolean explicarH2(PreparedStatement ps, String nombre, String indice) throws SQLException {
+		String plan;
+		try (ResultSet rs = ps.executeQuery()) {
+			plan = rs.next() ? rs.getString(1) : "";
+		}
+		Matcher m = INDICE_H2.matcher(plan.toUpperCase(Locale.ROOT));
+		if (!m.find()) {
+			System.out.printf("%-22s NO   sin índice para compras en el plan: %s%n", nombre, plan);
+			return false;
+		}
+		String clave = m.group(1).trim();
+		boolean usa = clave.endsWith("." + indice.toUpperCase(Locale.ROOT));
+		System.out.printf("%-22s %-4s key=%s%n", nombre, usa ? "OK" : "NO", clave);
+		return usa;
+	}
+}
@@ -0,0 +1,109 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.OrderIngestService;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Mide compras/segundo de {@link OrderIngestService} con 1, 10 y 100 líneas por
+ * compra, sin lotes JDBC ({@code batch_size=1}, un INSERT por fila como hacía
+ * {@code createCompraInteractive}) y con el {@code db.batch.size} del perfil.
+ * <p>
+ * Escribe en la base de datos de {@link BaseDatosPruebas} (H2 en memoria si no
+ * se indica otra): crea (si no existen) el cliente {@value #NIF_BENCH} y 100
+ * artículos de prueba.
+ * Uso: {@code OrderIngestBenchmark [comprasPorRonda]}.
+ * </p>
+ */
+public class OrderIngestBenchmark {
+
+	static final String NIF_BENCH = "BENCH0001";
+	private static final int[] LINEAS = { 1, 10, 100 };
+
+	public static void main(String[] args) {
+		int compras = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+
+		System.out.printf("%-8s %14s %14s%n", "líneas", "sin lotes/s", "con lotes/s");
+		// la segunda factoría usa el esquema que ha creado (o validado) la primera
+		EntityManagerFactory despues = BaseDatosPruebas.abrir("ingesta", Map.of());
+		EntityManagerFactory antes = BaseDatosPruebas.abrir("ingesta",
+				Map.of("hibernate.jdbc.batch_size", "1", "hibernate.hbm2ddl.auto", "none"));
+		try {
+			List<Integer> articulos = prepararDatos(despues);
+			for (int lineas : LINEAS) {
+				List<NuevaCompra> lote = generar(compras, lineas, articulos);
+				// una ronda de calentamiento por configuración
+				medir(antes, lote);
+				medir(despues, lote);
+				double a = medir(antes, lote);
+				double d = medir(despues, lote);
+				System.out.printf("%-8d %14.1f %14.1f%n", lineas, a, d);
+			}
+		} finally {
+			antes.close();
+			despues.close();
+		}
+	}
+
+	/**
+	 * Inserta el lote y devuelve compras por segundo.
+	 */
+	private static double medir(EntityManagerFactory emf, List<NuevaCompra> lote) {
+		OrderIngestService ingest = new OrderIngestService(emf);
+		long t0 = System.nanoTime();
+		int n = ingest.ingest(lote);
+		long t1 = System.nanoTime();
+		return n / ((t1 - t0) / 1e9);
+	}
+
+	private static List<NuevaCompra> generar(int compras, int lineas, List<Integer> articulos) {
+		List<NuevaCompra> lote = new ArrayList<>(compras);
+		for (int i = 0; i < compras; i++) {
+			List<NuevaCompra.Linea> ls = new ArrayList<>(lineas);
+			for (int j = 0; j < lineas; j++) {
+				ls.add(new NuevaCompra.Linea(articulos.get((i + j) % articulos.size()), 1 + j % 3));
+			}
+			lote.add(new NuevaCompra(NIF_BENCH, ls));
+		}
+		return lote;
+	}
+
+	/**
+	 * Crea el cliente y los 100 artículos del benchmark si faltan.
+	 * @return ids de los artículos de prueba.
+	 */
+	static List<Integer> prepararDatos(EntityManagerFactory emf) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			em.getTransaction().begin();
+			if (em.find(Cliente.class, NIF_BENCH) == null) {
+				Cliente c = new Cliente(NIF_BENCH, "Cliente benchmark", "bench@example.com");
+				c.setInformacionFiscal(new InformacionFiscal(NIF_BENCH, "000000000", "Benchmark"));
+				em.persist(c);
+			}
+			List<Integer> ids = em.createQuery("SELECT a.id FROM Articulo a WHERE a.nombre LIKE 'bench-%' ORDER BY a.id",
+					Integer.class).setMaxResults(100).getResultList();
+			List<Integer> todos = new ArrayList<>(ids);
+			for (int i = ids.size(); i < 100; i++) {
+				Articulo a = new Articulo("bench-" + i, "Artículo de benchmark", Dinero.deCentimos(125 + 100L * i), 1_000_000);
+				em.persist(a);
+				em.flush();
+				todos.add(a.getId());
+			}
+			em.getTransaction().commit();
+			return todos;
+		} finally {
+			em.close();
+		}
+	}
+}
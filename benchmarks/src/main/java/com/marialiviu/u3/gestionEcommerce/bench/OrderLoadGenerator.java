@@ -0,0 +1,97 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.pool.MetricasPool;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.OrderService;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Generador de carga para {@link OrderService}: simula clientes, cada uno en
+ * su hilo virtual, que hacen pedidos uno detrás de otro hasta completar el
+ * total. Un pedido crea una compra de 1 a 3 líneas, a veces le añade otra
+ * línea y la marca como ENVIADO. Al final imprime pedidos por segundo, la
+ * latencia p50/p99 de un pedido completo (incluida la espera por conexión) y
+ * el estado del pool.
+ * <p>
+ * Escribe en la base de datos de {@link BaseDatosPruebas}. Uso:
+ * {@code OrderLoadGenerator [pedidos] [clientes] [concurrenciaJdbc]}; la
+ * concurrencia JDBC por defecto es la del pool.
+ * </p>
+ */
+public class OrderLoadGenerator {
+
+	public static void main(String[] args) throws InterruptedException {
+		int pedidos = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+		int clientes = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000;
+
+		EntityManagerFactory emf = BaseDatosPruebas.abrir("carga", Map.of());
+		try {
+			OrderService servicio = (args.length > 2) ? new OrderService(emf, Integer.parseInt(args[2]))
+					: new OrderService(emf);
+			List<Integer> articulos = OrderIngestBenchmark.prepararDatos(emf);
+
+			long[] latencias = new long[pedidos];
+			AtomicInteger siguiente = new AtomicInteger();
+			LongAdder errores = new LongAdder();
+			long t0 = System.nanoTime();
+			try (ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor()) {
+				for (int i = 0; i < clientes; i++) {
+					hilos.submit(() -> {
+						int n;
+						while ((n = siguiente.getAndIncrement()) < pedidos) {
+							long inicio = System.nanoTime();
+							try {
+								pedido(servicio, articulos);
+								latencias[n] = System.nanoTime() - inicio;
+							} catch (RuntimeException e) {
+								latencias[n] = -1;
+								errores.increment();
+							}
+						}
+					});
+				}
+			}
+			long t1 = System.nanoTime();
+
+			long[] ok = Arrays.stream(latencias).filter(l -> l >= 0).sorted().toArray();
+			System.out.printf("%d pedidos de %d clientes en %.1f s: %.0f pedidos/s, %d errores%n", pedidos, clientes,
+					(t1 - t0) / 1e9,
+					ok.length / ((t1 - t0) / 1e9), errores.sum());
+			if (ok.length > 0) {
+				System.out.printf("latencia por pedido: p50 %.2f ms, p99 %.2f ms, máx %.2f ms%n",
+						ok[ok.length / 2] / 1e6, ok[Math.min(ok.length - 1, (int) (ok.length * 0.99))] / 1e6,
+						ok[ok.length - 1] / 1e6);
+			}
+			MetricasPool.imprimir(System.out);
+		} finally {
+			emf.close();
+		}
+	}
+
+	private static void pedido(OrderService servicio, List<Integer> articulos) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		List<NuevaCompra.Linea> lineas = new ArrayList<>();
+		int n = rnd.nextInt(1, 4);
+		for (int j = 0; j < n; j++) {
+			lineas.add(new NuevaCompra.Linea(articulos.get(rnd.nextInt(articulos.size())), rnd.nextInt(1, 4)));
+		}
+		Compra c = servicio.crear(new NuevaCompra(OrderIngestBenchmark.NIF_BENCH, lineas));
+		if (rnd.nextInt(4) == 0) {
+			servicio.anadirLineas(c.getId(),
+					List.of(new NuevaCompra.Linea(articulos.get(rnd.nextInt(articulos.size())), 1)));
+		}
+		servicio.cambiarEstado(c.getId(), Compra.EstadoCompra.ENVIADO);
+	}
+}
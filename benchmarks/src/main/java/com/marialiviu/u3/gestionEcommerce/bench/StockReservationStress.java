@@ -0,0 +1,120 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.HotStockCounter;
+import com.marialiviu.u3.gestionEcommerce.service.StockInsuficienteException;
+import com.marialiviu.u3.gestionEcommerce.service.StockReservationService;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Prueba de estrés de {@link StockReservationService}: muchos hilos compran
+ * a la vez un mismo artículo hasta agotarlo y al final se comprueba que
+ * {@code stock final = stock inicial - unidades vendidas} y que nunca se vende
+ * de más. Se ejecuta primero contra la tabla y después con el artículo
+ * caliente, vendiendo de memoria ({@link HotStockCounter}).
+ * <p>
+ * Escribe en la base de datos de {@link BaseDatosPruebas}; la misma comprobación contra H2 se
+ * ejecuta en cada {@code mvn test} de la aplicación
+ * ({@code StockReservationServiceTest}). Uso:
+ * {@code StockReservationStress [hilos] [stockInicial]}.
+ * </p>
+ */
+public class StockReservationStress {
+
+	public static void main(String[] args) throws InterruptedException {
+		int hilos = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+		int stockInicial = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+
+		EntityManagerFactory emf = BaseDatosPruebas.abrir("estres_stock", Map.of());
+		boolean ok = true;
+		try {
+			ok &= ejecutar(emf, hilos, stockInicial, false);
+			ok &= ejecutar(emf, hilos, stockInicial, true);
+		} finally {
+			emf.close();
+		}
+		System.out.println(ok ? "OK: sin sobreventa" : "FALLO");
+		if (!ok) System.exit(1);
+	}
+
+	private static boolean ejecutar(EntityManagerFactory emf, int hilos, int stockInicial, boolean enMemoria)
+			throws InterruptedException {
+		int id = crearArticulo(emf, stockInicial);
+		HotStockCounter calientes = HotStockCounter.de(emf);
+		if (enMemoria) calientes.marcarCaliente(id);
+		StockReservationService stock = new StockReservationService(emf);
+
+		LongAdder vendidas = new LongAdder();
+		LongAdder reservas = new LongAdder();
+		LongAdder rechazos = new LongAdder();
+		List<Thread> ts = new ArrayList<>();
+		long t0 = System.nanoTime();
+		for (int h = 0; h < hilos; h++) {
+			Thread t = new Thread(() -> {
+				int fallosSeguidos = 0;
+				while (fallosSeguidos < 20) {
+					int uds = 1 + ThreadLocalRandom.current().nextInt(3);
+					EntityManager em = emf.createEntityManager();
+					try {
+						em.getTransaction().begin();
+						stock.reservar(em, Map.of(id, uds));
+						em.getTransaction().commit();
+						vendidas.add(uds);
+						reservas.increment();
+						fallosSeguidos = 0;
+					} catch (StockInsuficienteException e) {
+						rechazos.increment();
+						fallosSeguidos++;
+					} finally {
+						if (em.getTransaction().isActive()) em.getTransaction().rollback();
+						em.close();
+					}
+				}
+			});
+			ts.add(t);
+			t.start();
+		}
+		for (Thread t : ts) t.join();
+		double s = (System.nanoTime() - t0) / 1e9;
+		calientes.devolverATabla(id);
+
+		int stockFinal = leerStock(emf, id);
+		boolean ok = stockFinal >= 0 && stockFinal == stockInicial - vendidas.sum();
+		System.out.printf("%-8s hilos=%d vendidas=%d rechazos=%d stockFinal=%d (%.0f reservas/s) %s%n",
+				enMemoria ? "memoria" : "tabla", hilos, vendidas.sum(), rechazos.sum(), stockFinal,
+				reservas.sum() / s, ok ? "OK" : "INCOHERENTE");
+		return ok;
+	}
+
+	private static int crearArticulo(EntityManagerFactory emf, int stock) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			em.getTransaction().begin();
+			Articulo a = new Articulo("stress-stock", "Artículo de la prueba de estrés", Dinero.deCentimos(100), stock);
+			em.persist(a);
+			em.getTransaction().commit();
+			return a.getId();
+		} finally {
+			em.close();
+		}
+	}
+
+	private static int leerStock(EntityManagerFactory emf, int id) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			return em.createQuery("SELECT a.stock FROM Articulo a WHERE a.id = :id", Integer.class)
+					.setParameter("id", id).getSingleResult();
+		} finally {
+			em.close();
+		}
+	}
+}
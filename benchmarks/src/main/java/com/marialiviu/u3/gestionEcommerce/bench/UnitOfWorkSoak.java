@@ -0,0 +1,116 @@
+package com.marialiviu.u3.gestionEcommerce.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Prueba de larga duración de {@link UnitOfWork}: ejecuta muchas operaciones
+ * pequeñas (una de cada cuatro crea un artículo, el resto cambia el stock de
+ * uno existente) y cada ventana de operaciones imprime la memoria ocupada
+ * tras un GC y la latencia p50/p99 de la transacción. Con una unidad de
+ * trabajo por operación ambas deben quedarse planas.
+ * <p>
+ * Con el modo {@code em-unico} repite la prueba con un solo EntityManager
+ * para toda la ejecución, como hacía antes el menú, para comparar: el
+ * contexto de persistencia crece y cada commit revisa más entidades.
+ * </p>
+ * <p>
+ * Escribe en la base de datos de {@link BaseDatosPruebas}. Uso:
+ * {@code UnitOfWorkSoak [operaciones] [uow|em-unico]}.
+ * </p>
+ */
+public class UnitOfWorkSoak {
+
+	private static final int VENTANA = 10_000;
+	private static final int ARTICULOS_INICIALES = 1_000;
+
+	public static void main(String[] args) {
+		int operaciones = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+		boolean emUnico = args.length > 1 && args[1].equals("em-unico");
+
+		EntityManagerFactory emf = BaseDatosPruebas.abrir("larga_duracion", Map.of());
+		try {
+			UnitOfWork uow = new UnitOfWork(emf);
+			int[] ids = prepararDatos(uow);
+			System.out.printf("%s, %d operaciones%n", emUnico ? "EntityManager único" : "EntityManager por operación",
+					operaciones);
+			System.out.printf("%10s %12s %10s %10s %10s%n", "ops", "heap MB", "p50 µs", "p99 µs", "ops/s");
+			if (emUnico) {
+				EntityManager em = emf.createEntityManager();
+				try {
+					ejecutar(operaciones, ids, trabajo -> {
+						em.getTransaction().begin();
+						trabajo.accept(em);
+						em.getTransaction().commit();
+					});
+				} finally {
+					em.close();
+				}
+			} else {
+				ejecutar(operaciones, ids, uow::ejecutar);
+			}
+		} finally {
+			emf.close();
+		}
+	}
+
+	private static int[] prepararDatos(UnitOfWork uow) {
+		return uow.enTransaccion(em -> {
+			int[] ids = new int[ARTICULOS_INICIALES];
+			for (int i = 0; i < ids.length; i++) {
+				Articulo a = new Articulo("soak-" + i, "prueba de larga duración", Dinero.de("9.99"), 1_000_000);
+				em.persist(a);
+				ids[i] = a.getId();
+			}
+			return ids;
+		});
+	}
+
+	private static void ejecutar(int operaciones, int[] ids, Consumer<Consumer<EntityManager>> transaccion) {
+		MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+		long[] latencias = new long[VENTANA];
+		int n = 0;
+		long inicioVentana = System.nanoTime();
+		for (int op = 1; op <= operaciones; op++) {
+			ThreadLocalRandom rnd = ThreadLocalRandom.current();
+			Consumer<EntityManager> trabajo;
+			if (op % 4 == 0) {
+				int i = op;
+				trabajo = em -> em.persist(new Articulo("soak-n" + i, "creado en la prueba", Dinero.de("1.00"), 10));
+			} else {
+				int id = ids[rnd.nextInt(ids.length)];
+				int delta = rnd.nextInt(-5, 6);
+				trabajo = em -> {
+					Articulo a = em.find(Articulo.class, id);
+					a.setStock(a.getStock() + delta);
+				};
+			}
+			long t0 = System.nanoTime();
+			transaccion.accept(trabajo);
+			latencias[n++] = System.nanoTime() - t0;
+
+			if (n == VENTANA || op == operaciones) {
+				long duracion = System.nanoTime() - inicioVentana;
+				long[] v = Arrays.copyOf(latencias, n);
+				Arrays.sort(v);
+				System.gc();
+				long heap = memoria.getHeapMemoryUsage().getUsed();
+				System.out.printf("%10d %12.1f %10d %10d %10.0f%n", op, heap / 1048576.0, v[n / 2] / 1_000,
+						v[Math.min(n - 1, (int) (n * 0.99))] / 1_000, n * 1e9 / duracion);
+				n = 0;
+				inicioVentana = System.nanoTime();
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.marialiviu.u3.gestionEcommerce.bench.BaseDatosPruebas;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.OrderIngestService;
+import com.marialiviu.u3.gestionEcommerce.service.OrderService;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * Base de datos compartida por los benchmarks: la unidad de persistencia de
+ * la aplicación apuntando a una H2 en memoria en modo MariaDB, con el esquema
+ * creado por Hibernate y unos datos de partida (clientes, artículos con stock
+ * de sobra y compras de tres líneas).
+ */
+@State(Scope.Benchmark)
+public class BaseDatosBenchmark {
+
+	static final int CLIENTES = 100;
+	static final int ARTICULOS = 1_000;
+	static final int COMPRAS = 2_000;
+
+	/**
+	 * Propiedades que sustituyen a las del perfil de Maven con el que se
+	 * empaquetó la aplicación.
+	 */
+	static final Map<String, Object> H2 = h2("benchmarks");
+
+	/**
+	 * Las mismas propiedades con otra base de datos en memoria, para que cada
+	 * benchmark empiece con las tablas vacías.
+	 * @param nombre nombre de la base de datos H2.
+	 */
+	static Map<String, Object> h2(String nombre) {
+		return BaseDatosPruebas.h2(nombre);
+	}
+
+	EntityManagerFactory emf;
+	UnitOfWork uow;
+	OrderService servicio;
+	final List<String> nifs = new ArrayList<>();
+	final List<Integer> articulos = new ArrayList<>();
+	int primeraCompra;
+	int ultimaCompra;
+
+	@Setup(Level.Trial)
+	public void arrancar() {
+		emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu", H2);
+		uow = new UnitOfWork(emf);
+		servicio = new OrderService(emf);
+		BaseDatosPruebas.crearTablasSinEntidad(emf);
+		uow.ejecutar(em -> {
+			for (int i = 0; i < CLIENTES; i++) {
+				String nif = String.format("B%08d", i);
+				Cliente c = new Cliente(nif, "Cliente " + i, "cliente" + i + "@example.com");
+				c.setInformacionFiscal(new InformacionFiscal(nif, "600000000", "Calle " + i));
+				em.persist(c);
+				nifs.add(nif);
+			}
+			for (int i = 0; i < ARTICULOS; i++) {
+				Articulo a = new Articulo("jmh-" + i, "Artículo " + i, Dinero.deCentimos(100 + i), 1_000_000_000);
+				em.persist(a);
+				articulos.add(a.getId());
+			}
+		});
+		List<NuevaCompra> compras = new ArrayList<>(COMPRAS);
+		for (int i = 0; i < COMPRAS; i++) {
+			compras.add(new NuevaCompra(nifs.get(i % CLIENTES), lineas(3, i)));
+		}
+		new OrderIngestService(emf).ingest(compras);
+		primeraCompra = uow.soloLectura(em -> em.createQuery("SELECT MIN(c.id) FROM Compra c", Integer.class)
+				.getSingleResult());
+		ultimaCompra = uow.soloLectura(em -> em.createQuery("SELECT MAX(c.id) FROM Compra c", Integer.class)
+				.getSingleResult());
+	}
+
+	@TearDown(Level.Trial)
+	public void parar() {
+		emf.close();
+	}
+
+	List<NuevaCompra.Linea> lineas(int n, int desde) {
+		List<NuevaCompra.Linea> ls = new ArrayList<>(n);
+		for (int j = 0; j < n; j++) {
+			ls.add(new NuevaCompra.Linea(articulos.get((desde + j) % articulos.size()), 1));
+		}
+		return ls;
+	}
+
+	int articuloAlAzar() {
+		return articulos.get(ThreadLocalRandom.current().nextInt(articulos.size()));
+	}
+
+	String clienteAlAzar() {
+		return nifs.get(ThreadLocalRandom.current().nextInt(nifs.size()));
+	}
+
+	/**
+	 * Una de las compras creadas al arrancar.
+	 */
+	int compraAlAzar() {
+		return ThreadLocalRandom.current().nextInt(primeraCompra, ultimaCompra + 1);
+	}
+}
@@ -0,0 +1,85 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marialiviu.u3.gestionEcommerce.busqueda.IndiceArticulos;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * Búsquedas en el índice de artículos en memoria con un catálogo sintético
+ * (un millón de artículos por defecto) indexado directamente, sin pasar por la
+ * base de datos. Las consultas van de una palabra rara ({@code ref1234}) a
+ * varias palabras frecuentes, que aparecen en un 2-5 % del catálogo cada una,
+ * y un prefijo con muchas expansiones ({@code modelo 2s}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BusquedaBenchmark {
+
+	private static final String[] OBJETOS = ("mesa silla lámpara sofá cojín alfombra espejo estantería armario cama "
+			+ "colchón almohada sábana toalla cortina reloj jarrón maceta vela marco taza plato vaso cuchillo tenedor "
+			+ "cuchara sartén olla cazo tetera cafetera tostadora batidora licuadora horno microondas nevera lavadora "
+			+ "secadora plancha aspiradora ventilador estufa radiador").split(" ");
+
+	private static final String[] ADJETIVOS = ("roja azul verde negra blanca gris grande pequeña moderna clásica "
+			+ "nórdica rústica elegante práctica ligera resistente plegable extensible redonda cuadrada").split(" ");
+
+	@Param({ "1000000" })
+	int articulos;
+
+	@Param({ "ref1234", "cafetera", "mesa roja", "lampara moder", "silla nórdica plegable", "tetera azul pequeña",
+			"modelo 2s" })
+	String consulta;
+
+	EntityManagerFactory emf;
+	IndiceArticulos indice;
+
+	@Setup(Level.Trial)
+	public void indexar() {
+		emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu", BaseDatosBenchmark.h2("busqueda"));
+		indice = IndiceArticulos.de(emf);
+		Random r = new Random(1);
+		for (int i = 0; i < articulos; i++) {
+			String nombre = OBJETOS[r.nextInt(OBJETOS.length)] + " " + ADJETIVOS[r.nextInt(ADJETIVOS.length)]
+					+ " modelo " + Integer.toString(i, 36);
+			String descripcion = "de " + OBJETOS[r.nextInt(OBJETOS.length)] + " "
+					+ ADJETIVOS[r.nextInt(ADJETIVOS.length)] + " ref" + r.nextInt(100_000);
+			indice.indexar(i + 1, 0, nombre, descripcion);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void parar() {
+		emf.close();
+	}
+
+	/**
+	 * Los diez mejores resultados, como el menú de la aplicación.
+	 */
+	@Benchmark
+	public List<IndiceArticulos.Resultado> buscar() {
+		return indice.buscar(consulta, 10);
+	}
+}
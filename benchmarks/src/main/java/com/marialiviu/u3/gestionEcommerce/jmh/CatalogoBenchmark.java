@@ -0,0 +1,79 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marialiviu.u3.gestionEcommerce.catalogo.CatalogoMapeado;
+import com.marialiviu.u3.gestionEcommerce.catalogo.ExportadorCatalogo;
+import com.marialiviu.u3.gestionEcommerce.catalogo.InstantaneaCatalogo;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+
+/**
+ * Precio y stock de un artículo leídos de la instantánea proyectada en
+ * memoria frente a {@code em.find} (servido por la caché de segundo nivel),
+ * y lo que cuesta exportar la instantánea. Con {@code -prof gc} se ve que la
+ * consulta a la instantánea no reserva memoria.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogoBenchmark {
+
+	Path fichero;
+	CatalogoMapeado catalogo;
+
+	@Setup(Level.Trial)
+	public void exportar(BaseDatosBenchmark bd) throws IOException {
+		fichero = Files.createTempFile("catalogo", ".bin");
+		new ExportadorCatalogo(bd.emf).exportar(fichero);
+		catalogo = CatalogoMapeado.abrir(fichero, 3600);
+	}
+
+	@TearDown(Level.Trial)
+	public void borrar() throws IOException {
+		catalogo.close();
+		Files.deleteIfExists(fichero);
+	}
+
+	@Benchmark
+	public long instantanea(BaseDatosBenchmark bd) {
+		int id = bd.articuloAlAzar();
+		InstantaneaCatalogo cat = catalogo.get();
+		int p = cat.posicion(id);
+		return cat.precioCentimos(p) + cat.stock(p);
+	}
+
+	@Benchmark
+	public long findArticulo(BaseDatosBenchmark bd) {
+		int id = bd.articuloAlAzar();
+		Articulo a = bd.uow.soloLectura(em -> em.find(Articulo.class, id));
+		return a.getPrecioActual().getCentimos() + a.getStock();
+	}
+
+	/**
+	 * Exportación completa de los artículos de partida.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int exportarCatalogo(BaseDatosBenchmark bd) {
+		return new ExportadorCatalogo(bd.emf).exportar(fichero);
+	}
+}
@@ -0,0 +1,80 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marialiviu.u3.gestionEcommerce.cache.CacheClientes;
+import com.marialiviu.u3.gestionEcommerce.cache.ClienteInstantanea;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.OrderService;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * Crear una compra de una línea (el camino del checkout) y leer un cliente,
+ * con la {@link CacheClientes} activa y desactivada ({@code clientes=0}). Cada
+ * caso abre su propia factoría sobre la base de datos de
+ * {@link BaseDatosBenchmark}, porque el tamaño de la caché se lee al crearla.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientesBenchmark {
+
+	/** Entradas de la caché de clientes; 0 la desactiva. */
+	@Param({ "10000", "0" })
+	int clientes;
+
+	EntityManagerFactory emf;
+	CacheClientes cache;
+	OrderService servicio;
+
+	@Setup(Level.Trial)
+	public void arrancar(BaseDatosBenchmark bd) {
+		Map<String, Object> props = new HashMap<>(BaseDatosBenchmark.H2);
+		// las tablas y los datos ya los ha creado BaseDatosBenchmark
+		props.put("hibernate.hbm2ddl.auto", "none");
+		props.put(CacheClientes.MAXIMO, String.valueOf(clientes));
+		props.put(CacheClientes.ESCRITURA_DIFERIDA_MS, "0");
+		emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu", props);
+		cache = CacheClientes.de(emf);
+		servicio = new OrderService(emf);
+	}
+
+	@TearDown(Level.Trial)
+	public void parar() {
+		emf.close();
+	}
+
+	@Benchmark
+	public Compra crearCompra(BaseDatosBenchmark bd) {
+		int articulo = ThreadLocalRandom.current().nextInt(BaseDatosBenchmark.ARTICULOS);
+		return servicio.crear(new NuevaCompra(bd.clienteAlAzar(), bd.lineas(1, articulo)));
+	}
+
+	@Benchmark
+	public ClienteInstantanea leerCliente(BaseDatosBenchmark bd) {
+		return cache.get(bd.clienteAlAzar());
+	}
+}
@@ -0,0 +1,119 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Escrituras de compras: crear una compra con N líneas (incluye la reserva de
+ * stock), cambiar su estado y obtener el siguiente id de compra.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompraBenchmark {
+
+	/**
+	 * Pedido a crear, con el número de líneas como parámetro.
+	 */
+	@State(Scope.Benchmark)
+	public static class Pedido {
+
+		@Param({ "1", "10", "100" })
+		int lineas;
+
+		NuevaCompra compra;
+
+		@Setup(Level.Trial)
+		public void preparar(BaseDatosBenchmark bd) {
+			compra = new NuevaCompra(bd.clienteAlAzar(), bd.lineas(lineas, 0));
+		}
+	}
+
+	/**
+	 * EntityManager con una transacción abierta en la que sólo se piden ids:
+	 * las compras se desconectan sin llegar a insertarse.
+	 */
+	@State(Scope.Thread)
+	public static class Generador {
+
+		EntityManager em;
+		Cliente cliente;
+
+		@Setup(Level.Trial)
+		public void preparar(BaseDatosBenchmark bd) {
+			em = bd.emf.createEntityManager();
+			em.getTransaction().begin();
+			cliente = em.getReference(Cliente.class, bd.clienteAlAzar());
+		}
+
+		@TearDown(Level.Trial)
+		public void cerrar() {
+			em.getTransaction().rollback();
+			em.close();
+		}
+	}
+
+	/**
+	 * Compra a la que se cambia el estado. Como sólo se puede avanzar, antes de
+	 * cada llamada se elige una al azar y se devuelve a PENDIENTE.
+	 */
+	@State(Scope.Thread)
+	public static class Transicion {
+
+		int idCompra;
+
+		@Setup(Level.Invocation)
+		public void elegir(BaseDatosBenchmark bd) {
+			idCompra = bd.compraAlAzar();
+			bd.uow.ejecutar(em -> em.createQuery("UPDATE Compra c SET c.estado = :estado WHERE c.id = :id")
+					.setParameter("estado", Compra.EstadoCompra.PENDIENTE).setParameter("id", idCompra)
+					.executeUpdate());
+		}
+	}
+
+	@Benchmark
+	public Compra crearCompra(BaseDatosBenchmark bd, Pedido p) {
+		return bd.servicio.crear(p.compra);
+	}
+
+	@Benchmark
+	public Compra cambiarEstado(BaseDatosBenchmark bd, Transicion t) {
+		return bd.servicio.cambiarEstado(t.idCompra, Compra.EstadoCompra.ENVIADO);
+	}
+
+	/**
+	 * Lo que antes hacía {@code getNextCompraId}: ahora el id sale del bloque
+	 * reservado en la tabla 'secuencias' y sólo va a la base de datos una vez
+	 * por bloque.
+	 */
+	@Benchmark
+	public int siguienteIdCompra(Generador g) {
+		Compra c = new Compra(0, g.cliente, null, Compra.EstadoCompra.PENDIENTE, Dinero.CERO);
+		g.em.persist(c);
+		// clear() y no detach(): vacía también la cola de INSERT pendientes
+		g.em.clear();
+		return c.getId();
+	}
+}
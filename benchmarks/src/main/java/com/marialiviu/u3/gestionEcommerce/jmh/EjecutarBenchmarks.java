@@ -0,0 +1,38 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punto de entrada de {@code benchmarks.jar}. Acepta las mismas opciones que
+ * el lanzador de JMH ({@code -h} para verlas) pero, si no se indica otra cosa,
+ * guarda los resultados en JSON en {@value #RESULTADOS} para poder comparar
+ * ejecuciones.
+ */
+public class EjecutarBenchmarks {
+
+	static final String RESULTADOS = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+		ChainedOptionsBuilder opciones = new OptionsBuilder().parent(cmd);
+		if (!cmd.getResultFormat().hasValue()) {
+			opciones.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			opciones.result(RESULTADOS);
+		}
+		new Runner(opciones.build()).run();
+	}
+}
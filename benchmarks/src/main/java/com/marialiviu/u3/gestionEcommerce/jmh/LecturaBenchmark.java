@@ -0,0 +1,58 @@
+package com.marialiviu.u3.gestionEcommerce.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.service.ListadoService;
+
+/**
+ * Lecturas: {@code find} de un artículo (servido por la caché de segundo
+ * nivel) y de un cliente, cada uno en su propia unidad de trabajo como hace
+ * el menú, y el listado de compras.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LecturaBenchmark {
+
+	@Benchmark
+	public Articulo findArticulo(BaseDatosBenchmark bd) {
+		int id = bd.articuloAlAzar();
+		return bd.uow.soloLectura(em -> em.find(Articulo.class, id));
+	}
+
+	@Benchmark
+	public Cliente findCliente(BaseDatosBenchmark bd) {
+		String nif = bd.clienteAlAzar();
+		return bd.uow.soloLectura(em -> em.find(Cliente.class, nif));
+	}
+
+	/**
+	 * Listado resumido de todas las compras (opción 4 del menú).
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long listarCompras(BaseDatosBenchmark bd) {
+		return new ListadoService(bd.emf).resumenCompras().count();
+	}
+
+	/**
+	 * Listado de compras con sus líneas y artículos.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long listarComprasConLineas(BaseDatosBenchmark bd) {
+		return new ListadoService(bd.emf).compras().mapToLong(c -> c.getArticuloCompras().size()).sum();
+	}
+}
@@ -5,6 +5,14 @@ DROP TABLE IF EXISTS clientes;
 DROP TABLE IF EXISTS compras;
 DROP TABLE IF EXISTS articulos;
 DROP TABLE IF EXISTS articulo_compra;
+DROP TABLE IF EXISTS secuencias;
+DROP TABLE IF EXISTS importaciones;
+DROP TABLE IF EXISTS historial_migraciones;
+DROP TABLE IF EXISTS ventas_articulo;
+DROP TABLE IF EXISTS gasto_cliente;
+DROP TABLE IF EXISTS ventas_dia;
+DROP TABLE IF EXISTS posicion_diario;
+DROP TABLE IF EXISTS outbox_compras;
 
 SET FOREIGN_KEY_CHECKS=1;
 
@@ -22,6 +30,8 @@ CREATE TABLE IF NOT EXISTS clientes (
 	nombre_completo VARCHAR(100) NOT NULL UNIQUE,
 	email VARCHAR(150) NOT NULL UNIQUE,
 	fecha_creacion DATETIME,
+	-- versión para el bloqueo optimista (@Version en Cliente)
+	version INT NOT NULL DEFAULT 0,
 	FOREIGN KEY (nif_cif) REFERENCES informacion_fiscal(nif_cif)
 	ON UPDATE CASCADE
 	ON DELETE CASCADE
@@ -35,9 +45,15 @@ CREATE TABLE IF NOT EXISTS compras (
 	direccion VARCHAR(150),
 	fecha_compra DATETIME NOT NULL,
 	estado ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
-	precio_total DECIMAL NOT NULL,
+	precio_total DECIMAL(10,2) NOT NULL,
+	-- versión para el bloqueo optimista (@Version en Compra)
+	version INT NOT NULL DEFAULT 0,
 	FOREIGN KEY (id_cliente) REFERENCES clientes(nif_cif)
-	ON DELETE SET DEFAULT
+	ON DELETE SET DEFAULT,
+	-- Compras de un cliente por fecha; cubre el historial del cliente
+	INDEX idx_compras_cliente_fecha (id_cliente, fecha_compra, estado, precio_total),
+	-- Compras en un estado por fecha (pendientes más antiguas, cambios masivos)
+	INDEX idx_compras_estado_fecha (estado, fecha_compra)
 )
 ENGINE=InnoDB;
 
@@ -46,8 +62,10 @@ CREATE TABLE IF NOT EXISTS articulos (
 	id INT PRIMARY KEY AUTO_INCREMENT,
 	nombre VARCHAR(100) NOT NULL,
 	descripcion VARCHAR(150),
-	precio_actual DECIMAL NOT NULL,
-	stock INT NOT NULL
+	precio_actual DECIMAL(10,2) NOT NULL,
+	stock INT NOT NULL,
+	-- versión para el bloqueo optimista (@Version en Articulo)
+	version INT NOT NULL DEFAULT 0
 )
 ENGINE=InnoDB;
 
@@ -58,7 +76,7 @@ CREATE TABLE IF NOT EXISTS articulo_compra (
 	id_articulo INT NOT NULL,
 	PRIMARY KEY (id_compra, id_articulo),
 	unidades INT NOT NULL,
-	precio_compra DECIMAL NOT NULL,
+	precio_compra DECIMAL(10,2) NOT NULL,
 	FOREIGN KEY (id_compra) REFERENCES compras(id)
 	ON DELETE RESTRICT,
 	FOREIGN KEY (id_articulo) REFERENCES articulos(id)
@@ -66,3 +84,88 @@ CREATE TABLE IF NOT EXISTS articulo_compra (
 	ON DELETE RESTRICT
 )
 ENGINE=InnoDB;
+
+-- Secuencias
+-- Bloques de ids reservados por Hibernate (@TableGenerator, optimizador pooled-lo).
+-- 'siguiente_valor' es el primer id del próximo bloque sin repartir.
+CREATE TABLE IF NOT EXISTS secuencias (
+	nombre_secuencia VARCHAR(255) PRIMARY KEY NOT NULL,
+	siguiente_valor BIGINT NOT NULL
+)
+ENGINE=InnoDB;
+
+-- Las tablas se acaban de crear vacías, así que los ids empiezan en 1. Una
+-- base de datos que ya tiene compras se actualiza con las migraciones (la
+-- V1 crea esta tabla y empieza cada secuencia detrás del mayor id).
+INSERT INTO secuencias (nombre_secuencia, siguiente_valor) VALUES
+	('compras', 1),
+	('articulos', 1);
+
+-- Importaciones
+-- Punto de control de las importaciones masivas de compras: byte y línea
+-- del fichero hasta donde se ha confirmado la importación.
+CREATE TABLE IF NOT EXISTS importaciones (
+	-- ruta absoluta normalizada del fichero
+	fichero VARCHAR(512) PRIMARY KEY NOT NULL,
+	offset_bytes BIGINT NOT NULL,
+	lineas BIGINT NOT NULL,
+	-- SHA-256 de los offset_bytes primeros bytes del fichero
+	huella CHAR(64) NOT NULL DEFAULT '',
+	actualizado TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+)
+ENGINE=InnoDB;
+
+-- Agregados de ventas
+-- Los mantiene la aplicación con cada alta, cambio o borrado de compras
+-- (SalesAggregateService); se pueden recalcular con 'reconstruir-ventas'.
+CREATE TABLE IF NOT EXISTS ventas_articulo (
+	id_articulo INT PRIMARY KEY NOT NULL,
+	unidades BIGINT NOT NULL,
+	importe DECIMAL(15,2) NOT NULL
+)
+ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS gasto_cliente (
+	nif_cif VARCHAR(9) PRIMARY KEY NOT NULL,
+	compras BIGINT NOT NULL,
+	importe DECIMAL(15,2) NOT NULL
+)
+ENGINE=InnoDB;
+
+-- Varias particiones por día y estado para repartir los bloqueos de las altas
+CREATE TABLE IF NOT EXISTS ventas_dia (
+	dia DATE NOT NULL,
+	estado ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	particion INT NOT NULL,
+	compras BIGINT NOT NULL,
+	importe DECIMAL(15,2) NOT NULL,
+	PRIMARY KEY (dia, estado, particion)
+)
+ENGINE=InnoDB;
+
+-- Posición del diario de compras
+-- Secuencia del último evento del diario aplicado por cada proyección
+-- (ProyectorCompras); se actualiza en la misma transacción que los eventos.
+CREATE TABLE IF NOT EXISTS posicion_diario (
+	nombre VARCHAR(50) PRIMARY KEY NOT NULL,
+	secuencia BIGINT NOT NULL
+)
+ENGINE=InnoDB;
+
+-- Outbox de cambios de estado
+-- Avisos de cambio de estado de las compras pendientes de entregar a otros
+-- sistemas: se escriben en la misma transacción que el cambio y los borra
+-- DespachadorOutbox al entregarlos (SELECT ... FOR UPDATE SKIP LOCKED, que
+-- requiere MariaDB 10.6 o posterior).
+CREATE TABLE IF NOT EXISTS outbox_compras (
+	id BIGINT PRIMARY KEY NOT NULL AUTO_INCREMENT,
+	id_compra INT NOT NULL,
+	estado_anterior ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	estado_nuevo ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	creado TIMESTAMP(3) NOT NULL
+)
+ENGINE=InnoDB;
+
+-- Lo crea y mantiene la aplicación al arrancar (MigracionesEsquema). Este
+-- script ya incluye todas las migraciones, que al ser repetibles sólo se
+-- anotan en el historial la primera vez que arranca la aplicación.
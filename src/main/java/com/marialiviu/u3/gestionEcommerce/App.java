@@ -1,19 +1,51 @@
 package com.marialiviu.u3.gestionEcommerce;
 
-import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityNotFoundException;
 import jakarta.persistence.Persistence;
-import jakarta.persistence.TypedQuery;
 
-import java.util.List;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
+import com.marialiviu.u3.gestionEcommerce.busqueda.IndiceArticulos;
+import com.marialiviu.u3.gestionEcommerce.cache.CacheClientes;
+import com.marialiviu.u3.gestionEcommerce.cache.ClienteInstantanea;
+import com.marialiviu.u3.gestionEcommerce.cache.EstadisticasCache;
+import com.marialiviu.u3.gestionEcommerce.catalogo.CatalogoMapeado;
+import com.marialiviu.u3.gestionEcommerce.catalogo.InstantaneaCatalogo;
+import com.marialiviu.u3.gestionEcommerce.diario.DiarioCompras;
+import com.marialiviu.u3.gestionEcommerce.diario.OrderJournalService;
+import com.marialiviu.u3.gestionEcommerce.diario.ProyectorCompras;
+import com.marialiviu.u3.gestionEcommerce.importer.BulkOrderImporter;
+import com.marialiviu.u3.gestionEcommerce.importer.FormatoImportacion;
+import com.marialiviu.u3.gestionEcommerce.metrics.VolcadoMetricas;
 import com.marialiviu.u3.gestionEcommerce.model.Articulo;
 import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
 import com.marialiviu.u3.gestionEcommerce.model.Cliente;
 import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
 import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+import com.marialiviu.u3.gestionEcommerce.outbox.DespachadorOutbox;
+import com.marialiviu.u3.gestionEcommerce.pool.MetricasPool;
+import com.marialiviu.u3.gestionEcommerce.service.CompraHistorial;
+import com.marialiviu.u3.gestionEcommerce.service.EjecutorReintentos;
+import com.marialiviu.u3.gestionEcommerce.service.HotStockCounter;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.ListadoService;
+import com.marialiviu.u3.gestionEcommerce.service.OrderHistoryService;
+import com.marialiviu.u3.gestionEcommerce.service.OrderStatusService;
+import com.marialiviu.u3.gestionEcommerce.service.PaginaHistorial;
+import com.marialiviu.u3.gestionEcommerce.service.SalesAggregateService;
+import com.marialiviu.u3.gestionEcommerce.service.StockReservationService;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+import com.marialiviu.u3.gestionEcommerce.service.VariacionVentas;
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+import com.marialiviu.u3.gestionEcommerce.sql.RegistroSentencias;
 
 /**
  * Aplicación interactiva por consola que replica las operaciones de `CrudDemo`.
@@ -22,18 +54,52 @@ public class App {
 	
 	/**
 	 * Punto de entrada de la aplicación.
+	 * <p>
+	 * Sin argumentos arranca el menú interactivo. Con
+	 * {@code importar <fichero> [tamañoLote]} importa compras históricas de un
+	 * fichero CSV o JSONL sin interacción (ver {@link BulkOrderImporter}). Con
+	 * {@code reconstruir-ventas [hilos]} recalcula las tablas agregadas de
+	 * ventas (ver {@link SalesAggregateService#reconstruir(int)}). Con
+	 * {@code reconstruir-compras} vuelve a aplicar el diario de compras desde
+	 * el principio (ver {@link ProyectorCompras#reconstruir()}).
+	 * </p>
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("importar")) {
+			importarCompras(args);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("reconstruir-ventas")) {
+			reconstruirVentas(args);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("reconstruir-compras")) {
+			reconstruirCompras();
+			return;
+		}
 
 		// Carga la configuración del persistence.xml
 		EntityManagerFactory emf = null;
-		EntityManager em = null;
+		VolcadoMetricas volcado = null;
+		CatalogoMapeado catalogo = null;
+		DiarioCompras diario = null;
+		ProyectorCompras proyector = null;
+		DespachadorOutbox outbox = null;
 		Scanner sc = new Scanner(System.in);
 
 		try {
 			emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu");
-			em = emf.createEntityManager();
+			// Cada operación abre y cierra su propio EntityManager
+			UnitOfWork uow = new UnitOfWork(emf);
+			volcado = VolcadoMetricas.arrancar(emf);
+			catalogo = CatalogoMapeado.arrancar(emf);
+			outbox = DespachadorOutbox.arrancar(emf);
+			IndiceArticulos.de(emf).cargarEnSegundoPlano();
+			// Con diario, las compras se registran como eventos y se aplican en segundo plano
+			diario = DiarioCompras.abrir(emf);
+			proyector = ProyectorCompras.arrancar(emf, diario);
+			OrderJournalService compras = (diario != null) ? new OrderJournalService(emf, diario) : null;
 
 			boolean salir = false;
 			while (!salir) {
@@ -41,15 +107,26 @@ public class App {
 				System.out.print("Elige una opción: ");
 				String opt = sc.nextLine().trim();
 				switch (opt) {
-				case "1": createArticuloInteractive(em, sc); break;
-				case "2": createClienteInteractive(em, sc); break;
-				case "3": createCompraInteractive(em, sc); break;
-				case "4": listAll(em); break;
-				case "5": updateArticuloInteractive(em, sc); break;
-				case "6": updateClienteInteractive(em, sc); break;
-				case "7": updateCompraEstadoInteractive(em, sc); break;
-				case "8": deleteCompraInteractive(em, sc); break;
+				case "1": createArticuloInteractive(uow, sc); break;
+				case "2": createClienteInteractive(uow, sc); break;
+				case "3": createCompraInteractive(uow, compras, sc); break;
+				case "4": listAll(emf); break;
+				case "5": updateArticuloInteractive(uow, sc); break;
+				case "6": updateClienteInteractive(uow, sc); break;
+				case "7": updateCompraEstadoInteractive(uow, compras, sc); break;
+				case "8": deleteCompraInteractive(uow, compras, sc); break;
 				case "9": salir = true; break;
+				case "10": EstadisticasCache.imprimir(emf, System.out); CacheClientes.imprimir(emf, System.out); break;
+				case "11": MetricasPool.imprimir(System.out); EnrutadorLecturas.imprimir(System.out); break;
+				case "12": RegistroSentencias.get().imprimir(System.out, 20); break;
+				case "13": System.out.print(VolcadoMetricas.texto(VolcadoMetricas.fuentes(emf))); break;
+				case "14": historialClienteInteractive(uow, sc); break;
+				case "15": ventasSemana(emf); break;
+				case "16": consultarCatalogoInteractive(catalogo, sc); break;
+				case "17": buscarArticulosInteractive(emf, sc); break;
+				case "18": DespachadorOutbox.imprimir(System.out); break;
+				case "19": EjecutorReintentos.imprimir(System.out); break;
+				case "20": HotStockCounter.imprimir(emf, System.out); break;
 				default: System.out.println("Opción no válida");
 				}
 				System.out.println();
@@ -58,14 +135,83 @@ public class App {
 		} catch (Exception e) {
 			System.err.println("¡Error en la aplicación!");
 			e.printStackTrace();
-			if (em != null && em.getTransaction().isActive()) em.getTransaction().rollback();
 		} finally {
 			sc.close();
-			if (em != null) em.close();
+			if (volcado != null) volcado.close();
+			if (catalogo != null) catalogo.close();
+			if (proyector != null) proyector.close();
+			if (diario != null) diario.close();
+			if (outbox != null) outbox.close();
 			if (emf != null) emf.close();
 			System.out.println("\nAplicación finalizada");
 		}
 	}
+	/**
+	 * Modo no interactivo: importa compras desde un fichero y termina.
+	 * @param args {@code importar <fichero> [tamañoLote]}
+	 */
+	private static void importarCompras(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Uso: importar <fichero.csv|fichero.jsonl> [tamañoLote]");
+			return;
+		}
+		Path fichero = Path.of(args[1]);
+		int lote = (args.length > 2) ? Integer.parseInt(args[2]) : BulkOrderImporter.DEFAULT_BATCH_SIZE;
+		EntityManagerFactory emf = null;
+		try {
+			emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu");
+			new BulkOrderImporter(emf, lote).importar(fichero, FormatoImportacion.deFichero(fichero.toString()));
+		} catch (Exception e) {
+			System.err.println("Error importando compras: " + e.getMessage());
+			System.err.println("Vuelve a lanzar la importación para continuar desde el último lote confirmado.");
+		} finally {
+			if (emf != null) emf.close();
+		}
+	}
+
+	/**
+	 * Modo no interactivo: recalcula los agregados de ventas y termina.
+	 * @param args {@code reconstruir-ventas [hilos]}
+	 */
+	private static void reconstruirVentas(String[] args) {
+		int hilos = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		EntityManagerFactory emf = null;
+		try {
+			emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu");
+			SalesAggregateService.Reconstruccion r = new SalesAggregateService(emf).reconstruir(hilos);
+			System.out.printf("Agregados de ventas reconstruidos: %d bloques en %.1f s%n", r.bloques(), r.segundos());
+		} catch (Exception e) {
+			System.err.println("Error reconstruyendo los agregados de ventas: " + e.getMessage());
+		} finally {
+			if (emf != null) emf.close();
+		}
+	}
+
+	/**
+	 * Modo no interactivo: reconstruye las compras a partir del diario y
+	 * termina.
+	 */
+	private static void reconstruirCompras() {
+		EntityManagerFactory emf = null;
+		DiarioCompras diario = null;
+		try {
+			emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu");
+			diario = DiarioCompras.abrir(emf);
+			if (diario == null) {
+				System.err.println("Diario de compras no configurado (" + DiarioCompras.DIRECTORIO + ")");
+				return;
+			}
+			ProyectorCompras.Reconstruccion r = new ProyectorCompras(emf, diario).reconstruir();
+			System.out.printf("Compras reconstruidas: %d eventos aplicados y %d rechazados en %.1f s%n",
+					r.eventos(), r.rechazados(), r.segundos());
+		} catch (Exception e) {
+			System.err.println("Error reconstruyendo las compras: " + e.getMessage());
+		} finally {
+			if (diario != null) diario.close();
+			if (emf != null) emf.close();
+		}
+	}
+
 	/**
 	 * Imprime el menú de opciones.
 	 */
@@ -80,51 +226,54 @@ public class App {
 		System.out.println("7) Actualizar Estado de Compra");
 		System.out.println("8) Borrar Compra por id");
 		System.out.println("9) Salir");
+		System.out.println("10) Ver estadísticas de caché");
+		System.out.println("11) Ver métricas del pool de conexiones y réplicas");
+		System.out.println("12) Ver tiempos de las sentencias SQL");
+		System.out.println("13) Ver todas las métricas (formato Prometheus)");
+		System.out.println("14) Ver historial de compras de un cliente");
+		System.out.println("15) Ver ventas de los últimos 7 días");
+		System.out.println("16) Consultar precio y stock de un artículo (catálogo)");
+		System.out.println("17) Buscar artículos por nombre o descripción");
+		System.out.println("18) Ver estado del outbox de cambios de estado");
+		System.out.println("19) Ver conflictos de bloqueo optimista");
+		System.out.println("20) Ver stock en memoria de los artículos calientes");
 	}
 
 	/**
 	 * Crea un artículo de forma interactiva.
-	 * @param em
+	 * @param uow
 	 * @param sc
 	 */
-	private static void createArticuloInteractive(EntityManager em, Scanner sc) {
+	private static void createArticuloInteractive(UnitOfWork uow, Scanner sc) {
 		try {
-			System.out.print("Id (int): ");
-			int id = Integer.parseInt(sc.nextLine().trim());
-			if (em.find(Articulo.class, id) != null) {
-				System.out.println("Articulo con id=" + id + " ya existe.");
-				return;
-			}
 			System.out.print("Nombre: ");
 			String nombre = sc.nextLine();
 			System.out.print("Descripción: ");
 			String desc = sc.nextLine();
-			System.out.print("Precio (float): ");
-			float precio = Float.parseFloat(sc.nextLine().trim());
+			System.out.print("Precio (p. ej. 12.50): ");
+			Dinero precio = Dinero.de(sc.nextLine());
 			System.out.print("Stock (int): ");
 			int stock = Integer.parseInt(sc.nextLine().trim());
 
-			em.getTransaction().begin();
-			Articulo a = new Articulo(id, nombre, desc, precio, stock);
-			em.persist(a);
-			em.getTransaction().commit();
+			// El id lo reserva el generador de la tabla 'secuencias'
+			Articulo a = new Articulo(nombre, desc, precio, stock);
+			uow.ejecutar(em -> em.persist(a));
 			System.out.println("Articulo creado: " + a);
 		} catch (Exception e) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
 			System.err.println("Error creando artículo: " + e.getMessage());
 		}
 	}
 	/**
 	 * Crea un cliente de forma interactiva.
-	 * @param em
+	 * @param uow
 	 * @param sc
 	 */
-	private static void createClienteInteractive(EntityManager em, Scanner sc) {
+	private static void createClienteInteractive(UnitOfWork uow, Scanner sc) {
 		try {
 			System.out.print("NIF/CIF: ");
 			String nif = sc.nextLine().trim();
 			if (nif.isEmpty()) { System.out.println("NIF no puede estar vacío"); return; }
-			if (em.find(Cliente.class, nif) != null) { System.out.println("Cliente ya existe"); return; }
+			if (uow.soloLectura(em -> em.find(Cliente.class, nif)) != null) { System.out.println("Cliente ya existe"); return; }
 			System.out.print("Nombre completo: ");
 			String nombre = sc.nextLine();
 			System.out.print("Email: ");
@@ -134,33 +283,32 @@ public class App {
 			System.out.print("Dirección fiscal: ");
 			String dir = sc.nextLine();
 
-			em.getTransaction().begin();
 			Cliente c = new Cliente(nif, nombre, email);
 			InformacionFiscal info = new InformacionFiscal(nif, tel, dir);
 			c.setInformacionFiscal(info);
-			em.persist(c);
-			em.getTransaction().commit();
+			uow.ejecutar(em -> em.persist(c));
 			System.out.println("Cliente creado: " + c);
 		} catch (Exception e) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
 			System.err.println("Error creando cliente: " + e.getMessage());
 		}
 	}
-	
+
 	/**
-	 * Crea una compra interactiva.
-	 * @param em
+	 * Crea una compra interactiva. Los datos se piden fuera de la transacción;
+	 * la compra, sus líneas y la reserva de stock se graban en una sola unidad
+	 * de trabajo al final.
+	 * @param uow
+	 * @param compras servicio del diario, o null si las compras van directas a las tablas.
 	 * @param sc
 	 */
-	private static void createCompraInteractive(EntityManager em, Scanner sc) {
+	private static void createCompraInteractive(UnitOfWork uow, OrderJournalService compras, Scanner sc) {
 		try {
 			System.out.print("NIF/CIF cliente para la compra: ");
 			String nif = sc.nextLine().trim();
-			Cliente cliente = em.find(Cliente.class, nif);
-			if (cliente == null) { System.out.println("Cliente no encontrado"); return; }
+			if (CacheClientes.de(uow.getEntityManagerFactory()).get(nif) == null) { System.out.println("Cliente no encontrado"); return; }
 
-			int nextId = getNextCompraId(em);
-			Compra compra = new Compra(nextId, cliente, new Date(), Compra.EstadoCompra.PENDIENTE, 0f);
+			// id de artículo -> unidades, en el orden en que se piden
+			Map<Integer, Integer> pedido = new LinkedHashMap<>();
 
 			boolean añadir = true;
 			while (añadir) {
@@ -169,157 +317,283 @@ public class App {
 				if (!r.equals("s")) break;
 				System.out.print("Id artículo: ");
 				int idArt = Integer.parseInt(sc.nextLine().trim());
-				Articulo art = em.find(Articulo.class, idArt);
-				if (art == null) { System.out.println("Artículo no encontrado"); continue; }
+				if (uow.soloLectura(em -> em.find(Articulo.class, idArt)) == null) { System.out.println("Artículo no encontrado"); continue; }
 				System.out.print("Unidades: ");
 				int uds = Integer.parseInt(sc.nextLine().trim());
-				ArticuloCompra ac = new ArticuloCompra(compra, art, uds, art.getPrecioActual());
-				compra.addArticuloCompra(ac);
+				pedido.merge(idArt, uds, Integer::sum);
 			}
 
-			// calcular total
-			float total = 0f;
-			for (ArticuloCompra ac : compra.getArticuloCompras()) {
-				total += ac.getUnidades() * ac.getPrecioCompra();
+			if (compras != null) {
+				List<NuevaCompra.Linea> lineas = pedido.entrySet().stream()
+						.map(e -> new NuevaCompra.Linea(e.getKey(), e.getValue())).toList();
+				OrderJournalService.CompraRegistrada r = compras.crear(new NuevaCompra(nif, new Date(), null, lineas));
+				// el stock ya está reservado: sin stock, crear lanza StockInsuficienteException
+				System.out.println("Compra " + r.idCompra() + " registrada en el diario (evento " + r.secuencia() + ")");
+				return;
 			}
-			compra.setPrecioTotal(total);
-
-			em.getTransaction().begin();
-			em.persist(compra);
-			em.getTransaction().commit();
+			Compra compra = uow.enTransaccion(em -> {
+				Compra c = new Compra(0, em.getReference(Cliente.class, nif), new Date(), Compra.EstadoCompra.PENDIENTE, Dinero.CERO);
+				// persist asigna el id desde el bloque reservado; las líneas se enlazan
+				// después para que su clave (id_compra, id_articulo) ya sea la definitiva
+				em.persist(c);
+				for (Map.Entry<Integer, Integer> linea : pedido.entrySet()) {
+					Articulo art = em.find(Articulo.class, linea.getKey());
+					// borrado después de elegirlo: la excepción deshace también la compra ya persistida
+					if (art == null) throw new EntityNotFoundException("Artículo no encontrado: " + linea.getKey());
+					c.addArticuloCompra(new ArticuloCompra(null, art, linea.getValue(), art.getPrecioActual()));
+				}
+				c.recalcularTotal();
+				// descuenta el stock; si no llega se lanza StockInsuficienteException y se deshace todo
+				new StockReservationService(em.getEntityManagerFactory()).reservar(em, c);
+				new SalesAggregateService(em.getEntityManagerFactory()).aplicar(em, new VariacionVentas().sumar(c));
+				return c;
+			});
 			System.out.println("Compra creada: " + compra);
+		} catch (EntityNotFoundException e) {
+			System.out.println(e.getMessage() + "; compra no creada");
 		} catch (Exception e) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
 			System.err.println("Error creando compra: " + e.getMessage());
 		}
 	}
 	/**
-	 * Obtiene el siguiente id disponible para una compra.
-	 * @param em
-	 * @return
+	 * Lista todos los artículos, clientes y compras. Las filas se leen por
+	 * páginas y se imprimen según llegan, sin cargar las tablas enteras.
+	 * @param emf
 	 */
-	private static int getNextCompraId(EntityManager em) {
-		TypedQuery<Integer> q = em.createQuery("SELECT MAX(c.id) FROM Compra c", Integer.class);
-		Integer max = q.getSingleResult();
-		return (max == null) ? 1 : (max + 1);
-	}
-
-	/**
-	 * Lista todos los artículos, clientes y compras.
-	 * @param em
-	 */
-	private static void listAll(EntityManager em) {
+	private static void listAll(EntityManagerFactory emf) {
+		ListadoService listado = new ListadoService(emf);
 		System.out.println("--- ARTÍCULOS ---");
-		List<Articulo> articulos = em.createQuery("SELECT a FROM Articulo a", Articulo.class).getResultList();
-		articulos.forEach(System.out::println);
+		listado.articulos().forEach(System.out::println);
 		System.out.println("--- CLIENTES ---");
-		List<Cliente> clientes = em.createQuery("SELECT c FROM Cliente c", Cliente.class).getResultList();
-		clientes.forEach(System.out::println);
+		listado.clientes().forEach(System.out::println);
 		System.out.println("--- COMPRAS ---");
-		List<Compra> compras = em.createQuery("SELECT c FROM Compra c", Compra.class).getResultList();
-		compras.forEach(System.out::println);
+		listado.resumenCompras().forEach(System.out::println);
 	}
 
 	/**
-	 * Actualiza el precio y/o stock de un artículo.
-	 * @param em
+	 * Actualiza el precio y/o stock de un artículo. El artículo se vuelve a
+	 * leer en la transacción que lo graba; si una venta lo cambia entre la
+	 * lectura y la escritura (bloqueo optimista) se repite con
+	 * {@link EjecutorReintentos}, así que un cambio de precio no se pierde por
+	 * una venta. El stock nuevo, en cambio, se decide viendo el anterior: si ha
+	 * cambiado desde que se mostró se avisa en vez de pisarlo. Antes de leerlo
+	 * vuelven a la tabla las unidades en memoria de un artículo caliente
+	 * ({@link HotStockCounter}), que si no quedarían fuera del stock mostrado.
+	 * @param uow
 	 * @param sc
 	 */
-	private static void updateArticuloInteractive(EntityManager em, Scanner sc) {
+	private static void updateArticuloInteractive(UnitOfWork uow, Scanner sc) {
 		try {
 			System.out.print("Id artículo a actualizar: ");
 			int id = Integer.parseInt(sc.nextLine().trim());
-			Articulo a = em.find(Articulo.class, id);
+			HotStockCounter.de(uow.getEntityManagerFactory()).devolverATabla(id);
+			Articulo a = uow.soloLectura(em -> em.find(Articulo.class, id));
 			if (a == null) { System.out.println("No existe artículo"); return; }
 			System.out.print("Nuevo precio (o ENTER para mantener " + a.getPrecioActual() + "): ");
 			String p = sc.nextLine().trim();
 			System.out.print("Nuevo stock (o ENTER para mantener " + a.getStock() + "): ");
 			String s = sc.nextLine().trim();
-			em.getTransaction().begin();
-			if (!p.isEmpty()) a.setPrecioActual(Float.parseFloat(p));
-			if (!s.isEmpty()) a.setStock(Integer.parseInt(s));
-			em.merge(a);
-			em.getTransaction().commit();
-			System.out.println("Artículo actualizado: " + a);
+			Dinero precio = p.isEmpty() ? null : Dinero.de(p);
+			Integer stock = s.isEmpty() ? null : Integer.valueOf(s);
+			Articulo actualizado = new EjecutorReintentos(uow.getEntityManagerFactory()).enTransaccion(em -> {
+				Articulo m = em.find(Articulo.class, id);
+				if (m == null) return null;
+				if (stock != null && m.getStock() != a.getStock()) {
+					throw new IllegalStateException("el stock ha cambiado mientras se editaba (p. ej. por una venta)");
+				}
+				if (precio != null) m.setPrecioActual(precio);
+				if (stock != null) m.setStock(stock);
+				return m;
+			});
+			// Invalida la entrada de la caché de segundo nivel para que ningún
+			// otro EntityManager lea el precio/stock anterior
+			uow.getEntityManagerFactory().getCache().evict(Articulo.class, id);
+			System.out.println((actualizado != null) ? "Artículo actualizado: " + actualizado : "No existe artículo");
 		} catch (Exception e) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
-			System.err.println("Error actualizando artículo: " + e.getMessage());
+			if (EjecutorReintentos.esConflicto(e)) {
+				System.err.println("El artículo sigue cambiando (p. ej. por ventas); vuelve a intentarlo");
+			} else {
+				System.err.println("Error actualizando artículo: " + e.getMessage());
+			}
 		}
 	}
-	
+
 	/**
 	 * Actualiza el email de un cliente.
-	 * @param em
+	 * @param uow
 	 * @param sc
 	 */
-	private static void updateClienteInteractive(EntityManager em, Scanner sc) {
+	private static void updateClienteInteractive(UnitOfWork uow, Scanner sc) {
 		try {
 			System.out.print("NIF/CIF cliente a actualizar: ");
 			String nif = sc.nextLine().trim();
-			Cliente c = em.find(Cliente.class, nif);
+			CacheClientes clientes = CacheClientes.de(uow.getEntityManagerFactory());
+			ClienteInstantanea c = clientes.get(nif);
 			if (c == null) { System.out.println("Cliente no encontrado"); return; }
-			System.out.print("Nuevo email (o ENTER para mantener " + c.getEmail() + "): ");
+			System.out.print("Nuevo email (o ENTER para mantener " + c.email() + "): ");
 			String email = sc.nextLine().trim();
-			em.getTransaction().begin();
-			if (!email.isEmpty()) c.setEmail(email);
-			em.merge(c);
-			em.getTransaction().commit();
-			System.out.println("Cliente actualizado: " + c);
+			if (email.isEmpty()) { System.out.println("Cliente sin cambios: " + c); return; }
+			// actualiza la caché y escribe el email, al momento o en el siguiente lote diferido
+			clientes.actualizarEmail(nif, email);
+			System.out.println("Cliente actualizado: " + clientes.get(nif)
+					+ (clientes.isEscrituraDiferida() ? " (escritura diferida)" : ""));
 		} catch (Exception e) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
 			System.err.println("Error actualizando cliente: " + e.getMessage());
 		}
 	}
-	
+
 	/**
-	 * Actualiza el estado de una compra (PENDIENTE, ENVIADO, ENTREGADO).
-	 * @param em
+	 * Actualiza el estado de una compra (PENDIENTE, ENVIADO, ENTREGADO). Sólo
+	 * se permite avanzar al estado siguiente; se graba con un UPDATE directo.
+	 * @param uow
+	 * @param compras servicio del diario, o null si las compras van directas a las tablas.
 	 * @param sc
 	 */
-	private static void updateCompraEstadoInteractive(EntityManager em, Scanner sc) {
+	private static void updateCompraEstadoInteractive(UnitOfWork uow, OrderJournalService compras, Scanner sc) {
 		try {
 			System.out.print("Id compra a actualizar: ");
 			int id = Integer.parseInt(sc.nextLine().trim());
-			Compra c = em.find(Compra.class, id);
+			Compra c = uow.soloLectura(em -> em.find(Compra.class, id));
 			if (c == null) { System.out.println("Compra no encontrada"); return; }
 			System.out.println("Estado actual: " + c.getEstado());
 			System.out.print("Nuevo estado (PENDIENTE/ENVIADO/ENTREGADO): ");
-			String e = sc.nextLine().trim().toUpperCase();
-			em.getTransaction().begin();
+			Compra.EstadoCompra estado;
 			try {
-				c.setEstado(Compra.EstadoCompra.valueOf(e));
-				em.merge(c);
-				em.getTransaction().commit();
-				System.out.println("Compra actualizada: " + c);
+				estado = Compra.EstadoCompra.valueOf(sc.nextLine().trim().toUpperCase());
 			} catch (IllegalArgumentException ex) {
-				em.getTransaction().rollback();
 				System.out.println("Estado no válido");
+				return;
+			}
+			if (!c.getEstado().puedePasarA(estado)) {
+				System.out.println("No se puede pasar de " + c.getEstado() + " a " + estado);
+				return;
 			}
+			if (compras != null) {
+				long secuencia = compras.cambiarEstado(id, estado);
+				System.out.println("Cambio a " + estado + " registrado en el diario (evento " + secuencia + ")");
+				return;
+			}
+			int n = new OrderStatusService(uow.getEntityManagerFactory()).transicionar(List.of(id), estado);
+			// 0 filas: otro proceso ha cambiado o borrado la compra entretanto
+			System.out.println((n == 1) ? "Compra " + id + " actualizada a " + estado
+					: "La compra ha cambiado mientras se editaba; vuelve a intentarlo");
 		} catch (Exception ex) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
 			System.err.println("Error actualizando compra: " + ex.getMessage());
 		}
 	}
 
 	/**
-	 * Borra una compra por su id.
-	 * @param em
+	 * Muestra las compras de un cliente con sus líneas, de la más reciente a la
+	 * más antigua, una página cada vez.
+	 * @param uow
 	 * @param sc
 	 */
-	private static void deleteCompraInteractive(EntityManager em, Scanner sc) {
+	private static void historialClienteInteractive(UnitOfWork uow, Scanner sc) {
+		try {
+			System.out.print("NIF/CIF cliente: ");
+			String nif = sc.nextLine().trim();
+			OrderHistoryService historial = new OrderHistoryService(uow.getEntityManagerFactory());
+			PaginaHistorial p = historial.primeraPagina(nif, true);
+			if (p.compras().isEmpty()) { System.out.println("El cliente no tiene compras"); return; }
+			while (true) {
+				for (CompraHistorial c : p.compras()) {
+					System.out.println("Compra " + c.id() + " " + c.fechaCompra() + " " + c.estado() + " " + c.precioTotal());
+					for (CompraHistorial.Linea l : c.lineas()) {
+						System.out.println("    " + l.unidades() + " x " + l.nombreArticulo() + " (" + l.precioCompra() + ")");
+					}
+				}
+				if (!p.hayMas()) break;
+				System.out.print("ENTER para ver más, cualquier otra tecla para terminar: ");
+				if (!sc.nextLine().isEmpty()) break;
+				p = historial.pagina(nif, p.siguiente(), true);
+			}
+		} catch (Exception ex) {
+			System.err.println("Error leyendo el historial: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Muestra compras e importe por día y estado de la última semana, leídos
+	 * de los agregados de ventas.
+	 * @param emf
+	 */
+	private static void ventasSemana(EntityManagerFactory emf) {
+		LocalDate hoy = LocalDate.now();
+		List<SalesAggregateService.TotalDia> dias = new SalesAggregateService(emf).dias(hoy.minusDays(6), hoy.plusDays(1));
+		if (dias.isEmpty()) { System.out.println("Sin ventas en los últimos 7 días"); return; }
+		for (SalesAggregateService.TotalDia d : dias) {
+			System.out.printf("%s %-10s %6d compras %12s%n", d.dia(), d.estado(), d.compras(), d.importe());
+		}
+	}
+
+	/**
+	 * Muestra precio y stock de un artículo leídos de la instantánea del
+	 * catálogo, sin ir a la base de datos.
+	 * @param catalogo
+	 * @param sc
+	 */
+	private static void consultarCatalogoInteractive(CatalogoMapeado catalogo, Scanner sc) {
+		if (catalogo == null) { System.out.println("Catálogo no configurado (" + CatalogoMapeado.FICHERO + ")"); return; }
+		try {
+			System.out.print("Id artículo: ");
+			int id = Integer.parseInt(sc.nextLine().trim());
+			InstantaneaCatalogo cat = catalogo.get();
+			int p = cat.posicion(id);
+			if (p < 0) { System.out.println("Artículo no encontrado en el catálogo"); return; }
+			System.out.println(cat.nombre(p) + ": " + Dinero.deCentimos(cat.precioCentimos(p)) + ", stock " + cat.stock(p)
+					+ " (a " + new Date(cat.getGenerado()) + ")");
+		} catch (Exception ex) {
+			System.err.println("Error consultando el catálogo: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Busca artículos por palabras del nombre o la descripción.
+	 * @param emf
+	 * @param sc
+	 */
+	private static void buscarArticulosInteractive(EntityManagerFactory emf, Scanner sc) {
+		System.out.print("Buscar: ");
+		String consulta = sc.nextLine();
+		IndiceArticulos indice = IndiceArticulos.de(emf);
+		if (!indice.isCargado()) System.out.println("(el índice aún se está cargando; los resultados pueden estar incompletos)");
+		IndiceArticulos.Busqueda busqueda = indice.consultar(consulta, 20);
+		if (busqueda.truncada()) System.out.println("(palabra demasiado corta; pueden faltar resultados)");
+		if (busqueda.resultados().isEmpty()) { System.out.println("Sin resultados"); return; }
+		for (IndiceArticulos.Resultado r : busqueda.resultados()) {
+			System.out.printf("%8d  %s%n", r.id(), r.nombre());
+		}
+	}
+
+	/**
+	 * Borra una compra por su id. Si estaba PENDIENTE sus unidades vuelven al
+	 * stock.
+	 * @param uow
+	 * @param compras servicio del diario, o null si las compras van directas a las tablas.
+	 * @param sc
+	 */
+	private static void deleteCompraInteractive(UnitOfWork uow, OrderJournalService compras, Scanner sc) {
 		try {
 			System.out.print("Id compra a borrar: ");
 			int id = Integer.parseInt(sc.nextLine().trim());
-			Compra c = em.find(Compra.class, id);
-			if (c == null) { System.out.println("Compra no encontrada"); return; }
-			em.getTransaction().begin();
-			em.remove(c);
-			em.getTransaction().commit();
-			System.out.println("Compra borrada");
+			if (compras != null) {
+				long secuencia = compras.borrar(id);
+				System.out.println("Borrado registrado en el diario (evento " + secuencia + ")");
+				return;
+			}
+			boolean borrada = uow.enTransaccion(em -> {
+				Compra c = em.find(Compra.class, id);
+				if (c == null) return false;
+				new SalesAggregateService(em.getEntityManagerFactory()).aplicar(em, new VariacionVentas().restar(c));
+				// si estaba PENDIENTE sus unidades vuelven al stock
+				new StockReservationService(em.getEntityManagerFactory()).liberar(em, c);
+				em.remove(c);
+				return true;
+			});
+			System.out.println(borrada ? "Compra borrada" : "Compra no encontrada");
 		} catch (Exception ex) {
-			if (em.getTransaction().isActive()) em.getTransaction().rollback();
 			System.err.println("Error borrando compra: " + ex.getMessage());
 		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,607 @@
+package com.marialiviu.u3.gestionEcommerce.busqueda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Índice invertido en memoria sobre el nombre y la descripción de los
+ * artículos, para buscar en el catálogo sin recorrer la tabla con
+ * {@code LIKE '%texto%'}.
+ * <p>
+ * Cada término ({@link NormalizadorTexto}) apunta a las listas ordenadas de
+ * artículos que lo tienen en el nombre y en la descripción, y los términos
+ * están ordenados, así que un prefijo es un rango del diccionario. Una
+ * búsqueda exige que el artículo contenga todas las palabras de la consulta,
+ * como término completo o como prefijo ("mes" encuentra "mesa"). Se empieza
+ * por la palabra menos frecuente y sus artículos se buscan en las listas de
+ * las demás, de la más corta a la más larga, a saltos que se duplican
+ * (búsqueda galopante): cruzar k artículos con una lista de n cuesta
+ * O(k log(n/k)) y no O(n). Se ordenan por puntuación: cuenta más aparecer en el nombre que en la
+ * descripción, el término completo que el prefijo, y las palabras raras que
+ * las frecuentes; a igual puntuación, primero el artículo más antiguo.
+ * </p>
+ * <p>
+ * Hay un índice por factoría ({@link #de(EntityManagerFactory)}). Lo mantiene
+ * al día {@link SincronizacionIndice} con las altas, cambios y bajas de
+ * artículos una vez confirmadas; {@link #cargar()} lo llena con los artículos
+ * que ya hay. Los cambios que llegan durante la carga se ordenan por la
+ * versión del artículo, de modo que la carga nunca pisa un cambio más
+ * reciente. Las actualizaciones masivas por JPQL o SQL no pasan por los
+ * eventos de Hibernate; si alguna cambia el nombre o la descripción hay que
+ * volver a cargar el índice.
+ * </p>
+ * <p>
+ * Un prefijo se expande como mucho en {@value #MAX_EXPANSIONES} términos, los
+ * de listas más largas. Si una palabra con más expansiones se cruza con los
+ * artículos de otra, se comprueba en los términos de cada artículo y no pierde
+ * resultados; si es la que arranca la búsqueda pueden faltar los artículos que
+ * sólo tienen términos de los descartados (los menos frecuentes), y
+ * {@link #consultar(String, int)} lo indica con {@link Busqueda#truncada()}.
+ * </p>
+ *
+ * <pre>
+ * IndiceArticulos indice = IndiceArticulos.de(emf);
+ * indice.cargarEnSegundoPlano();
+ * ...
+ * for (IndiceArticulos.Resultado r : indice.buscar("cafe molido", 10)) { ... }
+ * </pre>
+ */
+public final class IndiceArticulos {
+
+	/**
+	 * Términos del diccionario en que se expande como mucho un prefijo; los
+	 * prefijos muy cortos se quedan con los de listas más largas.
+	 */
+	static final int MAX_EXPANSIONES = 512;
+
+	/**
+	 * Una palabra se cruza recorriendo sus listas si no tienen más de este
+	 * número de veces los artículos que quedan; si no, se comprueba en los
+	 * términos de cada artículo que queda.
+	 */
+	private static final int CRUCE_MAXIMO = 32;
+
+	private static final int PAGINA_CARGA = 10_000;
+
+	// Tipos de coincidencia de una palabra con un artículo, de peor a mejor
+	private static final int DESCRIPCION_PREFIJO = 1;
+	private static final int DESCRIPCION_TERMINO = 2;
+	private static final int NOMBRE_PREFIJO = 3;
+	private static final int NOMBRE_TERMINO = 4;
+	private static final double[] PESOS = { 0, 0.5, 1, 2, 4 };
+
+	/**
+	 * Palabras que no se buscan salvo que la consulta no tenga otras.
+	 */
+	private static final Set<String> VACIAS = Set.of("a", "al", "con", "de", "del", "el", "en", "la", "las", "lo",
+			"los", "o", "para", "por", "sin", "un", "una", "y");
+
+	private static final System.Logger LOG = System.getLogger(IndiceArticulos.class.getName());
+
+	private static final Map<SessionFactoryImplementor, IndiceArticulos> INDICES = new ConcurrentHashMap<>();
+
+	/**
+	 * Artículo encontrado.
+	 * @param id
+	 * @param nombre
+	 * @param puntuacion mayor cuanto mejor coincide.
+	 */
+	public record Resultado(int id, String nombre, double puntuacion) {
+	}
+
+	/**
+	 * Resultado de una consulta.
+	 * @param resultados artículos encontrados, de mejor a peor.
+	 * @param truncada si un prefijo tenía más de {@value #MAX_EXPANSIONES}
+	 *                 términos y pueden faltar artículos.
+	 */
+	public record Busqueda(List<Resultado> resultados, boolean truncada) {
+	}
+
+	private record Candidato(int id, double puntuacion) {
+	}
+
+	/**
+	 * Términos en que se expande una palabra.
+	 * @param terminos
+	 * @param truncada si se han descartado términos por pasar de
+	 *                 {@value #MAX_EXPANSIONES}.
+	 */
+	private record Expansion(Collection<Termino> terminos, boolean truncada) {
+	}
+
+	private static final Comparator<Candidato> PEOR_PRIMERO = Comparator.comparingDouble(Candidato::puntuacion)
+			.thenComparing(Candidato::id, Comparator.reverseOrder());
+
+	private record Documento(int version, String nombre, String[] enNombre, String[] enDescripcion) {
+	}
+
+	/**
+	 * Artículos que tienen un término en el nombre y en la descripción.
+	 */
+	private static final class Termino {
+		final ListaIds enNombre = new ListaIds();
+		final ListaIds enDescripcion = new ListaIds();
+
+		int size() {
+			return enNombre.size() + enDescripcion.size();
+		}
+	}
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final Lock lectura;
+	private final Lock escritura;
+	private final NavigableMap<String, Termino> terminos = new TreeMap<>();
+	private final Map<Integer, Documento> documentos = new HashMap<>();
+	/** Ids borrados mientras se carga, para que la carga no los vuelva a añadir; null fuera de la carga. */
+	private Set<Integer> borrados;
+	private volatile boolean cargado;
+
+	private IndiceArticulos(SessionFactoryImplementor sessionFactory) {
+		this.sessionFactory = sessionFactory;
+		ReadWriteLock cerrojo = new ReentrantReadWriteLock();
+		this.lectura = cerrojo.readLock();
+		this.escritura = cerrojo.writeLock();
+	}
+
+	/**
+	 * Índice de los artículos de la factoría.
+	 * @param emf
+	 * @throws IllegalStateException si la factoría no tiene índice.
+	 */
+	public static IndiceArticulos de(EntityManagerFactory emf) {
+		IndiceArticulos indice = INDICES.get(emf.unwrap(SessionFactoryImplementor.class));
+		if (indice == null) {
+			throw new IllegalStateException("La factoría no tiene índice de artículos");
+		}
+		return indice;
+	}
+
+	static IndiceArticulos registrar(SessionFactoryImplementor sessionFactory) {
+		return INDICES.computeIfAbsent(sessionFactory, IndiceArticulos::new);
+	}
+
+	static void quitar(SessionFactoryImplementor sessionFactory) {
+		INDICES.remove(sessionFactory);
+	}
+
+	/**
+	 * Indexa todos los artículos de la base de datos, por páginas de
+	 * {@value #PAGINA_CARGA} en transacciones cortas. Las búsquedas se pueden
+	 * hacer mientras tanto, pero sólo encuentran lo ya cargado.
+	 * @return artículos en el índice al terminar.
+	 */
+	public int cargar() {
+		escritura.lock();
+		try {
+			borrados = new HashSet<>();
+		} finally {
+			escritura.unlock();
+		}
+		long inicio = System.nanoTime();
+		try {
+			UnitOfWork uow = new UnitOfWork(sessionFactory);
+			int ultimo = Integer.MIN_VALUE;
+			while (true) {
+				int desde = ultimo;
+				// de la principal: lo confirmado justo antes de la carga no llega por
+				// el listener y una réplica atrasada aún no lo tendría
+				List<Object[]> filas = EnrutadorLecturas.enPrincipal(() -> uow.soloLectura(em -> em.createQuery(
+						"SELECT a.id, a.version, a.nombre, a.descripcion FROM Articulo a "
+								+ "WHERE a.id > :ultimo ORDER BY a.id", Object[].class)
+						.setParameter("ultimo", desde)
+						.setMaxResults(PAGINA_CARGA)
+						.getResultList()));
+				for (Object[] f : filas) {
+					ultimo = (Integer) f[0];
+					indexar(ultimo, (Integer) f[1], (String) f[2], (String) f[3]);
+				}
+				if (filas.size() < PAGINA_CARGA) break;
+			}
+		} finally {
+			escritura.lock();
+			try {
+				borrados = null;
+			} finally {
+				escritura.unlock();
+			}
+		}
+		cargado = true;
+		int n = getArticulos();
+		LOG.log(System.Logger.Level.INFO, "Índice de artículos cargado: {0} artículos, {1} términos en {2} ms", n,
+				getTerminos(), (System.nanoTime() - inicio) / 1_000_000);
+		return n;
+	}
+
+	/**
+	 * Lanza {@link #cargar()} en un hilo de fondo.
+	 */
+	public Thread cargarEnSegundoPlano() {
+		Thread t = new Thread(() -> {
+			try {
+				cargar();
+			} catch (RuntimeException e) {
+				LOG.log(System.Logger.Level.ERROR, "No se pudo cargar el índice de artículos", e);
+			}
+		}, "carga-indice-articulos");
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Verdadero cuando ha terminado la primera carga.
+	 */
+	public boolean isCargado() {
+		return cargado;
+	}
+
+	/**
+	 * Añade o actualiza un artículo. Si el índice ya tiene una versión
+	 * posterior del artículo no hace nada.
+	 * @param id
+	 * @param version versión del artículo ({@code @Version}).
+	 * @param nombre
+	 * @param descripcion
+	 */
+	public void indexar(int id, int version, String nombre, String descripcion) {
+		String[] enNombre = distintos(nombre);
+		String[] enDescripcion = distintos(descripcion);
+		escritura.lock();
+		try {
+			if (borrados != null && borrados.contains(id)) return;
+			Documento anterior = documentos.get(id);
+			if (anterior != null && anterior.version() > version) return;
+			if (anterior != null && Arrays.equals(anterior.enNombre(), enNombre)
+					&& Arrays.equals(anterior.enDescripcion(), enDescripcion)) {
+				// cambio de precio, stock, ...: los términos no cambian
+				documentos.put(id, new Documento(version, anterior.nombre(), anterior.enNombre(),
+						anterior.enDescripcion()));
+				return;
+			}
+			if (anterior != null) desindexar(id, anterior);
+			for (int i = 0; i < enNombre.length; i++) {
+				enNombre[i] = anadir(enNombre[i], id, true);
+			}
+			for (int i = 0; i < enDescripcion.length; i++) {
+				enDescripcion[i] = anadir(enDescripcion[i], id, false);
+			}
+			documentos.put(id, new Documento(version, (nombre != null) ? nombre : "", enNombre, enDescripcion));
+		} finally {
+			escritura.unlock();
+		}
+	}
+
+	/**
+	 * Quita un artículo del índice.
+	 * @param id
+	 */
+	public void quitar(int id) {
+		escritura.lock();
+		try {
+			if (borrados != null) borrados.add(id);
+			Documento d = documentos.remove(id);
+			if (d != null) desindexar(id, d);
+		} finally {
+			escritura.unlock();
+		}
+	}
+
+	/**
+	 * Artículos que contienen todas las palabras de la consulta, de mejor a
+	 * peor coincidencia. Las palabras vacías ("de", "la", ...) sólo se tienen
+	 * en cuenta si la consulta no tiene otras palabras.
+	 * @param consulta texto tal como lo escribe el usuario.
+	 * @param max número máximo de resultados.
+	 */
+	public List<Resultado> buscar(String consulta, int max) {
+		return consultar(consulta, max).resultados();
+	}
+
+	/**
+	 * Como {@link #buscar(String, int)}, indicando además si se ha truncado la
+	 * expansión de algún prefijo de forma que puedan faltar artículos.
+	 * @param consulta texto tal como lo escribe el usuario.
+	 * @param max número máximo de resultados.
+	 */
+	public Busqueda consultar(String consulta, int max) {
+		List<String> palabras = new ArrayList<>(new LinkedHashSet<>(NormalizadorTexto.terminos(consulta)));
+		List<String> utiles = palabras.stream().filter(p -> !VACIAS.contains(p)).toList();
+		if (!utiles.isEmpty()) palabras = utiles;
+		if (palabras.isEmpty() || max <= 0) return new Busqueda(List.of(), false);
+
+		lectura.lock();
+		try {
+			int n = palabras.size();
+			List<Collection<Termino>> expansiones = new ArrayList<>(n);
+			boolean[] truncada = new boolean[n];
+			int[] frecuencia = new int[n];
+			Integer[] orden = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				Expansion e = expansiones(palabras.get(i));
+				expansiones.add(e.terminos());
+				truncada[i] = e.truncada();
+				for (Termino t : e.terminos()) frecuencia[i] += t.size();
+				if (frecuencia[i] == 0) return new Busqueda(List.of(), false);
+				orden[i] = i;
+			}
+			Arrays.sort(orden, Comparator.comparingInt(i -> frecuencia[i]));
+
+			// artículos de la palabra más rara, ordenados por id, con su puntuación
+			int primera = orden[0];
+			long[] coincidencias = coincidencias(palabras.get(primera), expansiones.get(primera), frecuencia[primera]);
+			int quedan = coincidencias.length;
+			int[] ids = new int[quedan];
+			double[] puntuaciones = new double[quedan];
+			double idf = idf(frecuencia[primera]);
+			for (int k = 0; k < quedan; k++) {
+				ids[k] = id(coincidencias[k]);
+				puntuaciones[k] = PESOS[tipo(coincidencias[k])] * idf;
+			}
+
+			// cruce con el resto de palabras, de la más rara a la más frecuente
+			for (int o = 1; o < n && quedan > 0; o++) {
+				int i = orden[o];
+				String palabra = palabras.get(i);
+				idf = idf(frecuencia[i]);
+				int siguen = 0;
+				Termino termino = terminos.get(palabra);
+				if (expansiones.get(i).size() == 1 && termino != null) {
+					// término sin expansiones: se buscan los que quedan en sus dos listas
+					ListaIds enNombre = termino.enNombre;
+					ListaIds enDescripcion = termino.enDescripcion;
+					int a = 0;
+					int b = 0;
+					for (int k = 0; k < quedan; k++) {
+						int id = ids[k];
+						a = enNombre.buscarDesde(a, id);
+						int tipo = 0;
+						if (a < enNombre.size() && enNombre.get(a) == id) {
+							tipo = NOMBRE_TERMINO;
+						} else {
+							b = enDescripcion.buscarDesde(b, id);
+							if (b < enDescripcion.size() && enDescripcion.get(b) == id) tipo = DESCRIPCION_TERMINO;
+						}
+						if (tipo > 0) {
+							ids[siguen] = id;
+							puntuaciones[siguen++] = puntuaciones[k] + PESOS[tipo] * idf;
+						}
+					}
+				} else if (!truncada[i] && frecuencia[i] <= (long) quedan * CRUCE_MAXIMO) {
+					long[] otras = coincidencias(palabra, expansiones.get(i), frecuencia[i]);
+					int b = 0;
+					for (int k = 0; k < quedan && b < otras.length; k++) {
+						b = buscarDesde(otras, b, (long) ids[k] << 3);
+						if (b < otras.length && id(otras[b]) == ids[k]) {
+							ids[siguen] = ids[k];
+							puntuaciones[siguen++] = puntuaciones[k] + PESOS[tipo(otras[b])] * idf;
+						}
+					}
+				} else {
+					// también si la palabra está truncada: así no se pierde ningún artículo
+					for (int k = 0; k < quedan; k++) {
+						int tipo = tipo(documentos.get(ids[k]), palabra);
+						if (tipo > 0) {
+							ids[siguen] = ids[k];
+							puntuaciones[siguen++] = puntuaciones[k] + PESOS[tipo] * idf;
+						}
+					}
+				}
+				quedan = siguen;
+			}
+
+			PriorityQueue<Candidato> mejores = new PriorityQueue<>(max + 1, PEOR_PRIMERO);
+			for (int k = 0; k < quedan; k++) {
+				// los ids van en orden, así que a igual puntuación no desplazan al peor
+				if (mejores.size() == max && mejores.peek().puntuacion() >= puntuaciones[k]) continue;
+				mejores.add(new Candidato(ids[k], puntuaciones[k]));
+				if (mejores.size() > max) mejores.poll();
+			}
+			List<Candidato> elegidos = new ArrayList<>(mejores);
+			elegidos.sort(PEOR_PRIMERO.reversed());
+			List<Resultado> resultado = new ArrayList<>(elegidos.size());
+			for (Candidato c : elegidos) {
+				resultado.add(new Resultado(c.id(), documentos.get(c.id()).nombre(), c.puntuacion()));
+			}
+			return new Busqueda(resultado, truncada[primera]);
+		} finally {
+			lectura.unlock();
+		}
+	}
+
+	/**
+	 * Número de artículos indexados.
+	 */
+	public int getArticulos() {
+		lectura.lock();
+		try {
+			return documentos.size();
+		} finally {
+			lectura.unlock();
+		}
+	}
+
+	/**
+	 * Número de términos distintos.
+	 */
+	public int getTerminos() {
+		lectura.lock();
+		try {
+			return terminos.size();
+		} finally {
+			lectura.unlock();
+		}
+	}
+
+	/**
+	 * Términos que empiezan por la palabra (ella incluida). Si pasan de
+	 * {@value #MAX_EXPANSIONES} se queda con los de listas más largas, y con la
+	 * propia palabra si es un término.
+	 */
+	private Expansion expansiones(String palabra) {
+		Collection<Termino> todos = terminos.subMap(palabra, true, palabra + Character.MAX_VALUE, false).values();
+		if (todos.size() <= MAX_EXPANSIONES) return new Expansion(todos, false);
+		Termino exacto = terminos.get(palabra);
+		PriorityQueue<Termino> mayores = new PriorityQueue<>(MAX_EXPANSIONES + 1,
+				Comparator.comparingInt(Termino::size));
+		for (Termino t : todos) {
+			if (t == exacto) continue;
+			mayores.add(t);
+			if (mayores.size() > MAX_EXPANSIONES - ((exacto != null) ? 1 : 0)) mayores.poll();
+		}
+		List<Termino> elegidos = new ArrayList<>(mayores);
+		if (exacto != null) elegidos.add(exacto);
+		return new Expansion(elegidos, true);
+	}
+
+	/**
+	 * Artículos que contienen la palabra, ordenados por id y sin repetir, con
+	 * la mejor coincidencia de cada uno: {@code id << 3 | tipo}.
+	 * @param frecuencia total de entradas de las listas de las expansiones.
+	 */
+	private long[] coincidencias(String palabra, Collection<Termino> expansiones, int frecuencia) {
+		long[] r = new long[frecuencia];
+		int n = 0;
+		Termino termino = terminos.get(palabra);
+		if (expansiones.size() == 1 && termino != null) {
+			// sin expansiones basta con mezclar las dos listas, que ya están ordenadas
+			ListaIds a = termino.enNombre;
+			ListaIds b = termino.enDescripcion;
+			int i = 0;
+			int j = 0;
+			while (i < a.size() || j < b.size()) {
+				if (j == b.size() || (i < a.size() && a.get(i) <= b.get(j))) {
+					if (j < b.size() && a.get(i) == b.get(j)) j++;
+					r[n++] = ((long) a.get(i++) << 3) | NOMBRE_TERMINO;
+				} else {
+					r[n++] = ((long) b.get(j++) << 3) | DESCRIPCION_TERMINO;
+				}
+			}
+			return (n == r.length) ? r : Arrays.copyOf(r, n);
+		}
+		for (Termino t : expansiones) {
+			boolean exacto = (t == termino);
+			n = copiar(t.enNombre, exacto ? NOMBRE_TERMINO : NOMBRE_PREFIJO, r, n);
+			n = copiar(t.enDescripcion, exacto ? DESCRIPCION_TERMINO : DESCRIPCION_PREFIJO, r, n);
+		}
+		// con el mismo id queda al final la mejor coincidencia
+		Arrays.sort(r, 0, n);
+		int distintos = 0;
+		for (int k = 0; k < n; k++) {
+			if (k + 1 < n && id(r[k + 1]) == id(r[k])) continue;
+			r[distintos++] = r[k];
+		}
+		return (distintos == r.length) ? r : Arrays.copyOf(r, distintos);
+	}
+
+	private static int copiar(ListaIds lista, int tipo, long[] destino, int desde) {
+		for (int k = 0; k < lista.size(); k++) {
+			destino[desde++] = ((long) lista.get(k) << 3) | tipo;
+		}
+		return desde;
+	}
+
+	/**
+	 * Como {@link ListaIds#buscarDesde(int, int)} sobre coincidencias: primera
+	 * posición desde {@code desde} con un valor mayor o igual que {@code clave}.
+	 */
+	private static int buscarDesde(long[] coincidencias, int desde, long clave) {
+		int tamano = coincidencias.length;
+		if (desde >= tamano || coincidencias[desde] >= clave) return desde;
+		int bajo = desde;
+		int alto = desde + 1;
+		int paso = 1;
+		while (alto < tamano && coincidencias[alto] < clave) {
+			bajo = alto;
+			paso <<= 1;
+			alto = bajo + paso;
+		}
+		int p = Arrays.binarySearch(coincidencias, bajo + 1, Math.min(alto + 1, tamano), clave);
+		return (p >= 0) ? p : -p - 1;
+	}
+
+	private static int id(long coincidencia) {
+		return (int) (coincidencia >> 3);
+	}
+
+	private static int tipo(long coincidencia) {
+		return (int) (coincidencia & 7);
+	}
+
+	/**
+	 * Mejor coincidencia de la palabra en los términos del artículo, o 0 si no
+	 * aparece.
+	 */
+	private static int tipo(Documento d, String palabra) {
+		int mejor = 0;
+		for (String t : d.enNombre()) {
+			if (t.equals(palabra)) return NOMBRE_TERMINO;
+			if (t.startsWith(palabra)) mejor = NOMBRE_PREFIJO;
+		}
+		if (mejor > 0) return mejor;
+		for (String t : d.enDescripcion()) {
+			if (t.equals(palabra)) return DESCRIPCION_TERMINO;
+			if (t.startsWith(palabra)) mejor = DESCRIPCION_PREFIJO;
+		}
+		return mejor;
+	}
+
+	private double idf(int frecuencia) {
+		return Math.log(1 + (double) documentos.size() / frecuencia);
+	}
+
+	/**
+	 * Añade el artículo al término.
+	 * @return el término tal como está en el diccionario, para no guardar una
+	 *         copia por artículo.
+	 */
+	private String anadir(String termino, int id, boolean enNombre) {
+		Termino t = terminos.get(termino);
+		if (t == null) {
+			t = new Termino();
+			terminos.put(termino, t);
+		} else {
+			termino = terminos.ceilingKey(termino);
+		}
+		(enNombre ? t.enNombre : t.enDescripcion).add(id);
+		return termino;
+	}
+
+	private void desindexar(int id, Documento d) {
+		for (String t : d.enNombre()) quitarDeTermino(t, id, true);
+		for (String t : d.enDescripcion()) quitarDeTermino(t, id, false);
+	}
+
+	private void quitarDeTermino(String termino, int id, boolean enNombre) {
+		Termino t = terminos.get(termino);
+		if (t == null) return;
+		(enNombre ? t.enNombre : t.enDescripcion).remove(id);
+		if (t.size() == 0) terminos.remove(termino);
+	}
+
+	private static String[] distintos(String texto) {
+		return new LinkedHashSet<>(NormalizadorTexto.terminos(texto)).toArray(String[]::new);
+	}
+}
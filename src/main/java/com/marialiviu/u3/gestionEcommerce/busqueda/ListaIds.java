@@ -0,0 +1,77 @@
+package com.marialiviu.u3.gestionEcommerce.busqueda;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto ordenado de ids de artículo sobre un array de enteros, para las
+ * listas de artículos de cada término del índice. Los artículos nuevos tienen
+ * ids crecientes, así que casi todas las altas son al final.
+ */
+final class ListaIds {
+
+	private int[] ids = new int[2];
+	private int tamano;
+
+	int size() {
+		return tamano;
+	}
+
+	int get(int i) {
+		return ids[i];
+	}
+
+	void add(int id) {
+		if (tamano > 0 && ids[tamano - 1] >= id) {
+			int p = Arrays.binarySearch(ids, 0, tamano, id);
+			if (p >= 0) return;
+			insertar(-p - 1, id);
+			return;
+		}
+		insertar(tamano, id);
+	}
+
+	void remove(int id) {
+		int p = Arrays.binarySearch(ids, 0, tamano, id);
+		if (p < 0) return;
+		System.arraycopy(ids, p + 1, ids, p, tamano - p - 1);
+		tamano--;
+	}
+
+	/**
+	 * Primera posición a partir de {@code desde} con un id mayor o igual que
+	 * {@code id}, o {@link #size()} si no hay ninguna. Avanza a saltos que se
+	 * duplican y termina con una búsqueda binaria en el último salto, así que
+	 * cuesta O(log d) si la posición está d más allá de {@code desde}.
+	 */
+	int buscarDesde(int desde, int id) {
+		if (desde >= tamano || ids[desde] >= id) return desde;
+		int bajo = desde;
+		int alto = desde + 1;
+		int paso = 1;
+		while (alto < tamano && ids[alto] < id) {
+			bajo = alto;
+			paso <<= 1;
+			alto = bajo + paso;
+		}
+		int p = Arrays.binarySearch(ids, bajo + 1, Math.min(alto + 1, tamano), id);
+		return (p >= 0) ? p : -p - 1;
+	}
+
+	/**
+	 * Copia los ids a partir de la posición {@code desde} de {@code destino}.
+	 * @return posición siguiente a la última copiada.
+	 */
+	int copiar(int[] destino, int desde) {
+		System.arraycopy(ids, 0, destino, desde, tamano);
+		return desde + tamano;
+	}
+
+	private void insertar(int p, int id) {
+		if (tamano == ids.length) {
+			ids = Arrays.copyOf(ids, tamano + (tamano >> 1) + 1);
+		}
+		System.arraycopy(ids, p, ids, p + 1, tamano - p);
+		ids[p] = id;
+		tamano++;
+	}
+}
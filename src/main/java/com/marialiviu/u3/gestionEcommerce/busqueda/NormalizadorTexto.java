@@ -0,0 +1,53 @@
+package com.marialiviu.u3.gestionEcommerce.busqueda;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Divide un texto en términos de búsqueda con las mismas reglas de igualdad
+ * que la intercalación {@code utf8mb4_es_0900_ai_ci} de la base de datos: sin
+ * distinguir mayúsculas ni acentos ("cafe" = "Café", "pinguino" = "pingüino"),
+ * pero con la ñ como letra propia ("año" ≠ "ano").
+ * <p>
+ * Un término es una secuencia de letras y dígitos; el resto de caracteres
+ * separa términos.
+ * </p>
+ */
+public final class NormalizadorTexto {
+
+	private static final char TILDE_COMBINABLE = '\u0303';
+
+	private NormalizadorTexto() {
+	}
+
+	/**
+	 * Términos normalizados del texto, en orden y con repeticiones.
+	 * @param texto puede ser null.
+	 */
+	public static List<String> terminos(String texto) {
+		List<String> terminos = new ArrayList<>();
+		if (texto == null) return terminos;
+		String descompuesto = Normalizer.normalize(texto, Normalizer.Form.NFD);
+		StringBuilder actual = new StringBuilder();
+		for (int i = 0; i < descompuesto.length(); i++) {
+			char c = descompuesto.charAt(i);
+			if (Character.getType(c) == Character.NON_SPACING_MARK) {
+				// la única marca que cuenta es la tilde de la ñ; las demás se ignoran
+				int ultimo = actual.length() - 1;
+				if (c == TILDE_COMBINABLE && ultimo >= 0 && actual.charAt(ultimo) == 'n') {
+					actual.setCharAt(ultimo, 'ñ');
+				}
+			} else if (Character.isLetterOrDigit(c)) {
+				actual.append(Character.toLowerCase(c));
+			} else if (actual.length() > 0) {
+				terminos.add(actual.toString());
+				actual.setLength(0);
+			}
+		}
+		if (actual.length() > 0) {
+			terminos.add(actual.toString());
+		}
+		return terminos;
+	}
+}
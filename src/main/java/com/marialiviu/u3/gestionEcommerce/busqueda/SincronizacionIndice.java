@@ -0,0 +1,89 @@
+package com.marialiviu.u3.gestionEcommerce.busqueda;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+
+/**
+ * Mantiene al día el {@link IndiceArticulos} de cada factoría con las altas,
+ * cambios y bajas de {@link Articulo}.
+ * <p>
+ * Hibernate crea esta clase como {@link Integrator} (ver
+ * {@code META-INF/services}); al integrarse crea el índice de la factoría y
+ * registra un listener de eventos posteriores a la confirmación, así que un
+ * cambio que se deshace nunca llega al índice.
+ * </p>
+ */
+public class SincronizacionIndice implements Integrator {
+
+	@Override
+	public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+			SessionFactoryImplementor sessionFactory) {
+		Listener listener = new Listener(IndiceArticulos.registrar(sessionFactory));
+		EventListenerRegistry registro = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+		registro.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+		registro.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+		registro.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory,
+			SessionFactoryServiceRegistry serviceRegistry) {
+		IndiceArticulos.quitar(sessionFactory);
+	}
+
+	private record Listener(IndiceArticulos indice)
+			implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+		@Override
+		public boolean requiresPostCommitHandling(EntityPersister persister) {
+			return persister.getMappedClass() == Articulo.class;
+		}
+
+		@Override
+		public void onPostInsert(PostInsertEvent event) {
+			if (event.getEntity() instanceof Articulo a) {
+				indice.indexar(a.getId(), a.getVersion(), a.getNombre(), a.getDescripcion());
+			}
+		}
+
+		@Override
+		public void onPostUpdate(PostUpdateEvent event) {
+			if (event.getEntity() instanceof Articulo a) {
+				indice.indexar(a.getId(), a.getVersion(), a.getNombre(), a.getDescripcion());
+			}
+		}
+
+		@Override
+		public void onPostDelete(PostDeleteEvent event) {
+			if (event.getEntity() instanceof Articulo a) {
+				indice.quitar(a.getId());
+			}
+		}
+
+		@Override
+		public void onPostInsertCommitFailed(PostInsertEvent event) {
+		}
+
+		@Override
+		public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+		}
+
+		@Override
+		public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		}
+	}
+}
@@ -0,0 +1,485 @@
+package com.marialiviu.u3.gestionEcommerce.cache;
+
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.DataException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Caché de aplicación de clientes por NIF/CIF, con una
+ * {@link ClienteInstantanea} (cliente e información fiscal) por entrada.
+ * <p>
+ * Es de lectura a través: un fallo carga la instantánea con una consulta y la
+ * guarda. Se limita a {@value #MAXIMO} entradas, desalojando con la política
+ * W-TinyLFU de Caffeine (se quedan los clientes que más compran aunque
+ * lleguen muchos de una sola compra), y cada entrada caduca a los
+ * {@value #TTL_S} segundos de cargarse. Con el máximo a 0 no se guarda nada y
+ * cada lectura va a la base de datos, como sin caché. Los NIF que no existen
+ * no se guardan.
+ * </p>
+ * <p>
+ * Hay una caché por factoría ({@link #de(EntityManagerFactory)}).
+ * {@link InvalidacionClientes} quita la entrada cuando se confirma un cambio o
+ * un borrado de {@code Cliente} o {@code InformacionFiscal}; las
+ * actualizaciones masivas por JPQL o SQL no pasan por los eventos de
+ * Hibernate y hay que llamar a {@link #invalidar(String)}, o esperar a que
+ * caduque la entrada.
+ * </p>
+ * <p>
+ * Los cambios de email ({@link #actualizarEmail}) se escriben en diferido si
+ * {@value #ESCRITURA_DIFERIDA_MS} es mayor que 0: se anotan en memoria, la
+ * caché los ve enseguida y un hilo los escribe cada ese tiempo en un único
+ * lote. Varios cambios del mismo cliente entre dos escrituras se quedan en el
+ * último. Los pendientes se escriben también al cerrar la factoría; si el
+ * proceso muere antes se pierden, así que sólo conviene para datos que se
+ * puedan volver a pedir.
+ * </p>
+ * <p>
+ * Si el lote falla se repite fila a fila, cada una en su transacción. Un email
+ * que la base de datos no acepta (repetido, demasiado largo) o de un cliente
+ * que no existe se descarta y se anota en el log, y el cliente sale de la
+ * caché para que se vuelva a leer el email que sí está escrito. Un fallo de
+ * otro tipo (p. ej. sin conexión) no descarta nada: los emails siguen
+ * pendientes para la siguiente escritura.
+ * </p>
+ *
+ * <pre>
+ * CacheClientes clientes = CacheClientes.de(emf);
+ * ClienteInstantanea c = clientes.get(nif);
+ * clientes.actualizarEmail(nif, "nuevo@example.com");
+ * </pre>
+ */
+public final class CacheClientes {
+
+	/** Entradas como máximo; 0 desactiva la caché. */
+	public static final String MAXIMO = "ecommerce.clientes.maximo";
+	/** Segundos que dura una entrada desde que se carga. */
+	public static final String TTL_S = "ecommerce.clientes.ttl_s";
+	/** Milisegundos entre escrituras de los emails pendientes; 0 los escribe al momento. */
+	public static final String ESCRITURA_DIFERIDA_MS = "ecommerce.clientes.escritura_diferida_ms";
+
+	/** Incrementa la versión, como haría Hibernate al escribir el cliente. */
+	private static final String SQL_EMAIL = "UPDATE clientes SET email = ?, version = version + 1 WHERE nif_cif = ?";
+
+	private static final System.Logger LOG = System.getLogger(CacheClientes.class.getName());
+
+	private static final Map<SessionFactoryImplementor, CacheClientes> CACHES = new ConcurrentHashMap<>();
+
+	private final UnitOfWork uow;
+	/** null si la caché está desactivada. */
+	private final Cache<String, ClienteInstantanea> cache;
+	/** Emails por escribir, el último por cliente. */
+	private final Map<String, String> pendientes = new ConcurrentHashMap<>();
+	/** null si los emails se escriben al momento. */
+	private final ScheduledExecutorService escritor;
+	private final LongAdder lecturasSinCache = new LongAdder();
+	private final LongAdder emailsRecibidos = new LongAdder();
+	private final LongAdder emailsEscritos = new LongAdder();
+	private final LongAdder emailsRechazados = new LongAdder();
+	private final LongAdder escrituras = new LongAdder();
+	private final LongAdder fallosEscritura = new LongAdder();
+
+	private CacheClientes(SessionFactoryImplementor sessionFactory, int maximo, long ttlS, long diferidaMs) {
+		this.uow = new UnitOfWork(sessionFactory);
+		this.cache = (maximo > 0)
+				? Caffeine.newBuilder()
+						.maximumSize(maximo)
+						.expireAfterWrite(Duration.ofSeconds(ttlS))
+						.recordStats()
+						.build()
+				: null;
+		if (diferidaMs > 0) {
+			this.escritor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "escritura-clientes");
+				t.setDaemon(true);
+				return t;
+			});
+			escritor.scheduleWithFixedDelay(this::escribirSinFallar, diferidaMs, diferidaMs, TimeUnit.MILLISECONDS);
+		} else {
+			this.escritor = null;
+		}
+	}
+
+	/**
+	 * Caché de clientes de la factoría.
+	 * @param emf
+	 * @throws IllegalStateException si la factoría no tiene caché de clientes.
+	 */
+	public static CacheClientes de(EntityManagerFactory emf) {
+		CacheClientes clientes = CACHES.get(emf.unwrap(SessionFactoryImplementor.class));
+		if (clientes == null) {
+			throw new IllegalStateException("La factoría no tiene caché de clientes");
+		}
+		return clientes;
+	}
+
+	static CacheClientes registrar(SessionFactoryImplementor sessionFactory, int maximo, long ttlS,
+			long diferidaMs) {
+		return CACHES.computeIfAbsent(sessionFactory, sf -> new CacheClientes(sf, maximo, ttlS, diferidaMs));
+	}
+
+	static void quitar(SessionFactoryImplementor sessionFactory) {
+		CacheClientes clientes = CACHES.remove(sessionFactory);
+		if (clientes != null) {
+			// normalmente ya se cerró con la factoría; si no, escribe ahora los pendientes
+			clientes.cerrar();
+		}
+	}
+
+	/**
+	 * Instantánea del cliente; si no está en la caché se carga en una
+	 * transacción propia. La carga va siempre a la base de datos principal:
+	 * tras una invalidación, una réplica atrasada volvería a guardar el valor
+	 * antiguo hasta que caducara.
+	 * @param nif
+	 * @return la instantánea, o null si el cliente no existe.
+	 */
+	public ClienteInstantanea get(String nif) {
+		if (cache == null) {
+			return uow.soloLectura(em -> get(em, nif));
+		}
+		return cache.get(nif, k -> EnrutadorLecturas.enPrincipal(() -> uow.soloLectura(em -> cargar(em, k))));
+	}
+
+	/**
+	 * Instantánea del cliente; si no está en la caché se carga con el
+	 * EntityManager de quien llama, sin pedir otra conexión.
+	 * @param em
+	 * @param nif
+	 * @return la instantánea, o null si el cliente no existe.
+	 */
+	public ClienteInstantanea get(EntityManager em, String nif) {
+		if (cache == null) {
+			lecturasSinCache.increment();
+			return cargar(em, nif);
+		}
+		return cache.get(nif, k -> cargar(em, k));
+	}
+
+	/**
+	 * Verdadero si el cliente existe, según {@link #get(EntityManager, String)}.
+	 */
+	public boolean existe(EntityManager em, String nif) {
+		return get(em, nif) != null;
+	}
+
+	/**
+	 * Quita el cliente de la caché; la siguiente lectura lo carga de nuevo.
+	 * @param nif
+	 */
+	public void invalidar(String nif) {
+		if (cache != null) {
+			cache.invalidate(nif);
+		}
+	}
+
+	/**
+	 * Cambia el email del cliente: al momento, o anotado para la siguiente
+	 * escritura si la escritura es diferida. En ambos casos las lecturas
+	 * posteriores ya ven el email nuevo. No comprueba que el cliente exista.
+	 * @param nif
+	 * @param email
+	 */
+	public void actualizarEmail(String nif, String email) {
+		emailsRecibidos.increment();
+		if (escritor == null) {
+			uow.ejecutar(em -> em.unwrap(Session.class).doWork(con -> {
+				try (PreparedStatement ps = con.prepareStatement(SQL_EMAIL)) {
+					ps.setString(1, email);
+					ps.setString(2, nif);
+					ps.executeUpdate();
+				}
+			}));
+			emailsEscritos.increment();
+			escrituras.increment();
+			invalidar(nif);
+			return;
+		}
+		pendientes.put(nif, email);
+		if (cache != null) {
+			cache.asMap().computeIfPresent(nif, (k, c) -> c.conEmail(email));
+		}
+	}
+
+	/**
+	 * Escribe ahora, en una transacción y un único lote JDBC, los emails
+	 * pendientes; si el lote falla, fila a fila, descartando los que la base de
+	 * datos no acepta.
+	 * @return clientes actualizados.
+	 */
+	public int escribirPendientes() {
+		List<Map.Entry<String, String>> lote = new ArrayList<>(new HashMap<>(pendientes).entrySet());
+		if (lote.isEmpty()) {
+			return 0;
+		}
+		Map<String, String> rechazados = new HashMap<>();
+		try {
+			int[] filas = uow.enTransaccion(em -> escribir(em, lote));
+			escrituras.increment();
+			for (int i = 0; i < filas.length; i++) {
+				if (filas[i] == 0) rechazados.put(lote.get(i).getKey(), "el cliente no existe");
+			}
+		} catch (RuntimeException e) {
+			// un solo email repetido deshace el lote entero
+			escribirFilaAFila(lote, rechazados);
+		}
+		int escritos = 0;
+		for (Map.Entry<String, String> e : lote) {
+			String motivo = rechazados.get(e.getKey());
+			// si ha llegado otro email mientras tanto se queda para la siguiente escritura
+			boolean quitado = pendientes.remove(e.getKey(), e.getValue());
+			if (motivo == null) {
+				escritos++;
+				if (quitado && cache != null) {
+					// una carga que leyó el email antiguo justo antes de confirmar no debe quedarse
+					cache.asMap().computeIfPresent(e.getKey(), (k, c) -> c.conEmail(e.getValue()));
+				}
+			} else {
+				emailsRechazados.increment();
+				if (quitado) invalidar(e.getKey());
+				LOG.log(System.Logger.Level.WARNING, "Email " + e.getValue() + " del cliente " + e.getKey()
+						+ " descartado: " + motivo);
+			}
+		}
+		emailsEscritos.add(escritos);
+		return escritos;
+	}
+
+	/**
+	 * Escribe cada email en su transacción y anota en {@code rechazados} los
+	 * que la base de datos no acepta. Los que chocan por clave única se
+	 * repiten mientras alguno entre: el email que quiere un cliente puede
+	 * quedar libre cuando se escribe el de otro.
+	 * @throws RuntimeException si falla por algo que no es el email.
+	 */
+	private void escribirFilaAFila(List<Map.Entry<String, String>> lote, Map<String, String> rechazados) {
+		List<Map.Entry<String, String>> quedan = lote;
+		while (!quedan.isEmpty()) {
+			List<Map.Entry<String, String>> repetir = new ArrayList<>();
+			for (Map.Entry<String, String> e : quedan) {
+				try {
+					int[] filas = uow.enTransaccion(em -> escribir(em, List.of(e)));
+					escrituras.increment();
+					if (filas[0] == 0) rechazados.put(e.getKey(), "el cliente no existe");
+				} catch (RuntimeException x) {
+					if (!rechazable(x)) throw x;
+					rechazados.put(e.getKey(), String.valueOf(x.getMessage()));
+					repetir.add(e);
+				}
+			}
+			if (repetir.size() == quedan.size()) {
+				return;
+			}
+			repetir.forEach(e -> rechazados.remove(e.getKey()));
+			quedan = repetir;
+		}
+	}
+
+	/**
+	 * Escribe los emails con un UPDATE por cliente; una sola fila no va en
+	 * lote, para que un fallo llegue como el error de la sentencia.
+	 * @return filas actualizadas por cada email, en el mismo orden.
+	 */
+	private static int[] escribir(EntityManager em, List<Map.Entry<String, String>> emails) {
+		return em.unwrap(Session.class).doReturningWork(con -> {
+			try (PreparedStatement ps = con.prepareStatement(SQL_EMAIL)) {
+				for (Map.Entry<String, String> e : emails) {
+					ps.setString(1, e.getValue());
+					ps.setString(2, e.getKey());
+					if (emails.size() == 1) return new int[] { ps.executeUpdate() };
+					ps.addBatch();
+				}
+				return ps.executeBatch();
+			}
+		});
+	}
+
+	/**
+	 * Errores del propio email, que se repetirían al volver a escribirlo. Se
+	 * mira toda la cadena de causas, porque JPA envuelve los de Hibernate.
+	 */
+	private static boolean rechazable(RuntimeException e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof ConstraintViolationException || t instanceof DataException
+					|| t instanceof SQLIntegrityConstraintViolationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Verdadero si guarda clientes (máximo mayor que 0).
+	 */
+	public boolean isActiva() {
+		return cache != null;
+	}
+
+	/**
+	 * Verdadero si los emails se escriben en diferido.
+	 */
+	public boolean isEscrituraDiferida() {
+		return escritor != null;
+	}
+
+	/**
+	 * Aciertos, fallos, cargas y desalojos; todo a 0 si está desactivada.
+	 */
+	public CacheStats getEstadisticas() {
+		return (cache != null) ? cache.stats() : CacheStats.empty();
+	}
+
+	/**
+	 * Entradas guardadas (aproximado).
+	 */
+	public long getEntradas() {
+		return (cache != null) ? cache.estimatedSize() : 0;
+	}
+
+	/**
+	 * Lecturas hechas con la caché desactivada, todas contra la base de datos.
+	 */
+	public long getLecturasSinCache() {
+		return lecturasSinCache.sum();
+	}
+
+	/**
+	 * Cambios de email pedidos con {@link #actualizarEmail}.
+	 */
+	public long getEmailsRecibidos() {
+		return emailsRecibidos.sum();
+	}
+
+	/**
+	 * Filas de email escritas; con escritura diferida, menos que los recibidos
+	 * si se han agrupado cambios del mismo cliente.
+	 */
+	public long getEmailsEscritos() {
+		return emailsEscritos.sum();
+	}
+
+	/**
+	 * Emails descartados al escribirlos: repetidos, no válidos o de clientes
+	 * que no existen.
+	 */
+	public long getEmailsRechazados() {
+		return emailsRechazados.sum();
+	}
+
+	/**
+	 * Emails anotados aún sin escribir.
+	 */
+	public int getEmailsPendientes() {
+		return pendientes.size();
+	}
+
+	/**
+	 * Transacciones de escritura de emails.
+	 */
+	public long getEscrituras() {
+		return escrituras.sum();
+	}
+
+	/**
+	 * Escrituras diferidas fallidas (los emails siguen pendientes).
+	 */
+	public long getFallosEscritura() {
+		return fallosEscritura.sum();
+	}
+
+	/**
+	 * Imprime las estadísticas de la caché de clientes de la factoría.
+	 * @param emf
+	 * @param out
+	 */
+	public static void imprimir(EntityManagerFactory emf, PrintStream out) {
+		CacheClientes c = de(emf);
+		if (!c.isActiva()) {
+			out.println("Caché de clientes desactivada (" + MAXIMO + "=0): " + c.getLecturasSinCache()
+					+ " lecturas a la base de datos");
+		} else {
+			CacheStats st = c.getEstadisticas();
+			out.printf(Locale.ROOT, "Caché de clientes: %d entradas, %d aciertos, %d fallos (%.1f%% acierto), "
+					+ "%d desalojos, carga media %.0fµs%n", c.getEntradas(), st.hitCount(), st.missCount(),
+					100 * st.hitRate(), st.evictionCount(), st.averageLoadPenalty() / 1000);
+		}
+		out.printf("Emails: %d cambios, %d escritos en %d escrituras, %d pendientes, %d descartados, %d fallos (%s)%n",
+				c.getEmailsRecibidos(), c.getEmailsEscritos(), c.getEscrituras(), c.getEmailsPendientes(),
+				c.getEmailsRechazados(), c.getFallosEscritura(), c.isEscrituraDiferida() ? "diferida" : "al momento");
+	}
+
+	/**
+	 * Escribe los pendientes y para el hilo de escritura. Lo llama
+	 * {@link InvalidacionClientes} al empezar a cerrarse la factoría, mientras
+	 * aún se pueden abrir sesiones, y otra vez al quitar la caché; la segunda
+	 * no hace nada si ya no quedan pendientes.
+	 */
+	void cerrar() {
+		if (escritor == null) {
+			return;
+		}
+		escritor.shutdown();
+		try {
+			if (!escritor.awaitTermination(30, TimeUnit.SECONDS)) {
+				escritor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			escritor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		try {
+			escribirPendientes();
+		} catch (RuntimeException e) {
+			LOG.log(System.Logger.Level.ERROR, "Se pierden " + pendientes.size() + " emails sin escribir", e);
+		}
+	}
+
+	private void escribirSinFallar() {
+		try {
+			escribirPendientes();
+		} catch (RuntimeException e) {
+			// se reintenta en el siguiente periodo; un fallo no debe parar el hilo
+			fallosEscritura.increment();
+			LOG.log(System.Logger.Level.WARNING, "Escritura de emails de clientes fallida; quedan "
+					+ pendientes.size() + " pendientes", e);
+		}
+	}
+
+	/**
+	 * Lee el cliente con el email pendiente, si lo hay, en lugar del escrito.
+	 */
+	private ClienteInstantanea cargar(EntityManager em, String nif) {
+		ClienteInstantanea c = em.createQuery(ClienteInstantanea.SELECT + "WHERE c.nif_cif = :nif",
+				ClienteInstantanea.class)
+				.setParameter("nif", nif)
+				.getResultStream()
+				.findFirst()
+				.orElse(null);
+		String pendiente = pendientes.get(nif);
+		return (c != null && pendiente != null) ? c.conEmail(pendiente) : c;
+	}
+}
@@ -0,0 +1,49 @@
+package com.marialiviu.u3.gestionEcommerce.cache;
+
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Copia inmutable de un cliente y su información fiscal, tal como la guarda
+ * {@link CacheClientes}.
+ * <p>
+ * Se construye directamente desde JPQL ({@code SELECT new ...}) con una sola
+ * consulta que une <code>clientes</code> e <code>informacion_fiscal</code>,
+ * sin cargar ninguna de las dos entidades.
+ * </p>
+ *
+ * @param nifCif NIF/CIF del cliente.
+ * @param nombreCompleto nombre y apellidos.
+ * @param email correo electrónico.
+ * @param fechaCreacion alta del cliente; null si no consta.
+ * @param telefono teléfono de la información fiscal; null si no tiene.
+ * @param direccion dirección fiscal; null si no tiene.
+ */
+public record ClienteInstantanea(String nifCif, String nombreCompleto, String email, Instant fechaCreacion,
+		String telefono, String direccion) {
+
+	/**
+	 * Proyección JPQL que alimenta este registro; se completa con la condición
+	 * sobre {@code c.nif_cif}.
+	 */
+	static final String SELECT = "SELECT new com.marialiviu.u3.gestionEcommerce.cache.ClienteInstantanea("
+			+ "c.nif_cif, c.nombreCompleto, c.email, c.fechaCreacion, f.telefono, f.direccion) "
+			+ "FROM Cliente c LEFT JOIN c.informacionFiscal f ";
+
+	/**
+	 * Constructor para la proyección JPQL, con la fecha como la mapea
+	 * {@code Cliente}.
+	 */
+	public ClienteInstantanea(String nifCif, String nombreCompleto, String email, Date fechaCreacion,
+			String telefono, String direccion) {
+		this(nifCif, nombreCompleto, email,
+				(fechaCreacion != null) ? Instant.ofEpochMilli(fechaCreacion.getTime()) : null, telefono, direccion);
+	}
+
+	/**
+	 * La misma instantánea con otro email.
+	 */
+	public ClienteInstantanea conEmail(String email) {
+		return new ClienteInstantanea(nifCif, nombreCompleto, email, fechaCreacion, telefono, direccion);
+	}
+}
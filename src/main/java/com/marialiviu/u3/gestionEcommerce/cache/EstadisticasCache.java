@@ -0,0 +1,62 @@
+package com.marialiviu.u3.gestionEcommerce.cache;
+
+import java.io.PrintStream;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Muestra aciertos y fallos de la caché de segundo nivel y de la caché de
+ * consultas, por región, a partir de las estadísticas de Hibernate
+ * ({@code hibernate.generate_statistics}).
+ */
+public final class EstadisticasCache {
+
+	private EstadisticasCache() {
+	}
+
+	/**
+	 * Imprime las estadísticas de todas las regiones de caché.
+	 * @param emf
+	 * @param out
+	 */
+	public static void imprimir(EntityManagerFactory emf, PrintStream out) {
+		Statistics st = emf.unwrap(SessionFactory.class).getStatistics();
+		if (!st.isStatisticsEnabled()) {
+			out.println("Estadísticas desactivadas (hibernate.generate_statistics=false)");
+			return;
+		}
+		out.printf("%-24s %10s %10s %10s %8s %9s%n", "región", "aciertos", "fallos", "escrituras", "entradas",
+				"% acierto");
+		for (String region : new String[] { RegionesCache.ARTICULOS, RegionesCache.INFORMACION_FISCAL }) {
+			fila(out, region, st.getDomainDataRegionStatistics(region));
+		}
+		fila(out, RegionesCache.CONSULTAS_CATALOGO, st.getQueryRegionStatistics(RegionesCache.CONSULTAS_CATALOGO));
+		out.printf("Total 2º nivel: %d aciertos, %d fallos | consultas: %d aciertos, %d fallos, %d ejecutadas en BD%n",
+				st.getSecondLevelCacheHitCount(), st.getSecondLevelCacheMissCount(), st.getQueryCacheHitCount(),
+				st.getQueryCacheMissCount(), st.getQueryExecutionCount());
+	}
+
+	/**
+	 * Porcentaje de aciertos de una región, o -1 si aún no hay accesos.
+	 */
+	public static double ratioAciertos(CacheRegionStatistics r) {
+		long total = r.getHitCount() + r.getMissCount();
+		return (total == 0) ? -1 : 100.0 * r.getHitCount() / total;
+	}
+
+	private static void fila(PrintStream out, String region, CacheRegionStatistics r) {
+		if (r == null) {
+			out.printf("%-24s %s%n", region, "(sin datos)");
+			return;
+		}
+		double ratio = ratioAciertos(r);
+		// JCache no expone el número de entradas; Hibernate devuelve un valor negativo
+		long entradas = r.getElementCountInMemory();
+		out.printf("%-24s %10d %10d %10d %8s %9s%n", region, r.getHitCount(), r.getMissCount(), r.getPutCount(),
+				(entradas < 0) ? "-" : String.valueOf(entradas), (ratio < 0) ? "-" : String.format("%.1f", ratio));
+	}
+}
@@ -0,0 +1,104 @@
+package com.marialiviu.u3.gestionEcommerce.cache;
+
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+
+/**
+ * Crea la {@link CacheClientes} de cada factoría y la mantiene al día con los
+ * cambios y bajas de {@link Cliente} e {@link InformacionFiscal}.
+ * <p>
+ * Hibernate crea esta clase como {@link Integrator} (ver
+ * {@code META-INF/services}); al integrarse lee la configuración de la caché,
+ * registra un listener de eventos posteriores a la confirmación (un cambio que
+ * se deshace no invalida nada) y, al empezar a cerrarse la factoría, escribe
+ * los emails pendientes. Las altas no hacen falta: los NIF que no existen no
+ * se guardan.
+ * </p>
+ */
+public class InvalidacionClientes implements Integrator {
+
+	@Override
+	public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+			SessionFactoryImplementor sessionFactory) {
+		Map<String, Object> props = bootstrapContext.getServiceRegistry().requireService(ConfigurationService.class)
+				.getSettings();
+		CacheClientes clientes = CacheClientes.registrar(sessionFactory,
+				ConfigurationHelper.getInt(CacheClientes.MAXIMO, props, 10_000),
+				ConfigurationHelper.getLong(CacheClientes.TTL_S, props, 300),
+				ConfigurationHelper.getLong(CacheClientes.ESCRITURA_DIFERIDA_MS, props, 0));
+		Listener listener = new Listener(clientes);
+		EventListenerRegistry registro = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+		registro.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+		registro.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+		sessionFactory.addObserver(new SessionFactoryObserver() {
+			@Override
+			public void sessionFactoryClosing(SessionFactory factory) {
+				clientes.cerrar();
+			}
+		});
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory,
+			SessionFactoryServiceRegistry serviceRegistry) {
+		CacheClientes.quitar(sessionFactory);
+	}
+
+	private record Listener(CacheClientes clientes)
+			implements PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+		@Override
+		public boolean requiresPostCommitHandling(EntityPersister persister) {
+			Class<?> clase = persister.getMappedClass();
+			return clase == Cliente.class || clase == InformacionFiscal.class;
+		}
+
+		@Override
+		public void onPostUpdate(PostUpdateEvent event) {
+			invalidar(event.getPersister(), event.getId());
+		}
+
+		@Override
+		public void onPostDelete(PostDeleteEvent event) {
+			invalidar(event.getPersister(), event.getId());
+		}
+
+		/**
+		 * Hibernate llama a todos los listeners de la acción en cuanto uno la
+		 * pide, así que también llegan eventos de otras entidades.
+		 */
+		private void invalidar(EntityPersister persister, Object id) {
+			if (requiresPostCommitHandling(persister)) {
+				// las dos entidades tienen el NIF/CIF como id
+				clientes.invalidar((String) id);
+			}
+		}
+
+		@Override
+		public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+		}
+
+		@Override
+		public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.marialiviu.u3.gestionEcommerce.cache;
+
+/**
+ * Nombres de las regiones de la caché de segundo nivel. Deben coincidir con
+ * los bloques de <code>application.conf</code>.
+ */
+public final class RegionesCache {
+
+	/** Entidades {@code Articulo}. */
+	public static final String ARTICULOS = "articulos";
+
+	/** Entidades {@code InformacionFiscal}. */
+	public static final String INFORMACION_FISCAL = "informacion_fiscal";
+
+	/** Consultas cacheables sobre el catálogo de artículos. */
+	public static final String CONSULTAS_CATALOGO = "consultas_catalogo";
+
+	private RegionesCache() {
+	}
+}
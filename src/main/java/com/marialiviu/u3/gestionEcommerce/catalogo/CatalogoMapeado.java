@@ -0,0 +1,132 @@
+package com.marialiviu.u3.gestionEcommerce.catalogo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Instantánea actual del catálogo, que se renueva periódicamente.
+ * <p>
+ * Con {@link #arrancar(EntityManagerFactory)} el proceso exporta el catálogo
+ * cada {@value #PERIODO_S} segundos y cambia a la nueva instantánea. Con
+ * {@link #abrir(Path, long)} un proceso que no exporta (otra instancia en la
+ * misma máquina) sólo vigila el fichero y lo vuelve a proyectar cuando se
+ * reemplaza. El cambio es una escritura volátil: los lectores no se bloquean
+ * nunca.
+ * </p>
+ * <p>
+ * Precio y stock pueden ir con un periodo de retraso respecto a la base de
+ * datos. Sirven para mostrar el catálogo y para descartar pronto lo que no
+ * hay, pero el stock se sigue reservando con
+ * {@link com.marialiviu.u3.gestionEcommerce.service.StockReservationService}.
+ * </p>
+ */
+public class CatalogoMapeado implements AutoCloseable {
+
+	/** Fichero de la instantánea; si no se define no se arranca el catálogo. */
+	public static final String FICHERO = "ecommerce.catalogo.fichero";
+	/** Segundos entre exportaciones (o entre comprobaciones del fichero). */
+	public static final String PERIODO_S = "ecommerce.catalogo.periodo_s";
+
+	private static final System.Logger LOG = System.getLogger(CatalogoMapeado.class.getName());
+
+	private final Path fichero;
+	private final ExportadorCatalogo exportador;
+	private final ScheduledExecutorService planificador;
+	private volatile InstantaneaCatalogo actual;
+	private Object version;
+
+	private CatalogoMapeado(Path fichero, ExportadorCatalogo exportador, long periodoS) {
+		this.fichero = fichero;
+		this.exportador = exportador;
+		renovar();
+		this.planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "catalogo-mapeado");
+			t.setDaemon(true);
+			return t;
+		});
+		planificador.scheduleWithFixedDelay(this::renovarSinFallar, periodoS, periodoS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Exporta el catálogo ahora y cada periodo, con el fichero y periodo de las
+	 * propiedades de la unidad de persistencia.
+	 * @param emf
+	 * @return el catálogo, o null si {@value #FICHERO} no está definido.
+	 */
+	public static CatalogoMapeado arrancar(EntityManagerFactory emf) {
+		Map<String, Object> props = emf.getProperties();
+		String fichero = ConfigurationHelper.getString(FICHERO, props, "");
+		if (fichero.isBlank()) {
+			return null;
+		}
+		long periodo = ConfigurationHelper.getLong(PERIODO_S, props, 60);
+		return new CatalogoMapeado(Path.of(fichero), new ExportadorCatalogo(emf), periodo);
+	}
+
+	/**
+	 * Usa un fichero que exporta otro proceso.
+	 * @param fichero
+	 * @param periodoS segundos entre comprobaciones de si se ha reemplazado.
+	 */
+	public static CatalogoMapeado abrir(Path fichero, long periodoS) {
+		return new CatalogoMapeado(fichero, null, periodoS);
+	}
+
+	/**
+	 * Instantánea actual. Para que varias lecturas sean coherentes entre sí,
+	 * se obtiene una vez y se usa para todas.
+	 */
+	public InstantaneaCatalogo get() {
+		return actual;
+	}
+
+	/**
+	 * Exporta (si este proceso es el que exporta) y cambia a la instantánea
+	 * del fichero si es distinta de la actual.
+	 * @return verdadero si ha cambiado de instantánea.
+	 */
+	public synchronized boolean renovar() {
+		if (exportador != null) {
+			exportador.exportar(fichero);
+		}
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(fichero, BasicFileAttributes.class);
+			// el rename crea un fichero nuevo: cambia el inodo aunque coincidan fecha y tamaño
+			Object leida = (attrs.fileKey() != null) ? attrs.fileKey() : attrs.lastModifiedTime();
+			if (actual != null && Objects.equals(leida, version)) {
+				return false;
+			}
+			actual = InstantaneaCatalogo.abrir(fichero);
+			version = leida;
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo abrir el catálogo " + fichero, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		planificador.shutdownNow();
+	}
+
+	private void renovarSinFallar() {
+		try {
+			renovar();
+		} catch (RuntimeException e) {
+			// se sigue sirviendo la instantánea anterior
+			LOG.log(System.Logger.Level.WARNING, "Renovación del catálogo fallida", e);
+		}
+	}
+}
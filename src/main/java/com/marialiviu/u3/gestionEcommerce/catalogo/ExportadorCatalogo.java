@@ -0,0 +1,164 @@
+package com.marialiviu.u3.gestionEcommerce.catalogo;
+
+import static com.marialiviu.u3.gestionEcommerce.catalogo.InstantaneaCatalogo.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Escribe la tabla <code>articulos</code> en el formato de
+ * {@link InstantaneaCatalogo}.
+ * <p>
+ * Los artículos se leen por páginas ordenadas por id (sólo las cuatro
+ * columnas, sin crear entidades) dentro de una única transacción de sólo
+ * lectura, de modo que la instantánea corresponde a un mismo momento de la
+ * base de datos. Se escribe en un fichero temporal junto al destino que
+ * después se mueve sobre él de forma atómica: los lectores ven el fichero
+ * anterior o el nuevo completo, nunca uno a medias.
+ * </p>
+ */
+public class ExportadorCatalogo {
+
+	private static final int PAGINA = 5000;
+
+	/**
+	 * Se usa índice directo si no ocupa más de este número de huecos por
+	 * artículo; si los ids están muy dispersos se busca por bisección.
+	 */
+	private static final int HUECOS_POR_ARTICULO = 4;
+
+	private final UnitOfWork uow;
+
+	public ExportadorCatalogo(EntityManagerFactory emf) {
+		this.uow = new UnitOfWork(emf);
+	}
+
+	/**
+	 * Exporta el catálogo actual.
+	 * @param destino fichero a reemplazar.
+	 * @return número de artículos exportados.
+	 */
+	public int exportar(Path destino) {
+		long generado = System.currentTimeMillis();
+		Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+		try {
+			if (destino.getParent() != null) Files.createDirectories(destino.getParent());
+			int n;
+			try (FileChannel canal = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				n = escribir(canal, generado);
+				canal.force(true);
+			}
+			Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return n;
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo exportar el catálogo a " + destino, e);
+		}
+	}
+
+	private int escribir(FileChannel canal, long generado) throws IOException {
+		ByteBuffer registro = ByteBuffer.allocateDirect(REGISTRO * 256).order(ORDEN);
+		int[] ids = uow.soloLectura(em -> {
+			int[] vistos = new int[1024];
+			int n = 0;
+			int ultimo = Integer.MIN_VALUE;
+			try {
+				while (true) {
+					List<Object[]> filas = em.createQuery("SELECT a.id, a.nombre, a.precioActual, a.stock "
+							+ "FROM Articulo a WHERE a.id > :ultimo ORDER BY a.id", Object[].class)
+							.setParameter("ultimo", ultimo)
+							.setMaxResults(PAGINA)
+							.getResultList();
+					for (Object[] f : filas) {
+						int id = (Integer) f[0];
+						if (n == vistos.length) vistos = Arrays.copyOf(vistos, n * 2);
+						vistos[n] = id;
+						if (!registro.hasRemaining()) volcar(canal, registro, CABECERA + (long) (n - 256) * REGISTRO);
+						poner(registro, id, (String) f[1], (Dinero) f[2], (Integer) f[3]);
+						n++;
+						ultimo = id;
+					}
+					if (filas.size() < PAGINA) break;
+				}
+				volcar(canal, registro, CABECERA + (long) (n - registro.position() / REGISTRO) * REGISTRO);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return Arrays.copyOf(vistos, n);
+		});
+
+		int n = ids.length;
+		long fin = CABECERA + (long) n * REGISTRO;
+		if (fin > Integer.MAX_VALUE) {
+			throw new IllegalStateException("El catálogo no cabe en una instantánea: " + n + " artículos");
+		}
+		int idMin = (n > 0) ? ids[0] : 0;
+		int idMax = (n > 0) ? ids[n - 1] : -1;
+		long indice = 0;
+		long huecos = (long) idMax - idMin + 1;
+		if (n > 0 && huecos <= (long) n * HUECOS_POR_ARTICULO && fin + huecos * Integer.BYTES <= Integer.MAX_VALUE) {
+			indice = fin;
+			ByteBuffer tabla = ByteBuffer.allocate((int) huecos * Integer.BYTES).order(ORDEN);
+			for (int i = 0; i < huecos; i++) tabla.putInt(i * Integer.BYTES, -1);
+			for (int p = 0; p < n; p++) tabla.putInt((ids[p] - idMin) * Integer.BYTES, p);
+			escribirTodo(canal, tabla, indice);
+		}
+
+		ByteBuffer cabecera = ByteBuffer.allocate(CABECERA).order(ORDEN);
+		cabecera.putInt(C_MAGIA, MAGIA);
+		cabecera.putInt(C_ARTICULOS, n);
+		cabecera.putLong(C_GENERADO, generado);
+		cabecera.putInt(C_ID_MIN, idMin);
+		cabecera.putInt(C_ID_MAX, idMax);
+		cabecera.putLong(C_INDICE, indice);
+		escribirTodo(canal, cabecera, 0);
+		return n;
+	}
+
+	private static void poner(ByteBuffer b, int id, String nombre, Dinero precio, int stock) {
+		int r = b.position();
+		byte[] bytes = truncar(nombre);
+		b.putInt(r + R_ID, id);
+		b.putInt(r + R_STOCK, stock);
+		b.putLong(r + R_PRECIO, (precio != null) ? precio.getCentimos() : 0);
+		b.putShort(r + R_NOMBRE_LONGITUD, (short) bytes.length);
+		b.put(r + R_NOMBRE, bytes);
+		b.position(r + REGISTRO);
+	}
+
+	/**
+	 * UTF-8 del nombre, cortado sin partir ningún carácter.
+	 */
+	private static byte[] truncar(String nombre) {
+		byte[] bytes = (nombre != null) ? nombre.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		if (bytes.length <= NOMBRE_BYTES) return bytes;
+		int fin = NOMBRE_BYTES;
+		while ((bytes[fin] & 0xC0) == 0x80) fin--;
+		return Arrays.copyOf(bytes, fin);
+	}
+
+	private static void volcar(FileChannel canal, ByteBuffer b, long posicion) throws IOException {
+		b.flip();
+		while (b.hasRemaining()) posicion += canal.write(b, posicion);
+		b.clear();
+	}
+
+	private static void escribirTodo(FileChannel canal, ByteBuffer b, long posicion) throws IOException {
+		b.clear();
+		while (b.hasRemaining()) posicion += canal.write(b, posicion);
+	}
+}
@@ -0,0 +1,158 @@
+package com.marialiviu.u3.gestionEcommerce.catalogo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copia de sólo lectura del catálogo de artículos (id, nombre, precio y
+ * stock) en un fichero proyectado en memoria.
+ * <p>
+ * El fichero tiene una cabecera de {@value #CABECERA} bytes, un registro de
+ * ancho fijo ({@value #REGISTRO} bytes) por artículo ordenado por id y,
+ * opcionalmente, un índice directo id → posición. Si los ids son densos
+ * (lo normal con los bloques de 'secuencias') el índice resuelve un id con un
+ * solo acceso; si no, se busca por bisección sobre los registros. Las
+ * consultas leen del fichero con accesos absolutos, sin crear objetos (salvo
+ * {@link #nombre(int)}), y varios procesos de la misma máquina que lo
+ * proyecten comparten las mismas páginas de memoria.
+ * </p>
+ * <p>
+ * Una instantánea no cambia nunca: {@link ExportadorCatalogo} escribe un
+ * fichero nuevo y lo coloca con un rename atómico, y {@link CatalogoMapeado}
+ * cambia a él. Quien tenga la instantánea anterior puede seguir usándola; su
+ * proyección se libera cuando deja de estar referenciada.
+ * </p>
+ *
+ * <pre>
+ * InstantaneaCatalogo cat = catalogo.get();
+ * int p = cat.posicion(idArticulo);
+ * if (p &gt;= 0) {
+ *     long centimos = cat.precioCentimos(p);
+ *     int stock = cat.stock(p);
+ * }
+ * </pre>
+ */
+public final class InstantaneaCatalogo {
+
+	static final int MAGIA = 0x43415431; // "CAT1"
+	static final int CABECERA = 64;
+	static final int REGISTRO = 128;
+	static final int NOMBRE_BYTES = 108;
+	static final ByteOrder ORDEN = ByteOrder.LITTLE_ENDIAN;
+
+	// Cabecera
+	static final int C_MAGIA = 0;
+	static final int C_ARTICULOS = 4;
+	static final int C_GENERADO = 8;
+	static final int C_ID_MIN = 16;
+	static final int C_ID_MAX = 20;
+	/** Posición del índice directo en el fichero, o 0 si no hay. */
+	static final int C_INDICE = 24;
+
+	// Registro
+	static final int R_ID = 0;
+	static final int R_STOCK = 4;
+	static final int R_PRECIO = 8;
+	static final int R_NOMBRE_LONGITUD = 16;
+	static final int R_NOMBRE = 20;
+
+	private final ByteBuffer datos;
+	private final int articulos;
+	private final long generado;
+	private final int idMin;
+	private final int idMax;
+	private final int indice;
+
+	private InstantaneaCatalogo(ByteBuffer datos) {
+		this.datos = datos;
+		if (datos.capacity() < CABECERA || datos.getInt(C_MAGIA) != MAGIA) {
+			throw new IllegalArgumentException("No es una instantánea del catálogo");
+		}
+		this.articulos = datos.getInt(C_ARTICULOS);
+		this.generado = datos.getLong(C_GENERADO);
+		this.idMin = datos.getInt(C_ID_MIN);
+		this.idMax = datos.getInt(C_ID_MAX);
+		this.indice = (int) datos.getLong(C_INDICE);
+	}
+
+	/**
+	 * Proyecta el fichero en memoria. El fichero se puede reemplazar o borrar
+	 * después sin afectar a esta instantánea.
+	 * @param fichero
+	 * @throws IOException
+	 */
+	public static InstantaneaCatalogo abrir(Path fichero) throws IOException {
+		try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+			MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+			return new InstantaneaCatalogo(datos.order(ORDEN));
+		}
+	}
+
+	/**
+	 * Posición del artículo en la instantánea, o -1 si no está.
+	 * @param id
+	 */
+	public int posicion(int id) {
+		if (articulos == 0 || id < idMin || id > idMax) return -1;
+		if (indice != 0) {
+			return datos.getInt(indice + (id - idMin) * Integer.BYTES);
+		}
+		int bajo = 0;
+		int alto = articulos - 1;
+		while (bajo <= alto) {
+			int medio = (bajo + alto) >>> 1;
+			int actual = id(medio);
+			if (actual < id) bajo = medio + 1;
+			else if (actual > id) alto = medio - 1;
+			else return medio;
+		}
+		return -1;
+	}
+
+	public int id(int posicion) {
+		return datos.getInt(registro(posicion) + R_ID);
+	}
+
+	public int stock(int posicion) {
+		return datos.getInt(registro(posicion) + R_STOCK);
+	}
+
+	public long precioCentimos(int posicion) {
+		return datos.getLong(registro(posicion) + R_PRECIO);
+	}
+
+	/**
+	 * Nombre del artículo, truncado a {@value #NOMBRE_BYTES} bytes en UTF-8.
+	 * Crea un String nuevo en cada llamada.
+	 */
+	public String nombre(int posicion) {
+		int r = registro(posicion);
+		byte[] nombre = new byte[datos.getShort(r + R_NOMBRE_LONGITUD)];
+		datos.get(r + R_NOMBRE, nombre);
+		return new String(nombre, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Número de artículos.
+	 */
+	public int getArticulos() {
+		return articulos;
+	}
+
+	/**
+	 * Momento (epoch ms) en que se empezó a exportar.
+	 */
+	public long getGenerado() {
+		return generado;
+	}
+
+	private int registro(int posicion) {
+		return CABECERA + posicion * REGISTRO;
+	}
+}
@@ -0,0 +1,555 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Diario de eventos de compras: un registro de sólo añadir, en ficheros
+ * (segmentos) proyectados en memoria, de todo lo que se hace con las compras.
+ * <p>
+ * Cada evento recibe un número de secuencia consecutivo. Quien registra un
+ * evento espera a que esté en disco, pero no escribe él: un único hilo
+ * escritor recoge todos los eventos que se han ido acumulando, los copia al
+ * segmento y hace un solo {@code force} para todo el lote (<i>group
+ * commit</i>). Con muchos hilos registrando a la vez, el coste de llevar a
+ * disco se reparte entre todos.
+ * </p>
+ * <p>
+ * Cada segmento empieza con una cabecera (marca y primera secuencia) y sigue
+ * con registros {@code [longitud][crc32c][secuencia][evento]}; una longitud 0
+ * es el final de lo escrito y {@value #FIN_SEGMENTO} indica que sigue en el
+ * segmento siguiente. Al abrir se recorre el último segmento y, si el proceso
+ * murió a mitad de un lote, se descarta lo que no cuadra (CRC o secuencia).
+ * Los segmentos no se borran: son la historia completa que permite
+ * reconstruir las compras ({@link ProyectorCompras#reconstruir()}).
+ * </p>
+ * <p>
+ * Un segmento nuevo se escribe entero (ceros y cabecera) con un nombre
+ * temporal y se renombra después: con su nombre definitivo siempre tiene la
+ * cabecera en disco, y un disco lleno falla al crearlo y no al escribir en la
+ * proyección. Las proyecciones de los segmentos que ya no se usan se
+ * sueltan y las deshace el recolector, como en
+ * {@link com.marialiviu.u3.gestionEcommerce.catalogo.InstantaneaCatalogo}:
+ * deshacerlas a mano con un lector aún dentro tumbaría la JVM.
+ * </p>
+ * <p>
+ * Sólo un proceso puede escribir en un directorio a la vez; se asegura con
+ * un bloqueo sobre el fichero {@value #BLOQUEO}.
+ * </p>
+ */
+public class DiarioCompras implements AutoCloseable {
+
+	/** Directorio de los segmentos; si no se define no se usa el diario. */
+	public static final String DIRECTORIO = "ecommerce.diario.directorio";
+	/** Tamaño de cada segmento en MiB. */
+	public static final String SEGMENTO_MB = "ecommerce.diario.segmento_mb";
+
+	static final ByteOrder ORDEN = ByteOrder.LITTLE_ENDIAN;
+	static final String BLOQUEO = "diario.lock";
+
+	private static final int MAGIA = 0x44494152; // "DIAR"
+	private static final int CABECERA = 16;
+	private static final int CABECERA_REGISTRO = 16;
+	private static final int FIN_SEGMENTO = -1;
+	private static final int LOTE_MAXIMO = 1024;
+	private static final String PREFIJO = "compras-";
+	private static final String SUFIJO = ".diario";
+	private static final String TEMPORAL = ".tmp";
+
+	/**
+	 * Evento leído del diario.
+	 * @param secuencia
+	 * @param evento
+	 */
+	public record Leido(long secuencia, EventoCompra evento) {
+	}
+
+	private record Pendiente(byte[] datos, CompletableFuture<Long> hecho) {
+	}
+
+	private final Path directorio;
+	private final int tamanoSegmento;
+	private final FileChannel canalBloqueo;
+	private final FileLock bloqueo;
+	private final BlockingQueue<Pendiente> cola = new LinkedBlockingQueue<>();
+	private final Object avisos = new Object();
+	/** Hace atómicos comprobar que está abierto y encolar frente a {@link #close()}. */
+	private final Object apertura = new Object();
+	private final Thread escritor;
+	private final LongAdder lotes = new LongAdder();
+	private final LongAdder eventos = new LongAdder();
+	private volatile boolean cerrado;
+	private volatile Throwable averia;
+	private volatile long ultimaDurable;
+
+	// Sólo los usa el hilo escritor
+	private MappedByteBuffer segmento;
+	private int posicion;
+	private long siguiente;
+
+	/**
+	 * Abre el diario del directorio, o lo crea vacío.
+	 * @param directorio
+	 * @param tamanoSegmento bytes de cada segmento.
+	 * @throws IllegalStateException si otro proceso tiene abierto el diario.
+	 */
+	public DiarioCompras(Path directorio, int tamanoSegmento) {
+		this.directorio = directorio;
+		this.tamanoSegmento = tamanoSegmento;
+		try {
+			Files.createDirectories(directorio);
+			canalBloqueo = FileChannel.open(directorio.resolve(BLOQUEO), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+			bloqueo = bloquear(canalBloqueo);
+			if (bloqueo == null) {
+				canalBloqueo.close();
+				throw new IllegalStateException("El diario " + directorio + " está abierto por otro proceso");
+			}
+			recuperar();
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo abrir el diario " + directorio, e);
+		}
+		escritor = new Thread(this::escribirLotes, "diario-compras");
+		escritor.setDaemon(true);
+		escritor.start();
+	}
+
+	/**
+	 * Abre el diario con el directorio y tamaño de segmento de las propiedades
+	 * de la unidad de persistencia.
+	 * @param emf
+	 * @return el diario, o null si {@value #DIRECTORIO} no está definido.
+	 */
+	public static DiarioCompras abrir(EntityManagerFactory emf) {
+		Map<String, Object> props = emf.getProperties();
+		String directorio = ConfigurationHelper.getString(DIRECTORIO, props, "");
+		if (directorio.isBlank()) {
+			return null;
+		}
+		int mb = ConfigurationHelper.getInt(SEGMENTO_MB, props, 64);
+		return new DiarioCompras(Path.of(directorio), mb * 1024 * 1024);
+	}
+
+	/**
+	 * Añade el evento y espera a que esté en disco.
+	 * @param evento
+	 * @return secuencia asignada.
+	 * @throws IllegalStateException si el diario está cerrado o no se ha podido escribir.
+	 */
+	public long registrar(EventoCompra evento) {
+		byte[] datos = FormatoEventos.codificar(evento);
+		if (CABECERA + CABECERA_REGISTRO + datos.length + Integer.BYTES > tamanoSegmento) {
+			throw new IllegalArgumentException("Evento demasiado grande para un segmento: " + datos.length + " bytes");
+		}
+		CompletableFuture<Long> hecho = new CompletableFuture<>();
+		synchronized (apertura) {
+			comprobarAbierto();
+			cola.add(new Pendiente(datos, hecho));
+		}
+		try {
+			return hecho.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("No se pudo escribir en el diario", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrumpido esperando al diario", e);
+		}
+	}
+
+	/**
+	 * Secuencia del último evento en disco, o 0 si el diario está vacío.
+	 */
+	public long getUltimaSecuencia() {
+		return ultimaDurable;
+	}
+
+	/**
+	 * Espera a que haya en disco un evento con secuencia {@code secuencia} o
+	 * posterior.
+	 * @return verdadero si lo hay; falso si se agota el tiempo.
+	 */
+	public boolean esperar(long secuencia, long timeout, TimeUnit unidad) throws InterruptedException {
+		long limite = System.nanoTime() + unidad.toNanos(timeout);
+		synchronized (avisos) {
+			while (ultimaDurable < secuencia) {
+				long quedan = limite - System.nanoTime();
+				if (quedan <= 0) return false;
+				TimeUnit.NANOSECONDS.timedWait(avisos, quedan);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cursor para leer el diario desde la secuencia indicada.
+	 * @param desde primera secuencia a leer (1 para leerlo entero).
+	 */
+	public Cursor cursor(long desde) {
+		return new Cursor(desde);
+	}
+
+	/**
+	 * Lotes escritos (cada uno con un solo {@code force}).
+	 */
+	public long getLotes() {
+		return lotes.sum();
+	}
+
+	/**
+	 * Eventos escritos desde que se abrió.
+	 */
+	public long getEventos() {
+		return eventos.sum();
+	}
+
+	/**
+	 * Escribe lo pendiente y cierra el diario. Lo que siguiera en la cola sin
+	 * escribir (si se interrumpe la espera) falla en vez de dejar esperando a
+	 * quien lo registró.
+	 */
+	@Override
+	public void close() {
+		synchronized (apertura) {
+			cerrado = true;
+		}
+		try {
+			escritor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		IllegalStateException cerradoAntes = new IllegalStateException(
+				"El diario se cerró antes de escribir el evento");
+		for (Pendiente p; (p = cola.poll()) != null;) {
+			p.hecho().completeExceptionally(cerradoAntes);
+		}
+		segmento = null;
+		try {
+			bloqueo.release();
+			canalBloqueo.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo cerrar el diario " + directorio, e);
+		}
+	}
+
+	/**
+	 * Lee los eventos en disco en orden de secuencia. No es seguro para varios
+	 * hilos. Hay que cerrarlo al terminar, y no usarlo después.
+	 */
+	public final class Cursor implements AutoCloseable {
+
+		private MappedByteBuffer datos;
+		private int pos;
+		private long sigue;
+
+		private Cursor(long desde) {
+			List<Long> segmentos = segmentos();
+			long primera = 1;
+			for (long s : segmentos) {
+				if (s <= desde) primera = s;
+			}
+			abrirSegmento(primera);
+			while (sigue < desde && leer() != null) {
+				// salta hasta 'desde'
+			}
+		}
+
+		/**
+		 * Siguiente evento, o null si no hay más en disco de momento.
+		 */
+		public Leido siguiente() {
+			return leer();
+		}
+
+		/**
+		 * Secuencia del siguiente evento que devolverá.
+		 */
+		public long getSiguienteSecuencia() {
+			return sigue;
+		}
+
+		/**
+		 * Suelta el segmento que se está leyendo.
+		 */
+		@Override
+		public void close() {
+			datos = null;
+		}
+
+		private Leido leer() {
+			if (sigue > ultimaDurable) return null;
+			int longitud = (pos + Integer.BYTES <= datos.capacity()) ? datos.getInt(pos) : FIN_SEGMENTO;
+			if (longitud == FIN_SEGMENTO) {
+				abrirSegmento(sigue);
+				longitud = datos.getInt(pos);
+			}
+			ByteBuffer registro = datos.slice(pos + CABECERA_REGISTRO, longitud).order(ORDEN);
+			Leido leido = new Leido(datos.getLong(pos + 8), FormatoEventos.decodificar(registro));
+			pos += CABECERA_REGISTRO + longitud;
+			sigue++;
+			return leido;
+		}
+
+		private void abrirSegmento(long primera) {
+			datos = mapear(fichero(primera), FileChannel.MapMode.READ_ONLY);
+			pos = CABECERA;
+			sigue = primera;
+		}
+	}
+
+	private void escribirLotes() {
+		List<Pendiente> lote = new ArrayList<>();
+		long[] secuencias = new long[LOTE_MAXIMO];
+		while (true) {
+			Pendiente primero;
+			try {
+				primero = cola.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				primero = null;
+			}
+			if (primero == null) {
+				if (cerrado && cola.isEmpty()) break;
+				continue;
+			}
+			lote.add(primero);
+			cola.drainTo(lote, LOTE_MAXIMO - 1);
+			try {
+				if (averia != null) throw new IllegalStateException("El diario está averiado", averia);
+				int desde = posicion;
+				for (int i = 0; i < lote.size(); i++) {
+					byte[] d = lote.get(i).datos();
+					if (posicion + CABECERA_REGISTRO + d.length + Integer.BYTES > segmento.capacity()) {
+						segmento.force(desde, posicion - desde);
+						rotar();
+						desde = posicion;
+					}
+					secuencias[i] = escribir(d);
+				}
+				segmento.force(desde, posicion - desde);
+				ultimaDurable = siguiente - 1;
+				lotes.increment();
+				eventos.add(lote.size());
+				for (int i = 0; i < lote.size(); i++) {
+					lote.get(i).hecho().complete(secuencias[i]);
+				}
+				synchronized (avisos) {
+					avisos.notifyAll();
+				}
+			} catch (RuntimeException | Error e) {
+				// lo escrito a medias se descarta al volver a abrir; hasta entonces no se escribe más
+				averia = e;
+				for (Pendiente p : lote) p.hecho().completeExceptionally(e);
+			}
+			lote.clear();
+		}
+	}
+
+	private long escribir(byte[] d) {
+		CRC32C crc = new CRC32C();
+		crc.update(d);
+		long secuencia = siguiente++;
+		segmento.putInt(posicion + 4, (int) crc.getValue());
+		segmento.putLong(posicion + 8, secuencia);
+		segmento.put(posicion + CABECERA_REGISTRO, d);
+		segmento.putInt(posicion, d.length);
+		posicion += CABECERA_REGISTRO + d.length;
+		return secuencia;
+	}
+
+	private void rotar() {
+		segmento.putInt(posicion, FIN_SEGMENTO);
+		segmento.force(posicion, Integer.BYTES);
+		crearSegmento(siguiente);
+	}
+
+	/**
+	 * Deja el escritor al final del último segmento, descartando un lote
+	 * escrito a medias.
+	 */
+	private void recuperar() throws IOException {
+		try (Stream<Path> ficheros = Files.list(directorio)) {
+			// segmentos que no se llegaron a renombrar
+			for (Path f : ficheros.filter(f -> f.getFileName().toString().endsWith(SUFIJO + TEMPORAL)).toList()) {
+				Files.delete(f);
+			}
+		}
+		List<Long> segmentos = segmentos();
+		if (segmentos.isEmpty()) {
+			crearSegmento(1);
+			ultimaDurable = 0;
+			return;
+		}
+		long primera = segmentos.get(segmentos.size() - 1);
+		if (!tieneCabecera(fichero(primera))) {
+			// creado sin el nombre temporal y sin llegar a escribir la cabecera: no tiene eventos
+			Files.delete(fichero(primera));
+			crearSegmento(primera);
+			ultimaDurable = primera - 1;
+			return;
+		}
+		segmento = mapear(fichero(primera), FileChannel.MapMode.READ_WRITE);
+		int capacidad = segmento.capacity();
+		posicion = CABECERA;
+		siguiente = primera;
+		CRC32C crc = new CRC32C();
+		// el final de segmento ocupa sólo la longitud: puede estar en los últimos bytes
+		while (posicion + Integer.BYTES <= capacidad) {
+			int longitud = segmento.getInt(posicion);
+			if (longitud == 0) break;
+			if (longitud == FIN_SEGMENTO) {
+				// murió justo después de cerrar el segmento
+				crearSegmento(siguiente);
+				break;
+			}
+			boolean valido = longitud > 0 && posicion + CABECERA_REGISTRO + longitud <= capacidad
+					&& segmento.getLong(posicion + 8) == siguiente;
+			if (valido) {
+				crc.reset();
+				crc.update(segmento.slice(posicion + CABECERA_REGISTRO, longitud));
+				valido = (int) crc.getValue() == segmento.getInt(posicion + 4);
+			}
+			if (!valido) {
+				segmento.put(posicion, new byte[capacidad - posicion]);
+				segmento.force();
+				break;
+			}
+			posicion += CABECERA_REGISTRO + longitud;
+			siguiente++;
+		}
+		ultimaDurable = siguiente - 1;
+	}
+
+	/**
+	 * Crea el segmento que empieza en {@code primera} y deja el escritor al
+	 * principio, deshaciendo la proyección del anterior.
+	 */
+	private void crearSegmento(long primera) {
+		Path f = fichero(primera);
+		Path temporal = f.resolveSibling(f.getFileName() + TEMPORAL);
+		try {
+			try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				// reserva el segmento entero con ceros, que se leen como el final de lo escrito
+				ByteBuffer ceros = ByteBuffer.allocate(64 * 1024);
+				for (long pos = 0; pos < tamanoSegmento; pos += ceros.capacity()) {
+					escribirTodo(canal, ceros.clear().limit((int) Math.min(ceros.capacity(), tamanoSegmento - pos)),
+							pos);
+				}
+				ByteBuffer cabecera = ByteBuffer.allocate(CABECERA).order(ORDEN).putInt(MAGIA).putInt(0)
+						.putLong(primera);
+				escribirTodo(canal, cabecera.flip(), 0);
+				canal.force(true);
+			}
+			Files.move(temporal, f, StandardCopyOption.ATOMIC_MOVE);
+			sincronizarDirectorio();
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo crear el segmento " + f, e);
+		}
+		segmento = mapear(f, FileChannel.MapMode.READ_WRITE);
+		posicion = CABECERA;
+		siguiente = primera;
+	}
+
+	private static void escribirTodo(FileChannel canal, ByteBuffer b, long pos) throws IOException {
+		while (b.hasRemaining()) {
+			pos += canal.write(b, pos);
+		}
+	}
+
+	/**
+	 * Lleva a disco la entrada del directorio del segmento recién renombrado.
+	 */
+	private void sincronizarDirectorio() {
+		try (FileChannel canal = FileChannel.open(directorio, StandardOpenOption.READ)) {
+			canal.force(true);
+		} catch (IOException e) {
+			// hay sistemas (Windows) que no dejan abrir un directorio; allí el
+			// propio sistema de ficheros registra el renombrado
+		}
+	}
+
+	private static boolean tieneCabecera(Path f) throws IOException {
+		try (FileChannel canal = FileChannel.open(f, StandardOpenOption.READ)) {
+			ByteBuffer cabecera = ByteBuffer.allocate(Integer.BYTES).order(ORDEN);
+			while (cabecera.hasRemaining() && canal.read(cabecera) >= 0) {
+				// lee la marca
+			}
+			return !cabecera.hasRemaining() && cabecera.getInt(0) == MAGIA;
+		}
+	}
+
+	private MappedByteBuffer mapear(Path f, FileChannel.MapMode modo) {
+		StandardOpenOption[] opciones = (modo == FileChannel.MapMode.READ_ONLY)
+				? new StandardOpenOption[] { StandardOpenOption.READ }
+				: new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+		try (FileChannel canal = FileChannel.open(f, opciones)) {
+			MappedByteBuffer m = canal.map(modo, 0, canal.size());
+			m.order(ORDEN);
+			if (m.getInt(0) != MAGIA) {
+				throw new IllegalStateException(f + " no es un segmento del diario");
+			}
+			return m;
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo abrir el segmento " + f, e);
+		}
+	}
+
+	/**
+	 * Primera secuencia de cada segmento, en orden.
+	 */
+	private List<Long> segmentos() {
+		try (Stream<Path> ficheros = Files.list(directorio)) {
+			return ficheros.map(f -> f.getFileName().toString())
+					.filter(n -> n.startsWith(PREFIJO) && n.endsWith(SUFIJO))
+					.map(n -> Long.parseLong(n.substring(PREFIJO.length(), n.length() - SUFIJO.length())))
+					.sorted()
+					.toList();
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo leer el directorio del diario " + directorio, e);
+		}
+	}
+
+	private Path fichero(long primera) {
+		return directorio.resolve(String.format("%s%020d%s", PREFIJO, primera, SUFIJO));
+	}
+
+	/**
+	 * El bloqueo, o null si lo tiene otro proceso u otro diario de esta JVM.
+	 */
+	private static FileLock bloquear(FileChannel canal) throws IOException {
+		try {
+			return canal.tryLock();
+		} catch (OverlappingFileLockException e) {
+			return null;
+		}
+	}
+
+	private void comprobarAbierto() {
+		if (cerrado) throw new IllegalStateException("El diario está cerrado");
+		if (averia != null) throw new IllegalStateException("El diario está averiado", averia);
+	}
+}
@@ -0,0 +1,70 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import java.util.Date;
+import java.util.List;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Cambio en una compra tal como se guarda en el {@link DiarioCompras}.
+ * <p>
+ * Los eventos llevan todo lo necesario para aplicarlos sin consultar nada
+ * más (el id de la compra ya asignado y el precio de cada línea en el momento
+ * de la compra), de modo que volver a aplicar el diario desde el principio
+ * reconstruye las mismas compras.
+ * </p>
+ */
+public sealed interface EventoCompra {
+
+	/**
+	 * Compra a la que se refiere el evento.
+	 */
+	int idCompra();
+
+	/**
+	 * Línea de una compra.
+	 * @param idArticulo
+	 * @param unidades
+	 * @param precioCompra precio por unidad al comprar.
+	 */
+	record Linea(int idArticulo, int unidades, Dinero precioCompra) {
+	}
+
+	/**
+	 * Compra nueva, PENDIENTE.
+	 * @param idCompra
+	 * @param nifCliente
+	 * @param fechaCompra
+	 * @param direccion puede ser null.
+	 * @param lineas
+	 */
+	record CompraCreada(int idCompra, String nifCliente, Date fechaCompra, String direccion, List<Linea> lineas)
+			implements EventoCompra {
+	}
+
+	/**
+	 * Líneas añadidas a la vez a una compra PENDIENTE; se aplican todas o
+	 * ninguna. Si el artículo ya estaba en la compra se suman las unidades al
+	 * precio de la línea existente.
+	 */
+	record LineaAnadida(int idCompra, List<Linea> lineas) implements EventoCompra {
+	}
+
+	record EstadoCambiado(int idCompra, EstadoCompra estado) implements EventoCompra {
+	}
+
+	record CompraBorrada(int idCompra) implements EventoCompra {
+	}
+
+	/**
+	 * Lo anota la proyección cuando no puede aplicar un evento (cliente o
+	 * artículo inexistente, stock insuficiente, ...), para que al reproducir
+	 * el diario se descarte igual aunque entonces sí se pudiera aplicar.
+	 * @param idCompra
+	 * @param secuencia secuencia del evento descartado.
+	 * @param motivo
+	 */
+	record EventoRechazado(int idCompra, long secuencia, String motivo) implements EventoCompra {
+	}
+}
@@ -0,0 +1,143 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraBorrada;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraCreada;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.EstadoCambiado;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.EventoRechazado;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.Linea;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.LineaAnadida;
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Formato binario de los eventos dentro de un registro del diario: un byte
+ * de tipo seguido de los campos en orden. Los textos van como longitud (short,
+ * -1 para null) y bytes UTF-8; las fechas en epoch ms y el dinero en céntimos.
+ * <p>
+ * Los códigos de tipo y el orden de los campos no se pueden cambiar una vez
+ * hay diarios escritos; un campo nuevo necesita un tipo nuevo.
+ * </p>
+ */
+final class FormatoEventos {
+
+	private static final byte COMPRA_CREADA = 1;
+	private static final byte LINEA_ANADIDA = 2;
+	private static final byte ESTADO_CAMBIADO = 3;
+	private static final byte COMPRA_BORRADA = 4;
+	private static final byte EVENTO_RECHAZADO = 5;
+
+	private static final int TAMANO_LINEA = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+	private FormatoEventos() {
+	}
+
+	static byte[] codificar(EventoCompra evento) {
+		ByteBuffer b = ByteBuffer.allocate(tamano(evento)).order(DiarioCompras.ORDEN);
+		switch (evento) {
+		case CompraCreada e -> {
+			b.put(COMPRA_CREADA).putInt(e.idCompra());
+			texto(b, e.nifCliente());
+			b.putLong(e.fechaCompra().getTime());
+			texto(b, e.direccion());
+			lineas(b, e.lineas());
+		}
+		case LineaAnadida e -> {
+			b.put(LINEA_ANADIDA).putInt(e.idCompra());
+			lineas(b, e.lineas());
+		}
+		case EstadoCambiado e -> b.put(ESTADO_CAMBIADO).putInt(e.idCompra()).put((byte) e.estado().ordinal());
+		case CompraBorrada e -> b.put(COMPRA_BORRADA).putInt(e.idCompra());
+		case EventoRechazado e -> {
+			b.put(EVENTO_RECHAZADO).putInt(e.idCompra()).putLong(e.secuencia());
+			texto(b, e.motivo());
+		}
+		}
+		return b.array();
+	}
+
+	/**
+	 * Lee el evento que empieza en la posición actual de {@code b}.
+	 */
+	static EventoCompra decodificar(ByteBuffer b) {
+		byte tipo = b.get();
+		int idCompra = b.getInt();
+		return switch (tipo) {
+		case COMPRA_CREADA -> {
+			String nif = texto(b);
+			Date fecha = new Date(b.getLong());
+			yield new CompraCreada(idCompra, nif, fecha, texto(b), lineas(b));
+		}
+		case LINEA_ANADIDA -> new LineaAnadida(idCompra, lineas(b));
+		case ESTADO_CAMBIADO -> new EstadoCambiado(idCompra, EstadoCompra.values()[b.get()]);
+		case COMPRA_BORRADA -> new CompraBorrada(idCompra);
+		case EVENTO_RECHAZADO -> new EventoRechazado(idCompra, b.getLong(), texto(b));
+		default -> throw new IllegalStateException("Tipo de evento desconocido: " + tipo);
+		};
+	}
+
+	private static int tamano(EventoCompra evento) {
+		int cabecera = 1 + Integer.BYTES;
+		return cabecera + switch (evento) {
+		case CompraCreada e -> bytes(e.nifCliente()) + Long.BYTES + bytes(e.direccion()) + bytes(e.lineas());
+		case LineaAnadida e -> bytes(e.lineas());
+		case EstadoCambiado e -> 1;
+		case CompraBorrada e -> 0;
+		case EventoRechazado e -> Long.BYTES + bytes(e.motivo());
+		};
+	}
+
+	private static int bytes(List<Linea> lineas) {
+		return Integer.BYTES + lineas.size() * TAMANO_LINEA;
+	}
+
+	private static void lineas(ByteBuffer b, List<Linea> lineas) {
+		b.putInt(lineas.size());
+		for (Linea l : lineas) {
+			b.putInt(l.idArticulo()).putInt(l.unidades()).putLong(l.precioCompra().getCentimos());
+		}
+	}
+
+	private static List<Linea> lineas(ByteBuffer b) {
+		int n = b.getInt();
+		List<Linea> lineas = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			lineas.add(new Linea(b.getInt(), b.getInt(), Dinero.deCentimos(b.getLong())));
+		}
+		return List.copyOf(lineas);
+	}
+
+	private static int bytes(String s) {
+		return Short.BYTES + ((s != null) ? utf8(s).length : 0);
+	}
+
+	private static void texto(ByteBuffer b, String s) {
+		if (s == null) {
+			b.putShort((short) -1);
+			return;
+		}
+		byte[] bytes = utf8(s);
+		b.putShort((short) bytes.length).put(bytes);
+	}
+
+	private static String texto(ByteBuffer b) {
+		short n = b.getShort();
+		if (n < 0) return null;
+		byte[] bytes = new byte[n];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] utf8(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Texto demasiado largo para el diario: " + bytes.length + " bytes");
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,200 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import com.marialiviu.u3.gestionEcommerce.cache.CacheClientes;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraBorrada;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraCreada;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.EstadoCambiado;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.Linea;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.LineaAnadida;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.StockInsuficienteException;
+import com.marialiviu.u3.gestionEcommerce.service.StockReservationService;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Las mismas operaciones que {@code OrderService}, pero registrando eventos
+ * en el {@link DiarioCompras} en lugar de escribir en las tablas: cada
+ * llamada vuelve en cuanto el evento está en disco, y el
+ * {@link ProyectorCompras} lo aplica después.
+ * <p>
+ * Al crear una compra se comprueban el cliente ({@link CacheClientes}) y los
+ * artículos (caché de segundo nivel), y se fija el precio de cada
+ * línea. El id de la compra se reserva del mismo generador de
+ * <code>secuencias</code> que usa {@link Compra}, así que no choca con las
+ * compras creadas por otras vías.
+ * </p>
+ * <p>
+ * El stock de una compra nueva o de unas líneas nuevas se reserva en la
+ * base de datos ({@link StockReservationService}) antes de registrar el
+ * evento: si no llega, la llamada falla con
+ * {@link StockInsuficienteException} y no se registra nada, igual que en
+ * {@code OrderService}. Si el diario falla después, las unidades se
+ * devuelven. Si el proceso muere entre la reserva y el registro, esas
+ * unidades quedan fuera del stock sin compra que las tenga. El estado de la
+ * compra en las demás operaciones lo comprueba la proyección: un evento que
+ * no se puede aplicar se rechaza allí (ver
+ * {@link ProyectorCompras#getRechazados()}) y devuelve lo que reservó.
+ * </p>
+ * <p>
+ * Para leer de las tablas una compra recién registrada, esperar antes a que
+ * se aplique con {@link ProyectorCompras#esperar}.
+ * </p>
+ */
+public class OrderJournalService {
+
+	/**
+	 * Compra registrada en el diario.
+	 * @param idCompra id asignado.
+	 * @param secuencia secuencia del evento en el diario.
+	 */
+	public record CompraRegistrada(int idCompra, long secuencia) {
+	}
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final UnitOfWork uow;
+	private final CacheClientes clientes;
+	private final StockReservationService stock;
+	private final DiarioCompras diario;
+	private final IdentifierGenerator ids;
+
+	/**
+	 * @param emf
+	 * @param diario
+	 */
+	public OrderJournalService(EntityManagerFactory emf, DiarioCompras diario) {
+		this.sessionFactory = emf.unwrap(SessionFactory.class).unwrap(SessionFactoryImplementor.class);
+		this.uow = new UnitOfWork(emf);
+		this.clientes = CacheClientes.de(emf);
+		this.stock = new StockReservationService(emf);
+		this.diario = diario;
+		this.ids = (IdentifierGenerator) sessionFactory.getMappingMetamodel().getEntityDescriptor(Compra.class)
+				.getGenerator();
+	}
+
+	/**
+	 * Registra una compra PENDIENTE nueva.
+	 * @param nc
+	 * @return id de la compra y secuencia del evento.
+	 * @throws IllegalArgumentException si el cliente o algún artículo no existen.
+	 * @throws StockInsuficienteException si algún artículo no tiene stock.
+	 */
+	public CompraRegistrada crear(NuevaCompra nc) {
+		// en una transacción, que va a la principal: un artículo o cliente
+		// recién dado de alta puede no estar aún en las réplicas
+		List<Linea> lineas = uow.enTransaccion(em -> {
+			if (!clientes.existe(em, nc.nifCliente())) {
+				throw new IllegalArgumentException("Cliente no encontrado: " + nc.nifCliente());
+			}
+			return reservar(em, nc.lineas());
+		});
+		int id = siguienteId();
+		Date fecha = (nc.fechaCompra() != null) ? nc.fechaCompra() : new Date();
+		long secuencia = registrar(new CompraCreada(id, nc.nifCliente(), fecha, nc.direccion(), lineas), lineas);
+		return new CompraRegistrada(id, secuencia);
+	}
+
+	/**
+	 * Registra líneas nuevas para una compra. Se aplican todas o ninguna, y
+	 * sólo si la compra sigue PENDIENTE al proyectarlas.
+	 * @param idCompra
+	 * @param lineas
+	 * @return secuencia del evento.
+	 * @throws IllegalArgumentException si algún artículo no existe.
+	 * @throws StockInsuficienteException si algún artículo no tiene stock.
+	 */
+	public long anadirLineas(int idCompra, List<NuevaCompra.Linea> lineas) {
+		List<Linea> conPrecio = uow.enTransaccion(em -> reservar(em, lineas));
+		return registrar(new LineaAnadida(idCompra, conPrecio), conPrecio);
+	}
+
+	/**
+	 * Registra el paso de la compra al estado indicado; la proyección lo
+	 * rechaza si no viene del estado anterior.
+	 * @return secuencia del evento.
+	 */
+	public long cambiarEstado(int idCompra, Compra.EstadoCompra estado) {
+		return diario.registrar(new EstadoCambiado(idCompra, estado));
+	}
+
+	/**
+	 * @return secuencia del evento.
+	 */
+	public long borrar(int idCompra) {
+		return diario.registrar(new CompraBorrada(idCompra));
+	}
+
+	/**
+	 * Líneas con el precio actual de cada artículo, con sus unidades ya
+	 * reservadas en la transacción de {@code em}.
+	 */
+	private List<Linea> reservar(EntityManager em, List<NuevaCompra.Linea> lineas) {
+		List<Linea> conPrecio = new ArrayList<>(lineas.size());
+		for (NuevaCompra.Linea l : lineas) {
+			if (l.unidades() <= 0) {
+				throw new IllegalArgumentException("Unidades no válidas para el artículo " + l.idArticulo());
+			}
+			Articulo a = em.find(Articulo.class, l.idArticulo());
+			if (a == null) {
+				throw new IllegalArgumentException("Artículo no encontrado: " + l.idArticulo());
+			}
+			conPrecio.add(new Linea(l.idArticulo(), l.unidades(), a.getPrecioActual()));
+		}
+		stock.reservar(em, unidades(conPrecio));
+		return conPrecio;
+	}
+
+	/**
+	 * Registra el evento de unas líneas ya reservadas; si el diario falla,
+	 * devuelve sus unidades al stock.
+	 */
+	private long registrar(EventoCompra evento, List<Linea> reservadas) {
+		try {
+			return diario.registrar(evento);
+		} catch (RuntimeException e) {
+			try {
+				uow.ejecutar(em -> stock.devolver(em, unidades(reservadas)));
+			} catch (RuntimeException d) {
+				e.addSuppressed(d);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Unidades por artículo de las líneas.
+	 */
+	static Map<Integer, Integer> unidades(List<Linea> lineas) {
+		Map<Integer, Integer> unidades = new TreeMap<>();
+		for (Linea l : lineas) {
+			unidades.merge(l.idArticulo(), l.unidades(), Integer::sum);
+		}
+		return unidades;
+	}
+
+	/**
+	 * Pide un id al generador de {@link Compra} fuera de cualquier
+	 * transacción; sólo va a la base de datos cuando se agota el bloque.
+	 */
+	private int siguienteId() {
+		try (StatelessSession ss = sessionFactory.openStatelessSession()) {
+			return ((Number) ids.generate((SharedSessionContractImplementor) ss, new Compra())).intValue();
+		}
+	}
+}
@@ -0,0 +1,615 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import java.lang.System.Logger.Level;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+
+import com.marialiviu.u3.gestionEcommerce.diario.DiarioCompras.Leido;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraBorrada;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraCreada;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.EstadoCambiado;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.EventoRechazado;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.Linea;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.LineaAnadida;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.DineroConverter;
+import com.marialiviu.u3.gestionEcommerce.outbox.OutboxCompras;
+import com.marialiviu.u3.gestionEcommerce.service.SalesAggregateService;
+import com.marialiviu.u3.gestionEcommerce.service.StockReservationService;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+import com.marialiviu.u3.gestionEcommerce.service.VariacionVentas;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.LockModeType;
+
+/**
+ * Aplica los eventos del {@link DiarioCompras} a <code>compras</code> y
+ * <code>articulo_compra</code> desde un hilo en segundo plano.
+ * <p>
+ * Los eventos se aplican por lotes, cada lote en una transacción que también
+ * guarda en <code>posicion_diario</code> la secuencia del último evento
+ * aplicado; así, tras una caída, se sigue justo donde se quedó y ningún
+ * evento se aplica dos veces. Cada evento actualiza los agregados de ventas
+ * en la misma transacción. El stock de las compras y líneas nuevas ya lo
+ * reservó {@link OrderJournalService} al registrarlas; aquí sólo se devuelve,
+ * al borrar una compra PENDIENTE.
+ * </p>
+ * <p>
+ * Si un lote falla se repite evento a evento. El que no se puede aplicar
+ * (cliente o artículo inexistente, compra que ya no está PENDIENTE, ...) se
+ * descarta, se anota en el diario como {@link EventoRechazado} y, si había
+ * reservado stock, lo devuelve. Cualquier otro error (p. ej. sin conexión)
+ * no descarta nada: se reintenta el lote pasados unos segundos.
+ * </p>
+ */
+public class ProyectorCompras implements AutoCloseable {
+
+	/** Nombre de la proyección en <code>posicion_diario</code>. */
+	public static final String NOMBRE = "compras";
+
+	private static final System.Logger LOG = System.getLogger(ProyectorCompras.class.getName());
+	private static final int LOTE = 500;
+	private static final int COMPRAS_POR_BORRADO = 1000;
+	private static final long PAUSA_ERROR_MS = 5000;
+	private static final DineroConverter DINERO = new DineroConverter();
+
+	/**
+	 * Resultado de {@link ProyectorCompras#reconstruir()}.
+	 * @param eventos eventos aplicados.
+	 * @param rechazados eventos descartados (ya rechazados antes o ahora).
+	 * @param segundos
+	 */
+	public record Reconstruccion(long eventos, long rechazados, double segundos) {
+	}
+
+	/**
+	 * Estado y unidades por artículo de una compra según el diario.
+	 */
+	private static final class CompraDiario {
+
+		private final Map<Integer, Integer> unidades = new TreeMap<>();
+		private EstadoCompra estado = EstadoCompra.PENDIENTE;
+
+		private void anadir(List<Linea> lineas) {
+			for (Linea l : lineas) {
+				unidades.merge(l.idArticulo(), l.unidades(), Integer::sum);
+			}
+		}
+	}
+
+	private final DiarioCompras diario;
+	private final UnitOfWork uow;
+	private final StockReservationService stock;
+	private final SalesAggregateService agregados;
+	private final Thread hilo;
+	private final Object avisos = new Object();
+	private final LongAdder aplicados = new LongAdder();
+	private final LongAdder rechazados = new LongAdder();
+	private volatile boolean cerrado;
+	private volatile long aplicada;
+
+	/**
+	 * Crea el proyector sin arrancarlo.
+	 * @param emf
+	 * @param diario
+	 */
+	public ProyectorCompras(EntityManagerFactory emf, DiarioCompras diario) {
+		this.diario = diario;
+		this.uow = new UnitOfWork(emf);
+		this.stock = new StockReservationService(emf);
+		this.agregados = new SalesAggregateService(emf);
+		this.hilo = new Thread(this::proyectar, "proyector-compras");
+		this.hilo.setDaemon(true);
+		this.aplicada = leerPosicion();
+	}
+
+	/**
+	 * Crea y arranca el proyector del diario.
+	 * @param emf
+	 * @param diario puede ser null.
+	 * @return el proyector, o null si no hay diario.
+	 */
+	public static ProyectorCompras arrancar(EntityManagerFactory emf, DiarioCompras diario) {
+		if (diario == null) {
+			return null;
+		}
+		ProyectorCompras proyector = new ProyectorCompras(emf, diario);
+		proyector.hilo.start();
+		return proyector;
+	}
+
+	/**
+	 * Secuencia del último evento aplicado (o descartado).
+	 */
+	public long getAplicada() {
+		return aplicada;
+	}
+
+	/**
+	 * Eventos aplicados desde que se creó el proyector.
+	 */
+	public long getAplicados() {
+		return aplicados.sum();
+	}
+
+	/**
+	 * Eventos descartados desde que se creó el proyector.
+	 */
+	public long getRechazados() {
+		return rechazados.sum();
+	}
+
+	/**
+	 * Espera a que el evento con la secuencia indicada esté aplicado, para leer
+	 * de las tablas lo que se acaba de registrar.
+	 * @return verdadero si ya está aplicado; falso si se agota el tiempo.
+	 */
+	public boolean esperar(long secuencia, long timeout, TimeUnit unidad) throws InterruptedException {
+		long limite = System.nanoTime() + unidad.toNanos(timeout);
+		synchronized (avisos) {
+			while (aplicada < secuencia) {
+				long quedan = limite - System.nanoTime();
+				if (quedan <= 0) return false;
+				TimeUnit.NANOSECONDS.timedWait(avisos, quedan);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Vuelve a construir las compras del diario desde el principio: borra las
+	 * compras creadas por eventos del diario, aplica otra vez los eventos de
+	 * esas compras salvo los rechazados y recalcula los agregados de ventas.
+	 * Las compras que no vienen del diario no se tocan, ni tampoco sus eventos
+	 * (líneas o cambios de estado registrados en el diario para compras creadas
+	 * por otro camino): ya están aplicados en las tablas.
+	 * <p>
+	 * Antes de borrar se comprueba que las tablas tienen esas compras tal como
+	 * las dejó el diario; si alguna se ha cambiado por otro camino (p. ej. con
+	 * {@code OrderStatusService}) no se reconstruye nada, porque ese cambio se
+	 * perdería. El stock no se toca al volver a aplicar lo ya aplicado: las
+	 * unidades se reservaron al registrar cada evento, y las devoluciones ya se
+	 * hicieron al aplicarlo la primera vez. Tampoco si lo ya aplicado se
+	 * rechaza ahora. Los eventos que aún no se habían aplicado se aplican como
+	 * en marcha: devuelven el stock al borrar o al rechazarse y se avisan por
+	 * el outbox. Se debe llamar con el proyector sin arrancar.
+	 * </p>
+	 * @return eventos aplicados y descartados.
+	 * @throws IllegalStateException si el proyector está en marcha o alguna
+	 * compra del diario se ha cambiado por otro camino.
+	 */
+	public Reconstruccion reconstruir() {
+		if (hilo.isAlive()) {
+			throw new IllegalStateException("No se puede reconstruir con el proyector en marcha");
+		}
+		long inicio = System.nanoTime();
+		long hasta = diario.getUltimaSecuencia();
+		Set<Long> descartar = new HashSet<>();
+		Set<Integer> creadas = new LinkedHashSet<>();
+		try (DiarioCompras.Cursor cursor = diario.cursor(1)) {
+			for (Leido l = cursor.siguiente(); l != null && l.secuencia() <= hasta; l = cursor.siguiente()) {
+				switch (l.evento()) {
+				case EventoRechazado r -> descartar.add(r.secuencia());
+				case CompraCreada c -> creadas.add(c.idCompra());
+				default -> {
+				}
+				}
+			}
+		}
+		long yaAplicada = Math.min(aplicada, hasta);
+		Map<Integer, CompraDiario> esperadas = simular(yaAplicada, descartar, creadas);
+		List<Integer> ids = new ArrayList<>(creadas);
+		uow.ejecutar(em -> {
+			int cambiadas = 0;
+			for (int i = 0; i < ids.size(); i += COMPRAS_POR_BORRADO) {
+				cambiadas += cambiadas(em, ids.subList(i, Math.min(i + COMPRAS_POR_BORRADO, ids.size())), esperadas);
+			}
+			if (cambiadas > 0) {
+				throw new IllegalStateException(cambiadas + " compras del diario se han cambiado por otro camino: "
+						+ "al reconstruir se perderían esos cambios");
+			}
+			for (int i = 0; i < ids.size(); i += COMPRAS_POR_BORRADO) {
+				borrarCompras(em, ids.subList(i, Math.min(i + COMPRAS_POR_BORRADO, ids.size())));
+			}
+		});
+
+		long aplicadosAntes = aplicados.sum();
+		long rechazadosAntes = rechazados.sum();
+		aplicada = 0;
+		List<Leido> lote = new ArrayList<>();
+		try (DiarioCompras.Cursor cursor = diario.cursor(1)) {
+			for (Leido l = cursor.siguiente(); l != null && l.secuencia() <= hasta; l = cursor.siguiente()) {
+				if (!(l.evento() instanceof EventoRechazado) && !descartar.contains(l.secuencia())
+						&& creadas.contains(l.evento().idCompra())) {
+					lote.add(l);
+				}
+				if (lote.size() == LOTE) {
+					aplicarLote(lote, yaAplicada);
+					lote.clear();
+				}
+			}
+		}
+		if (!lote.isEmpty()) aplicarLote(lote, yaAplicada);
+		uow.ejecutar(em -> guardarPosicion(em, hasta));
+		aplicada = hasta;
+		agregados.reconstruir(4);
+
+		return new Reconstruccion(aplicados.sum() - aplicadosAntes,
+				descartar.size() + rechazados.sum() - rechazadosAntes, (System.nanoTime() - inicio) / 1e9);
+	}
+
+	/**
+	 * Compras del diario como deben estar en las tablas con los eventos
+	 * aplicados hasta {@code aplicada}.
+	 */
+	private Map<Integer, CompraDiario> simular(long aplicada, Set<Long> descartar, Set<Integer> creadas) {
+		Map<Integer, CompraDiario> compras = new HashMap<>();
+		try (DiarioCompras.Cursor cursor = diario.cursor(1)) {
+			for (Leido l = cursor.siguiente(); l != null && l.secuencia() <= aplicada; l = cursor.siguiente()) {
+				if (descartar.contains(l.secuencia()) || !creadas.contains(l.evento().idCompra())) continue;
+				CompraDiario compra = compras.get(l.evento().idCompra());
+				if (compra == null && !(l.evento() instanceof CompraCreada)) continue;
+				switch (l.evento()) {
+				case CompraCreada c -> {
+					compra = new CompraDiario();
+					compras.put(c.idCompra(), compra);
+					compra.anadir(c.lineas());
+				}
+				case LineaAnadida a -> compra.anadir(a.lineas());
+				case EstadoCambiado c -> compra.estado = c.estado();
+				case CompraBorrada b -> compras.remove(b.idCompra());
+				case EventoRechazado r -> {
+				}
+				}
+			}
+		}
+		return compras;
+	}
+
+	/**
+	 * Cuántas de las compras indicadas no están en las tablas como las dejó
+	 * el diario: en otro estado, con otras líneas, borradas o sin borrar.
+	 */
+	private static int cambiadas(EntityManager em, List<Integer> ids, Map<Integer, CompraDiario> esperadas) {
+		Map<Integer, EstadoCompra> estados = new HashMap<>();
+		for (Object[] f : em.createQuery("SELECT c.id, c.estado FROM Compra c WHERE c.id IN :ids", Object[].class)
+				.setParameter("ids", ids).getResultList()) {
+			estados.put((Integer) f[0], (EstadoCompra) f[1]);
+		}
+		Map<Integer, Map<Integer, Integer>> lineas = new HashMap<>();
+		for (Object[] f : em.createQuery("SELECT ac.compraId, ac.articuloId, ac.unidades FROM ArticuloCompra ac "
+				+ "WHERE ac.compraId IN :ids", Object[].class).setParameter("ids", ids).getResultList()) {
+			lineas.computeIfAbsent((Integer) f[0], k -> new HashMap<>()).put((Integer) f[1], (Integer) f[2]);
+		}
+		int cambiadas = 0;
+		for (Integer id : ids) {
+			CompraDiario esperada = esperadas.get(id);
+			boolean igual = (esperada == null) ? !estados.containsKey(id)
+					: esperada.estado == estados.get(id) && esperada.unidades.equals(lineas.getOrDefault(id, Map.of()));
+			if (!igual) cambiadas++;
+		}
+		return cambiadas;
+	}
+
+	/**
+	 * Para el hilo tras terminar el lote en curso.
+	 */
+	@Override
+	public void close() {
+		cerrado = true;
+		hilo.interrupt();
+		try {
+			hilo.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void proyectar() {
+		try (DiarioCompras.Cursor cursor = diario.cursor(aplicada + 1)) {
+			List<Leido> lote = new ArrayList<>();
+			while (!cerrado) {
+				try {
+					for (Leido l; lote.size() < LOTE && (l = cursor.siguiente()) != null;) {
+						lote.add(l);
+					}
+					if (lote.isEmpty()) {
+						diario.esperar(cursor.getSiguienteSecuencia(), 1, TimeUnit.SECONDS);
+						continue;
+					}
+					aplicarLote(lote, 0);
+					lote.clear();
+				} catch (InterruptedException e) {
+					// close()
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "No se pudo aplicar el diario desde la secuencia " + (aplicada + 1)
+							+ "; se reintenta en " + PAUSA_ERROR_MS + " ms", e);
+					try {
+						Thread.sleep(PAUSA_ERROR_MS);
+					} catch (InterruptedException i) {
+						// close()
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Aplica el lote en una transacción o, si falla por algún evento, evento a
+	 * evento descartando los que no se pueden aplicar.
+	 * @param yaAplicada al reconstruir, última secuencia que ya se había
+	 * aplicado antes: esos eventos no actualizan los agregados, no devuelven
+	 * stock ni se avisan por el outbox. En marcha, 0.
+	 */
+	private void aplicarLote(List<Leido> lote, long yaAplicada) {
+		lote.removeIf(l -> l.secuencia() <= aplicada);
+		if (lote.isEmpty()) return;
+		try {
+			uow.ejecutar(em -> {
+				for (Leido l : lote) aplicar(em, l.evento(), l.secuencia() > yaAplicada);
+				guardarPosicion(em, lote.get(lote.size() - 1).secuencia());
+			});
+			aplicados.add(lote.size());
+			avanzar(lote.get(lote.size() - 1).secuencia());
+			return;
+		} catch (RuntimeException e) {
+			if (!rechazable(e)) throw e;
+		}
+		for (Leido l : lote) {
+			try {
+				uow.ejecutar(em -> {
+					aplicar(em, l.evento(), l.secuencia() > yaAplicada);
+					guardarPosicion(em, l.secuencia());
+				});
+				aplicados.increment();
+			} catch (RuntimeException e) {
+				if (!rechazable(e)) throw e;
+				rechazar(l, e, l.secuencia() > yaAplicada);
+			}
+			avanzar(l.secuencia());
+		}
+	}
+
+	/**
+	 * Anota el rechazo en el diario antes de pasar el evento: si se cae entre
+	 * medias, el evento se vuelve a rechazar y queda anotado dos veces, que no
+	 * hace daño. Al reconstruir también se anota, para que la siguiente
+	 * reconstrucción sepa que el evento no está en las tablas; lo anotado va
+	 * detrás de lo que se está leyendo.
+	 * <p>
+	 * Si es la primera vez que se aplica, las unidades que reservó el evento
+	 * al registrarse vuelven al stock en la misma transacción que guarda la
+	 * posición, así que vuelven una sola vez.
+	 * </p>
+	 * @param vivo si es la primera vez que se aplica el evento.
+	 */
+	private void rechazar(Leido l, RuntimeException e, boolean vivo) {
+		String motivo = (e.getMessage() != null) ? e.getMessage() : e.getClass().getSimpleName();
+		diario.registrar(new EventoRechazado(l.evento().idCompra(), l.secuencia(), motivo));
+		uow.ejecutar(em -> {
+			if (vivo && l.evento() instanceof CompraCreada c) {
+				stock.devolver(em, OrderJournalService.unidades(c.lineas()));
+			} else if (vivo && l.evento() instanceof LineaAnadida a) {
+				stock.devolver(em, OrderJournalService.unidades(a.lineas()));
+			}
+			guardarPosicion(em, l.secuencia());
+		});
+		rechazados.increment();
+		LOG.log(Level.WARNING, "Evento " + l.secuencia() + " de la compra " + l.evento().idCompra()
+				+ " rechazado: " + motivo);
+	}
+
+	private void avanzar(long secuencia) {
+		aplicada = secuencia;
+		synchronized (avisos) {
+			avisos.notifyAll();
+		}
+	}
+
+	/**
+	 * Errores que dependen del evento y no de la base de datos: repetir el
+	 * evento daría el mismo error. Se mira toda la cadena de causas, porque
+	 * JPA envuelve los de Hibernate (p. ej. en {@code PersistenceException} o
+	 * {@code RollbackException}).
+	 */
+	private static boolean rechazable(RuntimeException e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof IllegalArgumentException || t instanceof IllegalStateException
+					|| t instanceof ConstraintViolationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param vivo si es la primera vez que se aplica el evento.
+	 */
+	private void aplicar(EntityManager em, EventoCompra evento, boolean vivo) {
+		switch (evento) {
+		case CompraCreada c -> crear(em, c, vivo);
+		case LineaAnadida l -> anadir(em, l, vivo);
+		case EstadoCambiado c -> cambiarEstado(em, c, vivo);
+		case CompraBorrada b -> borrar(em, b, vivo);
+		case EventoRechazado r -> {
+		}
+		}
+	}
+
+	/**
+	 * Inserta la compra con el id del evento, que no se puede pasar a
+	 * {@code persist} porque el id es generado. La compra se inserta con un
+	 * INSERT de HQL para que el estado y el importe se escriban con el mapeo
+	 * de {@link Compra}; las líneas, que sólo llevan números, con JDBC.
+	 */
+	private void crear(EntityManager em, CompraCreada c, boolean vivo) {
+		Cliente cliente = em.find(Cliente.class, c.nifCliente());
+		if (cliente == null) {
+			throw new IllegalArgumentException("Cliente no encontrado: " + c.nifCliente());
+		}
+		Map<Integer, Linea> lineas = agrupar(c.lineas());
+		Compra compra = new Compra(c.idCompra(), cliente, c.fechaCompra(), EstadoCompra.PENDIENTE, Dinero.CERO);
+		compra.setDireccion(c.direccion());
+		List<ArticuloCompra> acs = new ArrayList<>(lineas.size());
+		for (Linea l : lineas.values()) {
+			acs.add(new ArticuloCompra(compra, articulo(em, l.idArticulo()), l.unidades(), l.precioCompra()));
+		}
+		compra.setPrecioTotal(acs.stream().map(ac -> ac.getPrecioCompra().multiplicar(ac.getUnidades()))
+				.reduce(Dinero.CERO, Dinero::sumar));
+
+		em.createQuery("INSERT INTO Compra (id, cliente, fechaCompra, estado, direccion, precioTotal, version) "
+				+ "VALUES (:id, :cliente, :fecha, :estado, :direccion, :total, 0)")
+				.setParameter("id", compra.getId())
+				.setParameter("cliente", cliente)
+				.setParameter("fecha", compra.getFechaCompra())
+				.setParameter("estado", compra.getEstado())
+				.setParameter("direccion", compra.getDireccion())
+				.setParameter("total", compra.getPrecioTotal())
+				.executeUpdate();
+		em.unwrap(Session.class).doWork(con -> {
+			try (PreparedStatement ps = con.prepareStatement("INSERT INTO articulo_compra "
+					+ "(id_compra, id_articulo, unidades, precio_compra) VALUES (?, ?, ?, ?)")) {
+				for (ArticuloCompra ac : acs) {
+					ps.setInt(1, compra.getId());
+					ps.setInt(2, ac.getArticuloId());
+					ps.setInt(3, ac.getUnidades());
+					ps.setBigDecimal(4, DINERO.convertToDatabaseColumn(ac.getPrecioCompra()));
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+		});
+		if (vivo) {
+			agregados.aplicar(em, new VariacionVentas().sumar(compra, acs));
+		}
+	}
+
+	private void anadir(EntityManager em, LineaAnadida e, boolean vivo) {
+		Compra compra = em.find(Compra.class, e.idCompra(), LockModeType.PESSIMISTIC_WRITE);
+		if (compra == null) {
+			throw new IllegalArgumentException("Compra no encontrada: " + e.idCompra());
+		}
+		if (compra.getEstado() != EstadoCompra.PENDIENTE) {
+			throw new IllegalStateException("La compra " + e.idCompra() + " ya está " + compra.getEstado());
+		}
+		VariacionVentas variacion = vivo ? new VariacionVentas().restar(compra) : null;
+		Map<Integer, Linea> lineas = agrupar(e.lineas());
+		for (Linea l : lineas.values()) {
+			ArticuloCompra existente = null;
+			for (ArticuloCompra ac : compra.getArticuloCompras()) {
+				if (ac.getArticuloId().equals(l.idArticulo())) existente = ac;
+			}
+			if (existente != null) {
+				existente.setUnidades(existente.getUnidades() + l.unidades());
+			} else {
+				compra.addArticuloCompra(
+						new ArticuloCompra(null, articulo(em, l.idArticulo()), l.unidades(), l.precioCompra()));
+			}
+		}
+		compra.recalcularTotal();
+		if (vivo) {
+			agregados.aplicar(em, variacion.sumar(compra));
+		}
+	}
+
+	private void cambiarEstado(EntityManager em, EstadoCambiado e, boolean vivo) {
+		Compra compra = em.find(Compra.class, e.idCompra(), LockModeType.PESSIMISTIC_WRITE);
+		if (compra == null) {
+			throw new IllegalArgumentException("Compra no encontrada: " + e.idCompra());
+		}
+		EstadoCompra anterior = compra.getEstado();
+		if (!anterior.puedePasarA(e.estado())) {
+			throw new IllegalStateException("La compra " + e.idCompra() + " no puede pasar de " + anterior
+					+ " a " + e.estado());
+		}
+		compra.setEstado(e.estado());
+		if (vivo) {
+			agregados.aplicar(em, new VariacionVentas().cambiarEstado(compra.getFechaCompra(),
+					compra.getPrecioTotal(), anterior, e.estado()));
+			// al reconstruir no se avisa otra vez: ya se avisó al aplicarlo la primera vez
+			OutboxCompras.registrar(em, e.idCompra(), anterior, e.estado());
+		}
+	}
+
+	private void borrar(EntityManager em, CompraBorrada e, boolean vivo) {
+		Compra compra = em.find(Compra.class, e.idCompra());
+		if (compra == null) {
+			throw new IllegalArgumentException("Compra no encontrada: " + e.idCompra());
+		}
+		if (vivo) {
+			agregados.aplicar(em, new VariacionVentas().restar(compra));
+			stock.liberar(em, compra);
+		}
+		em.remove(compra);
+	}
+
+	private static Articulo articulo(EntityManager em, int id) {
+		Articulo a = em.find(Articulo.class, id);
+		if (a == null) {
+			throw new IllegalArgumentException("Artículo no encontrado: " + id);
+		}
+		return a;
+	}
+
+	/**
+	 * Junta las líneas del mismo artículo sumando unidades, con el precio de
+	 * la primera, en orden de id.
+	 */
+	private static Map<Integer, Linea> agrupar(List<Linea> lineas) {
+		Map<Integer, Linea> porArticulo = new TreeMap<>();
+		for (Linea l : lineas) {
+			if (l.unidades() <= 0) {
+				throw new IllegalArgumentException("Unidades no válidas para el artículo " + l.idArticulo());
+			}
+			porArticulo.merge(l.idArticulo(), l,
+					(a, b) -> new Linea(a.idArticulo(), a.unidades() + b.unidades(), a.precioCompra()));
+		}
+		return porArticulo;
+	}
+
+	private static void borrarCompras(EntityManager em, List<Integer> ids) {
+		String enLista = ids.stream().map(String::valueOf).collect(Collectors.joining(", ", "(", ")"));
+		em.createNativeQuery("DELETE FROM articulo_compra WHERE id_compra IN " + enLista).executeUpdate();
+		em.createNativeQuery("DELETE FROM compras WHERE id IN " + enLista).executeUpdate();
+	}
+
+	/**
+	 * Última secuencia aplicada; crea la fila de la proyección si no existe.
+	 */
+	private long leerPosicion() {
+		return uow.enTransaccion(em -> {
+			List<?> filas = em.createNativeQuery("SELECT secuencia FROM posicion_diario WHERE nombre = ?")
+					.setParameter(1, NOMBRE).getResultList();
+			if (!filas.isEmpty()) {
+				return ((Number) filas.get(0)).longValue();
+			}
+			em.createNativeQuery("INSERT INTO posicion_diario (nombre, secuencia) VALUES (?, 0)")
+					.setParameter(1, NOMBRE).executeUpdate();
+			return 0L;
+		});
+	}
+
+	private static void guardarPosicion(EntityManager em, long secuencia) {
+		em.createNativeQuery("UPDATE posicion_diario SET secuencia = ? WHERE nombre = ?")
+				.setParameter(1, secuencia).setParameter(2, NOMBRE).executeUpdate();
+	}
+}
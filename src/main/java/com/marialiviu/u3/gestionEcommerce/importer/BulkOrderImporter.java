@@ -0,0 +1,281 @@
+package com.marialiviu.u3.gestionEcommerce.importer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.SalesAggregateService;
+import com.marialiviu.u3.gestionEcommerce.service.VariacionVentas;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Importación masiva, no interactiva, de compras históricas a
+ * <code>compras</code> / <code>articulo_compra</code>.
+ * <p>
+ * El fichero (ver {@link FormatoImportacion}) se lee línea a línea sin cargarlo
+ * entero. Las compras se escriben con una {@link StatelessSession} en lotes JDBC
+ * de {@code tamanoLote} compras: primero todas las <code>compras</code> del lote
+ * y después todas sus líneas, con un commit por lote. En el mismo commit se
+ * guarda en la tabla <code>importaciones</code> el byte en el que empieza la
+ * siguiente línea, de modo que si la importación se corta basta con volver a
+ * lanzarla sobre el mismo fichero para continuar sin duplicar compras. Los
+ * agregados de ventas del lote también se actualizan en ese commit.
+ * </p>
+ * <p>
+ * El punto de control se identifica por la ruta absoluta normalizada del
+ * fichero y guarda el SHA-256 de la parte ya importada. Si al reanudar esa
+ * parte ha cambiado (otro fichero con la misma ruta, o uno editado antes del
+ * punto de control) se descarta y se importa desde el principio; corregir una
+ * línea posterior y relanzar sigue reanudando donde se quedó.
+ * </p>
+ * <p>
+ * Los clientes y artículos referenciados se resuelven una vez y se guardan en
+ * cachés LRU en memoria.
+ * </p>
+ *
+ * <pre>{@code
+ * BulkOrderImporter imp = new BulkOrderImporter(emf, 500);
+ * BulkOrderImporter.Resultado r = imp.importar(Path.of("compras-2024.csv"), FormatoImportacion.CSV);
+ * }</pre>
+ */
+public class BulkOrderImporter {
+
+	/**
+	 * Compras por lote/commit por defecto.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	private static final int MAX_CLAVES_CACHE = 100_000;
+
+	/**
+	 * Resultado de una importación.
+	 *
+	 * @param lineasLeidas líneas procesadas en esta ejecución.
+	 * @param comprasImportadas compras insertadas en esta ejecución.
+	 * @param segundos duración de la importación.
+	 */
+	public record Resultado(long lineasLeidas, long comprasImportadas, double segundos) {
+
+		/**
+		 * Compras insertadas por segundo.
+		 */
+		public double comprasPorSegundo() {
+			return (segundos > 0) ? comprasImportadas / segundos : 0;
+		}
+	}
+
+	/**
+	 * Punto de control guardado en <code>importaciones</code>.
+	 */
+	private record Checkpoint(long offset, long lineas, String huella) {
+
+		static final Checkpoint INICIO = new Checkpoint(0, 0, "");
+	}
+
+	private final SessionFactory sessionFactory;
+	private final SalesAggregateService agregados;
+	private final int tamanoLote;
+
+	private final CacheClaves<String, Cliente> clientes = new CacheClaves<>(MAX_CLAVES_CACHE);
+	private final CacheClaves<Integer, Articulo> articulos = new CacheClaves<>(MAX_CLAVES_CACHE);
+
+	/**
+	 * Crea el importador.
+	 * @param emf
+	 * @param tamanoLote compras por lote JDBC y por commit.
+	 */
+	public BulkOrderImporter(EntityManagerFactory emf, int tamanoLote) {
+		if (tamanoLote <= 0) throw new IllegalArgumentException("tamanoLote debe ser > 0");
+		this.sessionFactory = emf.unwrap(SessionFactory.class);
+		this.agregados = new SalesAggregateService(emf);
+		this.tamanoLote = tamanoLote;
+	}
+
+	/**
+	 * Importa el fichero desde el último punto de control guardado para él.
+	 *
+	 * @param fichero fichero CSV o JSONL.
+	 * @param formato formato del fichero.
+	 * @return resumen de lo importado en esta ejecución.
+	 * @throws IOException si no se puede leer el fichero.
+	 * @throws IllegalArgumentException si una línea está mal formada o referencia
+	 *                                  un cliente/artículo inexistente; lo ya
+	 *                                  confirmado se conserva.
+	 */
+	public Resultado importar(Path fichero, FormatoImportacion formato) throws IOException {
+		Path ruta = fichero.toAbsolutePath().normalize();
+		String clave = ruta.toString();
+		long inicio = System.nanoTime();
+		long lineas = 0;
+		long importadas = 0;
+
+		try (StatelessSession ss = sessionFactory.openStatelessSession()) {
+			ss.setJdbcBatchSize(tamanoLote);
+			Checkpoint checkpoint = leerCheckpoint(ss, clave);
+			LectorLineas reanudado = null;
+			if (checkpoint.offset() > 0) {
+				reanudado = new LectorLineas(ruta, checkpoint.offset());
+				if (reanudado.getOffset() == checkpoint.offset() && reanudado.getHuella().equals(checkpoint.huella())) {
+					System.out.println("Reanudando " + clave + " en la línea " + (checkpoint.lineas() + 1));
+				} else {
+					System.out.println("El fichero " + clave + " ha cambiado antes del último punto de control;"
+							+ " se importa desde el principio");
+					reanudado.close();
+					reanudado = null;
+					checkpoint = Checkpoint.INICIO;
+				}
+			}
+			long lineaActual = checkpoint.lineas();
+
+			try (LectorLineas lector = (reanudado != null) ? reanudado : new LectorLineas(ruta, 0)) {
+				List<RegistroCompra> pendientes = new ArrayList<>(tamanoLote);
+				String linea;
+				while ((linea = lector.readLine()) != null) {
+					lineaActual++;
+					lineas++;
+					if (linea.isBlank() || (lineaActual == 1 && formato.esCabecera(linea))) continue;
+					try {
+						pendientes.add(formato.parse(linea));
+					} catch (RuntimeException e) {
+						throw new IllegalArgumentException("Línea " + lineaActual + ": " + e.getMessage(), e);
+					}
+					if (pendientes.size() == tamanoLote) {
+						escribirLote(ss, pendientes, clave,
+								new Checkpoint(lector.getOffset(), lineaActual, lector.getHuella()));
+						importadas += pendientes.size();
+						pendientes.clear();
+						informar(importadas, inicio);
+					}
+				}
+				if (!pendientes.isEmpty() || lineas > 0) {
+					escribirLote(ss, pendientes, clave,
+							new Checkpoint(lector.getOffset(), lineaActual, lector.getHuella()));
+					importadas += pendientes.size();
+				}
+			}
+		}
+		Resultado r = new Resultado(lineas, importadas, (System.nanoTime() - inicio) / 1e9);
+		System.out.printf("Importación terminada: %d compras en %.1f s (%.0f compras/s)%n", r.comprasImportadas(),
+				r.segundos(), r.comprasPorSegundo());
+		return r;
+	}
+
+	/**
+	 * Inserta un lote y avanza el punto de control en la misma transacción.
+	 */
+	private void escribirLote(StatelessSession ss, List<RegistroCompra> registros, String clave,
+			Checkpoint checkpoint) {
+		Transaction tx = ss.beginTransaction();
+		try {
+			List<Compra> compras = new ArrayList<>(registros.size());
+			List<List<ArticuloCompra>> lineasPorCompra = new ArrayList<>(registros.size());
+			for (RegistroCompra r : registros) {
+				Compra c = new Compra(0, cliente(ss, r.nifCliente()), r.fechaCompra(), r.estado(), Dinero.CERO);
+				c.setDireccion(r.direccion());
+				// igual que en el alta interactiva, las unidades de un artículo repetido se
+				// suman en una sola línea (con el precio de la primera)
+				Map<Integer, ArticuloCompra> porArticulo = new LinkedHashMap<>();
+				for (RegistroCompra.Linea l : r.lineas()) {
+					ArticuloCompra ac = porArticulo.get(l.idArticulo());
+					if (ac != null) {
+						ac.setUnidades(ac.getUnidades() + l.unidades());
+						continue;
+					}
+					Articulo a = articulo(ss, l.idArticulo());
+					Dinero precio = (l.precioCompra() != null) ? l.precioCompra() : a.getPrecioActual();
+					porArticulo.put(l.idArticulo(), new ArticuloCompra(null, a, l.unidades(), precio));
+				}
+				List<ArticuloCompra> ls = new ArrayList<>(porArticulo.values());
+				long total = 0;
+				for (ArticuloCompra ac : ls) {
+					total += ac.getPrecioCompra().getCentimos() * ac.getUnidades();
+				}
+				c.setPrecioTotal(Dinero.deCentimos(total));
+				compras.add(c);
+				lineasPorCompra.add(ls);
+			}
+			// Asigna los ids de todas las compras (desde el bloque reservado) y las inserta en un lote
+			ss.insertMultiple(compras);
+
+			List<ArticuloCompra> lineas = new ArrayList<>();
+			for (int i = 0; i < compras.size(); i++) {
+				for (ArticuloCompra ac : lineasPorCompra.get(i)) {
+					ac.setCompra(compras.get(i));
+					lineas.add(ac);
+				}
+			}
+			ss.insertMultiple(lineas);
+
+			VariacionVentas variacion = new VariacionVentas();
+			for (int i = 0; i < compras.size(); i++) {
+				variacion.sumar(compras.get(i), lineasPorCompra.get(i));
+			}
+			agregados.aplicar(ss, variacion);
+
+			ss.createNativeMutationQuery("INSERT INTO importaciones (fichero, offset_bytes, lineas, huella) "
+					+ "VALUES (:fichero, :offset, :lineas, :huella) "
+					+ "ON DUPLICATE KEY UPDATE offset_bytes = VALUES(offset_bytes), lineas = VALUES(lineas), "
+					+ "huella = VALUES(huella)")
+					.setParameter("fichero", clave)
+					.setParameter("offset", checkpoint.offset())
+					.setParameter("lineas", checkpoint.lineas())
+					.setParameter("huella", checkpoint.huella())
+					.executeUpdate();
+			tx.commit();
+		} catch (RuntimeException e) {
+			if (tx.isActive()) tx.rollback();
+			throw e;
+		}
+	}
+
+	/**
+	 * Devuelve el punto de control del último commit, o {@link Checkpoint#INICIO}.
+	 */
+	private static Checkpoint leerCheckpoint(StatelessSession ss, String clave) {
+		List<Object[]> filas = ss.createNativeQuery(
+				"SELECT offset_bytes, lineas, huella FROM importaciones WHERE fichero = :fichero", Object[].class)
+				.setParameter("fichero", clave)
+				.getResultList();
+		if (filas.isEmpty()) return Checkpoint.INICIO;
+		Object[] f = filas.get(0);
+		return new Checkpoint(((Number) f[0]).longValue(), ((Number) f[1]).longValue(), f[2].toString().trim());
+	}
+
+	private Cliente cliente(StatelessSession ss, String nif) {
+		Cliente c = clientes.get(nif);
+		if (c == null) {
+			c = ss.get(Cliente.class, nif);
+			if (c == null) throw new IllegalArgumentException("Cliente no encontrado: " + nif);
+			clientes.put(nif, c);
+		}
+		return c;
+	}
+
+	private Articulo articulo(StatelessSession ss, int id) {
+		Articulo a = articulos.get(id);
+		if (a == null) {
+			a = ss.get(Articulo.class, id);
+			if (a == null) throw new IllegalArgumentException("Artículo no encontrado: " + id);
+			articulos.put(id, a);
+		}
+		return a;
+	}
+
+	private static void informar(long importadas, long inicio) {
+		double s = (System.nanoTime() - inicio) / 1e9;
+		System.out.printf("  %d compras importadas (%.0f compras/s)%n", importadas, importadas / s);
+	}
+}
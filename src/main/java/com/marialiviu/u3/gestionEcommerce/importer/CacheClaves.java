@@ -0,0 +1,25 @@
+package com.marialiviu.u3.gestionEcommerce.importer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mapa LRU acotado para recordar clientes y artículos ya resueltos durante una
+ * importación sin que la memoria crezca con el tamaño del fichero.
+ */
+class CacheClaves<K, V> extends LinkedHashMap<K, V> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxEntradas;
+
+	CacheClaves(int maxEntradas) {
+		super(Math.min(maxEntradas, 1024), 0.75f, true);
+		this.maxEntradas = maxEntradas;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+		return size() > maxEntradas;
+	}
+}
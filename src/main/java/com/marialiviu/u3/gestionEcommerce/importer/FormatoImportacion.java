@@ -0,0 +1,109 @@
+package com.marialiviu.u3.gestionEcommerce.importer;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Formatos de fichero aceptados por {@link BulkOrderImporter}. Cada línea del
+ * fichero es una compra completa.
+ * <ul>
+ * <li><b>CSV</b> (separador {@code ;}):
+ * {@code nif_cif;fecha_compra;estado;direccion;lineas}, donde {@code lineas} es
+ * {@code idArticulo:unidades[:precio]} separadas por {@code |}. La primera
+ * línea puede ser una cabecera que empiece por {@code nif_cif}.</li>
+ * <li><b>JSONL</b>: un objeto por línea con {@code nif_cif},
+ * {@code fecha_compra}, {@code estado}, {@code direccion} y un array
+ * {@code lineas} de objetos {@code {id_articulo, unidades, precio_compra}}.</li>
+ * </ul>
+ * Las fechas van en ISO-8601 ({@code 2025-11-27} o {@code 2025-11-27T10:15:00}).
+ */
+public enum FormatoImportacion {
+
+	CSV {
+		@Override
+		RegistroCompra parse(String linea) {
+			String[] campos = linea.split(";", -1);
+			if (campos.length != 5) {
+				throw new IllegalArgumentException("Se esperaban 5 campos y hay " + campos.length);
+			}
+			List<RegistroCompra.Linea> lineas = new ArrayList<>();
+			if (!campos[4].isBlank()) {
+				for (String l : campos[4].split("\\|")) {
+					String[] p = l.trim().split(":");
+					lineas.add(new RegistroCompra.Linea(Integer.parseInt(p[0]), Integer.parseInt(p[1]),
+							(p.length > 2) ? Dinero.de(p[2]) : null));
+				}
+			}
+			return new RegistroCompra(campos[0].trim(), fecha(campos[1].trim()), estado(campos[2].trim()),
+					campos[3].isBlank() ? null : campos[3].trim(), lineas);
+		}
+
+		@Override
+		boolean esCabecera(String linea) {
+			return linea.regionMatches(true, 0, "nif_cif", 0, 7);
+		}
+	},
+
+	JSONL {
+		private final ObjectMapper mapper = new ObjectMapper();
+
+		@Override
+		RegistroCompra parse(String linea) {
+			try {
+				JsonNode n = mapper.readTree(linea);
+				List<RegistroCompra.Linea> lineas = new ArrayList<>();
+				for (JsonNode l : n.path("lineas")) {
+					JsonNode precio = l.get("precio_compra");
+					lineas.add(new RegistroCompra.Linea(l.path("id_articulo").asInt(), l.path("unidades").asInt(),
+							(precio != null && !precio.isNull()) ? Dinero.de(precio.decimalValue()) : null));
+				}
+				JsonNode dir = n.get("direccion");
+				return new RegistroCompra(n.path("nif_cif").asText().trim(), fecha(n.path("fecha_compra").asText()),
+						estado(n.path("estado").asText()), (dir != null && !dir.isNull()) ? dir.asText() : null,
+						lineas);
+			} catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+				throw new IllegalArgumentException("JSON no válido: " + e.getOriginalMessage());
+			}
+		}
+	};
+
+	/**
+	 * Convierte una línea del fichero en una compra.
+	 * @throws IllegalArgumentException si la línea está mal formada.
+	 */
+	abstract RegistroCompra parse(String linea);
+
+	/**
+	 * Indica si la línea es una cabecera que hay que saltar.
+	 */
+	boolean esCabecera(String linea) {
+		return false;
+	}
+
+	/**
+	 * Deduce el formato por la extensión del fichero ({@code .jsonl}/{@code .json} o CSV).
+	 */
+	public static FormatoImportacion deFichero(String nombre) {
+		String n = nombre.toLowerCase();
+		return (n.endsWith(".jsonl") || n.endsWith(".json")) ? JSONL : CSV;
+	}
+
+	private static Date fecha(String s) {
+		if (s.isEmpty()) return new Date();
+		LocalDateTime ldt = (s.length() == 10) ? LocalDate.parse(s).atStartOfDay() : LocalDateTime.parse(s);
+		return Date.from(ldt.atZone(ZoneId.systemDefault()).toInstant());
+	}
+
+	private static Compra.EstadoCompra estado(String s) {
+		return s.isEmpty() ? Compra.EstadoCompra.PENDIENTE : Compra.EstadoCompra.valueOf(s.toUpperCase());
+	}
+}
@@ -0,0 +1,103 @@
+package com.marialiviu.u3.gestionEcommerce.importer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Lee un fichero UTF-8 línea a línea llevando la cuenta del desplazamiento en
+ * bytes, para poder guardar un punto de control exacto, y el SHA-256 de los
+ * bytes leídos hasta ese desplazamiento, para saber al reanudar si esa parte
+ * del fichero sigue siendo la misma.
+ * <p>
+ * Sólo guarda en memoria la línea actual. Al reanudar en un desplazamiento se
+ * vuelve a leer (sin interpretarlo) el principio del fichero para calcular su
+ * huella.
+ * </p>
+ */
+class LectorLineas implements Closeable {
+
+	private final InputStream in;
+	private byte[] buf = new byte[256];
+	private final MessageDigest sha;
+	private long offset;
+
+	/**
+	 * Abre el fichero y se posiciona en {@code offset}, o al final si es más
+	 * corto.
+	 * @param fichero
+	 * @param offset byte en el que empieza la siguiente línea a leer.
+	 * @throws IOException
+	 */
+	LectorLineas(Path fichero, long offset) throws IOException {
+		FileChannel ch = FileChannel.open(fichero, StandardOpenOption.READ);
+		this.in = new BufferedInputStream(Channels.newInputStream(ch), 1 << 16);
+		try {
+			this.sha = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] bloque = new byte[1 << 16];
+		while (this.offset < offset) {
+			int n = in.read(bloque, 0, (int) Math.min(bloque.length, offset - this.offset));
+			if (n == -1) break;
+			sha.update(bloque, 0, n);
+			this.offset += n;
+		}
+	}
+
+	/**
+	 * Devuelve la siguiente línea sin el salto de línea ({@code \n} o
+	 * {@code \r\n}), o {@code null} al final del fichero.
+	 * @throws IOException
+	 */
+	String readLine() throws IOException {
+		int n = 0;
+		int b;
+		while ((b = in.read()) != -1) {
+			offset++;
+			if (b == '\n') break;
+			if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+			buf[n++] = (byte) b;
+		}
+		if (b == -1 && n == 0) return null;
+		sha.update(buf, 0, n);
+		if (b == '\n') sha.update((byte) '\n');
+		if (n > 0 && buf[n - 1] == '\r') n--;
+		return new String(buf, 0, n, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Byte en el que empieza la siguiente línea.
+	 */
+	long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * SHA-256 en hexadecimal de los bytes del fichero anteriores a
+	 * {@link #getOffset()}.
+	 */
+	String getHuella() {
+		try {
+			return HexFormat.of().formatHex(((MessageDigest) sha.clone()).digest());
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,27 @@
+package com.marialiviu.u3.gestionEcommerce.importer;
+
+import java.util.Date;
+import java.util.List;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Compra histórica leída de una línea del fichero de importación.
+ *
+ * @param nifCliente NIF/CIF del cliente.
+ * @param fechaCompra fecha de la compra.
+ * @param estado estado de la compra.
+ * @param direccion dirección de envío, puede ser {@code null}.
+ * @param lineas líneas de la compra.
+ */
+record RegistroCompra(String nifCliente, Date fechaCompra, Compra.EstadoCompra estado, String direccion,
+		List<Linea> lineas) {
+
+	/**
+	 * Línea de la compra. Si {@code precioCompra} es {@code null} se usa el precio
+	 * actual del artículo.
+	 */
+	record Linea(int idArticulo, int unidades, Dinero precioCompra) {
+	}
+}
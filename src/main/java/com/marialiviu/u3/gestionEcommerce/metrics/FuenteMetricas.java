@@ -0,0 +1,10 @@
+package com.marialiviu.u3.gestionEcommerce.metrics;
+
+/**
+ * Algo que sabe publicar sus métricas en un {@link RegistroMetricas}.
+ */
+@FunctionalInterface
+public interface FuenteMetricas {
+
+	void recoger(RegistroMetricas registro);
+}
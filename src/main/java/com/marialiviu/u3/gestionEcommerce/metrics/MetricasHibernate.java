@@ -0,0 +1,105 @@
+package com.marialiviu.u3.gestionEcommerce.metrics;
+
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import com.marialiviu.u3.gestionEcommerce.cache.EstadisticasCache;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Publica las estadísticas de Hibernate de la unidad de persistencia: totales
+ * de sesiones, transacciones y flush; cargas, inserciones, actualizaciones y
+ * borrados por entidad; tiempos medio y máximo por consulta; y aciertos de la
+ * caché de segundo nivel por región.
+ * <p>
+ * Necesita {@code hibernate.generate_statistics=true}; si no, no publica nada.
+ * </p>
+ */
+public class MetricasHibernate implements FuenteMetricas {
+
+	/** Las consultas con más texto que esto se cortan en la etiqueta. */
+	private static final int LONGITUD_CONSULTA = 200;
+
+	private final Statistics st;
+
+	public MetricasHibernate(EntityManagerFactory emf) {
+		this.st = emf.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@Override
+	public void recoger(RegistroMetricas r) {
+		if (!st.isStatisticsEnabled()) {
+			return;
+		}
+		Map<String, String> ninguna = Map.of();
+		r.contador("ecommerce_hibernate_sessions_opened_total", "Sesiones abiertas", ninguna, st.getSessionOpenCount());
+		r.contador("ecommerce_hibernate_transactions_total", "Transacciones terminadas", ninguna,
+				st.getTransactionCount());
+		r.contador("ecommerce_hibernate_transactions_successful_total", "Transacciones confirmadas", ninguna,
+				st.getSuccessfulTransactionCount());
+		r.contador("ecommerce_hibernate_flushes_total", "Flush de sesión", ninguna, st.getFlushCount());
+		r.contador("ecommerce_hibernate_connections_obtained_total", "Conexiones JDBC pedidas", ninguna,
+				st.getConnectCount());
+		r.contador("ecommerce_hibernate_statements_prepared_total", "Sentencias JDBC preparadas", ninguna,
+				st.getPrepareStatementCount());
+		r.contador("ecommerce_hibernate_optimistic_failures_total", "Fallos de bloqueo optimista", ninguna,
+				st.getOptimisticFailureCount());
+
+		for (String entidad : st.getEntityNames()) {
+			EntityStatistics e = st.getEntityStatistics(entidad);
+			Map<String, String> et = Map.of("entity", nombreCorto(entidad));
+			r.contador("ecommerce_hibernate_entity_loads_total", "Entidades cargadas", et, e.getLoadCount());
+			r.contador("ecommerce_hibernate_entity_fetches_total", "Entidades cargadas por asociación perezosa", et,
+					e.getFetchCount());
+			r.contador("ecommerce_hibernate_entity_inserts_total", "Entidades insertadas", et, e.getInsertCount());
+			r.contador("ecommerce_hibernate_entity_updates_total", "Entidades actualizadas", et, e.getUpdateCount());
+			r.contador("ecommerce_hibernate_entity_deletes_total", "Entidades borradas", et, e.getDeleteCount());
+			r.contador("ecommerce_hibernate_entity_optimistic_failures_total",
+					"Fallos de bloqueo optimista por entidad", et, e.getOptimisticFailureCount());
+		}
+
+		for (String consulta : st.getQueries()) {
+			QueryStatistics q = st.getQueryStatistics(consulta);
+			Map<String, String> et = Map.of("query", recortar(consulta));
+			r.contador("ecommerce_hibernate_query_executions_total", "Ejecuciones de la consulta", et,
+					q.getExecutionCount());
+			r.contador("ecommerce_hibernate_query_rows_total", "Filas devueltas por la consulta", et,
+					q.getExecutionRowCount());
+			r.indicador("ecommerce_hibernate_query_mean_seconds", "Tiempo medio de ejecución", et,
+					q.getExecutionAvgTimeAsDouble() / 1000.0);
+			r.indicador("ecommerce_hibernate_query_max_seconds", "Tiempo máximo de ejecución", et,
+					q.getExecutionMaxTime() / 1000.0);
+		}
+
+		for (String region : st.getSecondLevelCacheRegionNames()) {
+			CacheRegionStatistics c = st.getCacheRegionStatistics(region);
+			if (c == null) continue;
+			Map<String, String> et = Map.of("region", region);
+			r.contador("ecommerce_cache_hits_total", "Aciertos de la caché de segundo nivel", et, c.getHitCount());
+			r.contador("ecommerce_cache_misses_total", "Fallos de la caché de segundo nivel", et, c.getMissCount());
+			r.contador("ecommerce_cache_puts_total", "Escrituras en la caché de segundo nivel", et, c.getPutCount());
+			double ratio = EstadisticasCache.ratioAciertos(c);
+			r.indicador("ecommerce_cache_hit_ratio", "Proporción de aciertos (0-1, NaN sin accesos)", et,
+					(ratio < 0) ? Double.NaN : ratio / 100.0);
+		}
+		r.contador("ecommerce_query_cache_hits_total", "Aciertos de la caché de consultas", ninguna,
+				st.getQueryCacheHitCount());
+		r.contador("ecommerce_query_cache_misses_total", "Fallos de la caché de consultas", ninguna,
+				st.getQueryCacheMissCount());
+	}
+
+	private static String nombreCorto(String entidad) {
+		return entidad.substring(entidad.lastIndexOf('.') + 1);
+	}
+
+	private static String recortar(String consulta) {
+		String c = consulta.replaceAll("\\s+", " ").trim();
+		return (c.length() > LONGITUD_CONSULTA) ? c.substring(0, LONGITUD_CONSULTA) + "…" : c;
+	}
+}
@@ -0,0 +1,79 @@
+package com.marialiviu.u3.gestionEcommerce.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.SessionEventListener;
+
+import com.marialiviu.u3.gestionEcommerce.sql.HistogramaLatencia;
+
+/**
+ * Mide la duración de las transacciones y de los flush de todas las sesiones.
+ * <p>
+ * Hibernate crea una instancia por sesión a partir de
+ * {@code hibernate.session.events.auto} en persistence.xml. Una transacción
+ * local empieza cuando la sesión pide su conexión y termina en
+ * {@link #transactionCompletion(boolean)}; las duraciones se acumulan en
+ * histogramas compartidos que publica {@link #fuente()}.
+ * </p>
+ */
+public class MetricasSesion implements SessionEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final HistogramaLatencia CONFIRMADAS = new HistogramaLatencia();
+	private static final HistogramaLatencia DESHECHAS = new HistogramaLatencia();
+	private static final HistogramaLatencia FLUSH = new HistogramaLatencia();
+
+	private long inicioTransaccion;
+	private long inicioFlush;
+
+	@Override
+	public void jdbcConnectionAcquisitionStart() {
+		if (inicioTransaccion == 0) {
+			inicioTransaccion = System.nanoTime();
+		}
+	}
+
+	@Override
+	public void transactionCompletion(boolean confirmada) {
+		if (inicioTransaccion != 0) {
+			(confirmada ? CONFIRMADAS : DESHECHAS).registrar(System.nanoTime() - inicioTransaccion);
+			inicioTransaccion = 0;
+		}
+	}
+
+	@Override
+	public void flushStart() {
+		inicioFlush = System.nanoTime();
+	}
+
+	@Override
+	public void flushEnd(int entidades, int colecciones) {
+		if (inicioFlush != 0) {
+			FLUSH.registrar(System.nanoTime() - inicioFlush);
+			inicioFlush = 0;
+		}
+	}
+
+	/**
+	 * Publica las duraciones de transacciones (por resultado) y de flush.
+	 */
+	public static FuenteMetricas fuente() {
+		return r -> {
+			resumen(r, "ecommerce_transaction_duration_seconds", "Duración de las transacciones",
+					Map.of("outcome", "commit"), CONFIRMADAS);
+			resumen(r, "ecommerce_transaction_duration_seconds", "Duración de las transacciones",
+					Map.of("outcome", "rollback"), DESHECHAS);
+			resumen(r, "ecommerce_flush_duration_seconds", "Duración de los flush", Map.of(), FLUSH);
+		};
+	}
+
+	static void resumen(RegistroMetricas r, String nombre, String ayuda, Map<String, String> etiquetas,
+			HistogramaLatencia h) {
+		Map<Double, Double> cuantiles = new LinkedHashMap<>();
+		cuantiles.put(0.5, h.percentilMicros(50) / 1e6);
+		cuantiles.put(0.99, h.percentilMicros(99) / 1e6);
+		r.resumen(nombre, ayuda, etiquetas, h.getEjecuciones(), h.getTotalMicros() / 1e6, cuantiles);
+	}
+}
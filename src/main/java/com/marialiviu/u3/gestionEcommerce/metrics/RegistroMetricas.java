@@ -0,0 +1,33 @@
+package com.marialiviu.u3.gestionEcommerce.metrics;
+
+import java.util.Map;
+
+/**
+ * Destino de las métricas. Las {@link FuenteMetricas} escriben aquí sus
+ * valores actuales cada vez que se recogen; la implementación decide qué
+ * hacer con ellos (formato Prometheus en {@link RegistroPrometheus}, o un
+ * adaptador a otra librería de métricas).
+ * <p>
+ * Los nombres siguen las convenciones de Prometheus: {@code snake_case} con
+ * prefijo {@code ecommerce_} y sufijo {@code _total} en los contadores.
+ * </p>
+ */
+public interface RegistroMetricas {
+
+	/**
+	 * Valor acumulado que sólo crece (se reinicia con la aplicación).
+	 */
+	void contador(String nombre, String ayuda, Map<String, String> etiquetas, double valor);
+
+	/**
+	 * Valor instantáneo que puede subir y bajar.
+	 */
+	void indicador(String nombre, String ayuda, Map<String, String> etiquetas, double valor);
+
+	/**
+	 * Distribución de duraciones en segundos: número de observaciones, suma y
+	 * algunos cuantiles (p. ej. 0.5 y 0.99).
+	 */
+	void resumen(String nombre, String ayuda, Map<String, String> etiquetas, long cuenta, double suma,
+			Map<Double, Double> cuantiles);
+}
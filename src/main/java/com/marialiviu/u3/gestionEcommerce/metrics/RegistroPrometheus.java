@@ -0,0 +1,102 @@
+package com.marialiviu.u3.gestionEcommerce.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registro que acumula las métricas recogidas en el formato de texto de
+ * Prometheus (el que leen el propio Prometheus y el "textfile collector" de
+ * node_exporter). Se usa una instancia por recogida: se pasa a las fuentes y
+ * después se llama a {@link #texto()}.
+ */
+public class RegistroPrometheus implements RegistroMetricas {
+
+	private static final class Familia {
+		final String tipo;
+		final String ayuda;
+		final List<String> muestras = new ArrayList<>();
+
+		Familia(String tipo, String ayuda) {
+			this.tipo = tipo;
+			this.ayuda = ayuda;
+		}
+	}
+
+	private final Map<String, Familia> familias = new LinkedHashMap<>();
+
+	@Override
+	public void contador(String nombre, String ayuda, Map<String, String> etiquetas, double valor) {
+		familia(nombre, "counter", ayuda).muestras.add(muestra(nombre, etiquetas, valor));
+	}
+
+	@Override
+	public void indicador(String nombre, String ayuda, Map<String, String> etiquetas, double valor) {
+		familia(nombre, "gauge", ayuda).muestras.add(muestra(nombre, etiquetas, valor));
+	}
+
+	@Override
+	public void resumen(String nombre, String ayuda, Map<String, String> etiquetas, long cuenta, double suma,
+			Map<Double, Double> cuantiles) {
+		Familia f = familia(nombre, "summary", ayuda);
+		for (Map.Entry<Double, Double> q : cuantiles.entrySet()) {
+			Map<String, String> conCuantil = new TreeMap<>(etiquetas);
+			conCuantil.put("quantile", numero(q.getKey()));
+			f.muestras.add(muestra(nombre, conCuantil, q.getValue()));
+		}
+		f.muestras.add(muestra(nombre + "_sum", etiquetas, suma));
+		f.muestras.add(muestra(nombre + "_count", etiquetas, cuenta));
+	}
+
+	/**
+	 * Todas las métricas recogidas, listas para servir o escribir en fichero.
+	 */
+	public String texto() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Familia> e : familias.entrySet()) {
+			Familia f = e.getValue();
+			sb.append("# HELP ").append(e.getKey()).append(' ').append(f.ayuda.replace("\\", "\\\\").replace("\n", "\\n"))
+					.append('\n');
+			sb.append("# TYPE ").append(e.getKey()).append(' ').append(f.tipo).append('\n');
+			for (String m : f.muestras) sb.append(m).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private Familia familia(String nombre, String tipo, String ayuda) {
+		Familia f = familias.computeIfAbsent(nombre, n -> new Familia(tipo, ayuda));
+		if (!f.tipo.equals(tipo)) {
+			throw new IllegalArgumentException("La métrica " + nombre + " ya está registrada como " + f.tipo);
+		}
+		return f;
+	}
+
+	private static String muestra(String nombre, Map<String, String> etiquetas, double valor) {
+		StringBuilder sb = new StringBuilder(nombre);
+		if (!etiquetas.isEmpty()) {
+			sb.append('{');
+			boolean primera = true;
+			for (Map.Entry<String, String> e : new TreeMap<>(etiquetas).entrySet()) {
+				if (!primera) sb.append(',');
+				sb.append(e.getKey()).append("=\"").append(escapar(e.getValue())).append('"');
+				primera = false;
+			}
+			sb.append('}');
+		}
+		return sb.append(' ').append(numero(valor)).toString();
+	}
+
+	private static String escapar(String valor) {
+		return valor.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String numero(double v) {
+		if (Double.isNaN(v)) return "NaN";
+		if (Double.isInfinite(v)) return (v > 0) ? "+Inf" : "-Inf";
+		if (v == Math.rint(v) && Math.abs(v) < 1e15) return String.valueOf((long) v);
+		return String.format(Locale.ROOT, "%s", v);
+	}
+}
@@ -0,0 +1,232 @@
+package com.marialiviu.u3.gestionEcommerce.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.marialiviu.u3.gestionEcommerce.cache.CacheClientes;
+import com.marialiviu.u3.gestionEcommerce.outbox.DespachadorOutbox;
+import com.marialiviu.u3.gestionEcommerce.pool.MetricasPool;
+import com.marialiviu.u3.gestionEcommerce.pool.MetricasPoolMXBean;
+import com.marialiviu.u3.gestionEcommerce.service.EjecutorReintentos;
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+import com.marialiviu.u3.gestionEcommerce.sql.HistogramaLatencia;
+import com.marialiviu.u3.gestionEcommerce.sql.RegistroSentencias;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Recoge periódicamente las métricas de todas las fuentes y las escribe en un
+ * fichero en formato Prometheus. El fichero se reemplaza de forma atómica, así
+ * que se puede leer en cualquier momento (p. ej. con el "textfile collector"
+ * de node_exporter o con un {@code curl file://}).
+ *
+ * <pre>
+ * try (VolcadoMetricas volcado = VolcadoMetricas.arrancar(emf)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class VolcadoMetricas implements AutoCloseable {
+
+	/** Fichero de destino; si no se define no se arranca el volcado. */
+	public static final String FICHERO = "ecommerce.metricas.fichero";
+	/** Segundos entre volcados. */
+	public static final String PERIODO_S = "ecommerce.metricas.periodo_s";
+
+	private static final System.Logger LOG = System.getLogger(VolcadoMetricas.class.getName());
+
+	private final List<FuenteMetricas> fuentes;
+	private final Path fichero;
+	private final ScheduledExecutorService planificador;
+
+	/**
+	 * @param fuentes
+	 * @param fichero
+	 * @param periodoS segundos entre volcados
+	 */
+	public VolcadoMetricas(List<FuenteMetricas> fuentes, Path fichero, long periodoS) {
+		this.fuentes = List.copyOf(fuentes);
+		this.fichero = fichero;
+		this.planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "volcado-metricas");
+			t.setDaemon(true);
+			return t;
+		});
+		planificador.scheduleAtFixedRate(this::volcarSinFallar, periodoS, periodoS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Arranca el volcado de todas las fuentes de la aplicación con el fichero
+	 * y periodo de las propiedades de la unidad de persistencia.
+	 * @param emf
+	 * @return el volcado, o null si {@value #FICHERO} no está definido.
+	 */
+	public static VolcadoMetricas arrancar(EntityManagerFactory emf) {
+		Map<String, Object> props = emf.getProperties();
+		String fichero = ConfigurationHelper.getString(FICHERO, props, "");
+		if (fichero.isBlank()) {
+			return null;
+		}
+		long periodo = ConfigurationHelper.getLong(PERIODO_S, props, 15);
+		return new VolcadoMetricas(fuentes(emf), Path.of(fichero), periodo);
+	}
+
+	/**
+	 * Todas las fuentes de la aplicación: Hibernate, transacciones, pool de
+	 * conexiones, réplicas de lectura, sentencias SQL, caché de clientes,
+	 * conflictos del bloqueo optimista y despachadores del outbox.
+	 * @param emf
+	 */
+	public static List<FuenteMetricas> fuentes(EntityManagerFactory emf) {
+		List<FuenteMetricas> fuentes = new ArrayList<>();
+		fuentes.add(new MetricasHibernate(emf));
+		fuentes.add(MetricasSesion.fuente());
+		fuentes.add(VolcadoMetricas::pool);
+		fuentes.add(VolcadoMetricas::replicas);
+		fuentes.add(VolcadoMetricas::sentencias);
+		CacheClientes clientes = CacheClientes.de(emf);
+		fuentes.add(r -> clientes(r, clientes));
+		fuentes.add(VolcadoMetricas::conflictos);
+		fuentes.add(VolcadoMetricas::outbox);
+		return fuentes;
+	}
+
+	/**
+	 * Recoge todas las fuentes en formato Prometheus.
+	 */
+	public static String texto(List<FuenteMetricas> fuentes) {
+		RegistroPrometheus registro = new RegistroPrometheus();
+		for (FuenteMetricas f : fuentes) f.recoger(registro);
+		return registro.texto();
+	}
+
+	/**
+	 * Escribe el fichero ahora.
+	 */
+	public void volcar() {
+		try {
+			Path tmp = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+			Files.writeString(tmp, texto(fuentes), StandardCharsets.UTF_8);
+			Files.move(tmp, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo escribir " + fichero, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		planificador.shutdownNow();
+		volcarSinFallar();
+	}
+
+	private void volcarSinFallar() {
+		try {
+			volcar();
+		} catch (RuntimeException e) {
+			// un fallo puntual no debe parar los siguientes volcados
+			LOG.log(System.Logger.Level.WARNING, "Volcado de métricas fallido", e);
+		}
+	}
+
+	private static void pool(RegistroMetricas r) {
+		for (MetricasPoolMXBean p : MetricasPool.todas()) {
+			Map<String, String> et = Map.of("pool", p.getNombre());
+			r.indicador("ecommerce_pool_connections_active", "Conexiones prestadas", et, p.getConexionesActivas());
+			r.indicador("ecommerce_pool_connections_idle", "Conexiones libres", et, p.getConexionesInactivas());
+			r.indicador("ecommerce_pool_threads_waiting", "Hilos esperando conexión", et, p.getHilosEsperando());
+			r.contador("ecommerce_pool_acquisitions_total", "Conexiones obtenidas", et, p.getAdquisiciones());
+			r.contador("ecommerce_pool_timeouts_total", "Esperas de conexión agotadas", et, p.getTimeouts());
+			r.indicador("ecommerce_pool_wait_mean_seconds", "Espera media para obtener conexión", et,
+					p.getEsperaMediaMicros() / 1e6);
+			r.indicador("ecommerce_pool_wait_max_seconds", "Espera máxima para obtener conexión", et,
+					p.getEsperaMaximaMicros() / 1e6);
+		}
+	}
+
+	private static void replicas(RegistroMetricas r) {
+		for (EnrutadorLecturas e : EnrutadorLecturas.activos()) {
+			for (EnrutadorLecturas.Replica rep : e.getReplicas()) {
+				Map<String, String> et = Map.of("pool", e.getNombre(), "replica", rep.getUrl());
+				r.contador("ecommerce_replica_connections_total", "Conexiones de lectura dadas por la réplica", et,
+						rep.getConexiones());
+				r.contador("ecommerce_replica_failures_total", "Veces que la réplica no dio conexión", et,
+						rep.getFallos());
+				r.contador("ecommerce_replica_busy_total", "Veces que la réplica tenía todas las conexiones prestadas",
+						et, rep.getOcupada());
+				r.indicador("ecommerce_replica_up", "1 si la réplica respondió la última vez", et,
+						rep.isCaida() ? 0 : 1);
+			}
+			r.contador("ecommerce_replica_primary_reads_total", "Lecturas enviadas a la principal",
+					Map.of("pool", e.getNombre(), "reason", "recent_write"), e.getPegadas());
+			r.contador("ecommerce_replica_primary_reads_total", "Lecturas enviadas a la principal",
+					Map.of("pool", e.getNombre(), "reason", "no_replica"), e.getSinReplica());
+		}
+	}
+
+	private static void clientes(RegistroMetricas r, CacheClientes c) {
+		CacheStats st = c.getEstadisticas();
+		r.contador("ecommerce_customer_cache_hits_total", "Lecturas de clientes servidas por la caché", Map.of(),
+				st.hitCount());
+		r.contador("ecommerce_customer_cache_misses_total", "Lecturas de clientes que fueron a la base de datos",
+				Map.of(), st.missCount() + c.getLecturasSinCache());
+		r.contador("ecommerce_customer_cache_evictions_total", "Clientes desalojados de la caché", Map.of(),
+				st.evictionCount());
+		r.indicador("ecommerce_customer_cache_entries", "Clientes en la caché", Map.of(), c.getEntradas());
+		r.contador("ecommerce_customer_email_updates_total", "Cambios de email pedidos", Map.of(),
+				c.getEmailsRecibidos());
+		r.contador("ecommerce_customer_email_writes_total", "Emails escritos en la base de datos", Map.of(),
+				c.getEmailsEscritos());
+		r.contador("ecommerce_customer_email_rejected_total", "Emails descartados al escribirlos", Map.of(),
+				c.getEmailsRechazados());
+		r.indicador("ecommerce_customer_email_pending", "Emails pendientes de la escritura diferida", Map.of(),
+				c.getEmailsPendientes());
+	}
+
+	private static void conflictos(RegistroMetricas r) {
+		for (Map.Entry<String, EjecutorReintentos.Contadores> e : EjecutorReintentos.conflictos().entrySet()) {
+			Map<String, String> et = Map.of("entity", e.getKey());
+			EjecutorReintentos.Contadores c = e.getValue();
+			r.contador("ecommerce_optimistic_conflicts_total", "Unidades de trabajo fallidas por la versión",
+					et, c.getConflictos());
+			r.contador("ecommerce_optimistic_retries_total", "Unidades de trabajo repetidas tras un conflicto",
+					et, c.getReintentos());
+			r.contador("ecommerce_optimistic_exhausted_total", "Conflictos sin intentos restantes", et,
+					c.getAgotados());
+		}
+	}
+
+	private static void outbox(RegistroMetricas r) {
+		for (DespachadorOutbox d : DespachadorOutbox.activos()) {
+			Map<String, String> et = Map.of("dispatcher", d.getNombre());
+			r.contador("ecommerce_outbox_delivered_total", "Mensajes del outbox entregados", et, d.getEntregados());
+			r.contador("ecommerce_outbox_batches_total", "Lotes del outbox entregados", et, d.getLotes());
+			r.contador("ecommerce_outbox_failures_total", "Lotes del outbox fallidos", et, d.getFallos());
+			r.indicador("ecommerce_outbox_lag_seconds", "Antigüedad del mensaje pendiente más antiguo", et,
+					d.getRetrasoSegundos());
+			MetricasSesion.resumen(r, "ecommerce_outbox_delivery_seconds",
+					"Tiempo desde que se escribe un mensaje hasta que se entrega", et, d.getLatencia());
+		}
+	}
+
+	private static void sentencias(RegistroMetricas r) {
+		for (Map.Entry<String, HistogramaLatencia> e : RegistroSentencias.get().getFormas().entrySet()) {
+			MetricasSesion.resumen(r, "ecommerce_sql_duration_seconds", "Duración de las sentencias SQL por forma",
+					Map.of("shape", e.getKey()), e.getValue());
+		}
+		r.contador("ecommerce_sql_slow_log_dropped_total", "Entradas del registro de lentas descartadas", Map.of(),
+				RegistroSentencias.get().getDescartadas());
+	}
+}
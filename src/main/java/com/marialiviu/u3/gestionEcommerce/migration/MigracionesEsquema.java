@@ -0,0 +1,223 @@
+package com.marialiviu.u3.gestionEcommerce.migration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * Aplica las migraciones versionadas del esquema al arrancar la aplicación.
+ * <p>
+ * Las migraciones son scripts SQL en {@value #UBICACION}, listados en orden en
+ * {@value #INDICE} y llamados {@code V<versión>__<descripción>.sql}. Cada una
+ * se aplica una sola vez: al terminar se anota su versión y su suma de control
+ * en la tabla {@value #TABLA_HISTORIAL}. Si un script ya aplicado cambia, el
+ * arranque falla en lugar de dejar entornos con esquemas distintos.
+ * </p>
+ * <p>
+ * Las V1-V4 llevan una base de datos creada con el script original (sólo
+ * clientes, compras y artículos) hasta el esquema que ya usaba la aplicación
+ * antes de tener migraciones; en una creada con el script actual no cambian
+ * nada.
+ * </p>
+ * <p>
+ * Hibernate crea esta clase como {@link Integrator} (ver
+ * {@code META-INF/services}) mientras construye la factoría, antes de validar
+ * el esquema, así que {@code hbm2ddl.auto=validate} comprueba ya el esquema
+ * migrado. Sólo se ejecuta cuando Hibernate no genera el esquema por su cuenta
+ * ({@code validate} o {@code none}) y se puede desactivar con
+ * {@value #APLICAR}{@code =false}.
+ * </p>
+ * <p>
+ * MariaDB confirma cada sentencia DDL por separado, así que una migración que
+ * falla a medias no se deshace: los scripts deben poder repetirse
+ * ({@code IF NOT EXISTS}, ...) y basta con corregirla y volver a arrancar.
+ * </p>
+ */
+public class MigracionesEsquema implements Integrator {
+
+	/** Aplicar las migraciones pendientes al crear la factoría (por defecto, true). */
+	public static final String APLICAR = "ecommerce.migraciones.aplicar";
+
+	public static final String UBICACION = "db/migraciones/";
+	public static final String INDICE = UBICACION + "migraciones.txt";
+	public static final String TABLA_HISTORIAL = "historial_migraciones";
+
+	private static final Pattern NOMBRE = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+	private static final Set<String> ACCIONES_CON_MIGRACIONES = Set.of("validate", "none");
+
+	private static final System.Logger LOG = System.getLogger(MigracionesEsquema.class.getName());
+
+	/**
+	 * Migración leída del classpath.
+	 * @param version
+	 * @param descripcion
+	 * @param checksum CRC32 del script.
+	 * @param sentencias sentencias del script, en orden.
+	 */
+	public record Migracion(int version, String descripcion, long checksum, List<String> sentencias) {
+	}
+
+	@Override
+	public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+			SessionFactoryImplementor sessionFactory) {
+		Map<String, Object> props = sessionFactory.getProperties();
+		String accion = ConfigurationHelper.getString(AvailableSettings.HBM2DDL_AUTO, props, "none");
+		if (!ConfigurationHelper.getBoolean(APLICAR, props, true) || !ACCIONES_CON_MIGRACIONES.contains(accion)) {
+			return;
+		}
+		ConnectionProvider proveedor = sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+		try {
+			Connection con = proveedor.getConnection();
+			try {
+				aplicar(con);
+			} finally {
+				proveedor.closeConnection(con);
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException("No se pudieron aplicar las migraciones del esquema", e);
+		}
+	}
+
+	/**
+	 * Aplica en orden las migraciones que aún no constan en el historial.
+	 * @param con conexión; se deja en autocommit.
+	 * @return número de migraciones aplicadas.
+	 * @throws SQLException
+	 * @throws IllegalStateException si una migración aplicada ha cambiado.
+	 */
+	public static int aplicar(Connection con) throws SQLException {
+		con.setAutoCommit(true);
+		try (Statement st = con.createStatement()) {
+			st.execute("CREATE TABLE IF NOT EXISTS " + TABLA_HISTORIAL + " ("
+					+ "version INT PRIMARY KEY NOT NULL, "
+					+ "descripcion VARCHAR(200) NOT NULL, "
+					+ "checksum BIGINT NOT NULL, "
+					+ "aplicada TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+		}
+		Map<Integer, Long> aplicadas = aplicadas(con);
+		int n = 0;
+		for (Migracion m : migraciones()) {
+			Long checksum = aplicadas.get(m.version());
+			if (checksum != null) {
+				if (checksum != m.checksum()) {
+					throw new IllegalStateException("La migración V" + m.version() + " (" + m.descripcion()
+							+ ") ha cambiado después de aplicarse");
+				}
+				continue;
+			}
+			LOG.log(System.Logger.Level.INFO, "Aplicando migración V{0}: {1}", m.version(), m.descripcion());
+			try (Statement st = con.createStatement()) {
+				for (String sql : m.sentencias()) {
+					st.execute(sql);
+				}
+			} catch (SQLException e) {
+				throw new SQLException("Migración V" + m.version() + " fallida: " + e.getMessage(), e);
+			}
+			// Si otra instancia la ha aplicado a la vez, la clave primaria lo impide aquí
+			try (PreparedStatement ps = con.prepareStatement(
+					"INSERT INTO " + TABLA_HISTORIAL + " (version, descripcion, checksum) VALUES (?, ?, ?)")) {
+				ps.setInt(1, m.version());
+				ps.setString(2, m.descripcion());
+				ps.setLong(3, m.checksum());
+				ps.executeUpdate();
+			}
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Migraciones del classpath en el orden de {@value #INDICE}.
+	 */
+	public static List<Migracion> migraciones() {
+		List<Migracion> migraciones = new ArrayList<>();
+		int anterior = 0;
+		for (String linea : leer(INDICE).split("\\R")) {
+			String fichero = linea.strip();
+			if (fichero.isEmpty() || fichero.startsWith("#")) continue;
+			Matcher m = NOMBRE.matcher(fichero);
+			if (!m.matches()) {
+				throw new IllegalStateException("Nombre de migración no válido: " + fichero);
+			}
+			int version = Integer.parseInt(m.group(1));
+			if (version <= anterior) {
+				throw new IllegalStateException("Las migraciones deben ir en orden creciente: " + fichero);
+			}
+			anterior = version;
+			String script = leer(UBICACION + fichero);
+			CRC32 crc = new CRC32();
+			crc.update(script.getBytes(StandardCharsets.UTF_8));
+			migraciones.add(new Migracion(version, m.group(2).replace('_', ' '), crc.getValue(), sentencias(script)));
+		}
+		return migraciones;
+	}
+
+	/**
+	 * Separa un script en sentencias: terminan en ';' al final de línea y las
+	 * líneas que empiezan por '--' son comentarios.
+	 */
+	static List<String> sentencias(String script) {
+		List<String> sentencias = new ArrayList<>();
+		StringBuilder actual = new StringBuilder();
+		for (String linea : script.split("\\R")) {
+			String l = linea.strip();
+			if (l.isEmpty() || l.startsWith("--")) continue;
+			if (actual.length() > 0) actual.append(' ');
+			if (l.endsWith(";")) {
+				actual.append(l, 0, l.length() - 1);
+				sentencias.add(actual.toString());
+				actual.setLength(0);
+			} else {
+				actual.append(l);
+			}
+		}
+		if (actual.length() > 0) {
+			sentencias.add(actual.toString());
+		}
+		return sentencias;
+	}
+
+	private static Map<Integer, Long> aplicadas(Connection con) throws SQLException {
+		Map<Integer, Long> aplicadas = new HashMap<>();
+		try (Statement st = con.createStatement();
+				ResultSet rs = st.executeQuery("SELECT version, checksum FROM " + TABLA_HISTORIAL)) {
+			while (rs.next()) {
+				aplicadas.put(rs.getInt(1), rs.getLong(2));
+			}
+		}
+		return aplicadas;
+	}
+
+	private static String leer(String recurso) {
+		try (InputStream in = MigracionesEsquema.class.getClassLoader().getResourceAsStream(recurso)) {
+			if (in == null) {
+				throw new IllegalStateException("No se encuentra " + recurso + " en el classpath");
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo leer " + recurso, e);
+		}
+	}
+}
@@ -1,10 +1,22 @@
 package com.marialiviu.u3.gestionEcommerce.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.marialiviu.u3.gestionEcommerce.cache.RegionesCache;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import jakarta.persistence.TableGenerator;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Persistence;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.FetchType;
 
@@ -41,10 +53,9 @@ import java.util.Set;
  * 
  * <pre>{@code
  * Articulo a = new Articulo();
- * c.setId("1");
  * c.setNombre("Pan");
  * c.setDescripcion("Pan integral");
- * c.setPrecioActual(1.99f);
+ * c.setPrecioActual(Dinero.de("1.99"));
  * c.setStock(100);
  * }</pre>
  *
@@ -56,13 +67,19 @@ import java.util.Set;
 
 @Entity
 @Table(name = "articulos")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = RegionesCache.ARTICULOS)
 public class Articulo {
 
 	/**
-	 * Identificador único del articulo.
+	 * Identificador único del articulo. Se reserva por bloques desde la tabla
+	 * <code>secuencias</code>, igual que el de {@link Compra}.
 	 */
 	@Id
 	@Column(name = "id")
+	@GeneratedValue(strategy = GenerationType.TABLE, generator = "articulos_id_gen")
+	@TableGenerator(name = "articulos_id_gen", table = "secuencias", pkColumnName = "nombre_secuencia",
+			valueColumnName = "siguiente_valor", pkColumnValue = "articulos", allocationSize = 50)
 	private int id;
 
 	/**
@@ -81,7 +98,8 @@ public class Articulo {
 	 * Precio actual del artículo.
 	 */
 	@Column(name = "precio_actual", columnDefinition = "DECIMAL(10,2)")
-	private float precioActual;
+	@Convert(converter = DineroConverter.class)
+	private Dinero precioActual;
 
 	/**
 	 * Cantidad en stock del artículo.
@@ -89,6 +107,15 @@ public class Articulo {
 	@Column(name = "stock")
 	private int stock;
 
+	/**
+	 * Versión para el bloqueo optimista: un {@code merge} sobre una copia
+	 * antigua del artículo (por ejemplo, si otra venta ha descontado stock
+	 * mientras tanto) falla en vez de sobrescribir el cambio.
+	 */
+	@Version
+	@Column(name = "version")
+	private int version;
+
 	/**
 	 * Conjunto de ventas asociadas al artículo.
 	 */
@@ -102,10 +129,21 @@ public class Articulo {
 		this.id = 0;
 		this.nombre = "";
 		this.descripcion = "";
-		this.precioActual = 0;
+		this.precioActual = Dinero.CERO;
 		this.stock = 0;
 	}
 	
+	/**
+	 * Constructor para artículos nuevos; el id lo asigna el generador al hacer persist.
+	 * @param nombre
+	 * @param descripcion
+	 * @param precioActual
+	 * @param stock
+	 */
+	public Articulo(String nombre, String descripcion, Dinero precioActual, int stock) {
+		this(0, nombre, descripcion, precioActual, stock);
+	}
+
 	/**
 	 * Constructor que inicializa un artículo con los valores proporcionados.
 	 * @param id
@@ -114,11 +152,11 @@ public class Articulo {
 	 * @param precioActual
 	 * @param stock
 	 */
-	public Articulo(int id, String nombre, String descripcion, float precioActual, int stock) {
+	public Articulo(int id, String nombre, String descripcion, Dinero precioActual, int stock) {
 		this.id = (id > 0) ? id : 0;
 		this.nombre = (nombre != null) ? nombre.trim() : "";
 		this.descripcion = (descripcion != null) ? descripcion.trim() : "";
-		this.precioActual = (precioActual >= 0) ? precioActual : 0;
+		this.precioActual = (precioActual != null && !precioActual.esNegativo()) ? precioActual : Dinero.CERO;
 		this.stock = (stock >= 0) ? stock : 0;
 	}
 
@@ -174,7 +212,7 @@ public class Articulo {
 	 * Obtiene el precio actual del artículo.
 	 * @return
 	 */
-	public float getPrecioActual() {
+	public Dinero getPrecioActual() {
 		return precioActual;
 	}
 
@@ -182,8 +220,8 @@ public class Articulo {
 	 * Establece el precio actual del artículo.
 	 * @param precioActual
 	 */
-	public void setPrecioActual(float precioActual) {
-		this.precioActual = (precioActual >= 0) ? precioActual : 0;
+	public void setPrecioActual(Dinero precioActual) {
+		this.precioActual = (precioActual != null && !precioActual.esNegativo()) ? precioActual : Dinero.CERO;
 	}
 
 	/**
@@ -202,6 +240,14 @@ public class Articulo {
 		this.stock = (stock >= 0) ? stock : 0;
 	}
 
+	/**
+	 * Obtiene la versión del artículo.
+	 * @return
+	 */
+	public int getVersion() {
+		return version;
+	}
+
 	/**
 	 * Obtiene el conjunto de ventas asociadas al artículo.
 	 * @return
@@ -239,12 +285,16 @@ public class Articulo {
 	}
 
 	/**
-	 * Devuelve una representación en cadena del artículo.
+	 * Devuelve una representación en cadena del artículo. El número de ventas
+	 * sólo se incluye si la colección ya está cargada, para no lanzar una
+	 * consulta por artículo (ni fallar si el artículo está desacoplado).
 	 */
 	@Override
 	public String toString() {
+		String ventas = Persistence.getPersistenceUtil().isLoaded(articuloCompras)
+				? String.valueOf(articuloCompras.size()) : "?";
 		return "Articulo [id=" + id + ", nombre=" + nombre + ", descripcion=" + descripcion + ", precioActual="
-				+ precioActual + ", stock=" + stock + ", ventas=" + articuloCompras.size() + "]";
+				+ precioActual + ", stock=" + stock + ", ventas=" + ventas + "]";
 	}
 
 	/**
@@ -1,6 +1,7 @@
 package com.marialiviu.u3.gestionEcommerce.model;
 
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
@@ -40,7 +41,7 @@ import java.util.Objects;
  * <pre>{@code
  * Articulo articulo = new Articulo(...);
  * Compra compra = new Compra(...);
- * ArticuloCompra articuloCompra = new ArticuloCompra(compra, articulo, 5, 19.99f);
+ * ArticuloCompra articuloCompra = new ArticuloCompra(compra, articulo, 5, Dinero.de("19.99"));
  * System.out.println(articuloCompra);
  * }</pre>
  *
@@ -93,7 +94,8 @@ public class ArticuloCompra {
      * Precio del artículo en el momento de la compra.
      */
     @Column(name = "precio_compra", columnDefinition = "DECIMAL(10,2)")
-    private float precioCompra;
+    @Convert(converter = DineroConverter.class)
+    private Dinero precioCompra;
 
     /**
      * Constructor por defecto que inicializa los campos a valores predeterminados.
@@ -104,7 +106,7 @@ public class ArticuloCompra {
         this.compra = null;
         this.articulo = null;
         this.unidades = 0;
-        this.precioCompra = 0;
+        this.precioCompra = Dinero.CERO;
     }
 
     /**
@@ -115,14 +117,14 @@ public class ArticuloCompra {
      * @param unidades
      * @param precioCompra
      */
-    public ArticuloCompra(Compra compra, Articulo articulo, int unidades, float precioCompra) {
+    public ArticuloCompra(Compra compra, Articulo articulo, int unidades, Dinero precioCompra) {
         this();
         this.compra = compra;
         this.articulo = articulo;
         this.compraId = (compra != null) ? compra.getId() : null;
         this.articuloId = (articulo != null) ? articulo.getId() : null;
         this.unidades = (unidades >= 0) ? unidades : 0;
-        this.precioCompra = (precioCompra >= 0) ? precioCompra : 0;
+        this.precioCompra = (precioCompra != null && !precioCompra.esNegativo()) ? precioCompra : Dinero.CERO;
     }
 
     /**
@@ -210,7 +212,7 @@ public class ArticuloCompra {
      * Obtiene el precio del artículo en el momento de la compra.
      * @return
      */
-    public float getPrecioCompra() {
+    public Dinero getPrecioCompra() {
         return precioCompra;
     }
 
@@ -218,8 +220,8 @@ public class ArticuloCompra {
      * Establece el precio del artículo en el momento de la compra.
      * @param precioCompra
      */
-    public void setPrecioCompra(float precioCompra) {
-        this.precioCompra = (precioCompra >= 0) ? precioCompra : 0;
+    public void setPrecioCompra(Dinero precioCompra) {
+        this.precioCompra = (precioCompra != null && !precioCompra.esNegativo()) ? precioCompra : Dinero.CERO;
     }
 
     /**
@@ -5,6 +5,9 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.OptimisticLock;
+
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -16,6 +19,7 @@ import jakarta.persistence.OneToMany;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 
 /**
  * Representa un cliente del sistema de gestión del e-commerce.
@@ -60,6 +64,7 @@ import jakarta.persistence.Table;
 
 @Entity
 @Table(name = "clientes")
+@BatchSize(size = 50) // los proxies LAZY de Compra.cliente se cargan en bloque
 public class Cliente {
 
     /** 
@@ -102,9 +107,20 @@ public class Cliente {
 	 * Compras asociadas al cliente.
 	 * No se propaga REMOVE para evitar borrar las compras cuando se elimina el cliente;
 	 * sólo se propagan operaciones de persist/merge/refresh para mantener el estado.
+	 * Incluye todo el historial del cliente; para mostrarlo por páginas usar
+	 * {@code OrderHistoryService}.
 	 */
 	@OneToMany(mappedBy = "cliente", cascade = {CascadeType.PERSIST, CascadeType.MERGE, CascadeType.REFRESH}, fetch = FetchType.LAZY)
+	@OptimisticLock(excluded = true) // una compra nueva no cambia la versión del cliente
 	private List<Compra> compras;
+
+	/**
+	 * Versión para el bloqueo optimista: un cambio sobre una copia antigua del
+	 * cliente falla en vez de pisar el de otra transacción.
+	 */
+	@Version
+	@Column(name = "version")
+	private int version;
 	
 	/**
 	 * Constructor que crea un objeto Cliente con valores por defecto.
@@ -203,6 +219,15 @@ public class Cliente {
 	public void setFechaCreacion(Date fecha) {
 		this.fechaCreacion = fecha;
 	}
+
+	/**
+	 * Obtiene la versión del cliente.
+	 *
+	 * @return la versión para el bloqueo optimista.
+	 */
+	public int getVersion() {
+		return version;
+	}
 	
 	@PrePersist
 	public void prePersist() {
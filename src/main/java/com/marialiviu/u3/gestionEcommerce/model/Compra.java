@@ -5,17 +5,28 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.hibernate.annotations.BatchSize;
+
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedAttributeNode;
+import jakarta.persistence.NamedEntityGraph;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Persistence;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
+import jakarta.persistence.Version;
 
 /**
  * Representa una compra del sistema de gestión del e-commerce.
@@ -44,11 +55,11 @@ import jakarta.persistence.Table;
  * </p>
  * * <pre>{@code
  * Compra compra = new Compra();
- * compra.setId(1);
- * compra.setIdCliente("12345678A");
+ * compra.setCliente(cliente); // el id se asigna al hacer persist
  * compra.setFechaCompra(new Date());
  * compra.setEstado(Compra.EstadoCompra.PENDIENTE);
- * compra.setPrecioTotal(99.99f);
+ * compra.addArticuloCompra(new ArticuloCompra(null, articulo, 2, articulo.getPrecioActual()));
+ * compra.recalcularTotal();
  * System.out.println(compra);
  * }</pre>
  * *
@@ -60,18 +71,60 @@ import jakarta.persistence.Table;
  * 
  */
 @Entity
-@Table(name = "compras")
+@Table(name = "compras", indexes = {
+        @Index(name = "idx_compras_cliente_fecha", columnList = "id_cliente, fecha_compra, estado, precio_total"),
+        @Index(name = "idx_compras_estado_fecha", columnList = "estado, fecha_compra") })
+@NamedEntityGraph(name = Compra.GRAFO_CON_CLIENTE, attributeNodes = @NamedAttributeNode("cliente"))
+@NamedEntityGraph(name = Compra.GRAFO_CON_CLIENTE_Y_LINEAS, attributeNodes = {
+        @NamedAttributeNode("cliente"), @NamedAttributeNode("articuloCompras") })
 public class Compra {
 
+    /**
+     * Grafo de entidad que carga el cliente en la misma consulta que la compra.
+     */
+    public static final String GRAFO_CON_CLIENTE = "Compra.conCliente";
+
+    /**
+     * Grafo de entidad que carga el cliente y las líneas junto con la compra.
+     * No usar con paginación: el JOIN con las líneas multiplica las filas.
+     */
+    public static final String GRAFO_CON_CLIENTE_Y_LINEAS = "Compra.conClienteYLineas";
+
+    /**
+     * Identificador de la compra. Se obtiene de la tabla <code>secuencias</code>
+     * reservando bloques de {@code allocationSize} ids en memoria (optimizador
+     * <i>pooled-lo</i>), de forma que crear una compra no cuesta ninguna consulta
+     * extra salvo cuando se agota el bloque, y varias JVM pueden escribir en
+     * <code>compras</code> sin pisarse los ids.
+     */
     @Id
     @Column(name = "id")
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "compras_id_gen")
+    @TableGenerator(name = "compras_id_gen", table = "secuencias", pkColumnName = "nombre_secuencia",
+            valueColumnName = "siguiente_valor", pkColumnValue = "compras", allocationSize = 50)
     private int id;
 
     @Column(name = "fecha_compra")
     private Date fechaCompra;
 
+    /**
+     * Estados de una compra. Sólo se avanza de uno al siguiente:
+     * PENDIENTE → ENVIADO → ENTREGADO.
+     */
     public enum EstadoCompra {
-        PENDIENTE, ENVIADO, ENTREGADO
+        PENDIENTE, ENVIADO, ENTREGADO;
+
+        /**
+         * Único estado desde el que se puede pasar a éste, o {@code null} si
+         * es el estado inicial.
+         */
+        public EstadoCompra anterior() {
+            return (ordinal() == 0) ? null : values()[ordinal() - 1];
+        }
+
+        public boolean puedePasarA(EstadoCompra nuevo) {
+            return nuevo != null && nuevo.anterior() == this;
+        }
     }
 
     @Column(name = "estado")
@@ -82,9 +135,16 @@ public class Compra {
     private String direccion;
 
     @Column(name = "precio_total", columnDefinition = "DECIMAL(10,2)")
-    private float precioTotal;
+    @Convert(converter = DineroConverter.class)
+    private Dinero precioTotal;
 
+    /**
+     * Líneas de la compra. Si se recorren las de varias compras cargadas en el
+     * mismo contexto, Hibernate las inicializa de 50 en 50 en vez de una
+     * consulta por compra.
+     */
     @OneToMany(mappedBy = "compra", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
     private Set<ArticuloCompra> articuloCompras = new HashSet<>();
     
     // --- ESTA ES LA PARTE IMPORTANTE MODIFICADA ---
@@ -92,6 +152,16 @@ public class Compra {
     @JoinColumn(name = "id_cliente", referencedColumnName = "nif_cif", nullable = false)
     private Cliente cliente;
     // ----------------------------------------------
+
+    /**
+     * Versión para el bloqueo optimista: si otra transacción cambia la compra
+     * entre que se lee y se escribe, la escritura falla en vez de pisar el
+     * cambio (ver {@code EjecutorReintentos}). Los UPDATE masivos sobre
+     * compras deben incrementarla también.
+     */
+    @Version
+    @Column(name = "version")
+    private int version;
     
     /**
 	 * Constructor por defecto que inicializa los campos con valores predeterminados.
@@ -100,7 +170,7 @@ public class Compra {
         this.id = 0;
         this.fechaCompra = Date.from(Instant.now());
         this.estado = EstadoCompra.PENDIENTE;
-        this.precioTotal = 0;
+        this.precioTotal = Dinero.CERO;
         this.articuloCompras = new HashSet<>();
     }
 
@@ -110,12 +180,12 @@ public class Compra {
 	 * 
 	 * @param id, idCliente, fechaCompra, estado, precioTotal
 	 */
-    public Compra(int id, Cliente cliente, Date fechaCompra, EstadoCompra estado, float precioTotal) {
+    public Compra(int id, Cliente cliente, Date fechaCompra, EstadoCompra estado, Dinero precioTotal) {
         this.id = (id > 0) ? id : 0;
         this.cliente = cliente; // Asignamos el objeto real
         this.fechaCompra = (fechaCompra != null) ? fechaCompra : Date.from(Instant.now());
         this.estado = (estado != null) ? estado : EstadoCompra.PENDIENTE;
-        this.precioTotal = (precioTotal >= 0) ? precioTotal : 0;
+        this.precioTotal = (precioTotal != null && !precioTotal.esNegativo()) ? precioTotal : Dinero.CERO;
         this.articuloCompras = new HashSet<>();
     }
 
@@ -162,12 +232,25 @@ public class Compra {
         this.direccion = direccion;
     }
 
-    public float getPrecioTotal() {
+    public Dinero getPrecioTotal() {
         return precioTotal;
     }
 
-    public void setPrecioTotal(float precioTotal) {
-        this.precioTotal = (precioTotal >= 0) ? precioTotal : 0;
+    public void setPrecioTotal(Dinero precioTotal) {
+        this.precioTotal = (precioTotal != null && !precioTotal.esNegativo()) ? precioTotal : Dinero.CERO;
+    }
+
+    /**
+     * Recalcula {@code precioTotal} como la suma de unidades × precio de las
+     * líneas. Se suma en céntimos ({@code long}), así que el total es exacto y
+     * no depende del orden de las líneas.
+     */
+    public void recalcularTotal() {
+        long total = 0;
+        for (ArticuloCompra ac : articuloCompras) {
+            total = Math.addExact(total, Math.multiplyExact(ac.getPrecioCompra().getCentimos(), ac.getUnidades()));
+        }
+        this.precioTotal = Dinero.deCentimos(total);
     }
 
     public Set<ArticuloCompra> getArticuloCompras() {
@@ -178,6 +261,14 @@ public class Compra {
         this.articuloCompras = articuloCompras;
     }
     
+    /**
+     * Obtiene la versión de la compra.
+     * @return
+     */
+    public int getVersion() {
+        return version;
+    }
+
     // --- GETTER Y SETTER DEL OBJETO CLIENTE (NUEVOS/NECESARIOS) ---
     public Cliente getCliente() {
         return cliente;
@@ -213,7 +304,7 @@ public class Compra {
 	 * <p>
 	 * Incluye el {@code id}, el {@code idCliente}, la {@code fechaCompra}, el
 	 * {@code estado}, el {@code precioTotal} y el número de
-	 * {@code items} en la compra.
+	 * {@code items} en la compra ({@code ?} si las líneas no están cargadas).
 	 * </p>
 	 *
 	 * @return representación textual no nula de la entidad
@@ -222,8 +313,11 @@ public class Compra {
     public String toString() {
         // Ojo al toString: No imprimas el objeto cliente entero para evitar bucles infinitos
         String nif = (cliente != null) ? cliente.getNif_cif() : "null";
+        // El número de líneas sólo si ya están cargadas: evita una consulta por compra
+        String items = Persistence.getPersistenceUtil().isLoaded(articuloCompras)
+                ? String.valueOf(articuloCompras.size()) : "?";
         return "Compra [id=" + id + ", idCliente=" + nif + ", fechaCompra=" + fechaCompra + ", estado=" + estado
-                + ", precioTotal=" + precioTotal + ", items=" + articuloCompras.size() + "]";
+                + ", precioTotal=" + precioTotal + ", items=" + items + "]";
     }
 
     /**
@@ -0,0 +1,143 @@
+package com.marialiviu.u3.gestionEcommerce.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Importe monetario exacto guardado como un {@code long} de céntimos.
+ * <p>
+ * Sustituye a los {@code float} de los precios: las sumas y productos se hacen
+ * con aritmética entera, así que son exactas y el resultado no depende del
+ * orden en que se sumen las líneas. Sólo se crea un {@link BigDecimal} al
+ * leer o escribir la columna {@code DECIMAL(10,2)} (ver {@link DineroConverter})
+ * o al interpretar texto.
+ * </p>
+ *
+ * <pre>{@code
+ * Dinero precio = Dinero.de("19.99");
+ * Dinero linea = precio.multiplicar(3);   // 59.97
+ * long c = linea.getCentimos();           // 5997
+ * }</pre>
+ */
+public final class Dinero implements Comparable<Dinero>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Cero euros.
+	 */
+	public static final Dinero CERO = new Dinero(0);
+
+	/**
+	 * Importe en céntimos.
+	 */
+	private final long centimos;
+
+	private Dinero(long centimos) {
+		this.centimos = centimos;
+	}
+
+	/**
+	 * Crea un importe a partir de céntimos.
+	 * @param centimos
+	 * @return
+	 */
+	public static Dinero deCentimos(long centimos) {
+		return (centimos == 0) ? CERO : new Dinero(centimos);
+	}
+
+	/**
+	 * Interpreta un importe escrito con punto o coma decimal ("12.5", "12,50").
+	 * Si tiene más de dos decimales se redondea al céntimo (mitad al par).
+	 * @param texto
+	 * @return
+	 * @throws NumberFormatException si el texto no es un número.
+	 */
+	public static Dinero de(String texto) {
+		return de(new BigDecimal(texto.trim().replace(',', '.')));
+	}
+
+	/**
+	 * Convierte un {@link BigDecimal} redondeando al céntimo (mitad al par).
+	 * @param importe
+	 * @return
+	 */
+	public static Dinero de(BigDecimal importe) {
+		return deCentimos(importe.setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact());
+	}
+
+	/**
+	 * Obtiene el importe en céntimos.
+	 * @return
+	 */
+	public long getCentimos() {
+		return centimos;
+	}
+
+	/**
+	 * Suma dos importes.
+	 * @param otro
+	 * @return
+	 * @throws ArithmeticException si se desborda.
+	 */
+	public Dinero sumar(Dinero otro) {
+		return deCentimos(Math.addExact(centimos, otro.centimos));
+	}
+
+	/**
+	 * Multiplica el importe por un número de unidades.
+	 * @param unidades
+	 * @return
+	 * @throws ArithmeticException si se desborda.
+	 */
+	public Dinero multiplicar(int unidades) {
+		return deCentimos(Math.multiplyExact(centimos, unidades));
+	}
+
+	/**
+	 * Indica si el importe es menor que cero.
+	 * @return
+	 */
+	public boolean esNegativo() {
+		return centimos < 0;
+	}
+
+	/**
+	 * Convierte el importe a {@link BigDecimal} con dos decimales.
+	 * @return
+	 */
+	public BigDecimal toBigDecimal() {
+		return BigDecimal.valueOf(centimos, 2);
+	}
+
+	@Override
+	public int compareTo(Dinero o) {
+		return Long.compare(centimos, o.centimos);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(centimos);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		return centimos == ((Dinero) obj).centimos;
+	}
+
+	/**
+	 * Devuelve el importe con dos decimales y punto decimal, p. ej. {@code 12.50}.
+	 */
+	@Override
+	public String toString() {
+		// se divide antes de quitar el signo: Math.abs(Long.MIN_VALUE) sigue siendo negativo
+		long euros = Math.abs(centimos / 100);
+		long cent = Math.abs(centimos % 100);
+		return ((centimos < 0) ? "-" : "") + euros + (cent < 10 ? ".0" : ".") + cent;
+	}
+}
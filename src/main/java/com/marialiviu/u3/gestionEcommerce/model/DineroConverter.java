@@ -0,0 +1,24 @@
+package com.marialiviu.u3.gestionEcommerce.model;
+
+import java.math.BigDecimal;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Convierte {@link Dinero} a las columnas {@code DECIMAL(10,2)} de precios e
+ * importes y viceversa.
+ */
+@Converter
+public class DineroConverter implements AttributeConverter<Dinero, BigDecimal> {
+
+	@Override
+	public BigDecimal convertToDatabaseColumn(Dinero importe) {
+		return (importe != null) ? importe.toBigDecimal() : null;
+	}
+
+	@Override
+	public Dinero convertToEntityAttribute(BigDecimal columna) {
+		return (columna != null) ? Dinero.de(columna) : null;
+	}
+}
@@ -0,0 +1,57 @@
+package com.marialiviu.u3.gestionEcommerce.model;
+
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Número de compras e importe total gastado por un cliente.
+ * <p>
+ * Tabla agregada de sólo lectura para la aplicación: la mantiene
+ * {@code SalesAggregateService} en la misma transacción que cada cambio en
+ * las compras y se puede reconstruir a partir de <code>compras</code>.
+ * </p>
+ */
+@Entity
+@Table(name = "gasto_cliente")
+@Immutable
+public class GastoCliente {
+
+	@Id
+	@Column(name = "nif_cif", length = 9)
+	private String nif_cif;
+
+	@Column(name = "compras", nullable = false)
+	private long compras;
+
+	/**
+	 * Suma de {@code precio_total} de las compras del cliente.
+	 */
+	@Column(name = "importe", nullable = false, columnDefinition = "DECIMAL(15,2)")
+	@Convert(converter = DineroConverter.class)
+	private Dinero importe;
+
+	protected GastoCliente() {
+	}
+
+	public String getNif_cif() {
+		return nif_cif;
+	}
+
+	public long getCompras() {
+		return compras;
+	}
+
+	public Dinero getImporte() {
+		return importe;
+	}
+
+	@Override
+	public String toString() {
+		return "GastoCliente [nif_cif=" + nif_cif + ", compras=" + compras + ", importe=" + importe + "]";
+	}
+}
@@ -2,6 +2,12 @@ package com.marialiviu.u3.gestionEcommerce.model;
 
 import java.util.Objects;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.marialiviu.u3.gestionEcommerce.cache.RegionesCache;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
@@ -50,6 +56,8 @@ import jakarta.persistence.Table;
 
 @Entity
 @Table(name = "informacion_fiscal")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = RegionesCache.INFORMACION_FISCAL)
 public class InformacionFiscal {
 
 	/**
@@ -0,0 +1,58 @@
+package com.marialiviu.u3.gestionEcommerce.model;
+
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Unidades vendidas e importe facturado de un artículo, sumando todas sus
+ * líneas de compra.
+ * <p>
+ * Tabla agregada de sólo lectura para la aplicación: la mantiene
+ * {@code SalesAggregateService} en la misma transacción que cada cambio en
+ * las compras y se puede reconstruir a partir de <code>articulo_compra</code>.
+ * </p>
+ */
+@Entity
+@Table(name = "ventas_articulo")
+@Immutable
+public class VentasArticulo {
+
+	@Id
+	@Column(name = "id_articulo")
+	private int idArticulo;
+
+	@Column(name = "unidades", nullable = false)
+	private long unidades;
+
+	/**
+	 * Suma de {@code unidades * precio_compra} de las líneas del artículo.
+	 */
+	@Column(name = "importe", nullable = false, columnDefinition = "DECIMAL(15,2)")
+	@Convert(converter = DineroConverter.class)
+	private Dinero importe;
+
+	protected VentasArticulo() {
+	}
+
+	public int getIdArticulo() {
+		return idArticulo;
+	}
+
+	public long getUnidades() {
+		return unidades;
+	}
+
+	public Dinero getImporte() {
+		return importe;
+	}
+
+	@Override
+	public String toString() {
+		return "VentasArticulo [idArticulo=" + idArticulo + ", unidades=" + unidades + ", importe=" + importe + "]";
+	}
+}
@@ -0,0 +1,88 @@
+package com.marialiviu.u3.gestionEcommerce.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+
+/**
+ * Compras e importe de un día en un estado, repartidos en varias particiones.
+ * <p>
+ * Todas las compras que se crean hoy suman en la misma fila (hoy, PENDIENTE);
+ * para que las transacciones concurrentes no se esperen unas a otras por su
+ * bloqueo, cada una suma en una de {@code SalesAggregateService.PARTICIONES_DIA}
+ * filas al azar. El total de un día y estado es la suma de sus particiones.
+ * </p>
+ * <p>
+ * Tabla agregada de sólo lectura para la aplicación: la mantiene
+ * {@code SalesAggregateService} en la misma transacción que cada cambio en
+ * las compras y se puede reconstruir a partir de <code>compras</code>.
+ * </p>
+ */
+@Entity
+@Table(name = "ventas_dia")
+@IdClass(VentasDia.Clave.class)
+@Immutable
+public class VentasDia {
+
+	/**
+	 * Clave primaria (dia, estado, particion).
+	 */
+	public record Clave(LocalDate dia, Compra.EstadoCompra estado, int particion) implements Serializable {
+	}
+
+	@Id
+	@Column(name = "dia")
+	private LocalDate dia;
+
+	@Id
+	@Column(name = "estado")
+	@Enumerated(EnumType.STRING)
+	private Compra.EstadoCompra estado;
+
+	@Id
+	@Column(name = "particion")
+	private int particion;
+
+	@Column(name = "compras", nullable = false)
+	private long compras;
+
+	/**
+	 * Suma de {@code precio_total} de las compras.
+	 */
+	@Column(name = "importe", nullable = false, columnDefinition = "DECIMAL(15,2)")
+	@Convert(converter = DineroConverter.class)
+	private Dinero importe;
+
+	protected VentasDia() {
+	}
+
+	public LocalDate getDia() {
+		return dia;
+	}
+
+	public Compra.EstadoCompra getEstado() {
+		return estado;
+	}
+
+	public int getParticion() {
+		return particion;
+	}
+
+	public long getCompras() {
+		return compras;
+	}
+
+	public Dinero getImporte() {
+		return importe;
+	}
+}
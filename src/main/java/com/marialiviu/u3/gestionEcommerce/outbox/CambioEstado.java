@@ -0,0 +1,19 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import java.time.Instant;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+
+/**
+ * Aviso de que una compra ha cambiado de estado, tal como se guarda en
+ * <code>outbox_compras</code> y se entrega a un {@link DestinoOutbox}.
+ *
+ * @param id id del mensaje; crece con el orden de escritura, así que sirve
+ *        para descartar repetidos.
+ * @param idCompra
+ * @param anterior
+ * @param nuevo
+ * @param creado cuándo se confirmó el cambio (hora de la aplicación).
+ */
+public record CambioEstado(long id, int idCompra, EstadoCompra anterior, EstadoCompra nuevo, Instant creado) {
+}
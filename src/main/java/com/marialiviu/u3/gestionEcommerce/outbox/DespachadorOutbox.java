@@ -0,0 +1,281 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+import com.marialiviu.u3.gestionEcommerce.sql.HistogramaLatencia;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Entrega en segundo plano los cambios de estado anotados por
+ * {@link OutboxCompras} a un {@link DestinoOutbox}.
+ * <p>
+ * Cada hilo, cada {@value #PERIODO_MS} ms, toma en una transacción los
+ * mensajes más antiguos (hasta {@value #LOTE}) con
+ * {@code SELECT ... FOR UPDATE SKIP LOCKED}, los entrega y los borra al
+ * confirmar. Las filas que otro hilo o proceso ya tiene bloqueadas se saltan
+ * en lugar de esperar, así que varios despachadores se reparten la tabla sin
+ * entregar dos veces el mismo mensaje. Mientras salgan lotes completos se
+ * sigue sin esperar al siguiente periodo. Si la entrega falla, la transacción
+ * se deshace y los mensajes se vuelven a intentar.
+ * </p>
+ * <p>
+ * Mide mensajes entregados, lotes, fallos, el retraso del mensaje más antiguo
+ * al recogerlo y la latencia desde que se escribe un mensaje hasta que se
+ * entrega; se publican con el resto de métricas ({@code VolcadoMetricas}).
+ * </p>
+ *
+ * <pre>
+ * try (DespachadorOutbox despachador = DespachadorOutbox.arrancar(emf)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class DespachadorOutbox implements AutoCloseable {
+
+	/** Fichero del {@link DestinoFichero}; si no se define no se arranca el despachador. */
+	public static final String FICHERO = "ecommerce.outbox.fichero";
+	/** Mensajes por lote. */
+	public static final String LOTE = "ecommerce.outbox.lote";
+	/** Milisegundos entre consultas cuando no hay mensajes pendientes. */
+	public static final String PERIODO_MS = "ecommerce.outbox.periodo_ms";
+	/** Hilos despachando a la vez. */
+	public static final String HILOS = "ecommerce.outbox.hilos";
+
+	private static final String SQL_PENDIENTES = "SELECT id, id_compra, estado_anterior, estado_nuevo, creado "
+			+ "FROM outbox_compras ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+
+	private static final System.Logger LOG = System.getLogger(DespachadorOutbox.class.getName());
+
+	private static final Set<DespachadorOutbox> ACTIVOS = ConcurrentHashMap.newKeySet();
+	private static final AtomicInteger NUMERO = new AtomicInteger();
+
+	private final String nombre;
+	private final UnitOfWork uow;
+	private final DestinoOutbox destino;
+	private final int lote;
+	private final ScheduledExecutorService planificador;
+	private final long inicio = System.nanoTime();
+	private final LongAdder entregados = new LongAdder();
+	private final LongAdder lotes = new LongAdder();
+	private final LongAdder fallos = new LongAdder();
+	private final HistogramaLatencia latencia = new HistogramaLatencia();
+	private volatile long retrasoMs;
+
+	/**
+	 * @param emf
+	 * @param destino se cierra con el despachador.
+	 * @param lote mensajes por lote.
+	 * @param periodoMs espera entre consultas cuando no hay mensajes.
+	 * @param hilos
+	 */
+	public DespachadorOutbox(EntityManagerFactory emf, DestinoOutbox destino, int lote, long periodoMs, int hilos) {
+		if (lote <= 0 || hilos <= 0) {
+			throw new IllegalArgumentException("El lote y los hilos deben ser positivos: " + lote + ", " + hilos);
+		}
+		this.nombre = "outbox-" + NUMERO.incrementAndGet();
+		this.uow = new UnitOfWork(emf);
+		this.destino = destino;
+		this.lote = lote;
+		AtomicInteger hilo = new AtomicInteger();
+		this.planificador = Executors.newScheduledThreadPool(hilos, r -> {
+			Thread t = new Thread(r, nombre + "-" + hilo.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		for (int i = 0; i < hilos; i++) {
+			planificador.scheduleWithFixedDelay(this::vaciarSinFallar, periodoMs, periodoMs, TimeUnit.MILLISECONDS);
+		}
+		ACTIVOS.add(this);
+	}
+
+	/**
+	 * Arranca un despachador hacia el fichero de las propiedades de la unidad
+	 * de persistencia.
+	 * @param emf
+	 * @return el despachador, o null si {@value #FICHERO} no está definido.
+	 */
+	public static DespachadorOutbox arrancar(EntityManagerFactory emf) {
+		Map<String, Object> props = emf.getProperties();
+		String fichero = ConfigurationHelper.getString(FICHERO, props, "");
+		if (fichero.isBlank()) {
+			return null;
+		}
+		int lote = ConfigurationHelper.getInt(LOTE, props, 500);
+		long periodo = ConfigurationHelper.getLong(PERIODO_MS, props, 1000);
+		int hilos = ConfigurationHelper.getInt(HILOS, props, 1);
+		return new DespachadorOutbox(emf, new DestinoFichero(Path.of(fichero)), lote, periodo, hilos);
+	}
+
+	/**
+	 * Despachadores arrancados y sin cerrar.
+	 */
+	public static Collection<DespachadorOutbox> activos() {
+		return ACTIVOS;
+	}
+
+	/**
+	 * Entrega un lote ahora, en el hilo que llama.
+	 * @return mensajes entregados; menos que el tamaño de lote si no quedan más.
+	 */
+	public int despachar() {
+		List<CambioEstado> mensajes = uow.enTransaccion(em -> {
+			List<?> filas = em.createNativeQuery(SQL_PENDIENTES).setParameter(1, lote).getResultList();
+			if (filas.isEmpty()) {
+				retrasoMs = 0;
+				return List.<CambioEstado>of();
+			}
+			List<CambioEstado> leidos = new ArrayList<>(filas.size());
+			for (Object fila : filas) {
+				Object[] f = (Object[]) fila;
+				leidos.add(new CambioEstado(((Number) f[0]).longValue(), ((Number) f[1]).intValue(),
+						estado(f[2]), estado(f[3]), instante(f[4])));
+			}
+			retrasoMs = Math.max(0, System.currentTimeMillis() - leidos.get(0).creado().toEpochMilli());
+			destino.entregar(leidos);
+			String ids = leidos.stream().map(c -> String.valueOf(c.id())).collect(Collectors.joining(", "));
+			em.createNativeQuery("DELETE FROM outbox_compras WHERE id IN (" + ids + ")").executeUpdate();
+			return leidos;
+		});
+		if (!mensajes.isEmpty()) {
+			long ahora = System.currentTimeMillis();
+			for (CambioEstado c : mensajes) {
+				latencia.registrar(Math.max(0, ahora - c.creado().toEpochMilli()) * 1_000_000L);
+			}
+			entregados.add(mensajes.size());
+			lotes.increment();
+		}
+		return mensajes.size();
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	/**
+	 * Mensajes entregados desde que arrancó.
+	 */
+	public long getEntregados() {
+		return entregados.sum();
+	}
+
+	public long getLotes() {
+		return lotes.sum();
+	}
+
+	/**
+	 * Lotes que no se pudieron entregar (y se reintentarán).
+	 */
+	public long getFallos() {
+		return fallos.sum();
+	}
+
+	/**
+	 * Antigüedad del mensaje más antiguo en la última consulta; 0 si no
+	 * quedaba ninguno.
+	 */
+	public double getRetrasoSegundos() {
+		return retrasoMs / 1000.0;
+	}
+
+	/**
+	 * Tiempo desde que se escribe cada mensaje hasta que se entrega.
+	 */
+	public HistogramaLatencia getLatencia() {
+		return latencia;
+	}
+
+	/**
+	 * Mensajes entregados por segundo de media desde que arrancó.
+	 */
+	public double getMensajesPorSegundo() {
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		return (segundos > 0) ? entregados.sum() / segundos : 0;
+	}
+
+	/**
+	 * Imprime una línea por despachador activo.
+	 * @param out
+	 */
+	public static void imprimir(PrintStream out) {
+		if (ACTIVOS.isEmpty()) {
+			out.println("No hay despachadores del outbox arrancados (" + FICHERO + ")");
+			return;
+		}
+		out.printf("%-12s %11s %7s %7s %10s %10s %12s %12s%n", "despachador", "entregados", "lotes", "fallos",
+				"msg/s", "retraso", "latencia p50", "latencia p99");
+		for (DespachadorOutbox d : ACTIVOS) {
+			out.printf(Locale.ROOT, "%-12s %11d %7d %7d %10.1f %9.3fs %10dµs %10dµs%n", d.nombre,
+					d.getEntregados(), d.getLotes(), d.getFallos(), d.getMensajesPorSegundo(),
+					d.getRetrasoSegundos(), d.latencia.percentilMicros(50), d.latencia.percentilMicros(99));
+		}
+	}
+
+	/**
+	 * Para los hilos tras el lote en curso y cierra el destino.
+	 */
+	@Override
+	public void close() {
+		ACTIVOS.remove(this);
+		planificador.shutdown();
+		try {
+			if (!planificador.awaitTermination(30, TimeUnit.SECONDS)) {
+				planificador.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			planificador.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		destino.close();
+	}
+
+	private void vaciarSinFallar() {
+		try {
+			while (despachar() == lote && !planificador.isShutdown()) {
+				// quedan más: sigue sin esperar al siguiente periodo
+			}
+		} catch (RuntimeException e) {
+			// se reintenta en el siguiente periodo; un fallo no debe parar el hilo
+			fallos.increment();
+			LOG.log(System.Logger.Level.WARNING, "Entrega del outbox fallida; se reintenta en el siguiente periodo", e);
+		}
+	}
+
+	/**
+	 * Las columnas son ENUM('Pendiente', ...) y MariaDB devuelve el valor
+	 * como está declarado.
+	 */
+	private static EstadoCompra estado(Object columna) {
+		return EstadoCompra.valueOf(columna.toString().toUpperCase(Locale.ROOT));
+	}
+
+	private static Instant instante(Object columna) {
+		return switch (columna) {
+		case Timestamp t -> t.toInstant();
+		case LocalDateTime l -> l.atZone(ZoneId.systemDefault()).toInstant();
+		default -> (Instant) columna;
+		};
+	}
+}
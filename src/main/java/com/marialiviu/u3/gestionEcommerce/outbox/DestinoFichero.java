@@ -0,0 +1,71 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Destino que añade cada mensaje como una línea JSON al final de un fichero y
+ * lo lleva a disco antes de dar el lote por entregado. Sirve para integrar
+ * con otros sistemas que lean el fichero o, en desarrollo, para ver qué se
+ * enviaría.
+ */
+public class DestinoFichero implements DestinoOutbox {
+
+	private final Path fichero;
+	private final FileChannel canal;
+
+	/**
+	 * Abre (o crea) el fichero para añadir al final.
+	 * @param fichero
+	 */
+	public DestinoFichero(Path fichero) {
+		this.fichero = fichero;
+		try {
+			if (fichero.getParent() != null) {
+				Files.createDirectories(fichero.getParent());
+			}
+			this.canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo abrir " + fichero, e);
+		}
+	}
+
+	@Override
+	public synchronized void entregar(List<CambioEstado> lote) {
+		StringBuilder sb = new StringBuilder(lote.size() * 100);
+		for (CambioEstado c : lote) {
+			sb.append("{\"id\":").append(c.id())
+					.append(",\"idCompra\":").append(c.idCompra())
+					.append(",\"anterior\":\"").append(c.anterior())
+					.append("\",\"nuevo\":\"").append(c.nuevo())
+					.append("\",\"creado\":\"").append(c.creado())
+					.append("\"}\n");
+		}
+		ByteBuffer datos = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+		try {
+			while (datos.hasRemaining()) {
+				canal.write(datos);
+			}
+			canal.force(false);
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo escribir en " + fichero, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			canal.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("No se pudo cerrar " + fichero, e);
+		}
+	}
+}
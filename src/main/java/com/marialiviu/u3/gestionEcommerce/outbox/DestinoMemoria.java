@@ -0,0 +1,24 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Destino que guarda los mensajes en memoria, para pruebas y demostraciones.
+ */
+public class DestinoMemoria implements DestinoOutbox {
+
+	private final List<CambioEstado> recibidos = new ArrayList<>();
+
+	@Override
+	public synchronized void entregar(List<CambioEstado> lote) {
+		recibidos.addAll(lote);
+	}
+
+	/**
+	 * Copia de los mensajes recibidos hasta ahora, en orden de llegada.
+	 */
+	public synchronized List<CambioEstado> getRecibidos() {
+		return List.copyOf(recibidos);
+	}
+}
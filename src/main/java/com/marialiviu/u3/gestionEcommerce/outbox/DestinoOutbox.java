@@ -0,0 +1,28 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import java.util.List;
+
+/**
+ * Adonde entrega el {@link DespachadorOutbox} los cambios de estado (una cola
+ * de mensajes, un servicio web, un fichero, ...).
+ * <p>
+ * La entrega es <i>al menos una vez</i>: si el proceso cae después de
+ * entregar un lote y antes de borrarlo de la tabla, se vuelve a entregar. Con
+ * varios hilos o procesos despachando, los lotes pueden llegar desordenados
+ * entre sí; el {@link CambioEstado#id()} permite al receptor ordenar y
+ * descartar repetidos.
+ * </p>
+ */
+public interface DestinoOutbox extends AutoCloseable {
+
+	/**
+	 * Entrega el lote entero o lanza una excepción, en cuyo caso se vuelve a
+	 * intentar más tarde. Puede llamarse desde varios hilos a la vez.
+	 * @param lote mensajes en orden de id.
+	 */
+	void entregar(List<CambioEstado> lote);
+
+	@Override
+	default void close() {
+	}
+}
@@ -0,0 +1,67 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+import org.hibernate.Session;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Escribe en <code>outbox_compras</code> los cambios de estado de las
+ * compras, dentro de la transacción que hace el cambio: si la transacción se
+ * deshace el aviso tampoco existe, y si se confirma el
+ * {@link DespachadorOutbox} lo acabará entregando. Así el cambio no espera a
+ * ningún sistema externo.
+ */
+public final class OutboxCompras {
+
+	private static final String SQL_INSERTAR = "INSERT INTO outbox_compras "
+			+ "(id_compra, estado_anterior, estado_nuevo, creado) VALUES (?, ?, ?, ?)";
+
+	private OutboxCompras() {
+	}
+
+	/**
+	 * Anota el cambio de estado de una compra.
+	 * @param em EntityManager con la transacción del cambio activa.
+	 * @param idCompra
+	 * @param anterior
+	 * @param nuevo
+	 */
+	public static void registrar(EntityManager em, int idCompra, EstadoCompra anterior, EstadoCompra nuevo) {
+		registrar(em, List.of(idCompra), anterior, nuevo);
+	}
+
+	/**
+	 * Anota el mismo cambio de estado para varias compras en un lote JDBC.
+	 * @param em EntityManager con la transacción del cambio activa.
+	 * @param idsCompra
+	 * @param anterior
+	 * @param nuevo
+	 */
+	public static void registrar(EntityManager em, List<Integer> idsCompra, EstadoCompra anterior,
+			EstadoCompra nuevo) {
+		if (!em.getTransaction().isActive()) {
+			throw new IllegalStateException("El outbox necesita la transacción del cambio activa");
+		}
+		if (idsCompra.isEmpty()) return;
+		Timestamp ahora = Timestamp.from(Instant.now());
+		em.unwrap(Session.class).doWork(con -> {
+			try (PreparedStatement ps = con.prepareStatement(SQL_INSERTAR)) {
+				for (Integer id : idsCompra) {
+					ps.setInt(1, id);
+					ps.setString(2, anterior.name());
+					ps.setString(3, nuevo.name());
+					ps.setTimestamp(4, ahora);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+		});
+	}
+}
@@ -0,0 +1,208 @@
+package com.marialiviu.u3.gestionEcommerce.pool;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Métricas del pool HikariCP: conexiones activas/inactivas, hilos en espera y
+ * tiempo de espera para obtener conexión.
+ * <p>
+ * Hikari instancia esta clase a partir de
+ * {@code hibernate.hikari.metricsTrackerFactory} en persistence.xml, así que
+ * los pools creados se registran aquí de forma global y se pueden consultar con
+ * {@link #get(String)} o por JMX ({@link MetricasPoolMXBean}).
+ */
+public class MetricasPool implements MetricsTrackerFactory {
+
+	private static final String DOMINIO_JMX = "com.marialiviu.u3.gestionEcommerce";
+	private static final System.Logger LOG = System.getLogger(MetricasPool.class.getName());
+
+	private static final Map<String, Pool> POOLS = new ConcurrentHashMap<>();
+
+	/**
+	 * Métricas del pool con ese nombre ({@code hibernate.hikari.poolName}), o
+	 * null si aún no se ha creado.
+	 */
+	public static MetricasPoolMXBean get(String nombrePool) {
+		return POOLS.get(nombrePool);
+	}
+
+	public static Collection<? extends MetricasPoolMXBean> todas() {
+		return POOLS.values();
+	}
+
+	/**
+	 * Imprime una línea por pool con el estado actual y las esperas.
+	 * @param out
+	 */
+	public static void imprimir(PrintStream out) {
+		if (POOLS.isEmpty()) {
+			out.println("No hay pools de conexiones registrados");
+			return;
+		}
+		out.printf("%-16s %7s %9s %7s %9s %12s %14s %15s %8s%n", "pool", "activas", "inactivas", "totales",
+				"esperando", "peticiones", "espera media", "espera máxima", "timeouts");
+		for (Pool p : POOLS.values()) {
+			out.printf("%-16s %7d %9d %7d %9d %12d %12dµs %13dµs %8d%n", p.nombre, p.getConexionesActivas(),
+					p.getConexionesInactivas(), p.getConexionesTotales(), p.getHilosEsperando(),
+					p.getAdquisiciones(), p.getEsperaMediaMicros(), p.getEsperaMaximaMicros(), p.getTimeouts());
+		}
+	}
+
+	@Override
+	public IMetricsTracker create(String nombrePool, PoolStats estado) {
+		Pool pool = new Pool(nombrePool, estado);
+		Pool anterior = POOLS.put(nombrePool, pool);
+		if (anterior != null) {
+			anterior.desregistrar();
+		}
+		pool.registrar();
+		return pool;
+	}
+
+	private static final class Pool implements IMetricsTracker, MetricasPoolMXBean {
+
+		private final String nombre;
+		private final PoolStats estado;
+		private final LongAdder adquisiciones = new LongAdder();
+		private final LongAdder esperaNanos = new LongAdder();
+		private final LongAccumulator esperaMaximaNanos = new LongAccumulator(Math::max, 0);
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder usos = new LongAdder();
+		private final LongAdder usoMillis = new LongAdder();
+		private ObjectName nombreJmx;
+
+		Pool(String nombre, PoolStats estado) {
+			this.nombre = nombre;
+			this.estado = estado;
+		}
+
+		@Override
+		public void recordConnectionAcquiredNanos(long nanos) {
+			adquisiciones.increment();
+			esperaNanos.add(nanos);
+			esperaMaximaNanos.accumulate(nanos);
+		}
+
+		@Override
+		public void recordConnectionUsageMillis(long millis) {
+			usos.increment();
+			usoMillis.add(millis);
+		}
+
+		@Override
+		public void recordConnectionTimeout() {
+			timeouts.increment();
+		}
+
+		@Override
+		public void close() {
+			POOLS.remove(nombre, this);
+			desregistrar();
+		}
+
+		@Override
+		public String getNombre() {
+			return nombre;
+		}
+
+		@Override
+		public int getConexionesActivas() {
+			return estado.getActiveConnections();
+		}
+
+		@Override
+		public int getConexionesInactivas() {
+			return estado.getIdleConnections();
+		}
+
+		@Override
+		public int getConexionesTotales() {
+			return estado.getTotalConnections();
+		}
+
+		@Override
+		public int getHilosEsperando() {
+			return estado.getPendingThreads();
+		}
+
+		@Override
+		public long getAdquisiciones() {
+			return adquisiciones.sum();
+		}
+
+		@Override
+		public long getEsperaMediaMicros() {
+			long n = adquisiciones.sum();
+			return (n == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(esperaNanos.sum() / n);
+		}
+
+		@Override
+		public long getEsperaMaximaMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(esperaMaximaNanos.get());
+		}
+
+		@Override
+		public long getTimeouts() {
+			return timeouts.sum();
+		}
+
+		@Override
+		public long getUsoMedioMillis() {
+			long n = usos.sum();
+			return (n == 0) ? 0 : usoMillis.sum() / n;
+		}
+
+		@Override
+		public void reiniciar() {
+			adquisiciones.reset();
+			esperaNanos.reset();
+			esperaMaximaNanos.reset();
+			timeouts.reset();
+			usos.reset();
+			usoMillis.reset();
+		}
+
+		private void registrar() {
+			try {
+				MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+				nombreJmx = new ObjectName(DOMINIO_JMX + ":type=MetricasPool,name=" + ObjectName.quote(nombre));
+				if (servidor.isRegistered(nombreJmx)) {
+					servidor.unregisterMBean(nombreJmx);
+				}
+				servidor.registerMBean(this, nombreJmx);
+			} catch (JMException e) {
+				// Las métricas siguen disponibles con get(); sólo se pierde la vista JMX
+				nombreJmx = null;
+				LOG.log(System.Logger.Level.WARNING, "No se pudieron registrar las métricas del pool " + nombre
+						+ " en JMX", e);
+			}
+		}
+
+		private void desregistrar() {
+			if (nombreJmx == null) {
+				return;
+			}
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(nombreJmx);
+			} catch (JMException e) {
+				// ya no estaba registrado
+			}
+			nombreJmx = null;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.marialiviu.u3.gestionEcommerce.pool;
+
+/**
+ * Vista JMX de las métricas de un pool de conexiones. Se registra como
+ * {@code com.marialiviu.u3.gestionEcommerce:type=MetricasPool,name=<pool>}
+ * para poder leerla con jconsole o con un exportador JMX.
+ */
+public interface MetricasPoolMXBean {
+
+	String getNombre();
+
+	int getConexionesActivas();
+
+	int getConexionesInactivas();
+
+	int getConexionesTotales();
+
+	int getHilosEsperando();
+
+	long getAdquisiciones();
+
+	/** Tiempo medio de espera para obtener una conexión, en microsegundos. */
+	long getEsperaMediaMicros();
+
+	/** Mayor espera registrada desde el último {@link #reiniciar()}, en microsegundos. */
+	long getEsperaMaximaMicros();
+
+	long getTimeouts();
+
+	/** Tiempo medio que una conexión pasa prestada, en milisegundos. */
+	long getUsoMedioMillis();
+
+	void reiniciar();
+}
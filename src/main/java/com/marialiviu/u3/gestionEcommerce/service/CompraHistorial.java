@@ -0,0 +1,55 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Date;
+import java.util.List;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Compra del historial de un cliente, sin entidades gestionadas.
+ * <p>
+ * La cabecera se lee directamente del índice {@code idx_compras_cliente_fecha}
+ * con {@code SELECT new ...}; las líneas sólo se rellenan si se piden a
+ * {@link OrderHistoryService}.
+ * </p>
+ *
+ * @param id id de la compra.
+ * @param fechaCompra fecha de la compra.
+ * @param estado estado de la compra.
+ * @param precioTotal precio total.
+ * @param lineas líneas de la compra, o lista vacía si no se han pedido.
+ */
+public record CompraHistorial(int id, Date fechaCompra, EstadoCompra estado, Dinero precioTotal,
+		List<Linea> lineas) {
+
+	/**
+	 * Proyección JPQL de la cabecera, sin cláusula WHERE.
+	 */
+	static final String SELECT = "SELECT new com.marialiviu.u3.gestionEcommerce.service.CompraHistorial("
+			+ "c.id, c.fechaCompra, c.estado, c.precioTotal) FROM Compra c ";
+
+	/**
+	 * Línea de una compra del historial.
+	 * @param idArticulo
+	 * @param nombreArticulo nombre actual del artículo.
+	 * @param unidades
+	 * @param precioCompra precio unitario en el momento de la compra.
+	 */
+	public record Linea(int idArticulo, String nombreArticulo, int unidades, Dinero precioCompra) {
+	}
+
+	/**
+	 * Cabecera sin líneas; es el constructor que usa {@link #SELECT}.
+	 */
+	public CompraHistorial(int id, Date fechaCompra, EstadoCompra estado, Dinero precioTotal) {
+		this(id, fechaCompra, estado, precioTotal, List.of());
+	}
+
+	/**
+	 * Copia de esta compra con las líneas indicadas.
+	 */
+	CompraHistorial conLineas(List<Linea> lineas) {
+		return new CompraHistorial(id, fechaCompra, estado, precioTotal, List.copyOf(lineas));
+	}
+}
@@ -0,0 +1,47 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Date;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Resumen de sólo lectura de una compra para listados.
+ * <p>
+ * Se construye directamente desde JPQL ({@code SELECT new ...}), con el número
+ * de líneas calculado en SQL, así que listar N compras no carga ni el cliente
+ * ni la colección de líneas de cada una.
+ * </p>
+ *
+ * @param id id de la compra.
+ * @param nifCliente NIF/CIF del cliente.
+ * @param fechaCompra fecha de la compra.
+ * @param estado estado de la compra.
+ * @param precioTotal precio total.
+ * @param numLineas número de artículos distintos de la compra.
+ */
+public record CompraResumen(int id, String nifCliente, Date fechaCompra, Compra.EstadoCompra estado,
+		Dinero precioTotal, long numLineas) {
+
+	/**
+	 * Proyección JPQL, sin cláusula WHERE, que alimenta este registro. Se
+	 * completa con las condiciones y el {@code GROUP BY} de cada consulta.
+	 */
+	static final String SELECT = "SELECT new com.marialiviu.u3.gestionEcommerce.service.CompraResumen("
+			+ "c.id, c.cliente.nif_cif, c.fechaCompra, c.estado, c.precioTotal, COUNT(ac)) "
+			+ "FROM Compra c LEFT JOIN c.articuloCompras ac ";
+
+	/**
+	 * Cláusula {@code GROUP BY} que acompaña a {@link #SELECT}.
+	 */
+	static final String GROUP_BY = " GROUP BY c.id, c.cliente.nif_cif, c.fechaCompra, c.estado, c.precioTotal ";
+
+	/**
+	 * Mismo formato que {@link Compra#toString()}.
+	 */
+	@Override
+	public String toString() {
+		return "Compra [id=" + id + ", idCliente=" + nifCliente + ", fechaCompra=" + fechaCompra + ", estado="
+				+ estado + ", precioTotal=" + precioTotal + ", items=" + numLineas + "]";
+	}
+}
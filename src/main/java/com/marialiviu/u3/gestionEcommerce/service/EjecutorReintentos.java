@@ -0,0 +1,259 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.StaleStateException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.OptimisticLockException;
+
+/**
+ * Repite una unidad de trabajo cuando falla por el bloqueo optimista
+ * ({@code @Version}): otra transacción ha cambiado entretanto una de las
+ * entidades que se iban a escribir.
+ * <p>
+ * Cada reintento vuelve a empezar la unidad de trabajo entera, con un
+ * EntityManager nuevo, así que el trabajo debe leer lo que necesita dentro de
+ * la transacción y no modificar copias desconectadas (un {@code merge} de una
+ * copia antigua fallaría igual en cada intento). Entre intentos se espera un
+ * tiempo al azar entre 0 y {@value #ESPERA_MS} ms, doblando el tope en cada
+ * intento hasta {@value #ESPERA_MAXIMA_MS} ms, para que quienes chocan no
+ * vuelvan a chocar a la vez. Antes de reintentar se descarta de la caché de
+ * segundo nivel la entidad del conflicto, por si la copia antigua venía de
+ * allí. Tras {@value #INTENTOS} intentos se lanza la última excepción.
+ * </p>
+ * <p>
+ * Cuenta, por entidad, los conflictos, los reintentos y las veces que se
+ * agotan los intentos ({@link #conflictos()}); se publican con el resto de
+ * métricas ({@code VolcadoMetricas}).
+ * </p>
+ *
+ * <pre>
+ * EjecutorReintentos reintentos = new EjecutorReintentos(emf);
+ * reintentos.ejecutar(em -&gt; em.find(Compra.class, id).setEstado(EstadoCompra.ENVIADO));
+ * </pre>
+ */
+public class EjecutorReintentos {
+
+	/** Intentos como máximo, el primero incluido. */
+	public static final String INTENTOS = "ecommerce.reintentos.intentos";
+	/** Tope de la espera antes del primer reintento, en ms. */
+	public static final String ESPERA_MS = "ecommerce.reintentos.espera_ms";
+	/** Tope de la espera entre intentos, en ms. */
+	public static final String ESPERA_MAXIMA_MS = "ecommerce.reintentos.espera_maxima_ms";
+
+	private static final String DESCONOCIDA = "desconocida";
+
+	private static final Map<String, Contadores> CONFLICTOS = new ConcurrentHashMap<>();
+
+	/**
+	 * Conflictos del bloqueo optimista de una entidad.
+	 */
+	public static final class Contadores {
+
+		private final LongAdder conflictos = new LongAdder();
+		private final LongAdder reintentos = new LongAdder();
+		private final LongAdder agotados = new LongAdder();
+
+		/**
+		 * Unidades de trabajo que han fallado por la versión de la entidad.
+		 */
+		public long getConflictos() {
+			return conflictos.sum();
+		}
+
+		public long getReintentos() {
+			return reintentos.sum();
+		}
+
+		/**
+		 * Conflictos tras los que no quedaban intentos.
+		 */
+		public long getAgotados() {
+			return agotados.sum();
+		}
+	}
+
+	private final EntityManagerFactory emf;
+	private final UnitOfWork uow;
+	private final int intentos;
+	private final long esperaMs;
+	private final long esperaMaximaMs;
+
+	/**
+	 * Con la configuración de la unidad de persistencia (5 intentos, de 10 a
+	 * 200 ms si no está definida).
+	 * @param emf
+	 */
+	public EjecutorReintentos(EntityManagerFactory emf) {
+		this(emf, ConfigurationHelper.getInt(INTENTOS, emf.getProperties(), 5),
+				ConfigurationHelper.getLong(ESPERA_MS, emf.getProperties(), 10),
+				ConfigurationHelper.getLong(ESPERA_MAXIMA_MS, emf.getProperties(), 200));
+	}
+
+	/**
+	 * @param emf
+	 * @param intentos intentos como máximo, el primero incluido.
+	 * @param esperaMs tope de la espera antes del primer reintento.
+	 * @param esperaMaximaMs tope de la espera entre intentos.
+	 */
+	public EjecutorReintentos(EntityManagerFactory emf, int intentos, long esperaMs, long esperaMaximaMs) {
+		if (intentos <= 0 || esperaMs < 0 || esperaMaximaMs < esperaMs) {
+			throw new IllegalArgumentException(
+					"Reintentos no válidos: " + intentos + " intentos, espera " + esperaMs + "-" + esperaMaximaMs);
+		}
+		this.emf = emf;
+		this.uow = new UnitOfWork(emf);
+		this.intentos = intentos;
+		this.esperaMs = esperaMs;
+		this.esperaMaximaMs = esperaMaximaMs;
+	}
+
+	/**
+	 * {@link UnitOfWork#enTransaccion}, repitiendo si hay conflicto.
+	 * @param trabajo
+	 * @return lo que devuelva el trabajo en el intento que confirma.
+	 */
+	public <T> T enTransaccion(Function<EntityManager, T> trabajo) {
+		return reintentar(() -> uow.enTransaccion(trabajo));
+	}
+
+	/**
+	 * {@link UnitOfWork#ejecutar}, repitiendo si hay conflicto.
+	 * @param trabajo
+	 */
+	public void ejecutar(Consumer<EntityManager> trabajo) {
+		reintentar(() -> {
+			uow.ejecutar(trabajo);
+			return null;
+		});
+	}
+
+	/**
+	 * Repite la llamada si hay conflicto. Sirve cuando quien llama abre la
+	 * transacción por su cuenta; cada llamada debe ser una transacción
+	 * completa.
+	 * @param unidad
+	 * @return lo que devuelva la llamada que termina bien.
+	 */
+	public <T> T reintentar(Supplier<T> unidad) {
+		for (int intento = 1;; intento++) {
+			try {
+				return unidad.get();
+			} catch (RuntimeException e) {
+				if (!esConflicto(e)) {
+					throw e;
+				}
+				Contadores c = CONFLICTOS.computeIfAbsent(entidad(e), k -> new Contadores());
+				c.conflictos.increment();
+				if (intento >= intentos) {
+					c.agotados.increment();
+					throw e;
+				}
+				descartarDeCache(e);
+				esperar(intento);
+				c.reintentos.increment();
+			}
+		}
+	}
+
+	/**
+	 * Verdadero si la excepción, o alguna de sus causas, es un conflicto del
+	 * bloqueo optimista.
+	 */
+	public static boolean esConflicto(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof OptimisticLockException || t instanceof StaleStateException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Contadores por nombre simple de entidad, ordenados por nombre.
+	 */
+	public static Map<String, Contadores> conflictos() {
+		return Collections.unmodifiableMap(new TreeMap<>(CONFLICTOS));
+	}
+
+	/**
+	 * Imprime una línea por entidad con conflictos.
+	 * @param out
+	 */
+	public static void imprimir(PrintStream out) {
+		if (CONFLICTOS.isEmpty()) {
+			out.println("Sin conflictos de bloqueo optimista");
+			return;
+		}
+		out.printf("%-20s %10s %10s %9s%n", "entidad", "conflictos", "reintentos", "agotados");
+		for (Map.Entry<String, Contadores> e : conflictos().entrySet()) {
+			Contadores c = e.getValue();
+			out.printf("%-20s %10d %10d %9d%n", e.getKey(), c.getConflictos(), c.getReintentos(), c.getAgotados());
+		}
+	}
+
+	private void esperar(int intento) {
+		long tope = Math.min(esperaMaximaMs, esperaMs << Math.min(intento - 1, 20));
+		if (tope <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(tope + 1));
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrumpido esperando para reintentar", ie);
+		}
+	}
+
+	/**
+	 * Si el conflicto dice qué entidad era y está en la caché de segundo
+	 * nivel, la descarta para que el reintento la lea de la base de datos.
+	 */
+	private void descartarDeCache(RuntimeException e) {
+		StaleObjectStateException s = causa(e, StaleObjectStateException.class);
+		if (s == null || s.getIdentifier() == null) {
+			return;
+		}
+		Class<?> clase = emf.unwrap(SessionFactoryImplementor.class).getMappingMetamodel()
+				.getEntityDescriptor(s.getEntityName()).getMappedClass();
+		emf.getCache().evict(clase, s.getIdentifier());
+	}
+
+	/**
+	 * Nombre simple de la entidad del conflicto, si la excepción lo dice.
+	 */
+	private static String entidad(Throwable e) {
+		StaleObjectStateException s = causa(e, StaleObjectStateException.class);
+		if (s != null && s.getEntityName() != null) {
+			return s.getEntityName().substring(s.getEntityName().lastIndexOf('.') + 1);
+		}
+		OptimisticLockException o = causa(e, OptimisticLockException.class);
+		if (o != null && o.getEntity() != null) {
+			return o.getEntity().getClass().getSimpleName();
+		}
+		return DESCONOCIDA;
+	}
+
+	private static <X extends Throwable> X causa(Throwable e, Class<X> tipo) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (tipo.isInstance(t)) {
+				return tipo.cast(t);
+			}
+		}
+		return null;
+	}
+}
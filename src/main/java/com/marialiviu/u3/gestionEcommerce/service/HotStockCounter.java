@@ -0,0 +1,519 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Stock en memoria de los artículos muy vendidos ("calientes"), para que sus
+ * ventas no se pongan todas en cola sobre la misma fila de
+ * <code>articulos</code>.
+ * <p>
+ * De cada artículo caliente esta JVM toma de la tabla un <i>cupo</i> de
+ * {@value #CUPO} unidades, con el mismo UPDATE condicional de la reserva y en
+ * una transacción propia que se confirma enseguida (como el generador de ids
+ * con sus bloques), y vende de él sin ir a la base de datos. El cupo se
+ * reparte en franjas ({@link AtomicInteger}) para que los hilos no compitan por
+ * la misma variable: una venta descuenta de una sola franja con un
+ * compare-and-set que nunca baja de cero. Si ninguna franja tiene bastante, la
+ * venta junta unidades de varias con el cerrojo del artículo y, si aun así no
+ * llega, toma otro cupo; con el cerrojo sólo una venta junta o toma cupo a la
+ * vez, así que dos ventas no se quitan las unidades la una a la otra y fallan
+ * las dos habiendo stock. Lo que no llega ni con un cupo nuevo es
+ * {@link StockInsuficienteException}.
+ * </p>
+ * <p>
+ * El cupo está descontado de la tabla antes de venderse, así que varias JVM
+ * pueden tener cupos del mismo artículo sin vender más de lo que hay. A
+ * cambio <code>articulos.stock</code> no cuenta lo que hay en memoria
+ * ({@link #disponible(int)}). Un hilo lo concilia cada
+ * {@value #RECONCILIACION_MS} ms: devuelve a la tabla el cupo de los artículos
+ * que no se han vendido desde la vez anterior, y lo que pase de un cupo en
+ * los demás. Al cerrar la factoría se devuelve todo; si el proceso muere antes,
+ * lo que había en memoria no vuelve (nunca se vende de más; como mucho se deja
+ * de vender hasta el siguiente ajuste de stock).
+ * </p>
+ * <p>
+ * Hay un contador por factoría ({@link #de(EntityManagerFactory)}), que crea y
+ * cierra {@link ReconciliacionStock}, y lo usa {@link StockReservationService}
+ * para los artículos calientes: los de {@value #CALIENTES} y los que se marquen
+ * con {@link #marcarCaliente(int)}. Tomar un cupo pide otra conexión, así que la
+ * reserva de un artículo caliente no debe ir en una transacción que ya haya
+ * cambiado ese mismo artículo.
+ * </p>
+ */
+public final class HotStockCounter {
+
+	/** Ids de los artículos calientes, separados por espacios. */
+	public static final String CALIENTES = "ecommerce.stock.calientes";
+	/** Unidades que se toman de la tabla cada vez. */
+	public static final String CUPO = "ecommerce.stock.cupo";
+	/** Milisegundos entre conciliaciones con la tabla. */
+	public static final String RECONCILIACION_MS = "ecommerce.stock.reconciliacion_ms";
+
+	private static final String SQL_CUPO = "UPDATE articulos SET stock = stock - ?, version = version + 1 "
+			+ "WHERE id = ? AND stock >= ?";
+	private static final String SQL_STOCK = "SELECT stock FROM articulos WHERE id = ?";
+	private static final String SQL_DEVOLUCION = "UPDATE articulos SET stock = stock + ?, version = version + 1 "
+			+ "WHERE id = ?";
+
+	private static final int FRANJAS = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()));
+
+	private static final System.Logger LOG = System.getLogger(HotStockCounter.class.getName());
+
+	private static final Map<SessionFactoryImplementor, HotStockCounter> CONTADORES = new ConcurrentHashMap<>();
+
+	/**
+	 * Unidades en memoria de un artículo, repartidas en franjas.
+	 */
+	private static final class Cupo {
+		final AtomicInteger[] franjas = new AtomicInteger[FRANJAS];
+		/** Lo toman quienes juntan franjas, toman cupo o lo devuelven a la tabla. */
+		final ReentrantLock cerrojo = new ReentrantLock();
+		final LongAdder ventas = new LongAdder();
+		/** Ventas en la conciliación anterior. */
+		long ventasConciliadas;
+
+		Cupo() {
+			for (int i = 0; i < FRANJAS; i++) franjas[i] = new AtomicInteger();
+		}
+
+		int disponible() {
+			int n = 0;
+			for (AtomicInteger f : franjas) n += f.get();
+			return n;
+		}
+
+		/**
+		 * Descuenta las unidades de una sola franja, o nada.
+		 */
+		boolean tomarDeUnaFranja(int uds) {
+			int inicio = ThreadLocalRandom.current().nextInt(FRANJAS);
+			for (int k = 0; k < FRANJAS; k++) {
+				AtomicInteger f = franjas[(inicio + k) & (FRANJAS - 1)];
+				for (int v; (v = f.get()) >= uds;) {
+					if (f.compareAndSet(v, v - uds)) return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Descuenta de todas las franjas hasta reunir las unidades o dejarlas
+		 * vacías. Sólo con el cerrojo.
+		 * @return unidades descontadas.
+		 */
+		int juntar(int uds) {
+			int juntadas = 0;
+			for (int k = 0; k < FRANJAS && juntadas < uds; k++) {
+				AtomicInteger f = franjas[k];
+				for (int v; (v = f.get()) > 0;) {
+					int t = Math.min(v, uds - juntadas);
+					if (f.compareAndSet(v, v - t)) {
+						juntadas += t;
+						break;
+					}
+				}
+			}
+			return juntadas;
+		}
+
+		/**
+		 * Reparte las unidades entre las franjas.
+		 */
+		void repartir(int uds) {
+			int cada = uds / FRANJAS;
+			int resto = uds % FRANJAS;
+			int inicio = ThreadLocalRandom.current().nextInt(FRANJAS);
+			for (int k = 0; k < FRANJAS; k++) {
+				int n = cada + ((k < resto) ? 1 : 0);
+				if (n > 0) franjas[(inicio + k) & (FRANJAS - 1)].addAndGet(n);
+			}
+		}
+
+		/**
+		 * Deja todas las franjas a cero. Sólo con el cerrojo.
+		 * @return unidades que había.
+		 */
+		int vaciar() {
+			int total = 0;
+			for (AtomicInteger f : franjas) total += f.getAndSet(0);
+			return total;
+		}
+	}
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final UnitOfWork uow;
+	private final int cupo;
+	private final long reconciliacionMs;
+	private final Map<Integer, Cupo> cupos = new ConcurrentHashMap<>();
+	/** null hasta que se marca el primer artículo. */
+	private ScheduledExecutorService conciliador;
+	private volatile boolean cerrado;
+	private final LongAdder ventasEnMemoria = new LongAdder();
+	private final LongAdder cuposTomados = new LongAdder();
+	private final LongAdder unidadesDevueltas = new LongAdder();
+	private final LongAdder fallosDevolucion = new LongAdder();
+
+	private HotStockCounter(SessionFactoryImplementor sessionFactory, int cupo, long reconciliacionMs) {
+		if (cupo <= 0 || reconciliacionMs <= 0) {
+			throw new IllegalArgumentException("Contador de stock no válido: cupo " + cupo + ", conciliación cada "
+					+ reconciliacionMs + " ms");
+		}
+		this.sessionFactory = sessionFactory;
+		this.uow = new UnitOfWork(sessionFactory);
+		this.cupo = cupo;
+		this.reconciliacionMs = reconciliacionMs;
+	}
+
+	/**
+	 * Contador de stock en memoria de la factoría.
+	 * @param emf
+	 * @throws IllegalStateException si la factoría no tiene contador.
+	 */
+	public static HotStockCounter de(EntityManagerFactory emf) {
+		HotStockCounter contador = CONTADORES.get(emf.unwrap(SessionFactoryImplementor.class));
+		if (contador == null) {
+			throw new IllegalStateException("La factoría no tiene contador de stock en memoria");
+		}
+		return contador;
+	}
+
+	static HotStockCounter registrar(SessionFactoryImplementor sessionFactory, Collection<Integer> calientes,
+			int cupo, long reconciliacionMs) {
+		HotStockCounter contador = CONTADORES.computeIfAbsent(sessionFactory,
+				sf -> new HotStockCounter(sf, cupo, reconciliacionMs));
+		calientes.forEach(contador::marcarCaliente);
+		return contador;
+	}
+
+	static void quitar(SessionFactoryImplementor sessionFactory) {
+		HotStockCounter contador = CONTADORES.remove(sessionFactory);
+		if (contador != null) {
+			contador.cerrar();
+		}
+	}
+
+	/**
+	 * Empieza a vender el artículo desde memoria; el primer cupo se toma con
+	 * la primera venta.
+	 * @param idArticulo
+	 */
+	public void marcarCaliente(int idArticulo) {
+		synchronized (cupos) {
+			if (cerrado) {
+				throw new IllegalStateException("El contador de stock está cerrado");
+			}
+			cupos.computeIfAbsent(idArticulo, id -> new Cupo());
+			if (conciliador == null) {
+				conciliador = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "conciliacion-stock");
+					t.setDaemon(true);
+					return t;
+				});
+				conciliador.scheduleWithFixedDelay(this::conciliarSinFallar, reconciliacionMs, reconciliacionMs,
+						TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Verdadero si el artículo se vende desde memoria.
+	 */
+	public boolean esCaliente(int idArticulo) {
+		return !cerrado && cupos.containsKey(idArticulo);
+	}
+
+	/**
+	 * Unidades del artículo en memoria en esta JVM, que no están en
+	 * <code>articulos.stock</code>.
+	 */
+	public int disponible(int idArticulo) {
+		Cupo c = cupos.get(idArticulo);
+		return (c == null) ? 0 : c.disponible();
+	}
+
+	/**
+	 * Vende unidades de un artículo caliente, tomando otro cupo de la tabla si
+	 * no hay bastantes en memoria.
+	 * @return {@code false} si el artículo no se vende desde memoria (ya no es
+	 * caliente o el contador está cerrado): hay que reservar en la tabla.
+	 * @throws StockInsuficienteException si no llegan ni con un cupo nuevo.
+	 */
+	boolean tomar(int idArticulo, int uds) {
+		Cupo c = cupos.get(idArticulo);
+		if (c == null || cerrado) return false;
+		if (!c.tomarDeUnaFranja(uds)) {
+			c.cerrojo.lock();
+			try {
+				// el cierre vacía con el cerrojo: visto aquí, lo que se tome ya no se vaciaría
+				if (cerrado) return false;
+				int juntadas = c.juntar(uds);
+				if (juntadas < uds) {
+					try {
+						c.repartir(tomarCupo(idArticulo, uds - juntadas));
+					} catch (RuntimeException e) {
+						c.repartir(juntadas);
+						throw e;
+					}
+				}
+			} finally {
+				c.cerrojo.unlock();
+			}
+		}
+		c.ventas.add(uds);
+		ventasEnMemoria.add(uds);
+		return true;
+	}
+
+	/**
+	 * Devuelve a memoria unidades de {@link #tomar} cuya venta no se ha
+	 * confirmado. Si el contador ya se ha cerrado, o se cierra mientras tanto,
+	 * van a la tabla.
+	 */
+	void devolver(int idArticulo, int uds) {
+		Cupo c = cupos.get(idArticulo);
+		if (c == null) {
+			escribirDevolucion(Map.of(idArticulo, uds));
+			return;
+		}
+		c.repartir(uds);
+		// cerrar() marca el cierre antes de vaciar: si aquí no se ve cerrado,
+		// el vaciado del cierre ya encontrará estas unidades
+		if (cerrado) {
+			vaciarATabla(idArticulo, c, 0);
+		}
+	}
+
+	/**
+	 * Devuelve a la tabla las unidades en memoria del artículo, p. ej. antes
+	 * de fijar su stock a mano. Si se sigue vendiendo se vuelve a tomar cupo.
+	 * @return unidades devueltas.
+	 */
+	public int devolverATabla(int idArticulo) {
+		Cupo c = cupos.get(idArticulo);
+		return (c == null) ? 0 : vaciarATabla(idArticulo, c, 0);
+	}
+
+	/**
+	 * Concilia la tabla con la memoria ahora, sin esperar al hilo: devuelve el
+	 * cupo de los artículos que no se han vendido desde la conciliación
+	 * anterior y lo que pase de un cupo en los demás.
+	 * @return unidades devueltas a la tabla.
+	 */
+	public synchronized int conciliar() {
+		int devueltas = 0;
+		for (Map.Entry<Integer, Cupo> e : cupos.entrySet()) {
+			Cupo c = e.getValue();
+			long ventas = c.ventas.sum();
+			boolean parado = ventas == c.ventasConciliadas;
+			c.ventasConciliadas = ventas;
+			devueltas += vaciarATabla(e.getKey(), c, parado ? 0 : cupo);
+		}
+		return devueltas;
+	}
+
+	/**
+	 * Unidades vendidas desde memoria, sin pasar por la tabla.
+	 */
+	public long getVentasEnMemoria() {
+		return ventasEnMemoria.sum();
+	}
+
+	/**
+	 * Cupos tomados de la tabla.
+	 */
+	public long getCuposTomados() {
+		return cuposTomados.sum();
+	}
+
+	/**
+	 * Unidades devueltas de memoria a la tabla.
+	 */
+	public long getUnidadesDevueltas() {
+		return unidadesDevueltas.sum();
+	}
+
+	/**
+	 * Devoluciones a la tabla fallidas (las unidades siguen en memoria, o se
+	 * pierden si el contador estaba cerrado).
+	 */
+	public long getFallosDevolucion() {
+		return fallosDevolucion.sum();
+	}
+
+	/**
+	 * Imprime los artículos calientes de la factoría con sus unidades en
+	 * memoria y las cuentas del contador.
+	 * @param emf
+	 * @param out
+	 */
+	public static void imprimir(EntityManagerFactory emf, PrintStream out) {
+		HotStockCounter c = de(emf);
+		if (c.cupos.isEmpty()) {
+			out.println("Sin artículos calientes (" + CALIENTES + ")");
+			return;
+		}
+		Map<Integer, Integer> enMemoria = new TreeMap<>();
+		c.cupos.forEach((id, k) -> enMemoria.put(id, k.disponible()));
+		out.println("Artículos calientes (id=unidades en memoria): " + enMemoria);
+		out.printf("Cupos de %d: %d tomados, %d unidades vendidas en memoria, %d devueltas, %d fallos al devolver%n",
+				c.cupo, c.getCuposTomados(), c.getVentasEnMemoria(), c.getUnidadesDevueltas(),
+				c.getFallosDevolucion());
+	}
+
+	/**
+	 * Para el hilo y devuelve a la tabla lo que queda en memoria. Lo llama
+	 * {@link ReconciliacionStock} al empezar a cerrarse la factoría, mientras
+	 * aún se pueden abrir sesiones, y otra vez al quitar el contador; la
+	 * segunda no encuentra nada que devolver. Desde aquí las ventas de los
+	 * artículos calientes van a la tabla.
+	 */
+	void cerrar() {
+		ScheduledExecutorService hilo;
+		synchronized (cupos) {
+			cerrado = true;
+			hilo = conciliador;
+		}
+		if (hilo != null) {
+			hilo.shutdown();
+			try {
+				if (!hilo.awaitTermination(30, TimeUnit.SECONDS)) {
+					hilo.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				hilo.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+		cupos.forEach((id, c) -> vaciarATabla(id, c, 0));
+	}
+
+	/**
+	 * Toma de la tabla un cupo, o lo que falta si es más, en una transacción
+	 * propia. Si no queda tanto toma lo que queda, y si otra venta se lo lleva
+	 * mientras tanto, sólo lo que falta.
+	 * @return unidades que sobran tras la venta, para la memoria.
+	 * @throws StockInsuficienteException si la tabla no tiene ni lo que falta.
+	 */
+	private int tomarCupo(int idArticulo, int falta) {
+		int tomadas = uow.enTransaccion(em -> {
+			int[] filas = new int[1];
+			em.unwrap(Session.class).doWork(con -> {
+				try (PreparedStatement ps = con.prepareStatement(SQL_CUPO);
+						PreparedStatement consulta = con.prepareStatement(SQL_STOCK)) {
+					int entero = Math.max(cupo, falta);
+					if (actualizar(ps, idArticulo, entero)) {
+						filas[0] = entero;
+						return;
+					}
+					consulta.setInt(1, idArticulo);
+					int queda = 0;
+					try (ResultSet rs = consulta.executeQuery()) {
+						if (rs.next()) queda = rs.getInt(1);
+					}
+					for (int uds : new int[] { queda, falta }) {
+						if (uds >= falta && actualizar(ps, idArticulo, uds)) {
+							filas[0] = uds;
+							return;
+						}
+					}
+				}
+			});
+			return filas[0];
+		});
+		sessionFactory.getCache().evict(Articulo.class, idArticulo);
+		if (tomadas == 0) {
+			throw new StockInsuficienteException(idArticulo, falta);
+		}
+		cuposTomados.increment();
+		return tomadas - falta;
+	}
+
+	private static boolean actualizar(PreparedStatement ps, int idArticulo, int uds) throws SQLException {
+		ps.setInt(1, uds);
+		ps.setInt(2, idArticulo);
+		ps.setInt(3, uds);
+		return ps.executeUpdate() > 0;
+	}
+
+	/**
+	 * Devuelve a la tabla lo que hay en memoria del artículo menos
+	 * {@code guardar} unidades. Si la tabla falla las unidades vuelven a
+	 * memoria, salvo con el contador cerrado, en que se pierden.
+	 * @return unidades devueltas.
+	 */
+	private int vaciarATabla(int idArticulo, Cupo c, int guardar) {
+		int sobran;
+		c.cerrojo.lock();
+		try {
+			int hay = c.vaciar();
+			int guardadas = Math.min(hay, guardar);
+			c.repartir(guardadas);
+			sobran = hay - guardadas;
+		} finally {
+			c.cerrojo.unlock();
+		}
+		if (sobran == 0) return 0;
+		try {
+			escribirDevolucion(Map.of(idArticulo, sobran));
+			return sobran;
+		} catch (RuntimeException e) {
+			fallosDevolucion.increment();
+			if (cerrado) {
+				LOG.log(System.Logger.Level.ERROR, "Se pierden " + sobran + " unidades en memoria del artículo "
+						+ idArticulo + ": no se han podido devolver a la tabla", e);
+			} else {
+				c.repartir(sobran);
+				LOG.log(System.Logger.Level.WARNING, "Devolución a la tabla del stock en memoria del artículo "
+						+ idArticulo + " fallida; se reintenta en la siguiente conciliación", e);
+			}
+			return 0;
+		}
+	}
+
+	private void escribirDevolucion(Map<Integer, Integer> unidades) {
+		uow.ejecutar(em -> em.unwrap(Session.class).doWork(con -> {
+			try (PreparedStatement ps = con.prepareStatement(SQL_DEVOLUCION)) {
+				for (Map.Entry<Integer, Integer> e : unidades.entrySet()) {
+					ps.setInt(1, e.getValue());
+					ps.setInt(2, e.getKey());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+		}));
+		unidades.forEach((id, uds) -> {
+			sessionFactory.getCache().evict(Articulo.class, id);
+			unidadesDevueltas.add(uds);
+		});
+	}
+
+	private void conciliarSinFallar() {
+		try {
+			conciliar();
+		} catch (RuntimeException e) {
+			// un fallo no debe parar el hilo
+			LOG.log(System.Logger.Level.WARNING, "Conciliación del stock en memoria fallida", e);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.marialiviu.u3.gestionEcommerce.cache.RegionesCache;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.TypedQuery;
+
+/**
+ * Listados de artículos, clientes y compras con memoria acotada.
+ * <p>
+ * Cada listado es un {@link Stream} perezoso que pide las filas por páginas
+ * con paginación por clave (<i>keyset</i>: {@code WHERE id > :ultimo ORDER BY id
+ * LIMIT n}), de forma que cada página usa el índice de la clave primaria y no
+ * hace falta {@code OFFSET}. Cada página se lee con su propio
+ * {@link EntityManager} de sólo lectura (en una réplica si las hay, ver
+ * {@link EnrutadorLecturas}) que se cierra al terminarla, así que las
+ * entidades que devuelve el stream ya están desacopladas y como mucho hay una
+ * página en memoria.
+ * </p>
+ *
+ * <pre>{@code
+ * ListadoService listado = new ListadoService(emf);
+ * listado.articulos().forEach(System.out::println);
+ * }</pre>
+ */
+public class ListadoService {
+
+	/**
+	 * Filas por página por defecto.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	private final EntityManagerFactory emf;
+	private final int tamanoPagina;
+	private final boolean replicas;
+
+	/**
+	 * Crea el servicio con el tamaño de página por defecto.
+	 * @param emf
+	 */
+	public ListadoService(EntityManagerFactory emf) {
+		this(emf, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Crea el servicio.
+	 * @param emf
+	 * @param tamanoPagina filas leídas por consulta.
+	 */
+	public ListadoService(EntityManagerFactory emf, int tamanoPagina) {
+		if (tamanoPagina <= 0) throw new IllegalArgumentException("tamanoPagina debe ser > 0");
+		this.emf = emf;
+		this.replicas = EnrutadorLecturas.de(emf) != null;
+		this.tamanoPagina = tamanoPagina;
+	}
+
+	/**
+	 * Todos los artículos ordenados por id. Las páginas se guardan en la caché
+	 * de consultas y los artículos en la de segundo nivel, así que repetir el
+	 * listado sin cambios en el catálogo no va a la base de datos. Con
+	 * réplicas sólo se leen de las cachés, no se guardan.
+	 */
+	public Stream<Articulo> articulos() {
+		return paginar(0, Articulo::getId, (em, ultimo) -> pagina(
+				em.createQuery("SELECT a FROM Articulo a WHERE a.id > :ultimo ORDER BY a.id", Articulo.class)
+						.setHint("org.hibernate.cacheable", true)
+						.setHint("org.hibernate.cacheRegion", RegionesCache.CONSULTAS_CATALOGO)
+						.setParameter("ultimo", ultimo)));
+	}
+
+	/**
+	 * Todos los clientes (con su información fiscal) ordenados por NIF/CIF.
+	 */
+	public Stream<Cliente> clientes() {
+		return paginar("", Cliente::getNif_cif, (em, ultimo) -> pagina(
+				em.createQuery("SELECT c FROM Cliente c LEFT JOIN FETCH c.informacionFiscal "
+						+ "WHERE c.nif_cif > :ultimo ORDER BY c.nif_cif", Cliente.class)
+						.setParameter("ultimo", ultimo)));
+	}
+
+	/**
+	 * Todas las compras ordenadas por id, con su cliente y sus líneas cargados
+	 * (dos consultas por página). Para mostrarlas basta con
+	 * {@link #resumenCompras()}.
+	 */
+	public Stream<Compra> compras() {
+		return paginar(0, Compra::getId, (em, ultimo) -> {
+			List<Compra> compras = pagina(
+					em.createQuery("SELECT c FROM Compra c WHERE c.id > :ultimo ORDER BY c.id", Compra.class)
+							.setHint("jakarta.persistence.fetchgraph", em.getEntityGraph(Compra.GRAFO_CON_CLIENTE))
+							.setParameter("ultimo", ultimo));
+			if (!compras.isEmpty()) {
+				// Inicializa las líneas de toda la página en una sola consulta
+				em.createQuery("SELECT DISTINCT c FROM Compra c LEFT JOIN FETCH c.articuloCompras ac "
+						+ "LEFT JOIN FETCH ac.articulo WHERE c.id IN :ids", Compra.class)
+						.setParameter("ids", compras.stream().map(Compra::getId).toList())
+						.getResultList();
+			}
+			return compras;
+		});
+	}
+
+	/**
+	 * Resumen de todas las compras ordenadas por id: una consulta por página,
+	 * sin cargar clientes ni líneas.
+	 */
+	public Stream<CompraResumen> resumenCompras() {
+		return paginar(0, CompraResumen::id, (em, ultimo) -> pagina(
+				em.createQuery(CompraResumen.SELECT + "WHERE c.id > :ultimo" + CompraResumen.GROUP_BY + "ORDER BY c.id",
+						CompraResumen.class)
+						.setParameter("ultimo", ultimo)));
+	}
+
+	/**
+	 * Resumen de las compras de un cliente en un intervalo de fechas, de la más
+	 * antigua a la más reciente. Usa el índice {@code idx_compras_cliente_fecha}.
+	 * @param nif NIF/CIF del cliente.
+	 * @param desde fecha inicial, incluida.
+	 * @param hasta fecha final, excluida.
+	 */
+	public List<CompraResumen> comprasDeCliente(String nif, Date desde, Date hasta) {
+		return consultar(em -> em.createQuery(CompraResumen.SELECT
+				+ "WHERE c.cliente.nif_cif = :nif AND c.fechaCompra >= :desde AND c.fechaCompra < :hasta"
+				+ CompraResumen.GROUP_BY + "ORDER BY c.fechaCompra, c.id", CompraResumen.class)
+				.setParameter("nif", nif)
+				.setParameter("desde", desde)
+				.setParameter("hasta", hasta)
+				.setHint("org.hibernate.readOnly", true)
+				.getResultList());
+	}
+
+	/**
+	 * Resumen de las compras más antiguas en un estado (p. ej. las pendientes de
+	 * enviar), de la más antigua a la más reciente. Usa el índice
+	 * {@code idx_compras_estado_fecha}.
+	 * @param estado
+	 * @param hasta sólo compras anteriores a esta fecha.
+	 * @param max número máximo de compras.
+	 */
+	public List<CompraResumen> comprasEnEstado(Compra.EstadoCompra estado, Date hasta, int max) {
+		return consultar(em -> em.createQuery(CompraResumen.SELECT
+				+ "WHERE c.estado = :estado AND c.fechaCompra < :hasta"
+				+ CompraResumen.GROUP_BY + "ORDER BY c.fechaCompra, c.id", CompraResumen.class)
+				.setParameter("estado", estado)
+				.setParameter("hasta", hasta)
+				.setMaxResults(max)
+				.setHint("org.hibernate.readOnly", true)
+				.getResultList());
+	}
+
+	/**
+	 * Ejecuta una consulta con un EntityManager propio que se cierra al
+	 * terminar; si hay réplicas va a una de ellas.
+	 */
+	private <T> List<T> consultar(Function<EntityManager, List<T>> consulta) {
+		return EnrutadorLecturas.leer(() -> {
+			EntityManager em = emf.createEntityManager();
+			if (replicas) {
+				// la conexión se pide con la consulta, así que no se sabe antes si
+				// será de una réplica: con réplicas no se guarda nada en la caché
+				em.setProperty("jakarta.persistence.cache.storeMode", CacheStoreMode.BYPASS);
+			}
+			try {
+				return consulta.apply(em);
+			} finally {
+				em.close();
+			}
+		});
+	}
+
+	/**
+	 * Ejecuta la consulta de una página con límite, tamaño de fetch y sólo lectura.
+	 */
+	private <T> List<T> pagina(TypedQuery<T> q) {
+		return q.setMaxResults(tamanoPagina)
+				.setHint("org.hibernate.fetchSize", tamanoPagina)
+				.setHint("org.hibernate.readOnly", true)
+				.getResultList();
+	}
+
+	/**
+	 * Carga de una página a partir de la última clave vista.
+	 */
+	@FunctionalInterface
+	private interface Pagina<T, K> {
+		List<T> cargar(EntityManager em, K ultimo);
+	}
+
+	/**
+	 * Construye un stream que carga una página nueva, con su propio
+	 * EntityManager, cada vez que se agota la anterior.
+	 */
+	private <T, K> Stream<T> paginar(K inicial, Function<T, K> clave, Pagina<T, K> pagina) {
+		Spliterator<T> sp = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			private Iterator<T> actual = Collections.emptyIterator();
+			private K ultimo = inicial;
+			private boolean fin = false;
+
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				if (!actual.hasNext()) {
+					if (fin) return false;
+					List<T> filas = consultar(em -> pagina.cargar(em, ultimo));
+					fin = filas.size() < tamanoPagina;
+					if (filas.isEmpty()) return false;
+					ultimo = clave.apply(filas.get(filas.size() - 1));
+					actual = filas.iterator();
+				}
+				action.accept(actual.next());
+				return true;
+			}
+		};
+		return StreamSupport.stream(sp, false);
+	}
+}
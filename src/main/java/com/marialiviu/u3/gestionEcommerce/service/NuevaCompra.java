@@ -0,0 +1,38 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Datos de entrada de una compra que todavía no existe en la base de datos.
+ * <p>
+ * Sólo lleva claves ({@code nif_cif} del cliente e ids de artículo), de forma
+ * que se puede construir sin tocar el {@code EntityManager}. El precio de cada
+ * línea se toma del precio actual del artículo al insertarla.
+ * </p>
+ *
+ * @param nifCliente NIF/CIF del cliente que hace la compra.
+ * @param fechaCompra fecha de la compra; si es {@code null} se usa la actual.
+ * @param direccion dirección de envío (opcional).
+ * @param lineas artículos y unidades de la compra.
+ */
+public record NuevaCompra(String nifCliente, Date fechaCompra, String direccion, List<Linea> lineas) {
+
+	/**
+	 * Línea de una {@link NuevaCompra}.
+	 *
+	 * @param idArticulo id del artículo.
+	 * @param unidades unidades compradas.
+	 */
+	public record Linea(int idArticulo, int unidades) {
+	}
+
+	/**
+	 * Crea una compra con fecha actual y sin dirección.
+	 * @param nifCliente
+	 * @param lineas
+	 */
+	public NuevaCompra(String nifCliente, List<Linea> lineas) {
+		this(nifCliente, null, null, lineas);
+	}
+}
@@ -0,0 +1,121 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.PaginaHistorial.Cursor;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.TypedQuery;
+
+/**
+ * Historial de compras de un cliente por páginas, sin cargar
+ * {@code Cliente.compras}.
+ * <p>
+ * Cada página es una consulta con paginación por clave sobre
+ * {@code (fecha_compra, id)}, de la compra más reciente a la más antigua, que
+ * recorre el índice {@code idx_compras_cliente_fecha} hacia atrás y se resuelve
+ * sólo con él. Devuelve proyecciones ({@link CompraHistorial}), no entidades.
+ * Si se piden las líneas, las de toda la página se leen en una sola consulta
+ * adicional.
+ * </p>
+ *
+ * <pre>
+ * OrderHistoryService historial = new OrderHistoryService(emf);
+ * PaginaHistorial p = historial.primeraPagina(nif, false);
+ * while (p.hayMas()) {
+ *     p = historial.pagina(nif, p.siguiente(), false);
+ * }
+ * </pre>
+ */
+public class OrderHistoryService {
+
+	/**
+	 * Compras por página por defecto.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 20;
+
+	private final UnitOfWork uow;
+	private final int tamanoPagina;
+
+	public OrderHistoryService(EntityManagerFactory emf) {
+		this(emf, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param emf
+	 * @param tamanoPagina compras por página.
+	 */
+	public OrderHistoryService(EntityManagerFactory emf, int tamanoPagina) {
+		if (tamanoPagina <= 0) throw new IllegalArgumentException("tamanoPagina debe ser > 0");
+		this.uow = new UnitOfWork(emf);
+		this.tamanoPagina = tamanoPagina;
+	}
+
+	/**
+	 * Compras más recientes del cliente.
+	 * @param nif NIF/CIF del cliente.
+	 * @param conLineas incluir las líneas de cada compra.
+	 */
+	public PaginaHistorial primeraPagina(String nif, boolean conLineas) {
+		return pagina(nif, null, conLineas);
+	}
+
+	/**
+	 * Compras del cliente anteriores a {@code desde}.
+	 * @param nif NIF/CIF del cliente.
+	 * @param desde cursor de la página anterior, o null para empezar por la más reciente.
+	 * @param conLineas incluir las líneas de cada compra.
+	 */
+	public PaginaHistorial pagina(String nif, Cursor desde, boolean conLineas) {
+		return uow.soloLectura(em -> {
+			TypedQuery<CompraHistorial> q = em.createQuery(CompraHistorial.SELECT
+					+ "WHERE c.cliente.nif_cif = :nif "
+					+ ((desde == null) ? ""
+							: "AND (c.fechaCompra < :fecha OR (c.fechaCompra = :fecha AND c.id < :id)) ")
+					+ "ORDER BY c.fechaCompra DESC, c.id DESC", CompraHistorial.class)
+					.setParameter("nif", nif)
+					// una fila de más para saber si hay página siguiente sin otra consulta
+					.setMaxResults(tamanoPagina + 1);
+			if (desde != null) {
+				q.setParameter("fecha", desde.fechaCompra()).setParameter("id", desde.id());
+			}
+			List<CompraHistorial> compras = q.getResultList();
+			Cursor siguiente = null;
+			if (compras.size() > tamanoPagina) {
+				compras = compras.subList(0, tamanoPagina);
+				CompraHistorial ultima = compras.get(compras.size() - 1);
+				siguiente = new Cursor(ultima.fechaCompra(), ultima.id());
+			}
+			if (conLineas && !compras.isEmpty()) {
+				compras = conLineas(em, compras);
+			}
+			return new PaginaHistorial(List.copyOf(compras), siguiente);
+		});
+	}
+
+	/**
+	 * Añade las líneas a las compras de una página con una sola consulta.
+	 */
+	private static List<CompraHistorial> conLineas(EntityManager em, List<CompraHistorial> compras) {
+		List<Object[]> filas = em.createQuery("SELECT ac.compraId, a.id, a.nombre, ac.unidades, ac.precioCompra "
+				+ "FROM ArticuloCompra ac JOIN ac.articulo a WHERE ac.compraId IN :ids "
+				+ "ORDER BY ac.compraId, a.id", Object[].class)
+				.setParameter("ids", compras.stream().map(CompraHistorial::id).toList())
+				.getResultList();
+		Map<Integer, List<CompraHistorial.Linea>> porCompra = new HashMap<>();
+		for (Object[] f : filas) {
+			porCompra.computeIfAbsent((Integer) f[0], k -> new ArrayList<>())
+					.add(new CompraHistorial.Linea((Integer) f[1], (String) f[2], (Integer) f[3], (Dinero) f[4]));
+		}
+		List<CompraHistorial> resultado = new ArrayList<>(compras.size());
+		for (CompraHistorial c : compras) {
+			resultado.add(c.conLineas(porCompra.getOrDefault(c.id(), List.of())));
+		}
+		return resultado;
+	}
+}
@@ -0,0 +1,156 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Servicio de alta masiva de compras.
+ * <p>
+ * Recibe muchas {@link NuevaCompra} de una vez y las inserta en una única
+ * transacción, haciendo {@code flush()} + {@code clear()} del
+ * {@link EntityManager} cada {@code tamanoBloque} compras. Así los INSERT de
+ * <code>compras</code> y <code>articulo_compra</code> salen agrupados en lotes
+ * JDBC ({@code hibernate.jdbc.batch_size} / {@code hibernate.order_inserts} en
+ * <code>persistence.xml</code>) y el contexto de persistencia no crece con el
+ * número de compras.
+ * </p>
+ *
+ * <pre>{@code
+ * OrderIngestService ingest = new OrderIngestService(emf, 100);
+ * int creadas = ingest.ingest(List.of(
+ *         new NuevaCompra("12345678A", List.of(new NuevaCompra.Linea(1, 2)))));
+ * }</pre>
+ */
+public class OrderIngestService {
+
+	/**
+	 * Tamaño de bloque por defecto; conviene que coincida con {@code db.batch.size}.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 50;
+
+	private final EntityManagerFactory emf;
+	private final int tamanoBloque;
+	private final StockReservationService stock;
+	private final SalesAggregateService agregados;
+
+	/**
+	 * Crea el servicio con el tamaño de bloque por defecto.
+	 * @param emf
+	 */
+	public OrderIngestService(EntityManagerFactory emf) {
+		this(emf, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Crea el servicio.
+	 * @param emf factoría de la que se abre un EntityManager por llamada.
+	 * @param tamanoBloque número de compras entre cada flush/clear.
+	 */
+	public OrderIngestService(EntityManagerFactory emf, int tamanoBloque) {
+		if (tamanoBloque <= 0) throw new IllegalArgumentException("tamanoBloque debe ser > 0");
+		this.emf = emf;
+		this.tamanoBloque = tamanoBloque;
+		this.stock = new StockReservationService(emf);
+		this.agregados = new SalesAggregateService(emf);
+	}
+
+	/**
+	 * Inserta todas las compras en una transacción y descuenta su stock. Si
+	 * alguna referencia un cliente o artículo inexistente, o no hay stock
+	 * suficiente, se deshace la transacción completa.
+	 *
+	 * @param compras compras a insertar; se recorren una sola vez.
+	 * @return número de compras insertadas.
+	 */
+	public int ingest(Iterable<NuevaCompra> compras) {
+		EntityManager em = emf.createEntityManager();
+		// Cachés de claves válidas: sobreviven a los clear() porque sólo guardan valores
+		Set<String> clientes = new HashSet<>();
+		Map<Integer, Dinero> precios = new HashMap<>();
+		// Unidades por artículo del bloque actual: se descuentan de una vez antes de cada flush
+		Map<Integer, Integer> unidades = new TreeMap<>();
+		// Agregados de ventas del bloque actual, también de una vez antes de cada flush
+		VariacionVentas variacion = new VariacionVentas();
+		int total = 0;
+		try {
+			em.getTransaction().begin();
+			for (NuevaCompra nc : compras) {
+				variacion.sumar(insertar(em, nc, clientes, precios, unidades));
+				total++;
+				if (total % tamanoBloque == 0) {
+					stock.reservar(em, unidades);
+					unidades.clear();
+					agregados.aplicar(em, variacion);
+					variacion = new VariacionVentas();
+					em.flush();
+					em.clear();
+				}
+			}
+			stock.reservar(em, unidades);
+			agregados.aplicar(em, variacion);
+			em.getTransaction().commit();
+			return total;
+		} catch (RuntimeException e) {
+			if (em.getTransaction().isActive()) em.getTransaction().rollback();
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Construye y persiste una compra con sus líneas.
+	 */
+	private Compra insertar(EntityManager em, NuevaCompra nc, Set<String> clientes, Map<Integer, Dinero> precios,
+			Map<Integer, Integer> unidades) {
+		if (!clientes.contains(nc.nifCliente())) {
+			if (em.find(Cliente.class, nc.nifCliente()) == null) {
+				throw new IllegalArgumentException("Cliente no encontrado: " + nc.nifCliente());
+			}
+			clientes.add(nc.nifCliente());
+		}
+		Cliente cliente = em.getReference(Cliente.class, nc.nifCliente());
+		Compra compra = new Compra(0, cliente, nc.fechaCompra() != null ? nc.fechaCompra() : new Date(),
+				Compra.EstadoCompra.PENDIENTE, Dinero.CERO);
+		compra.setDireccion(nc.direccion());
+		em.persist(compra);
+
+		// un artículo repetido es una sola línea (clave id_compra, id_articulo) con las unidades sumadas
+		Map<Integer, Integer> porArticulo = new LinkedHashMap<>();
+		for (NuevaCompra.Linea l : nc.lineas()) {
+			porArticulo.merge(l.idArticulo(), l.unidades(), Integer::sum);
+		}
+		for (Map.Entry<Integer, Integer> l : porArticulo.entrySet()) {
+			int idArticulo = l.getKey();
+			Dinero precio = precios.get(idArticulo);
+			if (precio == null) {
+				Articulo a = em.find(Articulo.class, idArticulo);
+				if (a == null) throw new IllegalArgumentException("Artículo no encontrado: " + idArticulo);
+				precio = a.getPrecioActual();
+				precios.put(idArticulo, precio);
+			}
+			ArticuloCompra ac = new ArticuloCompra(null, em.getReference(Articulo.class, idArticulo),
+					l.getValue(), precio);
+			compra.addArticuloCompra(ac);
+		}
+		for (ArticuloCompra ac : compra.getArticuloCompras()) {
+			unidades.merge(ac.getArticuloId(), ac.getUnidades(), Integer::sum);
+		}
+		compra.recalcularTotal();
+		return compra;
+	}
+}
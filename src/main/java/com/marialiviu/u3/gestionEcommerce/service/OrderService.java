@@ -0,0 +1,241 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import com.marialiviu.u3.gestionEcommerce.cache.CacheClientes;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.outbox.OutboxCompras;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.LockModeType;
+
+/**
+ * Operaciones sobre compras pensadas para llamarse desde muchos hilos a la vez
+ * (incluidos hilos virtuales): crear, añadir líneas, cambiar estado y borrar.
+ * <p>
+ * Cada llamada es una {@link UnitOfWork} con su propio EntityManager. Como
+ * puede haber miles de hilos virtuales y sólo unas pocas conexiones, un
+ * {@link Semaphore} limita cuántas unidades de trabajo usan JDBC a la vez; el
+ * resto espera en el semáforo (barato para un hilo virtual) en lugar de
+ * agotar el pool y fallar por timeout de conexión.
+ * </p>
+ * <p>
+ * Si otra transacción cambia la misma compra entre la lectura y la escritura
+ * (bloqueo optimista, {@code @Version}), la unidad de trabajo se repite desde
+ * el principio con {@link EjecutorReintentos}; sin el semáforo mientras
+ * espera.
+ * </p>
+ * <p>
+ * El stock se reserva con {@link StockReservationService}: los artículos
+ * calientes ({@link HotStockCounter}) se venden de memoria sin esperar en la
+ * fila del artículo, y los demás con un UPDATE condicional en la misma
+ * transacción.
+ * </p>
+ * <p>
+ * Las compras devueltas están desconectadas, con las líneas cargadas; del
+ * cliente sólo está el NIF (sus datos, en {@link CacheClientes}).
+ * Cada operación actualiza los agregados de ventas en su misma transacción
+ * ({@link SalesAggregateService}), y los cambios de estado se anotan en el
+ * outbox ({@link OutboxCompras}) para avisar a otros sistemas.
+ * </p>
+ */
+public class OrderService {
+
+	private final UnitOfWork uow;
+	private final EjecutorReintentos reintentos;
+	private final CacheClientes clientes;
+	private final StockReservationService stock;
+	private final SalesAggregateService agregados;
+	private final Semaphore conexiones;
+
+	/**
+	 * Limita la concurrencia al tamaño del pool
+	 * ({@code hibernate.hikari.maximumPoolSize}, 10 si no está definido) menos
+	 * una conexión. Esa conexión queda libre para el generador de ids de
+	 * 'secuencias', que reserva cada bloque en una transacción aparte con otra
+	 * conexión mientras la unidad de trabajo retiene la suya; sin ella, con
+	 * todas las conexiones ocupadas, la reserva esperaría hasta el timeout.
+	 * @param emf
+	 */
+	public OrderService(EntityManagerFactory emf) {
+		this(emf, Math.max(1,
+				ConfigurationHelper.getInt("hibernate.hikari.maximumPoolSize", emf.getProperties(), 10) - 1));
+	}
+
+	/**
+	 * @param emf
+	 * @param maxConcurrencia unidades de trabajo simultáneas como máximo;
+	 *        debería ser menor que el tamaño del pool (ver
+	 *        {@link #OrderService(EntityManagerFactory)}).
+	 */
+	public OrderService(EntityManagerFactory emf, int maxConcurrencia) {
+		if (maxConcurrencia <= 0) {
+			throw new IllegalArgumentException("La concurrencia debe ser positiva: " + maxConcurrencia);
+		}
+		this.uow = new UnitOfWork(emf);
+		this.reintentos = new EjecutorReintentos(emf);
+		this.clientes = CacheClientes.de(emf);
+		this.stock = new StockReservationService(emf);
+		this.agregados = new SalesAggregateService(emf);
+		this.conexiones = new Semaphore(maxConcurrencia, true);
+	}
+
+	/**
+	 * Crea una compra PENDIENTE con sus líneas y descuenta el stock.
+	 * @param nc
+	 * @return la compra creada, con su id.
+	 * @throws IllegalArgumentException si el cliente o algún artículo no existen.
+	 * @throws StockInsuficienteException
+	 */
+	public Compra crear(NuevaCompra nc) {
+		return conConexion(em -> {
+			if (!clientes.existe(em, nc.nifCliente())) {
+				throw new IllegalArgumentException("Cliente no encontrado: " + nc.nifCliente());
+			}
+			// comprobado en la caché: para la clave ajena basta una referencia sin cargar
+			Cliente cliente = em.getReference(Cliente.class, nc.nifCliente());
+			Compra compra = new Compra(0, cliente, (nc.fechaCompra() != null) ? nc.fechaCompra() : new Date(),
+					Compra.EstadoCompra.PENDIENTE, Dinero.CERO);
+			compra.setDireccion(nc.direccion());
+			em.persist(compra);
+			anadir(em, compra, nc.lineas());
+			agregados.aplicar(em, new VariacionVentas().sumar(compra));
+			return compra;
+		});
+	}
+
+	/**
+	 * Añade líneas a una compra PENDIENTE. Si el artículo ya estaba en la
+	 * compra se suman las unidades al precio de la línea existente.
+	 * @param idCompra
+	 * @param lineas
+	 * @return la compra actualizada.
+	 * @throws IllegalArgumentException si la compra o algún artículo no existen.
+	 * @throws IllegalStateException si la compra ya no está PENDIENTE.
+	 * @throws StockInsuficienteException
+	 */
+	public Compra anadirLineas(int idCompra, List<NuevaCompra.Linea> lineas) {
+		return conConexion(em -> {
+			// el bloqueo serializa a quienes añaden líneas a la misma compra
+			Compra compra = em.find(Compra.class, idCompra, LockModeType.PESSIMISTIC_WRITE);
+			if (compra == null) {
+				throw new IllegalArgumentException("Compra no encontrada: " + idCompra);
+			}
+			if (compra.getEstado() != Compra.EstadoCompra.PENDIENTE) {
+				throw new IllegalStateException("La compra " + idCompra + " ya está " + compra.getEstado());
+			}
+			VariacionVentas variacion = new VariacionVentas().restar(compra);
+			anadir(em, compra, lineas);
+			agregados.aplicar(em, variacion.sumar(compra));
+			return compra;
+		});
+	}
+
+	/**
+	 * Pasa la compra al estado siguiente. Pedir el estado que ya tiene no
+	 * cambia nada.
+	 * @param idCompra
+	 * @param estado
+	 * @return la compra actualizada, o null si no existe.
+	 * @throws IllegalStateException si la compra no puede pasar a ese estado
+	 * ({@link Compra.EstadoCompra#puedePasarA}).
+	 */
+	public Compra cambiarEstado(int idCompra, Compra.EstadoCompra estado) {
+		return conConexion(em -> {
+			Compra compra = em.find(Compra.class, idCompra);
+			if (compra != null && compra.getEstado() != estado) {
+				Compra.EstadoCompra anterior = compra.getEstado();
+				if (!anterior.puedePasarA(estado)) {
+					throw new IllegalStateException("La compra " + idCompra + " no puede pasar de " + anterior
+							+ " a " + estado);
+				}
+				VariacionVentas variacion = new VariacionVentas().restar(compra);
+				compra.setEstado(estado);
+				agregados.aplicar(em, variacion.sumar(compra));
+				OutboxCompras.registrar(em, idCompra, anterior, estado);
+			}
+			return compra;
+		});
+	}
+
+	/**
+	 * Borra la compra y, si estaba PENDIENTE, devuelve sus unidades al stock
+	 * ({@link StockReservationService#liberar}).
+	 * @param idCompra
+	 * @return true si la compra existía y se ha borrado.
+	 */
+	public boolean borrar(int idCompra) {
+		return conConexion(em -> {
+			Compra compra = em.find(Compra.class, idCompra);
+			if (compra == null) {
+				return false;
+			}
+			agregados.aplicar(em, new VariacionVentas().restar(compra));
+			stock.liberar(em, compra);
+			em.remove(compra);
+			return true;
+		});
+	}
+
+	/**
+	 * Hilos esperando turno para usar una conexión (aproximado).
+	 */
+	public int getEsperando() {
+		return conexiones.getQueueLength();
+	}
+
+	private void anadir(EntityManager em, Compra compra, List<NuevaCompra.Linea> lineas) {
+		Map<Integer, Integer> unidades = new TreeMap<>();
+		for (NuevaCompra.Linea l : lineas) {
+			if (l.unidades() <= 0) {
+				throw new IllegalArgumentException("Unidades no válidas para el artículo " + l.idArticulo());
+			}
+			unidades.merge(l.idArticulo(), l.unidades(), Integer::sum);
+		}
+		for (Map.Entry<Integer, Integer> e : unidades.entrySet()) {
+			ArticuloCompra existente = null;
+			for (ArticuloCompra ac : compra.getArticuloCompras()) {
+				if (ac.getArticuloId().equals(e.getKey())) existente = ac;
+			}
+			if (existente != null) {
+				existente.setUnidades(existente.getUnidades() + e.getValue());
+				continue;
+			}
+			Articulo a = em.find(Articulo.class, e.getKey());
+			if (a == null) {
+				throw new IllegalArgumentException("Artículo no encontrado: " + e.getKey());
+			}
+			compra.addArticuloCompra(new ArticuloCompra(null, a, e.getValue(), a.getPrecioActual()));
+		}
+		compra.recalcularTotal();
+		stock.reservar(em, unidades);
+	}
+
+	private <T> T conConexion(Function<EntityManager, T> trabajo) {
+		return reintentos.reintentar(() -> {
+			try {
+				conexiones.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrumpido esperando conexión", e);
+			}
+			try {
+				return uow.enTransaccion(trabajo);
+			} finally {
+				conexiones.release();
+			}
+		});
+	}
+}
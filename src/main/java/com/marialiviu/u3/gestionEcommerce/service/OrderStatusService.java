@@ -0,0 +1,164 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.outbox.OutboxCompras;
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.TypedQuery;
+
+/**
+ * Cambios de estado de muchas compras a la vez con UPDATE masivos, sin cargar
+ * ni fusionar cada compra.
+ * <p>
+ * La regla de transición (PENDIENTE → ENVIADO → ENTREGADO) se comprueba en la
+ * propia sentencia: {@code ... SET estado = :nuevo WHERE estado = :anterior},
+ * de modo que una compra que ya no está en el estado anterior (porque otro
+ * proceso la ha movido) simplemente no se actualiza. Los ids se procesan en
+ * bloques ordenados, cada uno en su propia transacción, para acotar el tamaño
+ * de la lista IN y el tiempo que se retienen los bloqueos. Si un bloque falla,
+ * los anteriores ya quedan confirmados.
+ * </p>
+ * <p>
+ * Antes del UPDATE cada bloque lee y bloquea ({@code SELECT ... FOR UPDATE})
+ * las compras que van a cambiar, para mover su importe entre estados en los
+ * agregados de ventas en la misma transacción, y para anotar en el outbox
+ * ({@link OutboxCompras}) exactamente las compras que cambian.
+ * </p>
+ *
+ * <pre>
+ * OrderStatusService estados = new OrderStatusService(emf);
+ * int enviadas = estados.transicionarAnteriores(finDelDia, EstadoCompra.ENVIADO);
+ * </pre>
+ */
+public class OrderStatusService {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** Incrementa la versión: una copia leída antes del cambio ya no se puede escribir. */
+	private static final String UPDATE_ESTADO = "UPDATE Compra c SET c.estado = :nuevo, c.version = c.version + 1 "
+			+ "WHERE c.estado = :anterior AND c.id IN :ids";
+
+	private final UnitOfWork uow;
+	private final SalesAggregateService agregados;
+	private final int tamanoBloque;
+
+	public OrderStatusService(EntityManagerFactory emf) {
+		this(emf, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param emf
+	 * @param tamanoBloque compras por UPDATE (y por transacción).
+	 */
+	public OrderStatusService(EntityManagerFactory emf, int tamanoBloque) {
+		if (tamanoBloque <= 0) {
+			throw new IllegalArgumentException("El tamaño de bloque debe ser positivo: " + tamanoBloque);
+		}
+		this.uow = new UnitOfWork(emf);
+		this.agregados = new SalesAggregateService(emf);
+		this.tamanoBloque = tamanoBloque;
+	}
+
+	/**
+	 * Pasa al estado {@code nuevo} las compras indicadas que estén en el estado
+	 * anterior a él. El resto (inexistentes o en otro estado) se ignoran.
+	 * @param ids
+	 * @param nuevo ENVIADO o ENTREGADO.
+	 * @return número de compras actualizadas.
+	 */
+	public int transicionar(Collection<Integer> ids, EstadoCompra nuevo) {
+		EstadoCompra anterior = origen(nuevo);
+		List<Integer> ordenados = new ArrayList<>(new TreeSet<>(ids));
+		int total = 0;
+		for (int i = 0; i < ordenados.size(); i += tamanoBloque) {
+			total += actualizar(ordenados.subList(i, Math.min(i + tamanoBloque, ordenados.size())), anterior, nuevo);
+		}
+		return total;
+	}
+
+	/**
+	 * Pasa al estado {@code nuevo} todas las compras en el estado anterior
+	 * con fecha de compra anterior a {@code hasta}, de la más antigua a la más
+	 * reciente. Los ids se leen por páginas en el orden del índice
+	 * {@code idx_compras_estado_fecha} (keyset por fecha e id), siempre de la
+	 * principal, y cada página se actualiza en un bloque.
+	 * @param hasta fecha límite, excluida.
+	 * @param nuevo ENVIADO o ENTREGADO.
+	 * @return número de compras actualizadas.
+	 */
+	public int transicionarAnteriores(Date hasta, EstadoCompra nuevo) {
+		EstadoCompra anterior = origen(nuevo);
+		int total = 0;
+		Object[] ultima = null;
+		while (true) {
+			Object[] desde = ultima;
+			// de la principal: una réplica atrasada aún no tendría las compras
+			// recién creadas y el recorrido se las saltaría
+			List<Object[]> filas = EnrutadorLecturas.enPrincipal(() -> uow.soloLectura(em -> {
+				String jpql = "SELECT c.fechaCompra, c.id FROM Compra c "
+						+ "WHERE c.estado = :anterior AND c.fechaCompra < :hasta "
+						+ ((desde == null) ? ""
+								: "AND (c.fechaCompra > :fecha OR (c.fechaCompra = :fecha AND c.id > :id)) ")
+						+ "ORDER BY c.fechaCompra, c.id";
+				TypedQuery<Object[]> q = em.createQuery(jpql, Object[].class)
+						.setParameter("anterior", anterior)
+						.setParameter("hasta", hasta)
+						.setMaxResults(tamanoBloque);
+				if (desde != null) {
+					q.setParameter("fecha", desde[0]).setParameter("id", desde[1]);
+				}
+				return q.getResultList();
+			}));
+			if (filas.isEmpty()) {
+				return total;
+			}
+			total += actualizar(filas.stream().map(f -> (Integer) f[1]).toList(), anterior, nuevo);
+			ultima = filas.get(filas.size() - 1);
+		}
+	}
+
+	private int actualizar(List<Integer> ids, EstadoCompra anterior, EstadoCompra nuevo) {
+		return uow.enTransaccion(em -> {
+			// Bloquea las compras que van a cambiar para saber qué mover en los
+			// agregados de ventas: nadie puede cambiarlas hasta el commit
+			List<Object[]> filas = em.createQuery("SELECT c.id, c.fechaCompra, c.precioTotal FROM Compra c "
+					+ "WHERE c.estado = :anterior AND c.id IN :ids ORDER BY c.id", Object[].class)
+					.setParameter("anterior", anterior)
+					.setParameter("ids", ids)
+					.setLockMode(LockModeType.PESSIMISTIC_WRITE)
+					.getResultList();
+			if (filas.isEmpty()) return 0;
+			VariacionVentas variacion = new VariacionVentas();
+			List<Integer> bloqueadas = new ArrayList<>(filas.size());
+			for (Object[] f : filas) {
+				bloqueadas.add((Integer) f[0]);
+				variacion.cambiarEstado((Date) f[1], (Dinero) f[2], anterior, nuevo);
+			}
+			int actualizadas = em.createQuery(UPDATE_ESTADO)
+					.setParameter("nuevo", nuevo)
+					.setParameter("anterior", anterior)
+					.setParameter("ids", bloqueadas)
+					.executeUpdate();
+			agregados.aplicar(em, variacion);
+			OutboxCompras.registrar(em, bloqueadas, anterior, nuevo);
+			return actualizadas;
+		});
+	}
+
+	private static EstadoCompra origen(EstadoCompra nuevo) {
+		EstadoCompra anterior = nuevo.anterior();
+		if (anterior == null) {
+			throw new IllegalArgumentException("Ninguna compra puede volver a " + nuevo);
+		}
+		return anterior;
+	}
+}
@@ -0,0 +1,27 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Página del historial de compras de un cliente.
+ *
+ * @param compras compras de la página, de la más reciente a la más antigua.
+ * @param siguiente posición desde la que pedir la página siguiente, o null si
+ *        ésta es la última.
+ */
+public record PaginaHistorial(List<CompraHistorial> compras, Cursor siguiente) {
+
+	/**
+	 * Última compra vista: la página siguiente empieza en la compra
+	 * inmediatamente más antigua según {@code (fecha_compra, id)}.
+	 * @param fechaCompra
+	 * @param id
+	 */
+	public record Cursor(Date fechaCompra, int id) {
+	}
+
+	public boolean hayMas() {
+		return siguiente != null;
+	}
+}
@@ -0,0 +1,56 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Crea el {@link HotStockCounter} de cada factoría y, al empezar a cerrarse,
+ * devuelve a <code>articulos</code> el stock que quede en memoria.
+ * <p>
+ * Hibernate crea esta clase como {@link Integrator} (ver
+ * {@code META-INF/services}); al integrarse lee la configuración del
+ * contador y marca los artículos calientes configurados.
+ * </p>
+ */
+public class ReconciliacionStock implements Integrator {
+
+	@Override
+	public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+			SessionFactoryImplementor sessionFactory) {
+		Map<String, Object> props = bootstrapContext.getServiceRegistry().requireService(ConfigurationService.class)
+				.getSettings();
+		List<Integer> calientes = new ArrayList<>();
+		String ids = ConfigurationHelper.getString(HotStockCounter.CALIENTES, props, "").trim();
+		if (!ids.isEmpty()) {
+			for (String id : ids.split("\\s+")) {
+				calientes.add(Integer.valueOf(id));
+			}
+		}
+		HotStockCounter contador = HotStockCounter.registrar(sessionFactory, calientes,
+				ConfigurationHelper.getInt(HotStockCounter.CUPO, props, 100),
+				ConfigurationHelper.getLong(HotStockCounter.RECONCILIACION_MS, props, 1000));
+		sessionFactory.addObserver(new SessionFactoryObserver() {
+			@Override
+			public void sessionFactoryClosing(SessionFactory factory) {
+				contador.cerrar();
+			}
+		});
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory,
+			SessionFactoryServiceRegistry serviceRegistry) {
+		HotStockCounter.quitar(sessionFactory);
+	}
+}
@@ -0,0 +1,388 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.hibernate.Session;
+import org.hibernate.SharedSessionContract;
+
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.GastoCliente;
+import com.marialiviu.u3.gestionEcommerce.model.VentasArticulo;
+import com.marialiviu.u3.gestionEcommerce.model.VentasDia;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Mantiene y consulta las tablas agregadas de ventas:
+ * <code>ventas_articulo</code>, <code>gasto_cliente</code> y
+ * <code>ventas_dia</code>.
+ * <p>
+ * Cada operación que crea, modifica o borra compras calcula su
+ * {@link VariacionVentas} y la aplica con {@link #aplicar} dentro de su propia
+ * transacción, así que los agregados se confirman o se deshacen junto con la
+ * compra. Cada tabla se actualiza con un único lote JDBC de
+ * {@code INSERT ... ON DUPLICATE KEY UPDATE x = x + ?}, sin leer antes las
+ * filas. Leer un agregado es leer una fila (o las {@value #PARTICIONES_DIA}
+ * particiones de un día), sin recorrer <code>compras</code>.
+ * </p>
+ * <p>
+ * {@link #reconstruir(int)} recalcula las tres tablas desde cero en bloques
+ * de claves disjuntos (rangos de artículos, de clientes y meses) que se
+ * ejecutan en paralelo. Cada bloque borra y vuelve a insertar sus filas en una
+ * transacción, así que se puede repetir sin riesgo; está pensado para cargas
+ * iniciales o para corregir desviaciones, preferiblemente sin altas de
+ * compras a la vez.
+ * </p>
+ */
+public class SalesAggregateService {
+
+	/**
+	 * Filas por día y estado en <code>ventas_dia</code>.
+	 */
+	public static final int PARTICIONES_DIA = 8;
+
+	private static final int ARTICULOS_POR_BLOQUE = 1000;
+	private static final int CLIENTES_POR_BLOQUE = 1000;
+
+	private static final String SQL_ARTICULO = "INSERT INTO ventas_articulo (id_articulo, unidades, importe) "
+			+ "VALUES (?, ?, ?) "
+			+ "ON DUPLICATE KEY UPDATE unidades = unidades + VALUES(unidades), importe = importe + VALUES(importe)";
+	private static final String SQL_CLIENTE = "INSERT INTO gasto_cliente (nif_cif, compras, importe) "
+			+ "VALUES (?, ?, ?) "
+			+ "ON DUPLICATE KEY UPDATE compras = compras + VALUES(compras), importe = importe + VALUES(importe)";
+	private static final String SQL_DIA = "INSERT INTO ventas_dia (dia, estado, particion, compras, importe) "
+			+ "VALUES (?, ?, ?, ?, ?) "
+			+ "ON DUPLICATE KEY UPDATE compras = compras + VALUES(compras), importe = importe + VALUES(importe)";
+
+	/**
+	 * Compras e importe de un día en un estado, sumando sus particiones.
+	 * @param dia
+	 * @param estado
+	 * @param compras
+	 * @param importe
+	 */
+	public record TotalDia(LocalDate dia, EstadoCompra estado, long compras, Dinero importe) {
+	}
+
+	/**
+	 * Resultado de una reconstrucción.
+	 * @param bloques bloques ejecutados.
+	 * @param segundos duración total.
+	 */
+	public record Reconstruccion(int bloques, double segundos) {
+	}
+
+	private final UnitOfWork uow;
+
+	public SalesAggregateService(EntityManagerFactory emf) {
+		this.uow = new UnitOfWork(emf);
+	}
+
+	/**
+	 * Aplica la variación en la transacción activa del EntityManager.
+	 * @param em
+	 * @param variacion
+	 */
+	public void aplicar(EntityManager em, VariacionVentas variacion) {
+		if (!em.getTransaction().isActive()) {
+			throw new IllegalStateException("Los agregados de ventas se actualizan dentro de una transacción");
+		}
+		aplicar((SharedSessionContract) em.unwrap(Session.class), variacion);
+	}
+
+	/**
+	 * Aplica la variación en la transacción activa de una sesión, con estado o
+	 * sin él ({@code StatelessSession}).
+	 * @param sesion
+	 * @param variacion
+	 */
+	public void aplicar(SharedSessionContract sesion, VariacionVentas variacion) {
+		if (variacion.isEmpty()) return;
+		// todas las transacciones recorren las tablas y las claves en el mismo orden
+		sesion.doWork(con -> {
+			if (!variacion.articulos.isEmpty()) {
+				try (PreparedStatement ps = con.prepareStatement(SQL_ARTICULO)) {
+					for (Map.Entry<Integer, long[]> e : variacion.articulos.entrySet()) {
+						ps.setInt(1, e.getKey());
+						ps.setLong(2, e.getValue()[0]);
+						ps.setBigDecimal(3, importe(e.getValue()[1]));
+						ps.addBatch();
+					}
+					ps.executeBatch();
+				}
+			}
+			if (!variacion.clientes.isEmpty()) {
+				try (PreparedStatement ps = con.prepareStatement(SQL_CLIENTE)) {
+					for (Map.Entry<String, long[]> e : variacion.clientes.entrySet()) {
+						ps.setString(1, e.getKey());
+						ps.setLong(2, e.getValue()[0]);
+						ps.setBigDecimal(3, importe(e.getValue()[1]));
+						ps.addBatch();
+					}
+					ps.executeBatch();
+				}
+			}
+			if (!variacion.dias.isEmpty()) {
+				int particion = ThreadLocalRandom.current().nextInt(PARTICIONES_DIA);
+				try (PreparedStatement ps = con.prepareStatement(SQL_DIA)) {
+					for (Map.Entry<VariacionVentas.Dia, long[]> e : variacion.dias.entrySet()) {
+						ps.setObject(1, e.getKey().dia());
+						ps.setString(2, e.getKey().estado().name());
+						ps.setInt(3, particion);
+						ps.setLong(4, e.getValue()[0]);
+						ps.setBigDecimal(5, importe(e.getValue()[1]));
+						ps.addBatch();
+					}
+					ps.executeBatch();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Ventas acumuladas de un artículo, o null si nunca se ha vendido.
+	 * @param idArticulo
+	 */
+	public VentasArticulo articulo(int idArticulo) {
+		return uow.soloLectura(em -> em.find(VentasArticulo.class, idArticulo));
+	}
+
+	/**
+	 * Gasto acumulado de un cliente, o null si no tiene compras.
+	 * @param nif
+	 */
+	public GastoCliente cliente(String nif) {
+		return uow.soloLectura(em -> em.find(GastoCliente.class, nif));
+	}
+
+	/**
+	 * Totales por estado de los días en {@code [desde, hasta)}, ordenados por
+	 * día y estado. Los días y estados sin compras no aparecen.
+	 * @param desde
+	 * @param hasta
+	 */
+	public List<TotalDia> dias(LocalDate desde, LocalDate hasta) {
+		List<VentasDia> filas = uow.soloLectura(em -> em.createQuery("SELECT v FROM VentasDia v "
+				+ "WHERE v.dia >= :desde AND v.dia < :hasta ORDER BY v.dia, v.estado", VentasDia.class)
+				.setParameter("desde", desde)
+				.setParameter("hasta", hasta)
+				.getResultList());
+		List<TotalDia> totales = new ArrayList<>();
+		LocalDate dia = null;
+		Map<EstadoCompra, long[]> porEstado = new EnumMap<>(EstadoCompra.class);
+		for (VentasDia v : filas) {
+			if (!v.getDia().equals(dia)) {
+				anadirTotales(totales, dia, porEstado);
+				dia = v.getDia();
+			}
+			long[] t = porEstado.computeIfAbsent(v.getEstado(), k -> new long[2]);
+			t[0] += v.getCompras();
+			t[1] += v.getImporte().getCentimos();
+		}
+		anadirTotales(totales, dia, porEstado);
+		return totales;
+	}
+
+	/**
+	 * Recalcula las tres tablas a partir de <code>compras</code> y
+	 * <code>articulo_compra</code>.
+	 * @param hilos bloques que se ejecutan a la vez; cada uno usa una conexión.
+	 * @return bloques ejecutados y duración.
+	 */
+	public Reconstruccion reconstruir(int hilos) {
+		if (hilos <= 0) throw new IllegalArgumentException("hilos debe ser > 0");
+		long inicio = System.nanoTime();
+		List<Runnable> bloques = new ArrayList<>();
+		uow.ejecutar(em -> em.unwrap(Session.class).doWork(con -> {
+			bloquesArticulos(con, bloques);
+			bloquesClientes(con, bloques);
+			bloquesDias(con, bloques);
+		}));
+
+		ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+		try {
+			List<Future<?>> pendientes = new ArrayList<>();
+			for (Runnable b : bloques) pendientes.add(ejecutor.submit(b));
+			for (Future<?> f : pendientes) f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Reconstrucción interrumpida", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Reconstrucción fallida: " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			ejecutor.shutdownNow();
+		}
+		return new Reconstruccion(bloques.size(), (System.nanoTime() - inicio) / 1e9);
+	}
+
+	/**
+	 * Rangos {@code [desde, hasta)} de ids de artículo. El primero y el último
+	 * están abiertos para borrar también filas de artículos fuera de la tabla.
+	 */
+	private void bloquesArticulos(Connection con, List<Runnable> bloques) throws SQLException {
+		List<Integer> limites = new ArrayList<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT MIN(id), MAX(id) FROM articulos");
+				ResultSet rs = ps.executeQuery()) {
+			rs.next();
+			int min = rs.getInt(1);
+			if (!rs.wasNull()) {
+				for (long l = min + ARTICULOS_POR_BLOQUE; l <= rs.getInt(2); l += ARTICULOS_POR_BLOQUE) {
+					limites.add((int) l);
+				}
+			}
+		}
+		for (Rango<Integer> r : rangos(limites)) {
+			bloques.add(() -> bloque(
+					"DELETE FROM ventas_articulo WHERE " + r.condicion("id_articulo"),
+					"INSERT INTO ventas_articulo (id_articulo, unidades, importe) "
+							+ "SELECT id_articulo, SUM(unidades), SUM(unidades * precio_compra) FROM articulo_compra "
+							+ "WHERE " + r.condicion("id_articulo") + " GROUP BY id_articulo",
+					r.parametros(), r.parametros()));
+		}
+	}
+
+	/**
+	 * Rangos de NIF/CIF de {@value #CLIENTES_POR_BLOQUE} clientes. Los
+	 * extremos abiertos recogen también las compras de clientes borrados.
+	 */
+	private void bloquesClientes(Connection con, List<Runnable> bloques) throws SQLException {
+		List<String> limites = new ArrayList<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT nif_cif FROM ("
+				+ "SELECT nif_cif, ROW_NUMBER() OVER (ORDER BY nif_cif) AS n FROM clientes) t "
+				+ "WHERE MOD(n, ?) = 1 AND n > 1 ORDER BY nif_cif")) {
+			ps.setInt(1, CLIENTES_POR_BLOQUE);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) limites.add(rs.getString(1));
+			}
+		}
+		for (Rango<String> r : rangos(limites)) {
+			bloques.add(() -> bloque(
+					"DELETE FROM gasto_cliente WHERE " + r.condicion("nif_cif"),
+					"INSERT INTO gasto_cliente (nif_cif, compras, importe) "
+							+ "SELECT id_cliente, COUNT(*), SUM(precio_total) FROM compras "
+							+ "WHERE " + r.condicion("id_cliente") + " GROUP BY id_cliente",
+					r.parametros(), r.parametros()));
+		}
+	}
+
+	/**
+	 * Un bloque por mes entre la primera y la última compra.
+	 */
+	private void bloquesDias(Connection con, List<Runnable> bloques) throws SQLException {
+		List<LocalDate> limites = new ArrayList<>();
+		try (PreparedStatement ps = con.prepareStatement("SELECT MIN(fecha_compra), MAX(fecha_compra) FROM compras");
+				ResultSet rs = ps.executeQuery()) {
+			rs.next();
+			Timestamp min = rs.getTimestamp(1);
+			if (min != null) {
+				LocalDate ultimo = rs.getTimestamp(2).toLocalDateTime().toLocalDate();
+				for (LocalDate m = min.toLocalDateTime().toLocalDate().withDayOfMonth(1).plusMonths(1);
+						!m.isAfter(ultimo); m = m.plusMonths(1)) {
+					limites.add(m);
+				}
+			}
+		}
+		for (Rango<LocalDate> r : rangos(limites)) {
+			bloques.add(() -> bloque(
+					"DELETE FROM ventas_dia WHERE " + r.condicion("dia"),
+					"INSERT INTO ventas_dia (dia, estado, particion, compras, importe) "
+							+ "SELECT DATE(fecha_compra), estado, 0, COUNT(*), SUM(precio_total) FROM compras "
+							+ "WHERE " + r.condicion("fecha_compra") + " GROUP BY DATE(fecha_compra), estado",
+					r.parametros(), r.parametrosComoInstante()));
+		}
+	}
+
+	/**
+	 * Borra e inserta las filas de un bloque en una transacción.
+	 */
+	private void bloque(String borrar, String insertar, List<Object> paramsBorrar, List<Object> paramsInsertar) {
+		uow.ejecutar(em -> em.unwrap(Session.class).doWork(con -> {
+			ejecutar(con, borrar, paramsBorrar);
+			ejecutar(con, insertar, paramsInsertar);
+		}));
+	}
+
+	private static void ejecutar(Connection con, String sql, List<Object> params) throws SQLException {
+		try (PreparedStatement ps = con.prepareStatement(sql)) {
+			for (int i = 0; i < params.size(); i++) {
+				ps.setObject(i + 1, params.get(i));
+			}
+			ps.executeUpdate();
+		}
+	}
+
+	/**
+	 * Rango {@code [desde, hasta)}; un extremo null no limita.
+	 */
+	private record Rango<T>(T desde, T hasta) {
+
+		String condicion(String columna) {
+			if (desde == null && hasta == null) return "1 = 1";
+			if (desde == null) return columna + " < ?";
+			if (hasta == null) return columna + " >= ?";
+			return columna + " >= ? AND " + columna + " < ?";
+		}
+
+		List<Object> parametros() {
+			List<Object> p = new ArrayList<>(2);
+			if (desde != null) p.add(desde);
+			if (hasta != null) p.add(hasta);
+			return p;
+		}
+
+		/**
+		 * Parámetros para comparar con una columna DATETIME: cada día como su
+		 * primer instante.
+		 */
+		List<Object> parametrosComoInstante() {
+			return parametros().stream()
+					.map(d -> (Object) Timestamp.valueOf(((LocalDate) d).atStartOfDay()))
+					.toList();
+		}
+	}
+
+	/**
+	 * Rangos consecutivos que cubren todos los valores: (-∞, l1), [l1, l2),
+	 * ..., [ln, +∞).
+	 */
+	private static <T> List<Rango<T>> rangos(List<T> limites) {
+		List<Rango<T>> rangos = new ArrayList<>(limites.size() + 1);
+		T anterior = null;
+		for (T l : limites) {
+			rangos.add(new Rango<>(anterior, l));
+			anterior = l;
+		}
+		rangos.add(new Rango<>(anterior, null));
+		return rangos;
+	}
+
+	private static void anadirTotales(List<TotalDia> totales, LocalDate dia, Map<EstadoCompra, long[]> porEstado) {
+		for (Map.Entry<EstadoCompra, long[]> e : porEstado.entrySet()) {
+			// las particiones de un estado pueden quedar a cero tras mover todas sus compras
+			if (e.getValue()[0] == 0 && e.getValue()[1] == 0) continue;
+			totales.add(new TotalDia(dia, e.getKey(), e.getValue()[0], Dinero.deCentimos(e.getValue()[1])));
+		}
+		porEstado.clear();
+	}
+
+	private static BigDecimal importe(long centimos) {
+		return BigDecimal.valueOf(centimos, 2);
+	}
+}
@@ -0,0 +1,31 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+/**
+ * Se lanza cuando no hay stock suficiente de un artículo para reservar las
+ * unidades pedidas. La transacción en curso debe deshacerse.
+ */
+public class StockInsuficienteException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int idArticulo;
+	private final int unidades;
+
+	/**
+	 * @param idArticulo artículo sin stock suficiente.
+	 * @param unidades unidades que se intentaron reservar.
+	 */
+	public StockInsuficienteException(int idArticulo, int unidades) {
+		super("Stock insuficiente del artículo " + idArticulo + " para " + unidades + " unidades");
+		this.idArticulo = idArticulo;
+		this.unidades = unidades;
+	}
+
+	public int getIdArticulo() {
+		return idArticulo;
+	}
+
+	public int getUnidades() {
+		return unidades;
+	}
+}
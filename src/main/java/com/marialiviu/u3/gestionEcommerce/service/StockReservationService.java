@@ -0,0 +1,235 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hibernate.Session;
+
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+
+/**
+ * Reserva (descuenta) el stock de los artículos de una compra dentro de la
+ * transacción que la crea.
+ * <p>
+ * Cada artículo se descuenta con un UPDATE condicional,
+ * {@code UPDATE articulos SET stock = stock - ? WHERE id = ? AND stock >= ?},
+ * que es atómico en la base de datos: no hay lectura previa, así que dos
+ * ventas simultáneas no pueden pisarse ni dejar el stock en negativo. Todos los
+ * UPDATE de la compra van en un único lote JDBC, ordenados por id para que dos
+ * compras con los mismos artículos no se bloqueen mutuamente. Si algún UPDATE
+ * no afecta a ninguna fila se lanza {@link StockInsuficienteException} y el
+ * llamador debe deshacer la transacción.
+ * </p>
+ * <p>
+ * El recuento de filas por sentencia del lote requiere que el driver no agrupe
+ * los UPDATE en una sola operación: con {@code useBulkStmts} o
+ * {@code rewriteBatchedStatements} de MariaDB devuelve
+ * {@link java.sql.Statement#SUCCESS_NO_INFO} y un UPDATE sin stock pasaría
+ * por bueno. persistence.xml desactiva {@code useBulkStmts} expresamente, y
+ * cualquier recuento distinto de 1 (o 0, sin stock) hace fallar la reserva con
+ * {@link IllegalStateException} en vez de venderse sin stock.
+ * </p>
+ * <p>
+ * Los artículos calientes ({@link HotStockCounter}) no se descuentan en esta
+ * transacción: se venden de las unidades que esta JVM ha tomado antes de la
+ * tabla por cupos, y si la transacción no se confirma vuelven a memoria. Si
+ * alguno no tiene stock ni en memoria ni en la tabla, lo vendido de memoria
+ * vuelve antes de lanzar la excepción.
+ * </p>
+ * <p>
+ * Al borrar una compra PENDIENTE sus unidades vuelven a la tabla
+ * ({@link #liberar}), en la misma transacción que el borrado. Las de una
+ * compra ya enviada o entregada no vuelven: han salido del almacén y borrar la
+ * compra sólo borra su registro.
+ * </p>
+ */
+public class StockReservationService {
+
+	private static final String SQL_RESERVA = "UPDATE articulos SET stock = stock - ?, version = version + 1 "
+			+ "WHERE id = ? AND stock >= ?";
+	private static final String SQL_LIBERACION = "UPDATE articulos SET stock = stock + ?, version = version + 1 "
+			+ "WHERE id = ?";
+
+	private final EntityManagerFactory emf;
+	private final HotStockCounter calientes;
+
+	public StockReservationService(EntityManagerFactory emf) {
+		this.emf = emf;
+		this.calientes = HotStockCounter.de(emf);
+	}
+
+	/**
+	 * Reserva las unidades de todas las líneas de la compra.
+	 * @param em EntityManager con la transacción de la compra activa.
+	 * @param compra
+	 * @throws StockInsuficienteException
+	 */
+	public void reservar(EntityManager em, Compra compra) {
+		Map<Integer, Integer> unidades = new TreeMap<>();
+		for (ArticuloCompra ac : compra.getArticuloCompras()) {
+			unidades.merge(ac.getArticuloId(), ac.getUnidades(), Integer::sum);
+		}
+		reservar(em, unidades);
+	}
+
+	/**
+	 * Reserva unidades por artículo.
+	 * @param em EntityManager con una transacción activa.
+	 * @param unidadesPorArticulo id de artículo → unidades.
+	 * @throws StockInsuficienteException
+	 */
+	public void reservar(EntityManager em, Map<Integer, Integer> unidadesPorArticulo) {
+		if (!em.getTransaction().isActive()) {
+			throw new IllegalStateException("La reserva de stock necesita una transacción activa");
+		}
+		Map<Integer, Integer> aTabla = new TreeMap<>(unidadesPorArticulo);
+		aTabla.values().removeIf(uds -> uds <= 0);
+		if (aTabla.isEmpty()) return;
+
+		Map<Integer, Integer> deMemoria = new TreeMap<>();
+		try {
+			for (Iterator<Map.Entry<Integer, Integer>> it = aTabla.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<Integer, Integer> e = it.next();
+				if (calientes.tomar(e.getKey(), e.getValue())) {
+					deMemoria.put(e.getKey(), e.getValue());
+					it.remove();
+				}
+			}
+		} catch (RuntimeException e) {
+			devolverAMemoria(deMemoria);
+			throw e;
+		}
+
+		Session session = em.unwrap(Session.class);
+		// si la compra no se confirma el propio rollback deshace el descuento
+		// en la tabla; lo vendido de memoria vuelve a ella
+		session.getTransaction().registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				for (Integer id : aTabla.keySet()) {
+					emf.getCache().evict(Articulo.class, id);
+				}
+				if (status != Status.STATUS_COMMITTED) {
+					devolverAMemoria(deMemoria);
+				}
+			}
+		});
+		if (aTabla.isEmpty()) return;
+
+		try {
+			reservarEnTabla(session, aTabla);
+		} catch (RuntimeException e) {
+			devolverAMemoria(deMemoria);
+			throw e;
+		}
+	}
+
+	private static void reservarEnTabla(Session session, Map<Integer, Integer> aTabla) {
+		List<Integer> ids = new ArrayList<>(aTabla.keySet());
+		session.doWork(con -> {
+			try (PreparedStatement ps = con.prepareStatement(SQL_RESERVA)) {
+				for (Integer id : ids) {
+					int uds = aTabla.get(id);
+					ps.setInt(1, uds);
+					ps.setInt(2, id);
+					ps.setInt(3, uds);
+					ps.addBatch();
+				}
+				int[] filas = ps.executeBatch();
+				if (filas.length != ids.size()) {
+					throw new IllegalStateException("El lote de reserva devolvió " + filas.length
+							+ " recuentos para " + ids.size() + " artículos");
+				}
+				for (int i = 0; i < filas.length; i++) {
+					if (filas[i] == 0) throw new StockInsuficienteException(ids.get(i), aTabla.get(ids.get(i)));
+					if (filas[i] != 1) {
+						throw new IllegalStateException("Recuento de filas " + filas[i] + " en la reserva del artículo "
+								+ ids.get(i) + ": el driver no dice si había stock (¿useBulkStmts activo?)");
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Devuelve a memoria lo que la reserva vendió de ella, una sola vez.
+	 */
+	private void devolverAMemoria(Map<Integer, Integer> deMemoria) {
+		deMemoria.forEach(calientes::devolver);
+		deMemoria.clear();
+	}
+
+	/**
+	 * Devuelve al stock las unidades de una compra que se va a borrar, si aún
+	 * está PENDIENTE. Si la transacción no se confirma el rollback deshace la
+	 * devolución.
+	 * @param em EntityManager con la transacción del borrado activa.
+	 * @param compra compra cargada en esa transacción; su versión impide que
+	 * dos borrados a la vez devuelvan dos veces las unidades.
+	 */
+	public void liberar(EntityManager em, Compra compra) {
+		if (!em.getTransaction().isActive()) {
+			throw new IllegalStateException("La devolución de stock necesita una transacción activa");
+		}
+		if (compra.getEstado() != Compra.EstadoCompra.PENDIENTE) return;
+		Map<Integer, Integer> unidades = new TreeMap<>();
+		for (ArticuloCompra ac : compra.getArticuloCompras()) {
+			unidades.merge(ac.getArticuloId(), ac.getUnidades(), Integer::sum);
+		}
+		devolver(em, unidades);
+	}
+
+	/**
+	 * Devuelve unidades al stock de cada artículo. Si la transacción no se
+	 * confirma el rollback deshace la devolución.
+	 * @param em EntityManager con una transacción activa.
+	 * @param unidadesPorArticulo id de artículo → unidades.
+	 */
+	public void devolver(EntityManager em, Map<Integer, Integer> unidadesPorArticulo) {
+		if (!em.getTransaction().isActive()) {
+			throw new IllegalStateException("La devolución de stock necesita una transacción activa");
+		}
+		Map<Integer, Integer> unidades = new TreeMap<>(unidadesPorArticulo);
+		unidades.values().removeIf(uds -> uds <= 0);
+		if (unidades.isEmpty()) return;
+
+		Session session = em.unwrap(Session.class);
+		session.getTransaction().registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				for (Integer id : unidades.keySet()) {
+					emf.getCache().evict(Articulo.class, id);
+				}
+			}
+		});
+		session.doWork(con -> {
+			try (PreparedStatement ps = con.prepareStatement(SQL_LIBERACION)) {
+				for (Map.Entry<Integer, Integer> e : unidades.entrySet()) {
+					ps.setInt(1, e.getValue());
+					ps.setInt(2, e.getKey());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+		});
+	}
+}
@@ -0,0 +1,110 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import com.marialiviu.u3.gestionEcommerce.sql.EnrutadorLecturas;
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
+
+/**
+ * Plantilla de unidad de trabajo: cada operación abre su propio
+ * {@link EntityManager} de la factoría compartida, lo ejecuta dentro de una
+ * transacción y lo cierra al terminar. Así el contexto de persistencia sólo
+ * contiene lo que toca la operación y no crece con la vida de la aplicación.
+ * <p>
+ * Si el trabajo lanza una excepción la transacción se deshace y la excepción
+ * se propaga sin envolver. Las entidades devueltas quedan desconectadas: lo
+ * que se quiera mostrar después tiene que estar cargado dentro del trabajo.
+ * </p>
+ *
+ * <pre>
+ * UnitOfWork uow = new UnitOfWork(emf);
+ * Cliente c = uow.soloLectura(em -&gt; em.find(Cliente.class, nif));
+ * uow.ejecutar(em -&gt; em.persist(articulo));
+ * </pre>
+ */
+public class UnitOfWork {
+
+	private final EntityManagerFactory emf;
+
+	public UnitOfWork(EntityManagerFactory emf) {
+		this.emf = emf;
+	}
+
+	public EntityManagerFactory getEntityManagerFactory() {
+		return emf;
+	}
+
+	/**
+	 * Ejecuta el trabajo en una transacción de escritura y devuelve su resultado.
+	 * @param trabajo
+	 * @return lo que devuelva el trabajo, ya desconectado
+	 */
+	public <T> T enTransaccion(Function<EntityManager, T> trabajo) {
+		return ejecutar(trabajo, false);
+	}
+
+	/**
+	 * Ejecuta el trabajo en una transacción de escritura.
+	 * @param trabajo
+	 */
+	public void ejecutar(Consumer<EntityManager> trabajo) {
+		ejecutar(em -> {
+			trabajo.accept(em);
+			return null;
+		}, false);
+	}
+
+	/**
+	 * Ejecuta una lectura. Las entidades se cargan en modo sólo lectura (sin
+	 * copia para la comprobación de cambios) y no se hace flush, así que
+	 * cualquier modificación que haga el trabajo se ignora. Si hay réplicas la
+	 * lectura puede ir a una de ellas ({@link EnrutadorLecturas}); entonces la
+	 * sesión lee de la caché de segundo nivel pero no guarda nada en ella, para
+	 * no devolver allí datos atrasados de la réplica.
+	 * @param trabajo
+	 * @return lo que devuelva el trabajo, ya desconectado
+	 */
+	public <T> T soloLectura(Function<EntityManager, T> trabajo) {
+		return EnrutadorLecturas.leer(() -> ejecutar(trabajo, true));
+	}
+
+	private <T> T ejecutar(Function<EntityManager, T> trabajo, boolean soloLectura) {
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			if (soloLectura) {
+				Session session = em.unwrap(Session.class);
+				session.setDefaultReadOnly(true);
+				session.setHibernateFlushMode(FlushMode.MANUAL);
+			}
+			tx.begin();
+			// la conexión ya está pedida: se sabe si es de una réplica. Va como
+			// propiedad porque em.find toma de ahí el modo de caché, no de la sesión
+			if (soloLectura && EnrutadorLecturas.enReplica()) {
+				em.setProperty("jakarta.persistence.cache.storeMode", CacheStoreMode.BYPASS);
+			}
+			T resultado = trabajo.apply(em);
+			tx.commit();
+			return resultado;
+		} catch (RuntimeException | Error e) {
+			if (tx.isActive()) {
+				try {
+					tx.rollback();
+				} catch (RuntimeException r) {
+					e.addSuppressed(r);
+				}
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.marialiviu.u3.gestionEcommerce.model.ArticuloCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+/**
+ * Cambio que producen una o varias operaciones sobre compras en las tablas
+ * agregadas de ventas. Se aplica con {@link SalesAggregateService#aplicar}.
+ * <p>
+ * Un alta suma la compra, un borrado la resta y una modificación resta la
+ * compra antes de tocarla y la suma después; lo que no cambia se compensa y
+ * no llega a la base de datos:
+ * </p>
+ *
+ * <pre>
+ * VariacionVentas v = new VariacionVentas().restar(compra);
+ * compra.setEstado(EstadoCompra.ENVIADO);
+ * agregados.aplicar(em, v.sumar(compra));
+ * </pre>
+ * <p>
+ * Las claves se guardan ordenadas para que todas las transacciones actualicen
+ * las filas agregadas en el mismo orden y no se bloqueen mutuamente.
+ * </p>
+ */
+public class VariacionVentas {
+
+	/**
+	 * Día y estado de una fila de {@code ventas_dia}.
+	 */
+	record Dia(LocalDate dia, EstadoCompra estado) {
+	}
+
+	private static final Comparator<Dia> ORDEN_DIA = Comparator.comparing(Dia::dia).thenComparing(Dia::estado);
+
+	/** id de artículo → {unidades, céntimos} */
+	final Map<Integer, long[]> articulos = new TreeMap<>();
+	/** NIF/CIF → {compras, céntimos} */
+	final Map<String, long[]> clientes = new TreeMap<>();
+	/** día y estado → {compras, céntimos} */
+	final Map<Dia, long[]> dias = new TreeMap<>(ORDEN_DIA);
+
+	/**
+	 * Suma la compra con sus líneas actuales.
+	 */
+	public VariacionVentas sumar(Compra compra) {
+		return sumar(compra, compra.getArticuloCompras());
+	}
+
+	/**
+	 * Suma la compra con las líneas indicadas, para compras cuyas líneas no
+	 * están en {@link Compra#getArticuloCompras()} (p. ej. en la importación).
+	 */
+	public VariacionVentas sumar(Compra compra, Collection<ArticuloCompra> lineas) {
+		anotar(compra, lineas, 1);
+		return this;
+	}
+
+	/**
+	 * Resta la compra con sus líneas actuales.
+	 */
+	public VariacionVentas restar(Compra compra) {
+		anotar(compra, compra.getArticuloCompras(), -1);
+		return this;
+	}
+
+	/**
+	 * Mueve una compra de un estado a otro sin tocar sus líneas ni su cliente.
+	 * @param fechaCompra
+	 * @param precioTotal
+	 * @param anterior
+	 * @param nuevo
+	 */
+	public VariacionVentas cambiarEstado(Date fechaCompra, Dinero precioTotal, EstadoCompra anterior,
+			EstadoCompra nuevo) {
+		LocalDate dia = dia(fechaCompra);
+		anadir(dias, new Dia(dia, anterior), -1, -precioTotal.getCentimos());
+		anadir(dias, new Dia(dia, nuevo), 1, precioTotal.getCentimos());
+		return this;
+	}
+
+	/**
+	 * Verdadero si no hay nada que actualizar.
+	 */
+	public boolean isEmpty() {
+		return articulos.isEmpty() && clientes.isEmpty() && dias.isEmpty();
+	}
+
+	private void anotar(Compra compra, Collection<ArticuloCompra> lineas, int signo) {
+		for (ArticuloCompra ac : lineas) {
+			anadir(articulos, ac.getArticuloId(), signo * (long) ac.getUnidades(),
+					signo * ac.getPrecioCompra().multiplicar(ac.getUnidades()).getCentimos());
+		}
+		long total = signo * compra.getPrecioTotal().getCentimos();
+		anadir(clientes, compra.getCliente().getNif_cif(), signo, total);
+		anadir(dias, new Dia(dia(compra.getFechaCompra()), compra.getEstado()), signo, total);
+	}
+
+	/**
+	 * Acumula en la clave y la quita si queda a cero.
+	 */
+	private static <K> void anadir(Map<K, long[]> mapa, K clave, long cantidad, long centimos) {
+		long[] v = mapa.computeIfAbsent(clave, k -> new long[2]);
+		v[0] += cantidad;
+		v[1] += centimos;
+		if (v[0] == 0 && v[1] == 0) {
+			mapa.remove(clave);
+		}
+	}
+
+	/**
+	 * Día de la fecha en la zona horaria de la JVM, la misma con la que el
+	 * driver graba {@code fecha_compra} y con la que {@code DATE()} la agrupa
+	 * al reconstruir.
+	 */
+	private static LocalDate dia(Date fecha) {
+		return Instant.ofEpochMilli(fecha.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+}
@@ -0,0 +1,195 @@
+package com.marialiviu.u3.gestionEcommerce.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * Pool HikariCP cuyas conexiones miden lo que tarda cada ejecución de
+ * sentencia y se lo pasan a {@link RegistroSentencias}.
+ * <p>
+ * Se activa con {@code hibernate.connection.provider_class} y se configura con
+ * las propiedades {@value #INSTRUMENTAR}, {@value #UMBRAL_LENTA_MS} y
+ * {@value #MUESTREO} de persistence.xml (valores por perfil de Maven). Con la
+ * instrumentación desactivada entrega las conexiones de Hikari sin envolver.
+ * </p>
+ * <p>
+ * Se mide sólo la llamada {@code execute*}; recorrer el ResultSet no cuenta.
+ * </p>
+ * <p>
+ * Si hay réplicas configuradas ({@link EnrutadorLecturas#URLS}) las
+ * conexiones del trabajo de sólo lectura salen de ellas, instrumentadas igual.
+ * </p>
+ */
+public class ConnectionProviderInstrumentado extends HikariCPConnectionProvider {
+
+	public static final String INSTRUMENTAR = "ecommerce.sql.instrumentar";
+	public static final String UMBRAL_LENTA_MS = "ecommerce.sql.umbral_lenta_ms";
+	public static final String MUESTREO = "ecommerce.sql.muestreo";
+
+	private boolean instrumentar;
+	private RegistroSentencias registro;
+	private EnrutadorLecturas enrutador;
+
+	@Override
+	public void configure(Map<String, Object> props) throws HibernateException {
+		super.configure(props);
+		instrumentar = ConfigurationHelper.getBoolean(INSTRUMENTAR, props, true);
+		if (instrumentar) {
+			long umbral = ConfigurationHelper.getLong(UMBRAL_LENTA_MS, props, 500);
+			double muestreo = Double.parseDouble(ConfigurationHelper.getString(MUESTREO, props, "0"));
+			registro = RegistroSentencias.get();
+			registro.configurar(umbral, muestreo);
+		}
+		if (!ConfigurationHelper.getString(EnrutadorLecturas.URLS, props, "").isBlank()) {
+			enrutador = new EnrutadorLecturas(props);
+		}
+	}
+
+	/**
+	 * Enrutador de las réplicas, o null si no hay.
+	 */
+	EnrutadorLecturas getEnrutador() {
+		return enrutador;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		Connection real = (enrutador != null) ? enrutador.conexion() : null;
+		if (real == null) {
+			real = super.getConnection();
+		}
+		if (!instrumentar) {
+			return real;
+		}
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConexionMedida(real));
+	}
+
+	@Override
+	public void closeConnection(Connection conn) throws SQLException {
+		if (Proxy.isProxyClass(conn.getClass())
+				&& Proxy.getInvocationHandler(conn) instanceof ConexionMedida medida) {
+			conn = medida.real;
+		}
+		// Hikari devuelve cada conexión a su pool al cerrarla, sea de la réplica o no
+		super.closeConnection(conn);
+		if (enrutador != null) {
+			enrutador.devuelta();
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (enrutador != null) {
+			enrutador.parar();
+		}
+		super.stop();
+	}
+
+	private static Object invocar(Object destino, Method m, Object[] args) throws Throwable {
+		try {
+			return m.invoke(destino, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Envuelve las sentencias que crea la conexión.
+	 */
+	private final class ConexionMedida implements InvocationHandler {
+
+		final Connection real;
+
+		ConexionMedida(Connection real) {
+			this.real = real;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			Object r = invocar(real, m, args);
+			Class<?> tipo;
+			String sql = null;
+			switch (m.getName()) {
+			case "prepareStatement":
+				tipo = PreparedStatement.class;
+				sql = (String) args[0];
+				break;
+			case "prepareCall":
+				tipo = CallableStatement.class;
+				sql = (String) args[0];
+				break;
+			case "createStatement":
+				tipo = Statement.class;
+				break;
+			default:
+				return r;
+			}
+			return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { tipo },
+					new SentenciaMedida((Statement) r, (Connection) proxy, sql));
+		}
+	}
+
+	/**
+	 * Mide {@code execute*}. Para sentencias preparadas el SQL es el de
+	 * {@code prepareStatement}; para {@link Statement} el del argumento.
+	 */
+	private final class SentenciaMedida implements InvocationHandler {
+
+		private final Statement real;
+		private final Connection conexion;
+		private String sql;
+
+		SentenciaMedida(Statement real, Connection conexion, String sql) {
+			this.real = real;
+			this.conexion = conexion;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			String nombre = m.getName();
+			if (nombre.equals("getConnection")) {
+				return conexion;
+			}
+			if (!nombre.startsWith("execute")) {
+				if (nombre.equals("addBatch") && args != null && args.length == 1) {
+					sql = (String) args[0];
+				}
+				return invocar(real, m, args);
+			}
+			String texto = (args != null && args.length > 0 && args[0] instanceof String s) ? s : sql;
+			long inicio = System.nanoTime();
+			Object r = invocar(real, m, args);
+			registro.registrar((texto != null) ? texto : "?", System.nanoTime() - inicio, filas(r));
+			return r;
+		}
+
+		private int filas(Object r) {
+			if (r instanceof Integer n) {
+				return n;
+			}
+			if (r instanceof Long n) {
+				return (int) Math.min(Integer.MAX_VALUE, n);
+			}
+			if (r instanceof int[] lote) {
+				int total = 0;
+				for (int n : lote) total += Math.max(0, n);
+				return total;
+			}
+			return -1;
+		}
+	}
+}
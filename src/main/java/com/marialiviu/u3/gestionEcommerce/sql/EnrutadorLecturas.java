@@ -0,0 +1,360 @@
+package com.marialiviu.u3.gestionEcommerce.sql;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Manda el trabajo de sólo lectura a las réplicas de la base de datos y el
+ * resto a la principal.
+ * <p>
+ * Lo crea {@link ConnectionProviderInstrumentado} cuando
+ * {@value #URLS} tiene alguna URL (separadas por espacios). Cada réplica tiene
+ * su propio pool Hikari, con la configuración del principal, conexiones de
+ * sólo lectura y el nombre {@code <pool>-replica-N}, así que aparece con el
+ * resto en {@code MetricasPool}. Los pools de las réplicas no fallan al
+ * arrancar si la réplica no responde.
+ * </p>
+ * <p>
+ * Una conexión va a una réplica sólo si se pide dentro de {@link #leer}
+ * ({@code UnitOfWork.soloLectura} ya lo hace); las réplicas se turnan. Van a
+ * la principal en cambio:
+ * </p>
+ * <ul>
+ * <li>las lecturas del hilo que ha terminado una transacción de escritura hace
+ * menos de {@value #PEGAJOSO_MS} ms, para que vea lo que acaba de escribir
+ * aunque la réplica vaya retrasada;</li>
+ * <li>las lecturas dentro de {@link #enPrincipal}, para las que no admiten
+ * datos atrasados (cachés que se rellenan al invalidar, comprobaciones antes
+ * de escribir);</li>
+ * <li>las lecturas cuando ninguna réplica está disponible. Una réplica que
+ * no da conexión en {@value #ESPERA_MS} ms se marca caída y no se vuelve a
+ * probar hasta pasados {@value #REINTENTO_S} s, salvo que su pool tuviera
+ * todas las conexiones prestadas: entonces está ocupada, no caída, y la
+ * siguiente lectura la vuelve a probar.</li>
+ * </ul>
+ * <p>
+ * No se mide el retraso de replicación: el margen de {@value #PEGAJOSO_MS}
+ * debe cubrirlo con holgura.
+ * </p>
+ */
+public class EnrutadorLecturas {
+
+	/** URLs JDBC de las réplicas, separadas por espacios; vacío para no usarlas. */
+	public static final String URLS = "ecommerce.replicas.urls";
+	/** Tras una escritura, tiempo durante el que el hilo sigue leyendo de la principal. */
+	public static final String PEGAJOSO_MS = "ecommerce.replicas.pegajoso_ms";
+	/** Tiempo que una réplica caída se deja sin probar. */
+	public static final String REINTENTO_S = "ecommerce.replicas.reintento_s";
+	/** Espera máxima por una conexión de réplica antes de darla por caída. */
+	public static final String ESPERA_MS = "ecommerce.replicas.espera_ms";
+
+	/** Destino del trabajo en curso del hilo; null si no se ha indicado. */
+	private static final ThreadLocal<Destino> DESTINO = new ThreadLocal<>();
+	/** {@link System#nanoTime()} de la última escritura del hilo, o null. */
+	private static final ThreadLocal<Long> ULTIMA_ESCRITURA = new ThreadLocal<>();
+	/** Verdadero mientras el hilo tiene una conexión de réplica sin devolver. */
+	private static final ThreadLocal<Boolean> EN_REPLICA = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	private static final Set<EnrutadorLecturas> ACTIVOS = ConcurrentHashMap.newKeySet();
+
+	private final String nombre;
+	private final List<Replica> replicas;
+	private final long pegajosoNanos;
+	private final long reintentoNanos;
+	private final AtomicInteger turno = new AtomicInteger();
+	private final LongAdder pegadas = new LongAdder();
+	private final LongAdder sinReplica = new LongAdder();
+
+	private enum Destino {
+		REPLICA, PRINCIPAL
+	}
+
+	/**
+	 * Una réplica con su pool y su estado.
+	 */
+	public static final class Replica {
+
+		private final String url;
+		private final HikariCPConnectionProvider pool;
+		private final HikariDataSource datos;
+		private final LongAdder conexiones = new LongAdder();
+		private final LongAdder fallos = new LongAdder();
+		private final LongAdder ocupada = new LongAdder();
+		private volatile boolean caida;
+		private volatile long probarDesde;
+		private volatile String ultimoError;
+
+		private Replica(String url, HikariCPConnectionProvider pool) {
+			this.url = url;
+			this.pool = pool;
+			this.datos = pool.unwrap(HikariDataSource.class);
+		}
+
+		private boolean disponible(long ahora) {
+			return !caida || ahora - probarDesde >= 0;
+		}
+
+		/**
+		 * Verdadero si el pool tiene prestadas todas las conexiones que admite:
+		 * la espera ha vencido por la carga, no porque la réplica no responda.
+		 */
+		private boolean agotada() {
+			HikariPoolMXBean estado = datos.getHikariPoolMXBean();
+			return estado != null && estado.getActiveConnections() >= datos.getMaximumPoolSize();
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * Conexiones entregadas para lecturas.
+		 */
+		public long getConexiones() {
+			return conexiones.sum();
+		}
+
+		/**
+		 * Veces que no ha dado conexión.
+		 */
+		public long getFallos() {
+			return fallos.sum();
+		}
+
+		/**
+		 * Veces que no ha dado conexión por tener todas las del pool prestadas;
+		 * no cuentan como fallos ni la marcan caída.
+		 */
+		public long getOcupada() {
+			return ocupada.sum();
+		}
+
+		/**
+		 * Verdadero si el último intento de obtener conexión falló sin que el
+		 * pool estuviera agotado.
+		 */
+		public boolean isCaida() {
+			return caida;
+		}
+
+		public String getUltimoError() {
+			return ultimoError;
+		}
+	}
+
+	/**
+	 * @param props configuración del pool principal; se copia para las réplicas.
+	 * @throws IllegalArgumentException si {@value #URLS} está vacía.
+	 */
+	EnrutadorLecturas(Map<String, Object> props) {
+		String[] urls = ConfigurationHelper.getString(URLS, props, "").trim().split("\\s+");
+		if (urls[0].isEmpty()) {
+			throw new IllegalArgumentException("Sin réplicas en " + URLS);
+		}
+		nombre = ConfigurationHelper.getString("hibernate.hikari.poolName", props, "ecommerce-pool");
+		pegajosoNanos = TimeUnit.MILLISECONDS.toNanos(ConfigurationHelper.getLong(PEGAJOSO_MS, props, 1000));
+		reintentoNanos = TimeUnit.SECONDS.toNanos(ConfigurationHelper.getLong(REINTENTO_S, props, 30));
+		String esperaMs = ConfigurationHelper.getString(ESPERA_MS, props, "1000");
+		List<Replica> lista = new ArrayList<>();
+		for (int i = 0; i < urls.length; i++) {
+			Map<String, Object> copia = new HashMap<>(props);
+			copia.put("hibernate.hikari.jdbcUrl", urls[i]);
+			copia.put("hibernate.hikari.poolName", nombre + "-replica-" + (i + 1));
+			copia.put("hibernate.hikari.readOnly", "true");
+			copia.put("hibernate.hikari.connectionTimeout", esperaMs);
+			// una réplica parada no impide arrancar: se marca caída al pedirle conexión
+			copia.put("hibernate.hikari.initializationFailTimeout", "-1");
+			HikariCPConnectionProvider pool = new HikariCPConnectionProvider();
+			pool.configure(copia);
+			lista.add(new Replica(urls[i], pool));
+		}
+		replicas = List.copyOf(lista);
+		ACTIVOS.add(this);
+	}
+
+	/**
+	 * Ejecuta un trabajo de sólo lectura: las conexiones que pida pueden ir a
+	 * una réplica, salvo que se esté dentro de {@link #enPrincipal}. El trabajo
+	 * no debe escribir.
+	 * @param trabajo
+	 * @return lo que devuelva el trabajo.
+	 */
+	public static <T> T leer(Supplier<T> trabajo) {
+		return (DESTINO.get() == Destino.PRINCIPAL) ? trabajo.get() : en(Destino.REPLICA, trabajo);
+	}
+
+	/**
+	 * Ejecuta el trabajo con conexiones de la principal, aunque dentro haya
+	 * lecturas ({@link #leer}, {@code UnitOfWork.soloLectura}).
+	 * @param trabajo
+	 * @return lo que devuelva el trabajo.
+	 */
+	public static <T> T enPrincipal(Supplier<T> trabajo) {
+		return en(Destino.PRINCIPAL, trabajo);
+	}
+
+	private static <T> T en(Destino destino, Supplier<T> trabajo) {
+		Destino anterior = DESTINO.get();
+		DESTINO.set(destino);
+		try {
+			return trabajo.get();
+		} finally {
+			DESTINO.set(anterior);
+		}
+	}
+
+	/**
+	 * Verdadero si la conexión que tiene ahora el hilo es de una réplica.
+	 * Quien la usa no debe guardar lo leído en la caché de segundo nivel: una
+	 * réplica atrasada devolvería allí valores ya sustituidos en la principal
+	 * ({@code UnitOfWork.soloLectura} pone {@code CacheStoreMode.BYPASS}).
+	 */
+	public static boolean enReplica() {
+		return EN_REPLICA.get();
+	}
+
+	/**
+	 * Enrutador de la factoría, o null si no tiene réplicas.
+	 * @param emf
+	 */
+	public static EnrutadorLecturas de(EntityManagerFactory emf) {
+		ConnectionProvider proveedor = emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+				.getService(ConnectionProvider.class);
+		return (proveedor instanceof ConnectionProviderInstrumentado p) ? p.getEnrutador() : null;
+	}
+
+	/**
+	 * Los enrutadores de las factorías abiertas.
+	 */
+	public static Collection<EnrutadorLecturas> activos() {
+		return ACTIVOS;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public List<Replica> getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * Lecturas que fueron a la principal por una escritura reciente del hilo.
+	 */
+	public long getPegadas() {
+		return pegadas.sum();
+	}
+
+	/**
+	 * Lecturas que fueron a la principal porque no había réplica disponible.
+	 */
+	public long getSinReplica() {
+		return sinReplica.sum();
+	}
+
+	/**
+	 * Conexión de una réplica si el hilo está leyendo y no ha escrito hace
+	 * poco, o null si debe usar la principal.
+	 */
+	Connection conexion() {
+		if (DESTINO.get() != Destino.REPLICA) {
+			return null;
+		}
+		Long escritura = ULTIMA_ESCRITURA.get();
+		if (escritura != null && System.nanoTime() - escritura < pegajosoNanos) {
+			pegadas.increment();
+			return null;
+		}
+		int n = replicas.size();
+		int inicio = Math.floorMod(turno.getAndIncrement(), n);
+		for (int i = 0; i < n; i++) {
+			Replica r = replicas.get((inicio + i) % n);
+			if (!r.disponible(System.nanoTime())) {
+				continue;
+			}
+			try {
+				Connection c = r.pool.getConnection();
+				r.caida = false;
+				r.conexiones.increment();
+				EN_REPLICA.set(Boolean.TRUE);
+				return c;
+			} catch (SQLException e) {
+				if (r.agotada()) {
+					r.ocupada.increment();
+					continue;
+				}
+				r.fallos.increment();
+				r.ultimoError = e.getMessage();
+				r.probarDesde = System.nanoTime() + reintentoNanos;
+				r.caida = true;
+			}
+		}
+		sinReplica.increment();
+		return null;
+	}
+
+	/**
+	 * Se llama al devolver una conexión. Si no era de una lectura el hilo ha
+	 * podido escribir: sus lecturas siguientes van a la principal.
+	 */
+	void devuelta() {
+		EN_REPLICA.set(Boolean.FALSE);
+		if (DESTINO.get() == null) {
+			ULTIMA_ESCRITURA.set(System.nanoTime());
+		}
+	}
+
+	/**
+	 * Cierra los pools de las réplicas.
+	 */
+	void parar() {
+		ACTIVOS.remove(this);
+		for (Replica r : replicas) {
+			r.pool.stop();
+		}
+	}
+
+	/**
+	 * Imprime una línea por réplica y las lecturas que fueron a la principal.
+	 * @param out
+	 */
+	public static void imprimir(PrintStream out) {
+		if (ACTIVOS.isEmpty()) {
+			out.println("Sin réplicas de lectura (" + URLS + ")");
+			return;
+		}
+		for (EnrutadorLecturas e : ACTIVOS) {
+			out.printf("%-24s %-7s %11s %7s %8s  %s%n", "réplica de " + e.nombre, "estado", "conexiones", "fallos",
+					"ocupada", "url");
+			for (int i = 0; i < e.replicas.size(); i++) {
+				Replica r = e.replicas.get(i);
+				out.printf("%-24s %-7s %11d %7d %8d  %s%n", e.nombre + "-replica-" + (i + 1),
+						r.caida ? "caída" : "activa", r.getConexiones(), r.getFallos(), r.getOcupada(), r.url);
+			}
+			out.println("Lecturas a la principal: " + e.getPegadas() + " tras escribir, " + e.getSinReplica()
+					+ " sin réplica disponible");
+		}
+	}
+}
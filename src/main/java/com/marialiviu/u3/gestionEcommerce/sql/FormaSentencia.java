@@ -0,0 +1,31 @@
+package com.marialiviu.u3.gestionEcommerce.sql;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduce una sentencia SQL a su "forma": literales sustituidos por
+ * <code>?</code>, listas IN de cualquier longitud iguales y espacios
+ * colapsados. Sentencias que sólo difieren en los valores comparten forma y
+ * por tanto histograma.
+ */
+final class FormaSentencia {
+
+	private static final Pattern CADENAS = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMEROS = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern LISTAS_IN = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+	private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+
+	/** Las formas más largas se cortan para no guardar sentencias enormes como clave. */
+	static final int LONGITUD_MAXIMA = 400;
+
+	private FormaSentencia() {
+	}
+
+	static String de(String sql) {
+		String forma = CADENAS.matcher(sql).replaceAll("?");
+		forma = NUMEROS.matcher(forma).replaceAll("?");
+		forma = LISTAS_IN.matcher(forma).replaceAll("in (...)");
+		forma = ESPACIOS.matcher(forma).replaceAll(" ").trim();
+		return (forma.length() > LONGITUD_MAXIMA) ? forma.substring(0, LONGITUD_MAXIMA) + "…" : forma;
+	}
+}
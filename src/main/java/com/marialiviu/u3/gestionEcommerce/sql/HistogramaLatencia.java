@@ -0,0 +1,75 @@
+package com.marialiviu.u3.gestionEcommerce.sql;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con cubetas de potencias de dos en microsegundos
+ * (la cubeta <i>i</i> cuenta las ejecuciones entre 2<sup>i</sup> y
+ * 2<sup>i+1</sup> µs). Registrar es sin bloqueos; los percentiles son
+ * aproximados al límite superior de la cubeta.
+ */
+public final class HistogramaLatencia {
+
+	private static final int CUBETAS = 40;
+
+	private final LongAdder[] cubetas = new LongAdder[CUBETAS];
+	private final LongAdder ejecuciones = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maximoNanos = new LongAccumulator(Math::max, 0);
+
+	public HistogramaLatencia() {
+		for (int i = 0; i < CUBETAS; i++) cubetas[i] = new LongAdder();
+	}
+
+	public void registrar(long nanos) {
+		long micros = Math.max(1, nanos / 1_000);
+		int i = Math.min(CUBETAS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		cubetas[i].increment();
+		ejecuciones.increment();
+		totalNanos.add(nanos);
+		maximoNanos.accumulate(nanos);
+	}
+
+	public long getEjecuciones() {
+		return ejecuciones.sum();
+	}
+
+	public long getTotalMicros() {
+		return totalNanos.sum() / 1_000;
+	}
+
+	public long getMediaMicros() {
+		long n = ejecuciones.sum();
+		return (n == 0) ? 0 : totalNanos.sum() / n / 1_000;
+	}
+
+	public long getMaximoMicros() {
+		return maximoNanos.get() / 1_000;
+	}
+
+	/**
+	 * Percentil aproximado en microsegundos.
+	 * @param p entre 0 y 100
+	 */
+	public long percentilMicros(double p) {
+		long[] cuentas = new long[CUBETAS];
+		long total = 0;
+		for (int i = 0; i < CUBETAS; i++) {
+			cuentas[i] = cubetas[i].sum();
+			total += cuentas[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long objetivo = (long) Math.ceil(total * p / 100.0);
+		long acumulado = 0;
+		for (int i = 0; i < CUBETAS; i++) {
+			acumulado += cuentas[i];
+			if (acumulado >= objetivo) {
+				return Math.min(1L << (i + 1), Math.max(1, getMaximoMicros()));
+			}
+		}
+		return getMaximoMicros();
+	}
+}
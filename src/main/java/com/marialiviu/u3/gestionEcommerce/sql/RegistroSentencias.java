@@ -0,0 +1,167 @@
+package com.marialiviu.u3.gestionEcommerce.sql;
+
+import java.io.PrintStream;
+import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tiempos de ejecución de las sentencias SQL, agrupados por forma
+ * ({@link FormaSentencia}), y registro de sentencias lentas.
+ * <p>
+ * Las sentencias que superan el umbral, y una fracción aleatoria del resto
+ * (muestreo), se encolan y las escribe un hilo de fondo en el logger
+ * {@code com.marialiviu.u3.gestionEcommerce.sql}, de modo que el hilo que
+ * ejecuta la consulta nunca espera a la salida. Si la cola se llena las
+ * entradas se descartan y se cuentan.
+ * </p>
+ * <p>
+ * Lo alimenta {@link ConnectionProviderInstrumentado}; hay un único registro
+ * por JVM ({@link #get()}).
+ * </p>
+ */
+public final class RegistroSentencias {
+
+	/** A partir de este número de formas distintas el resto se agrupa en una sola. */
+	static final int MAX_FORMAS = 1000;
+	static final String OTRAS_FORMAS = "(otras)";
+
+	/**
+	 * Textos SQL cuya forma se recuerda. Las sentencias preparadas repiten el
+	 * mismo texto y así no se vuelven a pasar por las expresiones regulares;
+	 * con la caché llena, o con textos más largos que {@link #MAX_LONGITUD_CACHEADA},
+	 * la forma se calcula cada vez.
+	 */
+	static final int MAX_SQL_CACHEADAS = 4096;
+	static final int MAX_LONGITUD_CACHEADA = 4096;
+
+	private static final int CAPACIDAD_COLA = 4096;
+	private static final System.Logger LOG = System.getLogger("com.marialiviu.u3.gestionEcommerce.sql");
+
+	private static final RegistroSentencias INSTANCIA = new RegistroSentencias();
+
+	private final Map<String, HistogramaLatencia> formas = new ConcurrentHashMap<>();
+	private final Map<String, String> formasPorSql = new ConcurrentHashMap<>();
+	private final BlockingQueue<String> cola = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+	private final LongAdder descartadas = new LongAdder();
+	private volatile long umbralNanos = TimeUnit.MILLISECONDS.toNanos(500);
+	private volatile double muestreo;
+	private Thread escritor;
+
+	private RegistroSentencias() {
+	}
+
+	public static RegistroSentencias get() {
+		return INSTANCIA;
+	}
+
+	/**
+	 * @param umbralLentaMs sentencias que tardan esto o más se registran siempre
+	 * @param muestreo fracción (0 a 1) del resto de sentencias que también se registra
+	 */
+	public void configurar(long umbralLentaMs, double muestreo) {
+		if (umbralLentaMs < 0 || muestreo < 0 || muestreo > 1) {
+			throw new IllegalArgumentException("Umbral o muestreo fuera de rango: " + umbralLentaMs + ", " + muestreo);
+		}
+		this.umbralNanos = TimeUnit.MILLISECONDS.toNanos(umbralLentaMs);
+		this.muestreo = muestreo;
+		arrancarEscritor();
+	}
+
+	void registrar(String sql, long nanos, int filas) {
+		histograma(forma(sql)).registrar(nanos);
+		boolean lenta = nanos >= umbralNanos;
+		if (lenta || (muestreo > 0 && ThreadLocalRandom.current().nextDouble() < muestreo)) {
+			String entrada = String.format("%s %.3f ms%s | %s", lenta ? "LENTA" : "muestra", nanos / 1e6,
+					(filas >= 0) ? " (" + filas + " filas)" : "", sql);
+			if (!cola.offer(entrada)) {
+				descartadas.increment();
+			}
+		}
+	}
+
+	private String forma(String sql) {
+		String forma = formasPorSql.get(sql);
+		if (forma != null) {
+			return forma;
+		}
+		forma = FormaSentencia.de(sql);
+		if (formasPorSql.size() < MAX_SQL_CACHEADAS && sql.length() <= MAX_LONGITUD_CACHEADA) {
+			formasPorSql.putIfAbsent(sql, forma);
+		}
+		return forma;
+	}
+
+	private HistogramaLatencia histograma(String forma) {
+		HistogramaLatencia h = formas.get(forma);
+		if (h != null) {
+			return h;
+		}
+		if (formas.size() >= MAX_FORMAS) {
+			forma = OTRAS_FORMAS;
+		}
+		return formas.computeIfAbsent(forma, f -> new HistogramaLatencia());
+	}
+
+	public Map<String, HistogramaLatencia> getFormas() {
+		return formas;
+	}
+
+	public long getDescartadas() {
+		return descartadas.sum();
+	}
+
+	public void reiniciar() {
+		formas.clear();
+		formasPorSql.clear();
+		descartadas.reset();
+	}
+
+	/**
+	 * Imprime las formas que más tiempo total han consumido.
+	 * @param out
+	 * @param maximo número de formas a mostrar
+	 */
+	public void imprimir(PrintStream out, int maximo) {
+		List<Map.Entry<String, HistogramaLatencia>> orden = new ArrayList<>(formas.entrySet());
+		orden.sort(Comparator.comparingLong(
+				(Map.Entry<String, HistogramaLatencia> e) -> e.getValue().getTotalMicros()).reversed());
+		out.printf("%8s %10s %9s %9s %9s %9s  %s%n", "veces", "total ms", "media µs", "p50 µs", "p99 µs",
+				"máx µs", "sentencia");
+		for (Map.Entry<String, HistogramaLatencia> e : orden.subList(0, Math.min(maximo, orden.size()))) {
+			HistogramaLatencia h = e.getValue();
+			out.printf("%8d %10d %9d %9d %9d %9d  %s%n", h.getEjecuciones(), h.getTotalMicros() / 1_000,
+					h.getMediaMicros(), h.percentilMicros(50), h.percentilMicros(99), h.getMaximoMicros(), e.getKey());
+		}
+		if (orden.isEmpty()) {
+			out.println("No se ha registrado ninguna sentencia (¿ecommerce.sql.instrumentar=false?)");
+		}
+		if (descartadas.sum() > 0) {
+			out.println("Entradas del registro de lentas descartadas por cola llena: " + descartadas.sum());
+		}
+	}
+
+	private synchronized void arrancarEscritor() {
+		if (escritor != null) {
+			return;
+		}
+		escritor = Thread.ofPlatform().name("registro-sql").daemon().start(() -> {
+			try {
+				while (true) {
+					String entrada = cola.take();
+					LOG.log(entrada.startsWith("LENTA") ? Level.WARNING : Level.INFO, entrada);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+}
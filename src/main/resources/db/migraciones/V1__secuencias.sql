@@ -0,0 +1,19 @@
+-- Bloques de ids de compras y artículos (@TableGenerator de Compra y Articulo,
+-- optimizador pooled-lo): 'siguiente_valor' es el primer id del próximo
+-- bloque sin repartir. Cada secuencia empieza por encima del mayor id que ya
+-- hay en su tabla; si la tabla de secuencias ya existía sólo se adelanta, nunca
+-- se retrasa por debajo de un bloque ya repartido.
+
+CREATE TABLE IF NOT EXISTS secuencias (
+	nombre_secuencia VARCHAR(255) PRIMARY KEY NOT NULL,
+	siguiente_valor BIGINT NOT NULL
+)
+ENGINE=InnoDB;
+
+INSERT INTO secuencias (nombre_secuencia, siguiente_valor)
+	SELECT 'compras', COALESCE(MAX(id), 0) + 1 FROM compras
+	ON DUPLICATE KEY UPDATE siguiente_valor = GREATEST(siguiente_valor, VALUES(siguiente_valor));
+
+INSERT INTO secuencias (nombre_secuencia, siguiente_valor)
+	SELECT 'articulos', COALESCE(MAX(id), 0) + 1 FROM articulos
+	ON DUPLICATE KEY UPDATE siguiente_valor = GREATEST(siguiente_valor, VALUES(siguiente_valor));
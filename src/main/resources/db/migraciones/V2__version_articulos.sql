@@ -0,0 +1,4 @@
+-- Versión para el bloqueo optimista de articulos (@Version en Articulo), con
+-- la que StockReservationService y la edición de artículos detectan cambios
+-- concurrentes. Las filas existentes empiezan en 0.
+ALTER TABLE articulos ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
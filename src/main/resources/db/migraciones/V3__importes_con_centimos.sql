@@ -0,0 +1,8 @@
+-- El script original declaraba los importes como DECIMAL sin escala, que en
+-- MariaDB es DECIMAL(10,0) y redondea los céntimos de Dinero al euro. Las
+-- columnas pasan a DECIMAL(10,2); los importes existentes no cambian.
+ALTER TABLE articulos MODIFY precio_actual DECIMAL(10,2) NOT NULL;
+
+ALTER TABLE compras MODIFY precio_total DECIMAL(10,2) NOT NULL;
+
+ALTER TABLE articulo_compra MODIFY precio_compra DECIMAL(10,2) NOT NULL;
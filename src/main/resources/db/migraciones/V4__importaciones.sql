@@ -0,0 +1,13 @@
+-- Punto de control de las importaciones masivas de compras
+-- (BulkOrderImporter): byte y línea del fichero hasta donde se ha confirmado
+-- la importación, con el fichero identificado por su ruta absoluta y el
+-- SHA-256 de la parte ya importada.
+
+CREATE TABLE IF NOT EXISTS importaciones (
+	fichero VARCHAR(512) PRIMARY KEY NOT NULL,
+	offset_bytes BIGINT NOT NULL,
+	lineas BIGINT NOT NULL,
+	huella CHAR(64) NOT NULL DEFAULT '',
+	actualizado TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+)
+ENGINE=InnoDB;
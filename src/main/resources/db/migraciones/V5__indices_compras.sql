@@ -0,0 +1,8 @@
+-- Índices de compras para las consultas por cliente y por estado.
+-- El de cliente incluye estado y precio_total para que el historial de un
+-- cliente se resuelva sólo con el índice (la clave primaria ya va implícita).
+CREATE INDEX IF NOT EXISTS idx_compras_cliente_fecha
+	ON compras (id_cliente, fecha_compra, estado, precio_total);
+
+CREATE INDEX IF NOT EXISTS idx_compras_estado_fecha
+	ON compras (estado, fecha_compra);
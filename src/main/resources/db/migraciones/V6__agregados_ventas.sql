@@ -0,0 +1,42 @@
+-- Tablas agregadas de ventas, mantenidas por SalesAggregateService con cada
+-- cambio en las compras. Se rellenan aquí con los datos existentes; si se
+-- repite la migración los valores se recalculan.
+
+CREATE TABLE IF NOT EXISTS ventas_articulo (
+	id_articulo INT PRIMARY KEY NOT NULL,
+	unidades BIGINT NOT NULL,
+	importe DECIMAL(15,2) NOT NULL
+)
+ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS gasto_cliente (
+	nif_cif VARCHAR(9) PRIMARY KEY NOT NULL,
+	compras BIGINT NOT NULL,
+	importe DECIMAL(15,2) NOT NULL
+)
+ENGINE=InnoDB;
+
+-- Varias particiones por día y estado para repartir los bloqueos de las altas
+CREATE TABLE IF NOT EXISTS ventas_dia (
+	dia DATE NOT NULL,
+	estado ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	particion INT NOT NULL,
+	compras BIGINT NOT NULL,
+	importe DECIMAL(15,2) NOT NULL,
+	PRIMARY KEY (dia, estado, particion)
+)
+ENGINE=InnoDB;
+
+INSERT INTO ventas_articulo (id_articulo, unidades, importe)
+	SELECT id_articulo, SUM(unidades), SUM(unidades * precio_compra) FROM articulo_compra GROUP BY id_articulo
+	ON DUPLICATE KEY UPDATE unidades = VALUES(unidades), importe = VALUES(importe);
+
+INSERT INTO gasto_cliente (nif_cif, compras, importe)
+	SELECT id_cliente, COUNT(*), SUM(precio_total) FROM compras GROUP BY id_cliente
+	ON DUPLICATE KEY UPDATE compras = VALUES(compras), importe = VALUES(importe);
+
+DELETE FROM ventas_dia;
+
+INSERT INTO ventas_dia (dia, estado, particion, compras, importe)
+	SELECT DATE(fecha_compra), estado, 0, COUNT(*), SUM(precio_total) FROM compras
+	GROUP BY DATE(fecha_compra), estado;
@@ -0,0 +1,8 @@
+-- Hasta dónde ha aplicado cada proyección el diario de compras
+-- (ProyectorCompras); se actualiza en la misma transacción que los eventos.
+
+CREATE TABLE IF NOT EXISTS posicion_diario (
+	nombre VARCHAR(50) PRIMARY KEY NOT NULL,
+	secuencia BIGINT NOT NULL
+)
+ENGINE=InnoDB;
@@ -0,0 +1,13 @@
+-- Cambios de estado de las compras pendientes de avisar a otros sistemas.
+-- Se escriben en la misma transacción que el cambio (OutboxCompras) y los
+-- borra DespachadorOutbox al entregarlos. Sin clave ajena: una compra se
+-- puede borrar antes de que se entregue el aviso.
+
+CREATE TABLE IF NOT EXISTS outbox_compras (
+	id BIGINT PRIMARY KEY NOT NULL AUTO_INCREMENT,
+	id_compra INT NOT NULL,
+	estado_anterior ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	estado_nuevo ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	creado TIMESTAMP(3) NOT NULL
+)
+ENGINE=InnoDB;
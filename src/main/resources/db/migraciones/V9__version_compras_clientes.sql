@@ -0,0 +1,5 @@
+-- Versión para el bloqueo optimista (@Version) de compras y clientes, como
+-- la de articulos (V2). Las filas existentes empiezan en 0.
+ALTER TABLE compras ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
+
+ALTER TABLE clientes ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
@@ -0,0 +1,66 @@
+package com.marialiviu.u3.gestionEcommerce;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * Base de datos de las pruebas: una H2 en memoria en modo MariaDB con el
+ * esquema creado por Hibernate, en lugar de la del perfil de Maven. Cada
+ * nombre es una base de datos distinta, así que cada prueba empieza con las
+ * tablas vacías.
+ */
+public final class BaseDatosH2 {
+
+	private BaseDatosH2() {
+	}
+
+	/**
+	 * Propiedades que sustituyen a las del perfil para usar la H2.
+	 * @param nombre nombre de la base de datos H2.
+	 */
+	public static Map<String, Object> propiedades(String nombre) {
+		return Map.of(
+				"jakarta.persistence.jdbc.driver", "org.h2.Driver",
+				"jakarta.persistence.jdbc.url", "jdbc:h2:mem:" + nombre + ";MODE=MariaDB;DB_CLOSE_DELAY=-1",
+				"jakarta.persistence.jdbc.user", "sa",
+				"jakarta.persistence.jdbc.password", "",
+				"hibernate.dialect", "org.hibernate.dialect.H2Dialect",
+				"hibernate.hbm2ddl.auto", "create-drop",
+				"hibernate.show_sql", "false",
+				"hibernate.format_sql", "false",
+				"ecommerce.sql.instrumentar", "false");
+	}
+
+	/**
+	 * Abre la factoría contra la H2 y crea también las tablas sin entidad.
+	 * @param nombre nombre de la base de datos H2.
+	 * @param extra propiedades que se añaden o sustituyen a las anteriores.
+	 */
+	public static EntityManagerFactory abrir(String nombre, Map<String, Object> extra) {
+		Map<String, Object> props = new HashMap<>(propiedades(nombre));
+		props.putAll(extra);
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu", props);
+		crearTablasSinEntidad(emf);
+		return emf;
+	}
+
+	/**
+	 * Hibernate sólo crea las tablas de las entidades; las que la aplicación
+	 * usa con SQL directo las crean en MariaDB las migraciones.
+	 */
+	private static void crearTablasSinEntidad(EntityManagerFactory emf) {
+		new UnitOfWork(emf).ejecutar(em -> {
+			em.createNativeQuery("CREATE TABLE IF NOT EXISTS outbox_compras ("
+					+ "id BIGINT AUTO_INCREMENT PRIMARY KEY, id_compra INT NOT NULL, "
+					+ "estado_anterior VARCHAR(10) NOT NULL, estado_nuevo VARCHAR(10) NOT NULL, "
+					+ "creado TIMESTAMP(3) NOT NULL)").executeUpdate();
+			em.createNativeQuery("CREATE TABLE IF NOT EXISTS posicion_diario ("
+					+ "nombre VARCHAR(50) PRIMARY KEY NOT NULL, secuencia BIGINT NOT NULL)").executeUpdate();
+		});
+	}
+}
@@ -0,0 +1,222 @@
+package com.marialiviu.u3.gestionEcommerce.busqueda;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.busqueda.IndiceArticulos.Busqueda;
+import com.marialiviu.u3.gestionEcommerce.busqueda.IndiceArticulos.Resultado;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * El índice de la factoría frente a un recorrido de todos los artículos, la
+ * normalización de acentos y eñes, el aviso de expansión truncada y la
+ * sincronización con las transacciones confirmadas.
+ */
+class IndiceArticulosTest {
+
+	private static final String[] SILABAS = { "ca", "fe", "me", "sa", "ro", "ble", "pi", "no", "ña", "lu" };
+
+	private EntityManagerFactory emf;
+	private IndiceArticulos indice;
+
+	@BeforeEach
+	void abrir(TestInfo prueba) {
+		emf = BaseDatosH2.abrir("indice_" + prueba.getTestMethod().orElseThrow().getName(), Map.of());
+		indice = IndiceArticulos.de(emf);
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	/**
+	 * Artículos con palabras de dos y tres sílabas de un alfabeto corto, de
+	 * modo que muchas comparten prefijo; algunos se cambian y otros se quitan.
+	 * Cada consulta, de palabras completas y de prefijos, debe encontrar los
+	 * mismos artículos que el recorrido, ordenados por puntuación y, a igual
+	 * puntuación, por id.
+	 */
+	@Test
+	void encuentraLoMismoQueUnRecorrido() {
+		Random azar = new Random(42);
+		Map<Integer, String[]> textos = new HashMap<>();
+		for (int id = 1; id <= 3000; id++) {
+			String[] texto = { frase(azar, 2 + azar.nextInt(2)), frase(azar, 4 + azar.nextInt(5)) };
+			textos.put(id, texto);
+			indice.indexar(id, 0, texto[0], texto[1]);
+		}
+		for (int id = 1; id <= 3000; id += 7) {
+			String[] texto = { frase(azar, 2), frase(azar, 3) };
+			textos.put(id, texto);
+			indice.indexar(id, 1, texto[0], texto[1]);
+		}
+		for (int id = 5; id <= 3000; id += 11) {
+			textos.remove(id);
+			indice.quitar(id);
+		}
+		assertEquals(textos.size(), indice.getArticulos());
+
+		int conResultados = 0;
+		for (int q = 0; q < 300; q++) {
+			List<String> palabras = new ArrayList<>();
+			for (int p = 1 + azar.nextInt(3); p > 0; p--) {
+				String palabra = palabra(azar, 2 + azar.nextInt(2));
+				palabras.add(azar.nextBoolean() ? palabra : palabra.substring(0, 1 + azar.nextInt(palabra.length())));
+			}
+			String consulta = String.join(" ", palabras).toUpperCase();
+
+			Busqueda b = indice.consultar(consulta, textos.size());
+			assertFalse(b.truncada(), consulta);
+			Set<Integer> encontrados = new TreeSet<>();
+			for (int k = 0; k < b.resultados().size(); k++) {
+				Resultado r = b.resultados().get(k);
+				encontrados.add(r.id());
+				if (k > 0) {
+					Resultado anterior = b.resultados().get(k - 1);
+					assertTrue(anterior.puntuacion() > r.puntuacion()
+							|| anterior.puntuacion() == r.puntuacion() && anterior.id() < r.id(),
+							"orden de " + consulta);
+				}
+			}
+			assertEquals(recorrer(textos, palabras), encontrados, consulta);
+			if (!encontrados.isEmpty()) conResultados++;
+			List<Resultado> primeros = b.resultados().subList(0, Math.min(10, b.resultados().size()));
+			assertEquals(primeros, indice.buscar(consulta, 10), "primeros de " + consulta);
+		}
+		assertTrue(conResultados > 100, "consultas con resultados: " + conResultados);
+	}
+
+	@Test
+	void ignoraAcentosYMayusculasPeroNoLaEñe() {
+		assertEquals(List.of("cafe", "pinguino", "año", "ano", "mesa", "cama", "2"),
+				NormalizadorTexto.terminos("¡Café PINGÜINO! Año, ano; mesa-cama/2"));
+		// la ñ descompuesta (n + tilde combinable) es la misma letra
+		assertEquals(List.of("año", "ñu"), NormalizadorTexto.terminos("año Ñu"));
+		assertEquals(List.of(), NormalizadorTexto.terminos(" -- "));
+
+		indice.indexar(1, 0, "Calendario del año", "Cafetera de regalo");
+		indice.indexar(2, 0, "Ano de bronce", "Pingüino de peluche");
+		assertEquals(List.of(1), ids("AÑO"));
+		assertEquals(List.of(2), ids("ano"));
+		assertEquals(List.of(1), ids("CAFÉ"));
+		assertEquals(List.of(2), ids("pinguino"));
+		assertEquals(List.of(2), ids("PINGÜ"));
+	}
+
+	/**
+	 * Un prefijo con más de {@value IndiceArticulos#MAX_EXPANSIONES} términos
+	 * avisa de que pueden faltar artículos si es la palabra que arranca la
+	 * búsqueda; cruzado con una palabra más rara se comprueba artículo a
+	 * artículo y no se pierde ninguno.
+	 */
+	@Test
+	void avisaSiSeTruncaLaExpansionDeUnPrefijo() {
+		int articulos = IndiceArticulos.MAX_EXPANSIONES + 100;
+		for (int id = 1; id <= articulos; id++) {
+			indice.indexar(id, 0, String.format("pieza%04d", id), (id % 100 == 0) ? "rara" : "comun");
+		}
+
+		Busqueda prefijo = indice.consultar("pieza", articulos);
+		assertTrue(prefijo.truncada());
+		assertEquals(IndiceArticulos.MAX_EXPANSIONES, prefijo.resultados().size());
+
+		Busqueda conRara = indice.consultar("pieza rara", articulos);
+		assertFalse(conRara.truncada());
+		assertEquals(articulos / 100, conRara.resultados().size());
+
+		Busqueda termino = indice.consultar("pieza0001", articulos);
+		assertFalse(termino.truncada());
+		assertEquals(List.of(1), termino.resultados().stream().map(Resultado::id).toList());
+	}
+
+	/**
+	 * El índice sólo ve lo confirmado: un alta o un cambio que se deshacen no
+	 * llegan, y el cambio confirmado sustituye los términos anteriores.
+	 */
+	@Test
+	void soloIndexaLoConfirmado() {
+		UnitOfWork uow = new UnitOfWork(emf);
+		int id = uow.enTransaccion(em -> {
+			Articulo a = new Articulo("Mesa de roble", "Mesa de comedor", Dinero.deCentimos(10000), 1);
+			em.persist(a);
+			return a.getId();
+		});
+		assertEquals(List.of(id), ids("mesa roble"));
+
+		assertThrows(IllegalStateException.class, () -> uow.ejecutar(em -> {
+			em.find(Articulo.class, id).setNombre("Silla de pino");
+			em.persist(new Articulo("Silla plegable", "Silla de jardín", Dinero.deCentimos(2000), 1));
+			em.flush();
+			throw new IllegalStateException("se deshace");
+		}));
+		assertEquals(List.of(), ids("silla"));
+		assertEquals(List.of(id), ids("mesa roble"));
+
+		uow.ejecutar(em -> em.find(Articulo.class, id).setNombre("Silla de pino"));
+		assertEquals(List.of(id), ids("silla pino"));
+		assertEquals(List.of(), ids("roble"), "quedó el nombre anterior");
+		assertEquals(List.of(id), ids("comedor"));
+
+		uow.ejecutar(em -> em.remove(em.find(Articulo.class, id)));
+		assertEquals(List.of(), ids("silla"));
+		assertEquals(0, indice.getArticulos());
+	}
+
+	private List<Integer> ids(String consulta) {
+		return indice.buscar(consulta, 100).stream().map(Resultado::id).toList();
+	}
+
+	/**
+	 * Ids de los artículos que tienen, para cada palabra, algún término que
+	 * empieza por ella.
+	 */
+	private static Set<Integer> recorrer(Map<Integer, String[]> textos, List<String> palabras) {
+		Set<Integer> ids = new TreeSet<>();
+		for (Map.Entry<Integer, String[]> e : textos.entrySet()) {
+			List<String> terminos = new ArrayList<>(NormalizadorTexto.terminos(e.getValue()[0]));
+			terminos.addAll(NormalizadorTexto.terminos(e.getValue()[1]));
+			if (palabras.stream().allMatch(p -> terminos.stream().anyMatch(t -> t.startsWith(p)))) {
+				ids.add(e.getKey());
+			}
+		}
+		return ids;
+	}
+
+	private static String frase(Random azar, int palabras) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < palabras; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(palabra(azar, 2 + azar.nextInt(2)));
+		}
+		return sb.toString();
+	}
+
+	private static String palabra(Random azar, int silabas) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < silabas; i++) {
+			sb.append(SILABAS[azar.nextInt(SILABAS.length)]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,121 @@
+package com.marialiviu.u3.gestionEcommerce.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Escritura diferida de emails con el email único, como en el esquema de
+ * MariaDB. El hilo de escritura sólo pasaría al cabo de una hora: las pruebas
+ * escriben con {@link CacheClientes#escribirPendientes()}.
+ */
+class CacheClientesTest {
+
+	private EntityManagerFactory emf;
+	private UnitOfWork uow;
+	private CacheClientes clientes;
+
+	@BeforeEach
+	void abrir(TestInfo prueba) {
+		emf = BaseDatosH2.abrir("clientes_" + prueba.getTestMethod().orElseThrow().getName(), Map.of(
+				CacheClientes.MAXIMO, "100",
+				CacheClientes.ESCRITURA_DIFERIDA_MS, "3600000"));
+		uow = new UnitOfWork(emf);
+		uow.ejecutar(em -> {
+			em.createNativeQuery("ALTER TABLE clientes ADD CONSTRAINT uq_clientes_email UNIQUE (email)")
+					.executeUpdate();
+			for (String nif : new String[] { "A", "B", "C" }) {
+				Cliente c = new Cliente(nif, "Cliente " + nif, nif.toLowerCase() + "@example.com");
+				c.setInformacionFiscal(new InformacionFiscal(nif, "600000000", "Calle 1"));
+				em.persist(c);
+			}
+		});
+		clientes = CacheClientes.de(emf);
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	/**
+	 * Varios cambios del mismo cliente se quedan en el último, que se lee
+	 * enseguida y se escribe en un solo lote con los de los demás.
+	 */
+	@Test
+	void agrupaLosCambiosYLosEscribeEnUnLote() {
+		assertEquals("a@example.com", clientes.get("A").email());
+		clientes.actualizarEmail("A", "a1@example.com");
+		clientes.actualizarEmail("A", "a2@example.com");
+		clientes.actualizarEmail("B", "b1@example.com");
+
+		assertEquals("a2@example.com", clientes.get("A").email());
+		assertEquals("b1@example.com", clientes.get("B").email(), "la carga no vio el email pendiente");
+		assertEquals("a@example.com", leerEmail("A"), "se escribió antes de tiempo");
+		assertEquals(2, clientes.getEmailsPendientes());
+
+		assertEquals(2, clientes.escribirPendientes());
+		assertEquals("a2@example.com", leerEmail("A"));
+		assertEquals("b1@example.com", leerEmail("B"));
+		assertEquals(0, clientes.getEmailsPendientes());
+		assertEquals(3, clientes.getEmailsRecibidos());
+		assertEquals(2, clientes.getEmailsEscritos());
+		assertEquals(1, clientes.getEscrituras());
+	}
+
+	/**
+	 * Un email repetido y el de un cliente que no existe se descartan, sin
+	 * impedir que se escriban los demás ni la siguiente escritura; la caché
+	 * vuelve a dar el email escrito.
+	 */
+	@Test
+	void descartaLosEmailsQueNoSePuedenEscribir() {
+		clientes.actualizarEmail("A", "c@example.com");
+		clientes.actualizarEmail("B", "b1@example.com");
+		clientes.actualizarEmail("Z", "z@example.com");
+		assertEquals("c@example.com", clientes.get("A").email());
+
+		assertEquals(1, clientes.escribirPendientes());
+		assertEquals("a@example.com", leerEmail("A"));
+		assertEquals("b1@example.com", leerEmail("B"));
+		assertEquals("a@example.com", clientes.get("A").email(), "la caché sigue con el email descartado");
+		assertEquals(0, clientes.getEmailsPendientes());
+		assertEquals(2, clientes.getEmailsRechazados());
+
+		clientes.actualizarEmail("C", "c1@example.com");
+		assertEquals(1, clientes.escribirPendientes());
+		assertEquals("c1@example.com", leerEmail("C"));
+	}
+
+	/**
+	 * A quiere el email que deja B: escritos por separado, entra en cuanto se
+	 * escribe el de B, sea cual sea el orden.
+	 */
+	@Test
+	void escribeElEmailQueDejaLibreOtroCliente() {
+		clientes.actualizarEmail("A", "b@example.com");
+		clientes.actualizarEmail("B", "b1@example.com");
+
+		assertEquals(2, clientes.escribirPendientes());
+		assertEquals("b@example.com", leerEmail("A"));
+		assertEquals("b1@example.com", leerEmail("B"));
+		assertEquals(0, clientes.getEmailsRechazados());
+	}
+
+	private String leerEmail(String nif) {
+		return uow.soloLectura(em -> em.createQuery("SELECT c.email FROM Cliente c WHERE c.nif_cif = :nif",
+				String.class).setParameter("nif", nif).getSingleResult());
+	}
+}
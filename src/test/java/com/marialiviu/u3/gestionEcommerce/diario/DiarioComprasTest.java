@@ -0,0 +1,126 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.marialiviu.u3.gestionEcommerce.diario.DiarioCompras.Leido;
+import com.marialiviu.u3.gestionEcommerce.diario.EventoCompra.CompraBorrada;
+
+/**
+ * Segmentos de tres eventos {@link CompraBorrada} en los que el final de
+ * segmento cae en los últimos bytes, menos de una cabecera de registro. Tras
+ * cada caída simulada el diario vuelve a abrir con los eventos confirmados,
+ * sigue numerando detrás y se lee entero.
+ */
+class DiarioComprasTest {
+
+	private static final int REGISTRO = 16 + FormatoEventos.codificar(new CompraBorrada(0)).length;
+	/** Cabecera, tres registros y 8 bytes, donde sólo cabe el final de segmento. */
+	private static final int SEGMENTO = 16 + 3 * REGISTRO + 8;
+
+	@TempDir
+	Path directorio;
+
+	@Test
+	void rotaYLeeTodosLosEventos() {
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			registrar(diario, 1, 10);
+			assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), compras(diario));
+		}
+		// al volver a abrir encuentra el final del último segmento lleno
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			assertEquals(10, diario.getUltimaSecuencia());
+			registrar(diario, 11, 12);
+			assertEquals(12, compras(diario).size());
+		}
+	}
+
+	/**
+	 * Murió tras cerrar el segmento y al crear el siguiente: queda un
+	 * temporal a medias y ningún segmento con su nombre o, si lo creó una
+	 * versión anterior, un segmento vacío con su nombre definitivo.
+	 */
+	@Test
+	void recuperaTrasCaerAlCrearUnSegmento() throws IOException {
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			registrar(diario, 1, 3);
+		}
+		Files.writeString(directorio.resolve(String.format("compras-%020d.diario.tmp", 4)), "");
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			registrar(diario, 4, 4);
+		}
+		Files.delete(segmento(4));
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			assertEquals(3, diario.getUltimaSecuencia());
+			registrar(diario, 4, 4);
+		}
+		Files.delete(segmento(4));
+		Files.createFile(segmento(4));
+
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			assertEquals(3, diario.getUltimaSecuencia());
+			registrar(diario, 4, 5);
+			assertEquals(List.of(1, 2, 3, 4, 5), compras(diario));
+		}
+		try (var ficheros = Files.list(directorio)) {
+			assertFalse(ficheros.anyMatch(f -> f.toString().endsWith(".tmp")), "quedó el segmento temporal");
+		}
+	}
+
+	/**
+	 * El último registro de un lote que no llegó entero a disco no cuadra con
+	 * su CRC y se descarta.
+	 */
+	@Test
+	void descartaUnRegistroEscritoAMedias() throws IOException {
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			registrar(diario, 1, 2);
+		}
+		try (FileChannel canal = FileChannel.open(segmento(1), StandardOpenOption.WRITE)) {
+			canal.write(ByteBuffer.wrap(new byte[] { 0x7f }), 16 + REGISTRO + 16 + 1);
+		}
+
+		try (DiarioCompras diario = new DiarioCompras(directorio, SEGMENTO)) {
+			assertEquals(1, diario.getUltimaSecuencia());
+			registrar(diario, 2, 3);
+			assertEquals(List.of(1, 2, 3), compras(diario));
+		}
+	}
+
+	/**
+	 * Registra el borrado de las compras {@code desde..hasta}; cada evento
+	 * recibe como secuencia el id de su compra.
+	 */
+	private static void registrar(DiarioCompras diario, int desde, int hasta) {
+		for (int id = desde; id <= hasta; id++) {
+			assertEquals(id, diario.registrar(new CompraBorrada(id)));
+		}
+	}
+
+	private static List<Integer> compras(DiarioCompras diario) {
+		List<Integer> ids = new ArrayList<>();
+		try (DiarioCompras.Cursor cursor = diario.cursor(1)) {
+			for (Leido l; (l = cursor.siguiente()) != null;) {
+				assertEquals(l.secuencia(), l.evento().idCompra(), "secuencia del evento");
+				ids.add(l.evento().idCompra());
+			}
+		}
+		return ids;
+	}
+
+	private Path segmento(long primera) {
+		return directorio.resolve(String.format("compras-%020d.diario", primera));
+	}
+}
@@ -0,0 +1,186 @@
+package com.marialiviu.u3.gestionEcommerce.diario;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+import com.marialiviu.u3.gestionEcommerce.service.NuevaCompra;
+import com.marialiviu.u3.gestionEcommerce.service.OrderStatusService;
+import com.marialiviu.u3.gestionEcommerce.service.StockInsuficienteException;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Compras registradas en el diario y aplicadas por el proyector: el stock se
+ * reserva al registrarlas (y falla la que no cabe), vuelve al borrar una
+ * compra PENDIENTE o al rechazarse un evento, y al reconstruir no se toca, de
+ * modo que un cambio de stock hecho por otro camino se conserva. Si una
+ * compra del diario se ha cambiado por otro camino no se reconstruye nada.
+ */
+class ProyectorComprasTest {
+
+	private static final String NIF = "B00000001";
+
+	@TempDir
+	Path directorio;
+
+	private EntityManagerFactory emf;
+	private UnitOfWork uow;
+	private DiarioCompras diario;
+	private int a;
+	private int b;
+
+	/**
+	 * Una base de datos por prueba: <code>posicion_diario</code> no la borra
+	 * Hibernate al cerrar la factoría.
+	 */
+	@BeforeEach
+	void abrir(TestInfo prueba) {
+		emf = BaseDatosH2.abrir("proyector_" + prueba.getTestMethod().orElseThrow().getName(), Map.of());
+		uow = new UnitOfWork(emf);
+		uow.ejecutar(em -> {
+			Cliente c = new Cliente(NIF, "Cliente del diario", "diario@example.com");
+			c.setInformacionFiscal(new InformacionFiscal(NIF, "600000000", "Calle 1"));
+			em.persist(c);
+		});
+		a = crearArticulo();
+		b = crearArticulo();
+		diario = new DiarioCompras(directorio, 1024 * 1024);
+	}
+
+	@AfterEach
+	void cerrar() {
+		diario.close();
+		emf.close();
+	}
+
+	@Test
+	void compraSinStockFallaAlRegistrarla() {
+		OrderJournalService compras = new OrderJournalService(emf, diario);
+
+		assertThrows(StockInsuficienteException.class, () -> compras.crear(compra(a, 2, b, 11)));
+		assertEquals(0, diario.getUltimaSecuencia(), "se registró la compra sin stock");
+		assertEquals(10, leerStock(a), "quedó reservado el artículo que sí tenía stock");
+		assertEquals(10, leerStock(b));
+
+		int id = compras.crear(compra(a, 2)).idCompra();
+		assertThrows(StockInsuficienteException.class, () -> compras.anadirLineas(id,
+				List.of(new NuevaCompra.Linea(b, 11))));
+		assertEquals(1, diario.getUltimaSecuencia(), "se registraron las líneas sin stock");
+		assertEquals(8, leerStock(a), "la compra registrada no reservó su stock");
+		assertEquals(10, leerStock(b));
+	}
+
+	@Test
+	void reconstruirConservaElStockCambiadoPorOtroCamino() throws InterruptedException {
+		int[] ids = registrar();
+		assertEquals(2, leerStock(a));
+		assertEquals(8, leerStock(b));
+
+		// reposición fuera del diario
+		uow.ejecutar(em -> em.createNativeQuery("UPDATE articulos SET stock = stock + 5 WHERE id = " + a)
+				.executeUpdate());
+		ProyectorCompras.Reconstruccion r = new ProyectorCompras(emf, diario).reconstruir();
+
+		assertEquals(1, r.rechazados(), "sólo las líneas de la compra enviada");
+		assertEquals(7, leerStock(a));
+		assertEquals(8, leerStock(b));
+		assertEquals(EstadoCompra.PENDIENTE, estado(ids[0]));
+		assertEquals(EstadoCompra.ENVIADO, estado(ids[1]));
+		assertNull(estado(ids[2]), "compra borrada en el diario");
+
+		// una segunda reconstrucción deja lo mismo
+		new ProyectorCompras(emf, diario).reconstruir();
+		assertEquals(7, leerStock(a));
+		assertEquals(8, leerStock(b));
+	}
+
+	@Test
+	void noReconstruyeSiUnaCompraDelDiarioCambioPorOtroCamino() throws InterruptedException {
+		int[] ids = registrar();
+		new OrderStatusService(emf).transicionar(List.of(ids[0]), EstadoCompra.ENVIADO);
+
+		assertThrows(IllegalStateException.class, () -> new ProyectorCompras(emf, diario).reconstruir());
+		assertEquals(EstadoCompra.ENVIADO, estado(ids[0]), "se perdió el cambio hecho fuera del diario");
+		assertEquals(2, leerStock(a));
+		assertEquals(8, leerStock(b));
+	}
+
+	/**
+	 * Con el proyector en marcha registra, sobre artículos con 10 unidades:
+	 * <ol>
+	 * <li>una compra PENDIENTE de 3 de A y 2 de B;</li>
+	 * <li>otra de 4 de A que se envía, y luego 2 más de A para ella, que se
+	 * reservan pero vuelven al rechazarlas la proyección;</li>
+	 * <li>otra de 1 de B que se borra PENDIENTE (la unidad vuelve);</li>
+	 * <li>otra de 100 de A, que falla por falta de stock;</li>
+	 * <li>otra de 1 de A que se envía y se borra (la unidad no vuelve).</li>
+	 * </ol>
+	 * @return ids de las tres primeras compras.
+	 */
+	private int[] registrar() throws InterruptedException {
+		try (ProyectorCompras proyector = ProyectorCompras.arrancar(emf, diario)) {
+			OrderJournalService compras = new OrderJournalService(emf, diario);
+			int[] ids = new int[3];
+			ids[0] = compras.crear(compra(a, 3, b, 2)).idCompra();
+			ids[1] = compras.crear(compra(a, 4)).idCompra();
+			compras.cambiarEstado(ids[1], EstadoCompra.ENVIADO);
+			compras.anadirLineas(ids[1], List.of(new NuevaCompra.Linea(a, 2)));
+			ids[2] = compras.crear(compra(b, 1)).idCompra();
+			compras.borrar(ids[2]);
+			assertThrows(StockInsuficienteException.class, () -> compras.crear(compra(a, 100)));
+			int enviada = compras.crear(compra(a, 1)).idCompra();
+			compras.cambiarEstado(enviada, EstadoCompra.ENVIADO);
+			long ultima = compras.borrar(enviada);
+			assertTrue(proyector.esperar(ultima, 10, TimeUnit.SECONDS), "el proyector no aplicó el diario");
+			assertEquals(1, proyector.getRechazados(), "compras rechazadas");
+			return ids;
+		}
+	}
+
+	private static NuevaCompra compra(int... articuloUnidades) {
+		List<NuevaCompra.Linea> lineas = new ArrayList<>();
+		for (int i = 0; i < articuloUnidades.length; i += 2) {
+			lineas.add(new NuevaCompra.Linea(articuloUnidades[i], articuloUnidades[i + 1]));
+		}
+		return new NuevaCompra(NIF, lineas);
+	}
+
+	private int crearArticulo() {
+		return uow.enTransaccion(em -> {
+			Articulo art = new Articulo("diario", "Artículo del diario", Dinero.deCentimos(100), 10);
+			em.persist(art);
+			return art.getId();
+		});
+	}
+
+	private int leerStock(int id) {
+		return uow.soloLectura(em -> em.createQuery("SELECT a.stock FROM Articulo a WHERE a.id = :id", Integer.class)
+				.setParameter("id", id).getSingleResult());
+	}
+
+	private EstadoCompra estado(int id) {
+		return uow.soloLectura(em -> em.createQuery("SELECT c.estado FROM Compra c WHERE c.id = :id", EstadoCompra.class)
+				.setParameter("id", id).getResultStream().findFirst().orElse(null));
+	}
+}
@@ -0,0 +1,130 @@
+package com.marialiviu.u3.gestionEcommerce.migration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * Migraciones sobre una base de datos creada con el script original
+ * ({@code esquema-original.sql}) y con datos:
+ * <ul>
+ * <li>la factoría arranca con {@code hbm2ddl.auto=validate}, así que las
+ * migraciones dejan el esquema que esperan las entidades;</li>
+ * <li>las secuencias empiezan por encima de los ids existentes y los precios
+ * guardan céntimos;</li>
+ * <li>al volver a arrancar no se aplica nada más y el historial no cambia.</li>
+ * </ul>
+ */
+class MigracionesEsquemaTest {
+
+	private static final String NOMBRE = "migraciones";
+	private static final String URL = "jdbc:h2:mem:" + NOMBRE + ";MODE=MariaDB;DB_CLOSE_DELAY=-1";
+	private static final int COMPRAS = 7;
+	private static final int ARTICULOS = 3;
+
+	@Test
+	void migraUnaBaseDeDatosDelScriptOriginal() throws Exception {
+		try (Connection con = DriverManager.getConnection(URL, "sa", "")) {
+			crearEsquemaOriginal(con);
+
+			arrancar(con);
+			assertEquals(COMPRAS + 1,
+					leerLong(con, "SELECT siguiente_valor FROM secuencias WHERE nombre_secuencia = 'compras'"),
+					"la secuencia de compras no empieza detrás de las compras existentes");
+			Map<Integer, Long> historial = historial(con);
+			List<MigracionesEsquema.Migracion> migraciones = MigracionesEsquema.migraciones();
+			assertEquals(migraciones.size(), historial.size(), "historial tras migrar: " + historial.keySet());
+			for (MigracionesEsquema.Migracion m : migraciones) {
+				assertEquals(m.checksum(), historial.get(m.version()), "checksum de V" + m.version());
+			}
+
+			arrancar(con);
+			assertEquals(historial, historial(con), "el segundo arranque cambió el historial");
+		}
+	}
+
+	/**
+	 * Crea la factoría validando el esquema (antes se aplican las migraciones)
+	 * y da de alta un artículo con céntimos.
+	 */
+	private static void arrancar(Connection con) throws SQLException {
+		Map<String, Object> props = new HashMap<>(BaseDatosH2.propiedades(NOMBRE));
+		props.put("hibernate.hbm2ddl.auto", "validate");
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("ecommerce-jpa-pu", props);
+		int id;
+		try {
+			id = new UnitOfWork(emf).enTransaccion(em -> {
+				Articulo a = new Articulo("migraciones", "Artículo tras migrar", Dinero.deCentimos(1999), 10);
+				em.persist(a);
+				return a.getId();
+			});
+		} finally {
+			emf.close();
+		}
+		assertTrue(id > ARTICULOS, "artículo nuevo con el id " + id + " de uno existente");
+		assertEquals(1999, leerLong(con, "SELECT precio_actual * 100 FROM articulos WHERE id = " + id),
+				"el precio 19,99 no se guardó con céntimos");
+	}
+
+	private static void crearEsquemaOriginal(Connection con) throws IOException, SQLException {
+		String script;
+		try (InputStream in = MigracionesEsquemaTest.class.getClassLoader()
+				.getResourceAsStream("esquema-original.sql")) {
+			script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		try (Statement st = con.createStatement()) {
+			for (String sql : script.replaceAll("(?m)^--.*$", "").split(";")) {
+				if (!sql.isBlank()) st.execute(sql);
+			}
+			st.execute("INSERT INTO informacion_fiscal VALUES ('B00000001', '600000000', 'Calle 1')");
+			st.execute("INSERT INTO clientes VALUES ('B00000001', 'Cliente original', 'original@example.com', NOW())");
+			for (int i = 1; i <= ARTICULOS; i++) {
+				st.execute("INSERT INTO articulos VALUES (" + i + ", 'original-" + i + "', NULL, 10, 100)");
+			}
+			for (int i = 1; i <= COMPRAS; i++) {
+				st.execute("INSERT INTO compras VALUES (" + i + ", 'B00000001', NULL, NOW(), 'Pendiente', 10)");
+				st.execute("INSERT INTO articulo_compra VALUES (" + i + ", " + (1 + i % ARTICULOS) + ", 1, 10)");
+			}
+		}
+	}
+
+	private static Map<Integer, Long> historial(Connection con) throws SQLException {
+		Map<Integer, Long> historial = new LinkedHashMap<>();
+		try (Statement st = con.createStatement();
+				ResultSet rs = st.executeQuery("SELECT version, checksum FROM " + MigracionesEsquema.TABLA_HISTORIAL)) {
+			while (rs.next()) {
+				historial.put(rs.getInt(1), rs.getLong(2));
+			}
+		}
+		return historial;
+	}
+
+	private static long leerLong(Connection con, String sql) throws SQLException {
+		try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.marialiviu.u3.gestionEcommerce.outbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Compra.EstadoCompra;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Entrega de <code>outbox_compras</code> a un {@link DestinoMemoria}, llamando
+ * a {@link DespachadorOutbox#despachar()} desde la prueba: los hilos del
+ * despachador sólo pasarían al cabo de una hora.
+ */
+class DespachadorOutboxTest {
+
+	private static final int LOTE = 2;
+
+	private EntityManagerFactory emf;
+	private UnitOfWork uow;
+
+	/**
+	 * Una base de datos por prueba: <code>outbox_compras</code> no la borra
+	 * Hibernate al cerrar la factoría.
+	 */
+	@BeforeEach
+	void abrir(TestInfo prueba) {
+		emf = BaseDatosH2.abrir("outbox_" + prueba.getTestMethod().orElseThrow().getName(), Map.of());
+		uow = new UnitOfWork(emf);
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	@Test
+	void entregaEnOrdenYBorraLoEntregado() {
+		uow.ejecutar(em -> OutboxCompras.registrar(em, List.of(1, 2, 3), EstadoCompra.PENDIENTE,
+				EstadoCompra.ENVIADO));
+		uow.ejecutar(em -> OutboxCompras.registrar(em, 1, EstadoCompra.ENVIADO, EstadoCompra.ENTREGADO));
+		DestinoMemoria destino = new DestinoMemoria();
+
+		try (DespachadorOutbox despachador = despachador(destino)) {
+			assertEquals(2, despachador.despachar());
+			assertEquals(2, pendientes(), "no se borró el lote entregado");
+			assertEquals(2, despachador.despachar());
+			assertEquals(0, despachador.despachar());
+			assertEquals(4, despachador.getEntregados());
+			assertEquals(2, despachador.getLotes());
+		}
+		List<CambioEstado> recibidos = destino.getRecibidos();
+		assertEquals(List.of(1, 2, 3, 1), recibidos.stream().map(CambioEstado::idCompra).toList());
+		assertEquals(EstadoCompra.ENTREGADO, recibidos.get(3).nuevo());
+		for (int i = 1; i < recibidos.size(); i++) {
+			assertEquals(recibidos.get(i - 1).id() + 1, recibidos.get(i).id(), "mensajes fuera de orden");
+		}
+		assertEquals(0, pendientes());
+	}
+
+	/**
+	 * El aviso va en la transacción del cambio: si se deshace, no hay nada
+	 * que entregar.
+	 */
+	@Test
+	void noAvisaDeUnCambioDeshecho() {
+		assertThrows(IllegalStateException.class, () -> uow.ejecutar(em -> {
+			OutboxCompras.registrar(em, 1, EstadoCompra.PENDIENTE, EstadoCompra.ENVIADO);
+			throw new IllegalStateException("se deshace el cambio");
+		}));
+		DestinoMemoria destino = new DestinoMemoria();
+
+		try (DespachadorOutbox despachador = despachador(destino)) {
+			assertEquals(0, despachador.despachar());
+		}
+		assertEquals(List.of(), destino.getRecibidos());
+	}
+
+	/**
+	 * Si el destino falla, el borrado se deshace con la transacción y el lote
+	 * se vuelve a entregar entero en el siguiente intento.
+	 */
+	@Test
+	void vuelveAEntregarTrasFallarElDestino() {
+		uow.ejecutar(em -> OutboxCompras.registrar(em, List.of(1, 2), EstadoCompra.PENDIENTE,
+				EstadoCompra.ENVIADO));
+		DestinoMemoria memoria = new DestinoMemoria();
+		boolean[] fallar = { true };
+		DestinoOutbox destino = lote -> {
+			if (fallar[0]) throw new IllegalStateException("destino caído");
+			memoria.entregar(lote);
+		};
+
+		try (DespachadorOutbox despachador = despachador(destino)) {
+			assertThrows(IllegalStateException.class, despachador::despachar);
+			assertEquals(2, pendientes(), "se borraron mensajes sin entregar");
+			assertEquals(List.of(), memoria.getRecibidos());
+
+			fallar[0] = false;
+			assertEquals(2, despachador.despachar());
+			assertEquals(0, pendientes());
+			assertEquals(List.of(1, 2), memoria.getRecibidos().stream().map(CambioEstado::idCompra).toList());
+		}
+	}
+
+	private DespachadorOutbox despachador(DestinoOutbox destino) {
+		return new DespachadorOutbox(emf, destino, LOTE, 3_600_000, 1);
+	}
+
+	private long pendientes() {
+		return uow.soloLectura(em -> ((Number) em.createNativeQuery("SELECT COUNT(*) FROM outbox_compras")
+				.getSingleResult()).longValue());
+	}
+}
@@ -0,0 +1,140 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.StaleStateException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PersistenceException;
+
+/**
+ * Qué se repite y cuántas veces. Los contadores por entidad son de toda la
+ * JVM, así que las pruebas miran lo que cambian y no su valor.
+ */
+class EjecutorReintentosTest {
+
+	/** Entidad que sólo aparece en estas pruebas, para contar sus conflictos aparte. */
+	private static final class Fantasma {
+	}
+
+	private EntityManagerFactory emf;
+	private UnitOfWork uow;
+
+	@BeforeEach
+	void abrir() {
+		emf = BaseDatosH2.abrir("reintentos", Map.of());
+		uow = new UnitOfWork(emf);
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	/**
+	 * Otra transacción cambia el artículo entre la lectura y la escritura del
+	 * primer intento; el segundo lo vuelve a leer y confirma sin perder el
+	 * cambio ajeno.
+	 */
+	@Test
+	void repiteTrasUnConflictoDeVersion() {
+		int id = uow.enTransaccion(em -> {
+			Articulo a = new Articulo("reintentos", "Artículo con versión", Dinero.deCentimos(100), 10);
+			em.persist(a);
+			return a.getId();
+		});
+		long[] antes = contadores("Articulo");
+		EjecutorReintentos reintentos = new EjecutorReintentos(emf, 3, 0, 0);
+		AtomicInteger llamadas = new AtomicInteger();
+
+		reintentos.ejecutar(em -> {
+			Articulo a = em.find(Articulo.class, id);
+			if (llamadas.incrementAndGet() == 1) {
+				uow.ejecutar(otra -> otra.find(Articulo.class, id).setStock(50));
+			}
+			a.setPrecioActual(Dinero.deCentimos(250));
+		});
+
+		assertEquals(2, llamadas.get());
+		Articulo leido = uow.soloLectura(em -> em.find(Articulo.class, id));
+		assertEquals(50, leido.getStock(), "se perdió el cambio de la otra transacción");
+		assertEquals(Dinero.deCentimos(250), leido.getPrecioActual());
+		long[] despues = contadores("Articulo");
+		assertEquals(1, despues[0] - antes[0], "conflictos");
+		assertEquals(1, despues[1] - antes[1], "reintentos");
+		assertEquals(0, despues[2] - antes[2], "agotados");
+	}
+
+	/**
+	 * Un conflicto que no se resuelve se intenta las veces configuradas y se
+	 * lanza tal cual; sirve también la excepción de Hibernate, aunque llegue
+	 * envuelta.
+	 */
+	@Test
+	void seRindeAlAgotarLosIntentos() {
+		long[] antes = contadores("Fantasma");
+		EjecutorReintentos reintentos = new EjecutorReintentos(emf, 4, 0, 0);
+		AtomicInteger llamadas = new AtomicInteger();
+		OptimisticLockException conflicto = new OptimisticLockException("versión cambiada", null, new Fantasma());
+
+		OptimisticLockException lanzada = assertThrows(OptimisticLockException.class,
+				() -> reintentos.reintentar(() -> {
+					llamadas.incrementAndGet();
+					throw conflicto;
+				}));
+		assertSame(conflicto, lanzada);
+		assertEquals(4, llamadas.get());
+		long[] despues = contadores("Fantasma");
+		assertEquals(4, despues[0] - antes[0], "conflictos");
+		assertEquals(3, despues[1] - antes[1], "reintentos");
+		assertEquals(1, despues[2] - antes[2], "agotados");
+
+		llamadas.set(0);
+		assertThrows(PersistenceException.class, () -> reintentos.reintentar(() -> {
+			llamadas.incrementAndGet();
+			throw new PersistenceException(new StaleStateException("fila cambiada"));
+		}));
+		assertEquals(4, llamadas.get());
+	}
+
+	@Test
+	void noRepiteOtrosErrores() {
+		EjecutorReintentos reintentos = new EjecutorReintentos(emf, 5, 0, 0);
+		AtomicInteger llamadas = new AtomicInteger();
+
+		assertThrows(StockInsuficienteException.class, () -> reintentos.reintentar(() -> {
+			llamadas.incrementAndGet();
+			throw new StockInsuficienteException(1, 2);
+		}));
+		assertEquals(1, llamadas.get());
+		assertEquals("hecho", reintentos.reintentar(() -> "hecho"));
+	}
+
+	@Test
+	void rechazaUnaConfiguracionNoValida() {
+		assertThrows(IllegalArgumentException.class, () -> new EjecutorReintentos(emf, 0, 10, 100));
+		assertThrows(IllegalArgumentException.class, () -> new EjecutorReintentos(emf, 3, -1, 100));
+		assertThrows(IllegalArgumentException.class, () -> new EjecutorReintentos(emf, 3, 100, 10));
+	}
+
+	/**
+	 * Conflictos, reintentos y agotados de la entidad, o ceros si aún no tiene.
+	 */
+	private static long[] contadores(String entidad) {
+		EjecutorReintentos.Contadores c = EjecutorReintentos.conflictos().get(entidad);
+		return (c == null) ? new long[3] : new long[] { c.getConflictos(), c.getReintentos(), c.getAgotados() };
+	}
+}
@@ -0,0 +1,238 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Ventas de un artículo caliente desde memoria, con cupos de {@value #CUPO}
+ * unidades. El hilo de conciliación sólo pasaría al cabo de una hora: las
+ * pruebas concilian con {@link HotStockCounter#conciliar()}.
+ */
+class HotStockCounterTest {
+
+	private static final int CUPO = 50;
+	private static final int HILOS = 16;
+	private static final String NIF = "B00000011";
+
+	private EntityManagerFactory emf;
+	private UnitOfWork uow;
+	private HotStockCounter calientes;
+	private StockReservationService stock;
+
+	@BeforeEach
+	void abrir(TestInfo prueba) {
+		emf = BaseDatosH2.abrir("calientes_" + prueba.getTestMethod().orElseThrow().getName(), Map.of(
+				HotStockCounter.CUPO, String.valueOf(CUPO),
+				HotStockCounter.RECONCILIACION_MS, "3600000"));
+		uow = new UnitOfWork(emf);
+		calientes = HotStockCounter.de(emf);
+		stock = new StockReservationService(emf);
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	/**
+	 * Muchos hilos compran con {@link OrderService} el mismo artículo caliente
+	 * hasta agotarlo: lo vendido son las líneas de las compras, la tabla más
+	 * la memoria es el stock inicial menos lo vendido, y casi ninguna venta ha
+	 * tenido que ir a la tabla.
+	 */
+	@Test
+	void ventasConcurrentesNoVendenDeMas() throws InterruptedException {
+		int stockInicial = 3_000;
+		crearCliente();
+		int id = crearArticulo(stockInicial);
+		calientes.marcarCaliente(id);
+		OrderService servicio = new OrderService(emf);
+
+		LongAdder vendidas = new LongAdder();
+		List<Thread> ts = new ArrayList<>();
+		for (int h = 0; h < HILOS; h++) {
+			Thread t = new Thread(() -> {
+				int fallosSeguidos = 0;
+				while (fallosSeguidos < 20) {
+					int uds = 1 + ThreadLocalRandom.current().nextInt(3);
+					try {
+						servicio.crear(new NuevaCompra(NIF, List.of(new NuevaCompra.Linea(id, uds))));
+						vendidas.add(uds);
+						fallosSeguidos = 0;
+					} catch (StockInsuficienteException e) {
+						fallosSeguidos++;
+					}
+				}
+			});
+			ts.add(t);
+			t.start();
+		}
+		for (Thread t : ts) t.join();
+
+		int enTabla = leerStock(id);
+		assertTrue(enTabla >= 0, "stock negativo " + enTabla);
+		assertEquals(stockInicial - vendidas.sum(), enTabla + calientes.disponible(id),
+				vendidas.sum() + " vendidas de " + stockInicial);
+		assertEquals(vendidas.sum(), unidadesEnCompras(id), "lo vendido no son las líneas de las compras");
+		assertTrue(stockInicial - vendidas.sum() < 3, "quedó stock sin vender: " + (stockInicial - vendidas.sum()));
+		assertTrue(calientes.getCuposTomados() <= stockInicial / CUPO + HILOS,
+				calientes.getCuposTomados() + " cupos para " + stockInicial + " unidades");
+
+		calientes.devolverATabla(id);
+		assertEquals(stockInicial - vendidas.sum(), leerStock(id));
+		assertEquals(0, calientes.disponible(id));
+	}
+
+	/**
+	 * Lo vendido de memoria en una transacción que se deshace vuelve a
+	 * memoria; lo que no llega ni con la tabla falla sin quedarse con nada.
+	 */
+	@Test
+	void loNoConfirmadoVuelveAMemoria() {
+		int id = crearArticulo(80);
+		calientes.marcarCaliente(id);
+
+		reservar(id, 10);
+		assertEquals(30, leerStock(id), "no se tomó un cupo de la tabla");
+		assertEquals(40, calientes.disponible(id));
+
+		assertThrows(IllegalStateException.class, () -> uow.ejecutar(em -> {
+			stock.reservar(em, Map.of(id, 5));
+			throw new IllegalStateException("se deshace la compra");
+		}));
+		assertEquals(40, calientes.disponible(id));
+		assertEquals(30, leerStock(id));
+
+		// no queda un cupo entero: se toma lo que queda
+		reservar(id, 60);
+		assertEquals(0, leerStock(id));
+		assertEquals(10, calientes.disponible(id));
+
+		StockInsuficienteException e = assertThrows(StockInsuficienteException.class, () -> reservar(id, 11));
+		assertEquals(id, e.getIdArticulo());
+		assertEquals(0, leerStock(id));
+		assertEquals(10, calientes.disponible(id));
+		reservar(id, 10);
+		assertEquals(0, calientes.disponible(id));
+	}
+
+	/**
+	 * Un artículo caliente y otro sin stock en la misma reserva: falla entera y
+	 * las unidades del caliente vuelven a memoria.
+	 */
+	@Test
+	void reservaFallidaDevuelveLoVendidoDeMemoria() {
+		int caliente = crearArticulo(100);
+		int sinStock = crearArticulo(1);
+		calientes.marcarCaliente(caliente);
+		reservar(caliente, 1);
+		assertEquals(CUPO - 1, calientes.disponible(caliente));
+
+		assertThrows(StockInsuficienteException.class, () -> uow.ejecutar(em -> stock.reservar(em,
+				Map.of(caliente, 5, sinStock, 2))));
+		assertEquals(CUPO - 1, calientes.disponible(caliente));
+		assertEquals(1, leerStock(sinStock));
+	}
+
+	/**
+	 * La conciliación deja un cupo a los artículos que se siguen vendiendo y
+	 * devuelve todo a la tabla cuando dejan de venderse.
+	 */
+	@Test
+	void concilia() {
+		int id = crearArticulo(1_000);
+		calientes.marcarCaliente(id);
+		reservar(id, 1);
+		// una compra deshecha de más de un cupo lo deja en memoria: se tomó de la tabla
+		assertThrows(IllegalStateException.class, () -> uow.ejecutar(em -> {
+			stock.reservar(em, Map.of(id, 120));
+			throw new IllegalStateException("se deshace la compra");
+		}));
+		assertEquals(120, calientes.disponible(id));
+		assertEquals(1_000 - 1 - 120, leerStock(id));
+
+		assertEquals(120 - CUPO, calientes.conciliar());
+		assertEquals(CUPO, calientes.disponible(id));
+		assertEquals(1_000 - 1 - CUPO, leerStock(id));
+
+		assertEquals(CUPO, calientes.conciliar(), "no devolvió el cupo del artículo parado");
+		assertEquals(0, calientes.disponible(id));
+		assertEquals(999, leerStock(id));
+	}
+
+	/**
+	 * Al cerrar vuelve todo a la tabla, también lo que se devuelve después a
+	 * memoria, y las ventas siguientes van directamente a la tabla.
+	 */
+	@Test
+	void cerrarDevuelveLaMemoriaALaTabla() {
+		int id = crearArticulo(200);
+		calientes.marcarCaliente(id);
+		reservar(id, 10);
+		assertTrue(calientes.tomar(id, 5));
+		assertEquals(CUPO - 15, calientes.disponible(id));
+
+		calientes.cerrar();
+		assertEquals(200 - 15, leerStock(id));
+		calientes.devolver(id, 5);
+		assertEquals(200 - 10, leerStock(id));
+		assertEquals(0, calientes.disponible(id));
+
+		assertFalse(calientes.esCaliente(id));
+		reservar(id, 3);
+		assertEquals(200 - 13, leerStock(id));
+		assertEquals(0, calientes.disponible(id));
+	}
+
+	private void reservar(int id, int uds) {
+		uow.ejecutar(em -> stock.reservar(em, Map.of(id, uds)));
+	}
+
+	private void crearCliente() {
+		uow.ejecutar(em -> {
+			Cliente c = new Cliente(NIF, "Cliente calientes", "calientes@example.com");
+			c.setInformacionFiscal(new InformacionFiscal(NIF, "600000011", "Calle 11"));
+			em.persist(c);
+		});
+	}
+
+	private int crearArticulo(int unidades) {
+		return uow.enTransaccion(em -> {
+			Articulo a = new Articulo("caliente", "Artículo muy vendido", Dinero.deCentimos(100), unidades);
+			em.persist(a);
+			return a.getId();
+		});
+	}
+
+	private int leerStock(int id) {
+		return uow.soloLectura(em -> em.createQuery("SELECT a.stock FROM Articulo a WHERE a.id = :id", Integer.class)
+				.setParameter("id", id).getSingleResult());
+	}
+
+	private long unidadesEnCompras(int id) {
+		return uow.soloLectura(em -> em.createQuery(
+				"SELECT COALESCE(SUM(ac.unidades), 0) FROM ArticuloCompra ac WHERE ac.articulo.id = :id", Long.class)
+				.setParameter("id", id).getSingleResult());
+	}
+}
@@ -0,0 +1,153 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Con compras de muchos clientes y en los tres estados, el plan de H2 para las
+ * consultas por cliente de {@link ListadoService} recorre
+ * {@code idx_compras_cliente_fecha}, y el de las consultas por estado de
+ * {@link ListadoService} y {@link OrderStatusService},
+ * {@code idx_compras_estado_fecha}. Las consultas son el SQL equivalente al
+ * que genera Hibernate, como en {@code ExplicarIndices} del módulo benchmarks,
+ * que hace lo mismo contra MariaDB.
+ */
+class IndicesComprasTest {
+
+	private static final int CLIENTES = 200;
+	private static final int COMPRAS = 4_000;
+
+	private static final String CLIENTE = "SELECT c.id, c.fecha_compra, c.estado, c.precio_total, COUNT(ac.id_articulo) "
+			+ "FROM compras c LEFT JOIN articulo_compra ac ON ac.id_compra = c.id "
+			+ "WHERE c.id_cliente = ? AND c.fecha_compra >= ? AND c.fecha_compra < ? "
+			+ "GROUP BY c.id, c.fecha_compra, c.estado, c.precio_total ORDER BY c.fecha_compra, c.id";
+
+	private static final String ESTADO = "SELECT c.id, c.id_cliente, c.fecha_compra, c.precio_total, COUNT(ac.id_articulo) "
+			+ "FROM compras c LEFT JOIN articulo_compra ac ON ac.id_compra = c.id "
+			+ "WHERE c.estado = ? AND c.fecha_compra < ? "
+			+ "GROUP BY c.id, c.id_cliente, c.fecha_compra, c.precio_total ORDER BY c.fecha_compra, c.id LIMIT 100";
+
+	private static final String TRANSICION = "SELECT c.fecha_compra, c.id FROM compras c "
+			+ "WHERE c.estado = ? AND c.fecha_compra < ? "
+			+ "AND (c.fecha_compra > ? OR (c.fecha_compra = ? AND c.id > ?)) "
+			+ "ORDER BY c.fecha_compra, c.id LIMIT 1000";
+
+	/**
+	 * En H2 el plan es una sola fila con el SQL reescrito, donde a cada tabla
+	 * le sigue un comentario con el índice que recorre, p. ej.
+	 * {@code "COMPRAS" "C" /* PUBLIC.IDX_COMPRAS_ESTADO_FECHA: ESTADO = ?1}.
+	 */
+	private static final Pattern INDICE_H2 = Pattern.compile("\"COMPRAS\" \"C\"\\s*/\\*\\s*([^:*]+)");
+
+	private static final Timestamp DESDE = Timestamp.valueOf("2000-01-01 00:00:00");
+
+	private static EntityManagerFactory emf;
+
+	@BeforeAll
+	static void preparar() {
+		emf = BaseDatosH2.abrir("indices_compras", Map.of());
+		UnitOfWork uow = new UnitOfWork(emf);
+		List<Integer> articulos = uow.enTransaccion(em -> {
+			for (int i = 0; i < CLIENTES; i++) {
+				String nif = String.format("B%08d", i);
+				Cliente c = new Cliente(nif, "Cliente " + i, "cliente" + i + "@example.com");
+				c.setInformacionFiscal(new InformacionFiscal(nif, "600000000", "Calle " + i));
+				em.persist(c);
+			}
+			List<Integer> ids = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				Articulo a = new Articulo("indices-" + i, "Artículo " + i, Dinero.deCentimos(100 + i), 1_000_000);
+				em.persist(a);
+				ids.add(a.getId());
+			}
+			return ids;
+		});
+		List<NuevaCompra> compras = new ArrayList<>(COMPRAS);
+		for (int i = 0; i < COMPRAS; i++) {
+			compras.add(new NuevaCompra(String.format("B%08d", i % CLIENTES),
+					List.of(new NuevaCompra.Linea(articulos.get(i % articulos.size()), 1))));
+		}
+		new OrderIngestService(emf).ingest(compras);
+		// dos tercios avanzan de estado, para que cada estado sea una parte de la tabla
+		uow.ejecutar(em -> em.createQuery("UPDATE Compra c SET c.estado = :estado WHERE MOD(c.id, 3) <> 0")
+				.setParameter("estado", Compra.EstadoCompra.ENVIADO).executeUpdate());
+		uow.ejecutar(em -> em.createQuery("UPDATE Compra c SET c.estado = :estado WHERE MOD(c.id, 3) = 1")
+				.setParameter("estado", Compra.EstadoCompra.ENTREGADO).executeUpdate());
+		uow.ejecutar(em -> em.createNativeQuery("ANALYZE TABLE compras").executeUpdate());
+	}
+
+	@AfterAll
+	static void cerrar() {
+		emf.close();
+	}
+
+	@Test
+	void comprasDeUnClienteUsanElIndiceDeCliente() {
+		assertEquals("IDX_COMPRAS_CLIENTE_FECHA", indice(CLIENTE, "B00000001", DESDE, ahora()));
+	}
+
+	@Test
+	void comprasEnUnEstadoUsanElIndiceDeEstado() {
+		assertEquals("IDX_COMPRAS_ESTADO_FECHA", indice(ESTADO, "Pendiente", ahora()));
+	}
+
+	@Test
+	void paginaDeTransicionUsaElIndiceDeEstado() {
+		assertEquals("IDX_COMPRAS_ESTADO_FECHA", indice(TRANSICION, "Pendiente", ahora(), DESDE, DESDE, 0));
+	}
+
+	private static Timestamp ahora() {
+		return new Timestamp(System.currentTimeMillis());
+	}
+
+	/**
+	 * Índice, sin esquema, que recorre el plan de la consulta para
+	 * {@code compras c}.
+	 */
+	private static String indice(String sql, Object... params) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			String plan = em.unwrap(Session.class).doReturningWork(con -> {
+				try (PreparedStatement ps = con.prepareStatement("EXPLAIN " + sql)) {
+					for (int i = 0; i < params.length; i++) {
+						ps.setObject(i + 1, params[i]);
+					}
+					try (ResultSet rs = ps.executeQuery()) {
+						return rs.next() ? rs.getString(1) : "";
+					}
+				}
+			});
+			Matcher m = INDICE_H2.matcher(plan.toUpperCase(Locale.ROOT));
+			assertTrue(m.find(), "sin índice para compras en el plan: " + plan);
+			String clave = m.group(1).trim();
+			return clave.substring(clave.lastIndexOf('.') + 1);
+		} finally {
+			em.close();
+		}
+	}
+}
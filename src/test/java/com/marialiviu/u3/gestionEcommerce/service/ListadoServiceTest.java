@@ -0,0 +1,117 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Los listados de compras hacen un número de consultas que depende de las
+ * páginas y no de las compras: con 20 y con 400 compras en una página,
+ * {@code resumenCompras()} prepara una sentencia y {@code compras()}, aunque se
+ * recorran el cliente y las líneas de cada compra, dos.
+ */
+class ListadoServiceTest {
+
+	private static final int LINEAS = 3;
+
+	private EntityManagerFactory emf;
+	private Statistics stats;
+	private List<Integer> articulos;
+
+	@BeforeEach
+	void abrir() {
+		emf = BaseDatosH2.abrir("listado_servicio", Map.of("hibernate.generate_statistics", "true"));
+		stats = emf.unwrap(SessionFactory.class).getStatistics();
+		articulos = new UnitOfWork(emf).enTransaccion(em -> {
+			Cliente c = new Cliente("B00000001", "Cliente listado", "listado@example.com");
+			c.setInformacionFiscal(new InformacionFiscal("B00000001", "600000000", "Calle 1"));
+			em.persist(c);
+			List<Integer> ids = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				Articulo a = new Articulo("listado-" + i, "Artículo " + i, Dinero.deCentimos(100 + i), 1_000_000);
+				em.persist(a);
+				ids.add(a.getId());
+			}
+			return ids;
+		});
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	@Test
+	void resumenComprasPreparaUnaSentenciaPorPagina() {
+		crearCompras(20);
+		assertEquals(1, sentencias(() -> recorrerResumen(new ListadoService(emf), 20)));
+
+		crearCompras(380);
+		assertEquals(1, sentencias(() -> recorrerResumen(new ListadoService(emf), 400)));
+		// cuatro páginas llenas y una vacía que termina el recorrido
+		assertEquals(5, sentencias(() -> recorrerResumen(new ListadoService(emf, 100), 400)));
+	}
+
+	@Test
+	void comprasCargaClienteYLineasEnDosSentencias() {
+		crearCompras(20);
+		assertEquals(2, sentencias(() -> recorrerCompras(new ListadoService(emf), 20)));
+
+		crearCompras(380);
+		assertEquals(2, sentencias(() -> recorrerCompras(new ListadoService(emf), 400)));
+	}
+
+	private long sentencias(Runnable recorrido) {
+		stats.clear();
+		recorrido.run();
+		return stats.getPrepareStatementCount();
+	}
+
+	private static void recorrerResumen(ListadoService listado, int esperadas) {
+		long n = listado.resumenCompras().filter(r -> r.numLineas() == LINEAS).count();
+		assertEquals(esperadas, n, "compras de " + LINEAS + " líneas en resumenCompras");
+	}
+
+	private static void recorrerCompras(ListadoService listado, int esperadas) {
+		long n = listado.compras().filter(c -> usar(c) == LINEAS).count();
+		assertEquals(esperadas, n, "compras completas en compras()");
+	}
+
+	/**
+	 * Toca el cliente y las líneas, como haría quien las muestra.
+	 */
+	private static int usar(Compra c) {
+		assertNotNull(c.getCliente().getNombreCompleto(), "compra " + c.getId() + " sin cliente");
+		return (int) c.getArticuloCompras().stream().filter(ac -> ac.getArticulo().getNombre() != null).count();
+	}
+
+	private void crearCompras(int n) {
+		List<NuevaCompra> compras = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			List<NuevaCompra.Linea> lineas = new ArrayList<>(LINEAS);
+			for (int j = 0; j < LINEAS; j++) {
+				lineas.add(new NuevaCompra.Linea(articulos.get((i + j) % articulos.size()), 1));
+			}
+			compras.add(new NuevaCompra("B00000001", lineas));
+		}
+		new OrderIngestService(emf).ingest(compras);
+	}
+}
@@ -0,0 +1,162 @@
+package com.marialiviu.u3.gestionEcommerce.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.model.Articulo;
+import com.marialiviu.u3.gestionEcommerce.model.Cliente;
+import com.marialiviu.u3.gestionEcommerce.model.Compra;
+import com.marialiviu.u3.gestionEcommerce.model.Dinero;
+import com.marialiviu.u3.gestionEcommerce.model.InformacionFiscal;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Una reserva sin stock suficiente falla entera sin tocar ningún artículo, y
+ * con muchos hilos comprando el mismo artículo hasta agotarlo nunca se vende
+ * de más. Al borrar una compra PENDIENTE sus unidades vuelven al stock; las de
+ * una compra enviada, no.
+ */
+class StockReservationServiceTest {
+
+	private static final int HILOS = 16;
+	private static final int STOCK = 3_000;
+
+	private EntityManagerFactory emf;
+	private StockReservationService stock;
+
+	@BeforeEach
+	void abrir() {
+		emf = BaseDatosH2.abrir("reserva_stock", Map.of());
+		stock = new StockReservationService(emf);
+	}
+
+	@AfterEach
+	void cerrar() {
+		emf.close();
+	}
+
+	/**
+	 * Dos artículos en la misma reserva y sólo el segundo sin stock suficiente:
+	 * se señala el segundo y el primero tampoco se descuenta.
+	 */
+	@Test
+	void reservaSinStockNoDescuentaNada() {
+		int conStock = crearArticulo(5);
+		int sinStock = crearArticulo(5);
+
+		StockInsuficienteException e = assertThrows(StockInsuficienteException.class,
+				() -> reservar(new TreeMap<>(Map.of(conStock, 3, sinStock, 6))));
+		assertEquals(sinStock, e.getIdArticulo());
+		assertEquals(5, leerStock(conStock), "la reserva fallida descontó el otro artículo");
+		assertEquals(5, leerStock(sinStock), "la reserva fallida descontó el artículo sin stock");
+
+		reservar(Map.of(sinStock, 5));
+		assertEquals(0, leerStock(sinStock));
+	}
+
+	@Test
+	void ventasConcurrentesNoVendenDeMas() throws InterruptedException {
+		int id = crearArticulo(STOCK);
+
+		LongAdder vendidas = new LongAdder();
+		List<Thread> ts = new ArrayList<>();
+		for (int h = 0; h < HILOS; h++) {
+			Thread t = new Thread(() -> {
+				int fallosSeguidos = 0;
+				while (fallosSeguidos < 20) {
+					int uds = 1 + ThreadLocalRandom.current().nextInt(3);
+					try {
+						reservar(Map.of(id, uds));
+						vendidas.add(uds);
+						fallosSeguidos = 0;
+					} catch (StockInsuficienteException e) {
+						fallosSeguidos++;
+					}
+				}
+			});
+			ts.add(t);
+			t.start();
+		}
+		for (Thread t : ts) t.join();
+
+		int stockFinal = leerStock(id);
+		assertTrue(stockFinal >= 0, "stock negativo " + stockFinal);
+		assertEquals(STOCK - vendidas.sum(), stockFinal, vendidas.sum() + " vendidas de " + STOCK);
+	}
+
+	@Test
+	void borrarCompraPendienteDevuelveElStock() {
+		crearCliente();
+		int a = crearArticulo(10);
+		int b = crearArticulo(10);
+		OrderService servicio = new OrderService(emf);
+
+		Compra pendiente = servicio.crear(new NuevaCompra("B00000007",
+				List.of(new NuevaCompra.Linea(a, 3), new NuevaCompra.Linea(b, 2))));
+		assertEquals(7, leerStock(a));
+		assertEquals(8, leerStock(b));
+		assertTrue(servicio.borrar(pendiente.getId()));
+		assertEquals(10, leerStock(a));
+		assertEquals(10, leerStock(b));
+	}
+
+	@Test
+	void borrarCompraEnviadaNoDevuelveElStock() {
+		crearCliente();
+		int a = crearArticulo(10);
+		OrderService servicio = new OrderService(emf);
+
+		Compra enviada = servicio.crear(new NuevaCompra("B00000007", List.of(new NuevaCompra.Linea(a, 4))));
+		new UnitOfWork(emf).ejecutar(em -> em.createQuery("UPDATE Compra c SET c.estado = :estado WHERE c.id = :id")
+				.setParameter("estado", Compra.EstadoCompra.ENVIADO).setParameter("id", enviada.getId())
+				.executeUpdate());
+		assertTrue(servicio.borrar(enviada.getId()));
+		assertEquals(6, leerStock(a));
+	}
+
+	private void reservar(Map<Integer, Integer> unidades) {
+		new UnitOfWork(emf).ejecutar(em -> stock.reservar(em, unidades));
+	}
+
+	private void crearCliente() {
+		new UnitOfWork(emf).ejecutar(em -> {
+			Cliente c = new Cliente("B00000007", "Cliente borrados", "borrados@example.com");
+			c.setInformacionFiscal(new InformacionFiscal("B00000007", "600000007", "Calle 7"));
+			em.persist(c);
+		});
+	}
+
+	private int crearArticulo(int unidades) {
+		return new UnitOfWork(emf).enTransaccion(em -> {
+			Articulo a = new Articulo("reserva-stock", "Artículo de la prueba de stock", Dinero.deCentimos(100),
+					unidades);
+			em.persist(a);
+			return a.getId();
+		});
+	}
+
+	private int leerStock(int id) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			return em.createQuery("SELECT a.stock FROM Articulo a WHERE a.id = :id", Integer.class)
+					.setParameter("id", id).getSingleResult();
+		} finally {
+			em.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.marialiviu.u3.gestionEcommerce.sql;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.marialiviu.u3.gestionEcommerce.BaseDatosH2;
+import com.marialiviu.u3.gestionEcommerce.service.UnitOfWork;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+/**
+ * {@link EnrutadorLecturas} con la principal y dos réplicas en H2 en memoria,
+ * distinguidas por el nombre de la base de datos que devuelve cada lectura:
+ * <ul>
+ * <li>una réplica que no existe se marca caída, no se vuelve a probar hasta
+ * pasado {@value #REINTENTO_S} s y, una vez creada, vuelve a recibir
+ * lecturas;</li>
+ * <li>una lectura justo después de escribir va a la principal y, pasado el
+ * margen, otra vez a las réplicas;</li>
+ * <li>{@link EnrutadorLecturas#enPrincipal} lleva las lecturas a la
+ * principal;</li>
+ * <li>con todas las conexiones de las réplicas prestadas la lectura va a la
+ * principal, pero las réplicas no se marcan caídas.</li>
+ * </ul>
+ */
+class EnrutadorLecturasTest {
+
+	private static final long PEGAJOSO_MS = 300;
+	private static final int REINTENTO_S = 1;
+	private static final int CONEXIONES_POR_POOL = 2;
+	/**
+	 * Lo más que tarda Hikari en volver a intentar conectar la réplica 2.
+	 */
+	private static final int ESPERA_HIKARI_S = 10;
+
+	@Test
+	void enrutaSegunReplicasDisponiblesYEscrituras() throws Exception {
+		// la segunda réplica no existe hasta que se crea más abajo
+		EntityManagerFactory emf = abrir("enrutador", false);
+		Connection creaReplica2 = null;
+		try {
+			UnitOfWork uow = new UnitOfWork(emf);
+			EnrutadorLecturas enrutador = EnrutadorLecturas.de(emf);
+			assertNotNull(enrutador, "la factoría no tiene enrutador de lecturas");
+			EnrutadorLecturas.Replica r2 = enrutador.getReplicas().get(1);
+			// la creación del esquema cuenta como escritura de este hilo
+			Thread.sleep(PEGAJOSO_MS + 100);
+
+			// réplica caída: todo a la primera, sin volver a probar la segunda
+			List<String> lecturas = leer(uow, 4);
+			assertTrue(lecturas.stream().allMatch(replica("enrutador", 1)::equals),
+					"con la réplica 2 caída se leyó de " + lecturas);
+			assertTrue(r2.isCaida(), "la réplica 2 no se marcó caída");
+			assertEquals(1, r2.getFallos(), "veces que se probó la réplica 2 antes de " + REINTENTO_S + " s");
+
+			// pasado el reintento, la réplica ya creada vuelve al turno en cuanto
+			// Hikari, que espera cada vez más entre intentos fallidos, la conecta
+			creaReplica2 = DriverManager.getConnection("jdbc:h2:mem:enrutador_r2;DB_CLOSE_DELAY=-1", "sa", "");
+			Thread.sleep(REINTENTO_S * 1000L + 200);
+			long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(ESPERA_HIKARI_S);
+			do {
+				lecturas = leer(uow, 4);
+			} while (!lecturas.contains(replica("enrutador", 2)) && System.nanoTime() - limite < 0);
+			assertTrue(lecturas.contains(replica("enrutador", 1)) && lecturas.contains(replica("enrutador", 2)),
+					"con las dos réplicas activas se leyó de " + lecturas + " (" + r2.getUltimoError() + ")");
+			assertFalse(r2.isCaida(), "la réplica 2 sigue caída después del reintento");
+
+			// leer lo propio: tras escribir, a la principal durante el margen
+			String principal = principal("enrutador");
+			uow.ejecutar(em -> em.createNativeQuery("UPDATE secuencias SET siguiente_valor = siguiente_valor")
+					.executeUpdate());
+			long pegadas = enrutador.getPegadas();
+			assertEquals(principal, donde(uow), "lectura tras escribir");
+			assertEquals(pegadas + 1, enrutador.getPegadas(), "lecturas tras escribir contadas");
+			Thread.sleep(PEGAJOSO_MS + 100);
+			assertNotEquals(principal, donde(uow), "pasado el margen la lectura sigue en la principal");
+
+			assertEquals(principal, EnrutadorLecturas.enPrincipal(() -> donde(uow)), "lectura de enPrincipal");
+		} finally {
+			emf.close();
+			if (creaReplica2 != null) creaReplica2.close();
+		}
+	}
+
+	/**
+	 * Otros hilos se quedan con todas las conexiones de las dos réplicas: la
+	 * lectura acaba en la principal sin marcarlas caídas, y al devolverlas
+	 * vuelve a ir a ellas.
+	 */
+	@Test
+	void replicasOcupadasNoSeMarcanCaidas() throws Exception {
+		EntityManagerFactory emf = abrir("ocupadas", true);
+		try {
+			UnitOfWork uow = new UnitOfWork(emf);
+			EnrutadorLecturas enrutador = EnrutadorLecturas.de(emf);
+			String principal = principal("ocupadas");
+			Thread.sleep(PEGAJOSO_MS + 100);
+
+			int hilos = CONEXIONES_POR_POOL * enrutador.getReplicas().size();
+			CountDownLatch prestadas = new CountDownLatch(hilos);
+			CountDownLatch soltar = new CountDownLatch(1);
+			List<String> dondeHilos = new ArrayList<>();
+			List<Thread> ts = new ArrayList<>();
+			for (int h = 0; h < hilos; h++) {
+				Thread t = new Thread(() -> {
+					String bd = uow.soloLectura(em -> {
+						String r = (String) em.createNativeQuery("SELECT DATABASE()").getSingleResult();
+						prestadas.countDown();
+						try {
+							soltar.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return r;
+					});
+					synchronized (dondeHilos) {
+						dondeHilos.add(bd);
+					}
+				});
+				ts.add(t);
+				t.start();
+			}
+			prestadas.await();
+			long fallos = fallos(enrutador);
+			long sinReplica = enrutador.getSinReplica();
+			String bd = donde(uow);
+			soltar.countDown();
+			for (Thread t : ts) t.join();
+
+			assertFalse(dondeHilos.contains(principal), "los hilos que ocupan las réplicas leyeron de " + dondeHilos);
+			assertEquals(principal, bd, "lectura con las réplicas ocupadas");
+			assertEquals(sinReplica + 1, enrutador.getSinReplica(), "lecturas sin réplica contadas");
+			for (EnrutadorLecturas.Replica r : enrutador.getReplicas()) {
+				assertFalse(r.isCaida(), "réplica ocupada marcada caída: " + r.getUrl());
+				assertTrue(r.getOcupada() > 0, "no se contó la réplica ocupada: " + r.getUrl());
+			}
+			assertEquals(fallos, fallos(enrutador), "una réplica ocupada se contó como fallo");
+			assertNotEquals(principal, donde(uow), "devueltas las conexiones la lectura sigue en la principal");
+		} finally {
+			emf.close();
+		}
+	}
+
+	/**
+	 * Factoría con la principal {@code <nombre>_principal} y las réplicas
+	 * {@code <nombre>_r1} y {@code <nombre>_r2}.
+	 * @param replica2Existe si es falso la segunda réplica no se crea al
+	 * conectarse a ella, y hasta que otro la cree está caída.
+	 */
+	private static EntityManagerFactory abrir(String nombre, boolean replica2Existe) {
+		Map<String, Object> props = new HashMap<>(BaseDatosH2.propiedades(nombre + "_principal"));
+		props.put(EnrutadorLecturas.URLS, "jdbc:h2:mem:" + nombre + "_r1;DB_CLOSE_DELAY=-1 "
+				+ "jdbc:h2:mem:" + nombre + "_r2;" + (replica2Existe ? "" : "IFEXISTS=TRUE;") + "DB_CLOSE_DELAY=-1");
+		props.put(EnrutadorLecturas.PEGAJOSO_MS, String.valueOf(PEGAJOSO_MS));
+		props.put(EnrutadorLecturas.REINTENTO_S, String.valueOf(REINTENTO_S));
+		props.put(EnrutadorLecturas.ESPERA_MS, "250");
+		props.put("hibernate.hikari.maximumPoolSize", String.valueOf(CONEXIONES_POR_POOL));
+		props.put("hibernate.hikari.minimumIdle", "1");
+		return Persistence.createEntityManagerFactory("ecommerce-jpa-pu", props);
+	}
+
+	private static String principal(String nombre) {
+		return (nombre + "_principal").toUpperCase(Locale.ROOT);
+	}
+
+	private static String replica(String nombre, int n) {
+		return (nombre + "_r" + n).toUpperCase(Locale.ROOT);
+	}
+
+	private static long fallos(EnrutadorLecturas enrutador) {
+		return enrutador.getReplicas().stream().mapToLong(EnrutadorLecturas.Replica::getFallos).sum();
+	}
+
+	private static List<String> leer(UnitOfWork uow, int n) {
+		List<String> r = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			r.add(donde(uow));
+		}
+		return r;
+	}
+
+	/**
+	 * Base de datos de la que lee {@code UnitOfWork.soloLectura}.
+	 */
+	private static String donde(UnitOfWork uow) {
+		return uow.soloLectura(em -> (String) em.createNativeQuery("SELECT DATABASE()").getSingleResult());
+	}
+}
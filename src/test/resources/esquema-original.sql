@@ -0,0 +1,57 @@
+-- Esquema del script original de creación de tablas
+-- (gestion-ecommerce-create-table-script.sql antes de las migraciones), sin
+-- los DROP del principio. MigracionesEsquemaTest parte de él para comprobar que
+-- las migraciones actualizan una base de datos existente.
+
+CREATE TABLE IF NOT EXISTS informacion_fiscal(
+	nif_cif VARCHAR(9) PRIMARY KEY NOT NULL UNIQUE,
+	telefono VARCHAR(9) NOT NULL UNIQUE,
+	direccion VARCHAR(150) NOT NULL
+)
+ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS clientes (
+	nif_cif VARCHAR(9) PRIMARY KEY NOT NULL UNIQUE,
+	nombre_completo VARCHAR(100) NOT NULL UNIQUE,
+	email VARCHAR(150) NOT NULL UNIQUE,
+	fecha_creacion DATETIME,
+	FOREIGN KEY (nif_cif) REFERENCES informacion_fiscal(nif_cif)
+	ON UPDATE CASCADE
+	ON DELETE CASCADE
+)
+ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS compras (
+	id INT PRIMARY KEY AUTO_INCREMENT,
+	id_cliente VARCHAR(9) NOT NULL DEFAULT '',
+	direccion VARCHAR(150),
+	fecha_compra DATETIME NOT NULL,
+	estado ENUM('Pendiente', 'Enviado', 'Entregado') NOT NULL,
+	precio_total DECIMAL NOT NULL,
+	FOREIGN KEY (id_cliente) REFERENCES clientes(nif_cif)
+	ON DELETE SET DEFAULT
+)
+ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS articulos (
+	id INT PRIMARY KEY AUTO_INCREMENT,
+	nombre VARCHAR(100) NOT NULL,
+	descripcion VARCHAR(150),
+	precio_actual DECIMAL NOT NULL,
+	stock INT NOT NULL
+)
+ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS articulo_compra (
+	id_compra INT NOT NULL,
+	id_articulo INT NOT NULL,
+	PRIMARY KEY (id_compra, id_articulo),
+	unidades INT NOT NULL,
+	precio_compra DECIMAL NOT NULL,
+	FOREIGN KEY (id_compra) REFERENCES compras(id)
+	ON DELETE RESTRICT,
+	FOREIGN KEY (id_articulo) REFERENCES articulos(id)
+	ON UPDATE CASCADE
+	ON DELETE RESTRICT
+)
+ENGINE=InnoDB;